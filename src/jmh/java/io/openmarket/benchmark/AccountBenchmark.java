@@ -0,0 +1,55 @@
+package io.openmarket.benchmark;
+
+import io.openmarket.account.grpc.AccountService.LoginRequest;
+import io.openmarket.account.grpc.AccountService.LoginResult;
+import io.openmarket.account.grpc.AccountService.RegistrationRequest;
+import io.openmarket.account.service.AccountServiceHandler;
+import io.openmarket.account.service.CredentialManager;
+import io.openmarket.transaction.outbox.OutboxRelay;
+import io.openmarket.transaction.service.TransactionServiceHandler;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+@State(Scope.Benchmark)
+public class AccountBenchmark {
+    private static final String USERNAME = "benchmark";
+    private static final String PASSWORD = "password";
+
+    private OutboxRelay outboxRelay;
+    private AccountServiceHandler handler;
+    private LoginRequest request;
+
+    @Setup
+    public void setup() {
+        this.outboxRelay = InMemoryDaos.startOutboxRelay("queue");
+        final TransactionServiceHandler transactionServiceHandler = TransactionServiceHandler.builder()
+                .transactionDao(new InMemoryDaos.TransactionStore())
+                .walletDao(new InMemoryDaos.WalletStore())
+                .taskPublisher(InMemoryDaos.discardingTaskPublisher())
+                .queueURL("queue")
+                .outboxRelay(outboxRelay)
+                .build();
+        this.handler = new AccountServiceHandler(new InMemoryDaos.UserStore(),
+                new CredentialManager(24), transactionServiceHandler);
+        handler.register(RegistrationRequest.newBuilder()
+                .setUsername(USERNAME)
+                .setPassword(PASSWORD)
+                .setDisplayName(USERNAME)
+                .setPortraitS3Key("portrait")
+                .build());
+        this.request = LoginRequest.newBuilder().setUsername(USERNAME).setPassword(PASSWORD).build();
+    }
+
+    @TearDown
+    public void tearDown() {
+        outboxRelay.stop();
+    }
+
+    @Benchmark
+    public LoginResult login() {
+        return handler.login(request);
+    }
+}
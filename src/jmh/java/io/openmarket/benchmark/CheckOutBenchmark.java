@@ -0,0 +1,108 @@
+package io.openmarket.benchmark;
+
+import com.google.common.collect.ImmutableMap;
+import io.openmarket.marketplace.MarketPlaceServiceHandler;
+import io.openmarket.marketplace.grpc.MarketPlaceProto;
+import io.openmarket.marketplace.model.Item;
+import io.openmarket.organization.OrgServiceHandler;
+import io.openmarket.organization.model.Organization;
+import io.openmarket.transaction.outbox.OutboxRelay;
+import io.openmarket.transaction.service.PaymentCompletionRegistry;
+import io.openmarket.transaction.service.TransactionServiceHandler;
+import io.openmarket.wallet.model.Wallet;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Checks out carts of various sizes spread over various numbers of organizations. Payments are never settled, so
+ * every order ends up action-required without waiting.
+ */
+@State(Scope.Benchmark)
+public class CheckOutBenchmark {
+    private static final String BUYER_ID = "buyer";
+    private static final String CURRENCY = "DashCoin";
+    private static final String QUEUE_URL = "queue";
+
+    @Param({"1", "10", "100"})
+    public int cartSize;
+
+    @Param({"1", "5"})
+    public int orgCount;
+
+    private final InMemoryDaos.TransactionStore transactionStore = new InMemoryDaos.TransactionStore();
+    private final InMemoryDaos.OrderStore orderStore = new InMemoryDaos.OrderStore();
+    private OutboxRelay outboxRelay;
+    private MarketPlaceServiceHandler handler;
+    private MarketPlaceProto.CheckOutRequest request;
+
+    @Setup
+    public void setup() {
+        this.outboxRelay = InMemoryDaos.startOutboxRelay(QUEUE_URL);
+        final InMemoryDaos.ItemStore itemStore = new InMemoryDaos.ItemStore();
+        final InMemoryDaos.OrgStore orgStore = new InMemoryDaos.OrgStore();
+        final InMemoryDaos.WalletStore walletStore = new InMemoryDaos.WalletStore();
+        final Map<Integer, Integer> cart = new HashMap<>();
+        for (int org = 0; org < orgCount; org++) {
+            orgStore.save(Organization.builder()
+                    .orgName("org-" + org)
+                    .orgCurrency(CURRENCY)
+                    .orgOwnerId("owner-" + org)
+                    .orgDescription("")
+                    .orgPosterS3Key("")
+                    .orgPortraitS3Key("")
+                    .build());
+        }
+        for (int itemId = 0; itemId < cartSize; itemId++) {
+            itemStore.save(Item.builder().itemID(itemId).itemName("item-" + itemId)
+                    .belongTo("org-" + (itemId % orgCount)).itemPrice(1.0).stock(Integer.MAX_VALUE).build());
+            cart.put(itemId, 1);
+        }
+        walletStore.save(Wallet.builder().ownerId(BUYER_ID).coins(ImmutableMap.of(CURRENCY, Double.MAX_VALUE))
+                .build());
+
+        final TransactionServiceHandler transactionServiceHandler = TransactionServiceHandler.builder()
+                .transactionDao(transactionStore)
+                .walletDao(walletStore)
+                .taskPublisher(InMemoryDaos.discardingTaskPublisher())
+                .queueURL(QUEUE_URL)
+                .outboxRelay(outboxRelay)
+                .build();
+        this.handler = MarketPlaceServiceHandler.builder()
+                .itemDao(itemStore)
+                .orderDao(orderStore)
+                .orgServiceHandler(new OrgServiceHandler(orgStore))
+                .transactionServiceHandler(transactionServiceHandler)
+                .paymentCompletionRegistry(new PaymentCompletionRegistry())
+                .paymentTimeoutMillis(0)
+                .build();
+        this.request = MarketPlaceProto.CheckOutRequest.newBuilder().putAllItems(cart).build();
+    }
+
+    @TearDown
+    public void tearDown() {
+        outboxRelay.stop();
+    }
+
+    /**
+     * Every checkout adds orders and payments, so drop them between iterations to keep later ones from
+     * paying for a bigger heap.
+     */
+    @Setup(Level.Iteration)
+    public void clearStores() {
+        transactionStore.clear();
+        orderStore.clear();
+    }
+
+    @Benchmark
+    public MarketPlaceProto.CheckOutResult checkout() {
+        return handler.checkout(BUYER_ID, request);
+    }
+}
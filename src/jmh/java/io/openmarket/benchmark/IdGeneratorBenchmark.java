@@ -0,0 +1,28 @@
+package io.openmarket.benchmark;
+
+import io.openmarket.utils.IdGenerator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.UUID;
+
+/**
+ * Generates IDs from many threads with random UUIDs, which share one SecureRandom, and with the IdGenerator.
+ */
+@State(Scope.Benchmark)
+@Threads(8)
+public class IdGeneratorBenchmark {
+    private final IdGenerator generator = new IdGenerator(1);
+
+    @Benchmark
+    public String uuid() {
+        return UUID.randomUUID().toString();
+    }
+
+    @Benchmark
+    public String idGenerator() {
+        return generator.next();
+    }
+}
@@ -0,0 +1,401 @@
+package io.openmarket.benchmark;
+
+import com.amazonaws.services.dynamodbv2.datamodeling.TransactionWriteRequest;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
+import com.amazonaws.services.dynamodbv2.model.QueryRequest;
+import com.amazonaws.services.dynamodbv2.model.QueryResult;
+import com.amazonaws.services.dynamodbv2.model.UpdateItemRequest;
+import com.amazonaws.services.sqs.AbstractAmazonSQS;
+import com.amazonaws.services.sqs.AmazonSQS;
+import com.amazonaws.services.sqs.model.SendMessageBatchRequest;
+import com.amazonaws.services.sqs.model.SendMessageBatchRequestEntry;
+import com.amazonaws.services.sqs.model.SendMessageBatchResult;
+import com.amazonaws.services.sqs.model.SendMessageBatchResultEntry;
+import com.amazonaws.services.sqs.model.SendMessageRequest;
+import com.amazonaws.services.sqs.model.SendMessageResult;
+import io.openmarket.account.dynamodb.UserDao;
+import io.openmarket.account.model.Account;
+import io.openmarket.config.OrgConfig;
+import io.openmarket.marketplace.dao.ItemDao;
+import io.openmarket.marketplace.model.Item;
+import io.openmarket.order.dao.OrderDao;
+import io.openmarket.order.model.Order;
+import io.openmarket.organization.dao.OrgDao;
+import io.openmarket.organization.model.Organization;
+import io.openmarket.stamp.dao.dynamodb.StampEventDao;
+import io.openmarket.stamp.model.StampEvent;
+import io.openmarket.transaction.dao.dynamodb.TransactionDao;
+import io.openmarket.transaction.dao.sqs.SQSTransactionTaskPublisher;
+import io.openmarket.transaction.model.Transaction;
+import io.openmarket.transaction.outbox.OutboxDao;
+import io.openmarket.transaction.outbox.OutboxRecord;
+import io.openmarket.transaction.outbox.OutboxRelay;
+import io.openmarket.transaction.queue.TransactionTaskPublisher;
+import io.openmarket.wallet.dao.dynamodb.WalletDao;
+import io.openmarket.wallet.model.Wallet;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+/**
+ * In-memory stand-ins for the DAOs, so benchmarks measure the service handlers instead of the network.
+ * Every DAO method is backed by the stores' maps, so a handler change that starts calling another one is still
+ * measured rather than crashing the benchmark.
+ */
+public final class InMemoryDaos {
+    private InMemoryDaos() {}
+
+    /**
+     * An SQS client that accepts and drops every message.
+     */
+    public static AmazonSQS discardingSQS() {
+        return new AbstractAmazonSQS() {
+            @Override
+            public SendMessageResult sendMessage(SendMessageRequest request) {
+                return new SendMessageResult();
+            }
+
+            @Override
+            public SendMessageResult sendMessage(String queueUrl, String messageBody) {
+                return new SendMessageResult();
+            }
+
+            @Override
+            public SendMessageBatchResult sendMessageBatch(SendMessageBatchRequest request) {
+                final List<SendMessageBatchResultEntry> successful = new ArrayList<>();
+                for (SendMessageBatchRequestEntry entry : request.getEntries()) {
+                    successful.add(new SendMessageBatchResultEntry().withId(entry.getId()));
+                }
+                return new SendMessageBatchResult().withSuccessful(successful);
+            }
+        };
+    }
+
+    /**
+     * Get a task publisher that sends to {@link #discardingSQS()}.
+     */
+    public static TransactionTaskPublisher discardingTaskPublisher() {
+        return TransactionTaskPublisher.of(new SQSTransactionTaskPublisher(discardingSQS()));
+    }
+
+    /**
+     * Start an outbox relay that sends to {@link #discardingSQS()}. Stop it when the benchmark is torn down.
+     */
+    public static OutboxRelay startOutboxRelay(final String queueUrl) {
+        final OutboxRelay relay = new OutboxRelay(discardingSQS(), queueUrl, new OutboxStore());
+        relay.start();
+        return relay;
+    }
+
+    public static class ItemStore implements ItemDao {
+        private final ConcurrentMap<Integer, Item> items = new ConcurrentHashMap<>();
+        private final ConcurrentMap<Integer, AtomicInteger> stock = new ConcurrentHashMap<>();
+
+        public void save(final Item item) {
+            items.put(item.getItemID(), item);
+            stock.put(item.getItemID(), new AtomicInteger(item.getStock()));
+        }
+
+        @Override
+        public List<Integer> getItemIdsByOrg(final String orgId) {
+            final List<Integer> result = new ArrayList<>();
+            for (Item item : items.values()) {
+                if (item.getBelongTo().equals(orgId)) {
+                    result.add(item.getItemID());
+                }
+            }
+            return result;
+        }
+
+        @Override
+        public List<Item> batchLoad(final Collection<Integer> itemIds, final Collection<Integer> failedItemIds) {
+            final List<Item> result = new ArrayList<>();
+            for (Integer itemId : itemIds) {
+                final Item item = items.get(itemId);
+                if (item == null) {
+                    failedItemIds.add(itemId);
+                } else {
+                    result.add(item);
+                }
+            }
+            return result;
+        }
+
+        @Override
+        public List<Integer> updateItemStock(final Map<Integer, Integer> decrements) {
+            final List<Integer> failedItemIds = new ArrayList<>();
+            for (Map.Entry<Integer, Integer> entry : decrements.entrySet()) {
+                final AtomicInteger remaining = stock.get(entry.getKey());
+                if (remaining == null || remaining.addAndGet(-entry.getValue()) < 0) {
+                    if (remaining != null) {
+                        remaining.addAndGet(entry.getValue());
+                    }
+                    failedItemIds.add(entry.getKey());
+                }
+            }
+            return failedItemIds;
+        }
+
+        @Override
+        public List<Item> getAllItemsRankedByPurchasedCount(final int limit, final String category) {
+            return items.values().stream()
+                    .filter(item -> category == null || category.isEmpty() || category.equals(item.getItemCategory()))
+                    .sorted(Comparator.comparing(Item::getPurchasedCount,
+                            Comparator.nullsFirst(Comparator.naturalOrder())).reversed())
+                    .limit(limit)
+                    .collect(Collectors.toList());
+        }
+    }
+
+    public static class OrderStore implements OrderDao {
+        private final ConcurrentMap<String, Order> orders = new ConcurrentHashMap<>();
+
+        @Override
+        public void save(final Order order) {
+            orders.put(order.getOrderId(), order);
+        }
+
+        public Optional<Order> load(final String orderId) {
+            return Optional.ofNullable(orders.get(orderId));
+        }
+
+        @Override
+        public List<Order> batchLoad(final Collection<String> orderIds) {
+            final List<Order> result = new ArrayList<>();
+            for (String orderId : orderIds) {
+                load(orderId).ifPresent(result::add);
+            }
+            return result;
+        }
+
+        @Override
+        public Map<String, AttributeValue> getOrderByBuyer(final String buyerId,
+                                                           final Map<String, AttributeValue> exclusiveStartKey,
+                                                           final Collection<String> orderIds, final int maxCount) {
+            return findOrders(order -> order.getBuyerId().equals(buyerId), orderIds, maxCount);
+        }
+
+        @Override
+        public Map<String, AttributeValue> getOrderBySeller(final String sellerId,
+                                                            final Map<String, AttributeValue> exclusiveStartKey,
+                                                            final Collection<String> orderIds, final int maxCount) {
+            return findOrders(order -> order.getSellerId().equals(sellerId), orderIds, maxCount);
+        }
+
+        // The whole result fits in one page, so there is never a key to continue from.
+        private Map<String, AttributeValue> findOrders(final Predicate<Order> predicate,
+                                                       final Collection<String> orderIds, final int maxCount) {
+            orders.values().stream().filter(predicate).limit(maxCount).map(Order::getOrderId).forEach(orderIds::add);
+            return null;
+        }
+
+        public void clear() {
+            orders.clear();
+        }
+    }
+
+    public static class TransactionStore implements TransactionDao {
+        private final ConcurrentMap<String, Transaction> transactions = new ConcurrentHashMap<>();
+
+        @Override
+        public void save(final Transaction transaction) {
+            transactions.put(transaction.getTransactionId(), transaction);
+        }
+
+        @Override
+        public void delete(final Transaction transaction) {
+            transactions.remove(transaction.getTransactionId());
+        }
+
+        // Only transactions are kept, other records written alongside them are dropped.
+        @Override
+        public void transactionWrite(final TransactionWriteRequest request) {
+            for (TransactionWriteRequest.TransactionWriteOperation operation : request.getTransactionWriteOperations()) {
+                if (!(operation.getObject() instanceof Transaction)) {
+                    continue;
+                }
+                final Transaction transaction = (Transaction) operation.getObject();
+                if (operation.getTransactionWriteOperationType()
+                        == TransactionWriteRequest.TransactionWriteOperationType.Delete) {
+                    delete(transaction);
+                } else {
+                    save(transaction);
+                }
+            }
+        }
+
+        @Override
+        public Optional<Transaction> load(final String transactionId) {
+            return Optional.ofNullable(transactions.get(transactionId));
+        }
+
+        @Override
+        public Map<String, AttributeValue> getTransactionForPayer(final String payerId,
+                                                                  final Collection<Transaction> result,
+                                                                  final Map<String, AttributeValue> exclusiveStartKey) {
+            for (Transaction transaction : transactions.values()) {
+                if (transaction.getPayerId().equals(payerId)) {
+                    result.add(transaction);
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public Map<String, AttributeValue> getTransactionForRecipient(final String recipientId,
+                                                                      final Collection<Transaction> result,
+                                                                      final Map<String, AttributeValue> exclusiveStartKey) {
+            for (Transaction transaction : transactions.values()) {
+                if (transaction.getRecipientId().equals(recipientId)) {
+                    result.add(transaction);
+                }
+            }
+            return null;
+        }
+
+        public void clear() {
+            transactions.clear();
+        }
+    }
+
+    public static class WalletStore implements WalletDao {
+        private final ConcurrentMap<String, Wallet> wallets = new ConcurrentHashMap<>();
+
+        @Override
+        public void save(final Wallet wallet) {
+            wallets.put(wallet.getOwnerId(), wallet);
+        }
+
+        @Override
+        public Optional<Wallet> load(final String ownerId) {
+            return Optional.ofNullable(wallets.get(ownerId));
+        }
+    }
+
+    public static class OrgStore implements OrgDao {
+        private final ConcurrentMap<String, Organization> orgs = new ConcurrentHashMap<>();
+        private final ConcurrentMap<String, Set<String>> followers = new ConcurrentHashMap<>();
+
+        @Override
+        public void save(final Organization org) {
+            orgs.put(org.getOrgName(), org);
+        }
+
+        @Override
+        public Optional<Organization> load(final String orgName) {
+            return Optional.ofNullable(orgs.get(orgName));
+        }
+
+        // The only update OrgServiceHandler sends adds a follower, unless it already follows the org.
+        @Override
+        public void updateOrg(final UpdateItemRequest request) {
+            final String orgName = request.getKey().get(OrgConfig.ORG_DDB_KEY_ORGNAME).getS();
+            final Set<String> orgFollowers = followers.computeIfAbsent(orgName, k -> ConcurrentHashMap.newKeySet());
+            for (String followerId : request.getExpressionAttributeValues().get(":newFollower").getSS()) {
+                if (!orgFollowers.add(followerId)) {
+                    throw new ConditionalCheckFailedException(String.format("%s already follows %s", followerId,
+                            orgName));
+                }
+            }
+        }
+
+        @Override
+        public List<String> getFollowerIds(final String orgName) {
+            return new ArrayList<>(followers.getOrDefault(orgName, Collections.emptySet()));
+        }
+
+        // The only query OrgServiceHandler sends finds the org if the user follows it.
+        @Override
+        public QueryResult queryOrg(final QueryRequest request) {
+            final String orgName = request.getExpressionAttributeValues().get(":orgId").getS();
+            final String userId = request.getExpressionAttributeValues().get(":userId").getS();
+            final List<Map<String, AttributeValue>> items = new ArrayList<>();
+            if (followers.getOrDefault(orgName, Collections.emptySet()).contains(userId)) {
+                items.add(Collections.singletonMap(OrgConfig.ORG_DDB_KEY_ORGNAME, new AttributeValue(orgName)));
+            }
+            return new QueryResult().withItems(items).withCount(items.size());
+        }
+    }
+
+    public static class StampEventStore implements StampEventDao {
+        private final ConcurrentMap<String, StampEvent> events = new ConcurrentHashMap<>();
+
+        @Override
+        public void save(final StampEvent event) {
+            events.put(event.getEventId(), event);
+        }
+
+        @Override
+        public Optional<StampEvent> load(final String eventId) {
+            return Optional.ofNullable(events.get(eventId));
+        }
+
+        @Override
+        public List<StampEvent> batchLoad(final Collection<String> eventIds) {
+            final List<StampEvent> result = new ArrayList<>();
+            for (String eventId : eventIds) {
+                load(eventId).ifPresent(result::add);
+            }
+            return result;
+        }
+
+        // Redeeming only sends a conditional update, which always succeeds here.
+        @Override
+        public void update(final UpdateItemRequest request) {}
+
+        @Override
+        public void delete(final String eventId) {
+            events.remove(eventId);
+        }
+
+        @Override
+        public Map<String, AttributeValue> getEventIdsByOwner(final String ownerId,
+                                                              final Map<String, AttributeValue> exclusiveStartKey,
+                                                              final int maxCount, final Collection<String> eventIds) {
+            events.values().stream().filter(event -> event.getOwnerId().equals(ownerId)).limit(maxCount)
+                    .map(StampEvent::getEventId).forEach(eventIds::add);
+            return null;
+        }
+    }
+
+    // The transaction store drops outbox records, so there is never anything to sweep or delete.
+    public static class OutboxStore implements OutboxDao {
+        @Override
+        public List<OutboxRecord> loadCreatedBefore(final Date createdBefore, final int limit) {
+            return new ArrayList<>();
+        }
+
+        @Override
+        public List<OutboxRecord> batchDelete(final Collection<OutboxRecord> records) {
+            return new ArrayList<>();
+        }
+    }
+
+    public static class UserStore implements UserDao {
+        private final Map<String, Account> accounts = new HashMap<>();
+
+        @Override
+        public synchronized void save(final Account account) {
+            accounts.put(account.getUsername(), account);
+        }
+
+        @Override
+        public synchronized Optional<Account> load(final String username) {
+            return Optional.ofNullable(accounts.get(username));
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package io.openmarket.benchmark;
+
+import io.grpc.Attributes;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.Status;
+import io.openmarket.account.service.CredentialManager;
+import io.openmarket.server.OpenMarketInterceptor;
+import io.openmarket.server.config.InterceptorConfig;
+import io.openmarket.transaction.grpc.TransactionGrpc;
+import io.openmarket.transaction.grpc.TransactionProto;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Date;
+
+/**
+ * Authenticates a call with a valid token, with and without signature validation.
+ */
+@State(Scope.Benchmark)
+public class InterceptorBenchmark {
+    @Param({"true", "false"})
+    public boolean useValidation;
+
+    private OpenMarketInterceptor interceptor;
+    private Metadata metadata;
+    private ServerCall<TransactionProto.QueryRequest, TransactionProto.QueryResult> call;
+    private ServerCallHandler<TransactionProto.QueryRequest, TransactionProto.QueryResult> next;
+
+    @Setup
+    public void setup() {
+        final CredentialManager credentialManager = new CredentialManager(24);
+        this.interceptor = new OpenMarketInterceptor(useValidation, credentialManager);
+        this.metadata = new Metadata();
+        metadata.put(InterceptorConfig.AUTHORIZATION_METADATA_KEY,
+                credentialManager.generateToken("benchmark", "benchmark-id", new Date()));
+        this.call = new NoOpServerCall<>(TransactionGrpc.getProcessQueryMethod());
+        this.next = (serverCall, headers) -> new ServerCall.Listener<TransactionProto.QueryRequest>() {};
+    }
+
+    @Benchmark
+    public ServerCall.Listener<TransactionProto.QueryRequest> interceptCall() {
+        return interceptor.interceptCall(call, metadata, next);
+    }
+
+    private static class NoOpServerCall<ReqT, RespT> extends ServerCall<ReqT, RespT> {
+        private final MethodDescriptor<ReqT, RespT> method;
+
+        NoOpServerCall(final MethodDescriptor<ReqT, RespT> method) {
+            this.method = method;
+        }
+
+        @Override
+        public void request(int numMessages) {}
+
+        @Override
+        public void sendHeaders(Metadata headers) {}
+
+        @Override
+        public void sendMessage(RespT message) {}
+
+        @Override
+        public void close(Status status, Metadata trailers) {}
+
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+
+        @Override
+        public Attributes getAttributes() {
+            return Attributes.EMPTY;
+        }
+
+        @Override
+        public MethodDescriptor<ReqT, RespT> getMethodDescriptor() {
+            return method;
+        }
+    }
+}
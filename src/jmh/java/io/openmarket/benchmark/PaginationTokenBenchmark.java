@@ -0,0 +1,45 @@
+package io.openmarket.benchmark;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import io.openmarket.utils.MiscUtils;
+import io.openmarket.utils.PaginationTokenCodec;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Round-trips a transaction index key through the Gson token format and through the binary codec.
+ */
+@State(Scope.Benchmark)
+public class PaginationTokenBenchmark {
+    private Map<String, AttributeValue> key;
+    private PaginationTokenCodec codec;
+
+    @Setup
+    public void setup() {
+        this.key = ImmutableMap.of(
+                "TransactionId", new AttributeValue("f3b0c442-98fc-1c14-9afb-f4c8996fb924"),
+                "PayerId", new AttributeValue("benchmark-user"),
+                "CreatedAt", new AttributeValue("2020-10-18T00:00:00.000Z"));
+        this.codec = new PaginationTokenCodec(ImmutableList.of(
+                ImmutableList.of("CreatedAt", "PayerId", "RecipientId", "TransactionId")),
+                "benchmark".getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Benchmark
+    public Optional<Map<String, AttributeValue>> gson() {
+        return MiscUtils.getExclusiveStartKey(MiscUtils.convertToLastEvaluatedKey(key));
+    }
+
+    @Benchmark
+    public Optional<Map<String, AttributeValue>> codec() {
+        return codec.decode(codec.encode(key));
+    }
+}
@@ -0,0 +1,75 @@
+package io.openmarket.benchmark;
+
+import com.google.common.collect.ImmutableMap;
+import io.openmarket.event.grpc.EventProto;
+import io.openmarket.stamp.model.EventOwnerType;
+import io.openmarket.stamp.model.StampEvent;
+import io.openmarket.stamp.service.StampEventServiceHandler;
+import io.openmarket.transaction.outbox.OutboxRelay;
+import io.openmarket.transaction.service.TransactionServiceHandler;
+import io.openmarket.utils.TimeUtils;
+import io.openmarket.wallet.model.Wallet;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicLong;
+
+@State(Scope.Benchmark)
+public class StampEventBenchmark {
+    private static final String EVENT_ID = "event";
+    private static final String OWNER_ID = "owner";
+    private static final String CURRENCY = "DashCoin";
+
+    private final AtomicLong nextUser = new AtomicLong();
+    private OutboxRelay outboxRelay;
+    private StampEventServiceHandler handler;
+    private EventProto.RedeemRequest request;
+
+    @Setup
+    public void setup() {
+        this.outboxRelay = InMemoryDaos.startOutboxRelay("queue");
+        final InMemoryDaos.StampEventStore eventStore = new InMemoryDaos.StampEventStore();
+        final InMemoryDaos.WalletStore walletStore = new InMemoryDaos.WalletStore();
+        final Date today = new Date();
+        eventStore.save(StampEvent.builder()
+                .eventId(EVENT_ID)
+                .name("Benchmark")
+                .type(EventOwnerType.USER)
+                .ownerId(OWNER_ID)
+                .remainingAmount(Double.MAX_VALUE)
+                .totalAmount(Double.MAX_VALUE)
+                .rewardAmount(1.0)
+                .createdAt(today)
+                .expireAt(TimeUtils.getDateAfter(today, 10))
+                .currencyId(CURRENCY)
+                .messageOnSuccess("")
+                .messageOnError("")
+                .build());
+        walletStore.save(Wallet.builder().ownerId(OWNER_ID).coins(ImmutableMap.of(CURRENCY, Double.MAX_VALUE))
+                .build());
+        final TransactionServiceHandler transactionServiceHandler = TransactionServiceHandler.builder()
+                .transactionDao(new InMemoryDaos.TransactionStore())
+                .walletDao(walletStore)
+                .taskPublisher(InMemoryDaos.discardingTaskPublisher())
+                .queueURL("queue")
+                .outboxRelay(outboxRelay)
+                .build();
+        this.handler = new StampEventServiceHandler(eventStore,
+                transactionServiceHandler);
+        this.request = EventProto.RedeemRequest.newBuilder().setEventId(EVENT_ID).build();
+    }
+
+    @TearDown
+    public void tearDown() {
+        outboxRelay.stop();
+    }
+
+    @Benchmark
+    public EventProto.RedeemResult createRedeem() {
+        return handler.createRedeem("user-" + nextUser.incrementAndGet(), request);
+    }
+}
@@ -0,0 +1,82 @@
+package io.openmarket.benchmark;
+
+import com.google.common.collect.ImmutableMap;
+import io.openmarket.transaction.outbox.OutboxRelay;
+import io.openmarket.transaction.grpc.TransactionProto;
+import io.openmarket.transaction.model.Transaction;
+import io.openmarket.transaction.model.TransactionErrorType;
+import io.openmarket.transaction.model.TransactionStatus;
+import io.openmarket.transaction.model.TransactionType;
+import io.openmarket.transaction.service.TransactionServiceHandler;
+import io.openmarket.wallet.model.Wallet;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.Date;
+
+@State(Scope.Benchmark)
+public class TransactionServiceBenchmark {
+    private static final String USER_ID = "payer";
+    private static final String QUEUE_URL = "queue";
+
+    @Param({"10", "100"})
+    public int transactionCount;
+
+    private OutboxRelay outboxRelay;
+    private TransactionServiceHandler handler;
+    private TransactionProto.QueryRequest queryRequest;
+
+    @Setup
+    public void setup() {
+        this.outboxRelay = InMemoryDaos.startOutboxRelay(QUEUE_URL);
+        final InMemoryDaos.TransactionStore transactionStore = new InMemoryDaos.TransactionStore();
+        final InMemoryDaos.WalletStore walletStore = new InMemoryDaos.WalletStore();
+        for (int i = 0; i < transactionCount; i++) {
+            transactionStore.save(Transaction.builder()
+                    .transactionId("transaction-" + i)
+                    .payerId(USER_ID)
+                    .recipientId("recipient-" + i)
+                    .currencyId("DashCoin")
+                    .amount(1.0)
+                    .type(TransactionType.PAY)
+                    .status(TransactionStatus.COMPLETED)
+                    .error(TransactionErrorType.NONE)
+                    .note("")
+                    .createdAt(new Date())
+                    .build());
+        }
+        walletStore.save(Wallet.builder().ownerId(USER_ID)
+                .coins(ImmutableMap.of("DashCoin", 100.0, "Silicoin", 0.0, "ChipCoin", 5.0))
+                .build());
+        this.handler = TransactionServiceHandler.builder()
+                .transactionDao(transactionStore)
+                .walletDao(walletStore)
+                .taskPublisher(InMemoryDaos.discardingTaskPublisher())
+                .queueURL(QUEUE_URL)
+                .outboxRelay(outboxRelay)
+                .build();
+        this.queryRequest = TransactionProto.QueryRequest.newBuilder()
+                .setType(TransactionProto.QueryRequest.QueryType.PAYER_ID)
+                .setParam(USER_ID)
+                .build();
+    }
+
+    @TearDown
+    public void tearDown() {
+        outboxRelay.stop();
+    }
+
+    @Benchmark
+    public TransactionProto.QueryResult handleQuery() {
+        return handler.handleQuery(USER_ID, queryRequest);
+    }
+
+    @Benchmark
+    public TransactionProto.GetWalletResult getWallet() {
+        return handler.getWallet(USER_ID, TransactionProto.GetWalletRequest.getDefaultInstance());
+    }
+}
@@ -0,0 +1,19 @@
+package io.openmarket.config;
+
+import com.google.common.collect.ImmutableMap;
+
+import java.util.Map;
+
+public final class CurrencyConfig {
+    private CurrencyConfig() {}
+
+    /**
+     * The number of decimal digits of a currency's minor unit, unless it's listed in SCALES.
+     */
+    public static final int DEFAULT_SCALE = 2;
+
+    /**
+     * The scales of currencies whose minor unit isn't a hundredth, by currency ID.
+     */
+    public static final Map<String, Integer> SCALES = ImmutableMap.of();
+}
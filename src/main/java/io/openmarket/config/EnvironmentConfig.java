@@ -30,4 +30,84 @@ public class EnvironmentConfig {
     public static final String ENV_VAR_TOKEN_DURATION = "TokenDuration";
 
     public static final String ENV_VAR_DB_URL = "DB_URL";
+
+    /**
+     * The environment variable name for the number of threads used to check out organizations in parallel.
+     * Checkout processes organizations one at a time if it is missing or less than 2.
+     */
+    public static final String ENV_VAR_CHECKOUT_PARALLELISM = "CheckOutParallelism";
+
+    /**
+     * The environment variable name for how often (in milliseconds) stock reserved in memory is written back to the
+     * database. Checkout updates the stock in the database directly if it is missing.
+     */
+    public static final String ENV_VAR_STOCK_WRITE_BEHIND_MILLIS = "StockWriteBehindMillis";
+
+    /**
+     * The environment variable name for the DynamoDB table storing idempotency records.
+     * Idempotency records are kept in memory on each server if it is missing.
+     */
+    public static final String ENV_VAR_IDEMPOTENCY_TABLE_NAME = "IdempotencyTableName";
+
+    /**
+     * The environment variable name for how long (in milliseconds) refund tasks may wait to be sent to the
+     * processor queue together. Every task is sent on its own if it is missing. Payments are always sent in batches
+     * by the outbox relay.
+     */
+    public static final String ENV_VAR_TASK_PUBLISH_LINGER_MILLIS = "TaskPublishLingerMillis";
+
+    /**
+     * The environment variable name for the directory of the journal that refund tasks are spilled to while the
+     * processor queue is slow or unavailable. Tasks are never spilled if it is missing. Payments wait in the outbox
+     * table instead.
+     */
+    public static final String ENV_VAR_TASK_JOURNAL_DIR = "TaskJournalDir";
+
+    /**
+     * The environment variable name for how the task journal is flushed to disk: ALWAYS, INTERVAL or NEVER.
+     * It is flushed at an interval if it is missing.
+     */
+    public static final String ENV_VAR_TASK_JOURNAL_FSYNC = "TaskJournalFsync";
+
+    /**
+     * The environment variable name for the number of transactions the in-process processor settles at the same
+     * time. Transactions are left to an external processor if it is missing or 0.
+     */
+    public static final String ENV_VAR_TRANSACTION_PROCESSOR_CONCURRENCY = "TransactionProcessorConcurrency";
+
+    /**
+     * The environment variable name for the wallets split into shards, as comma separated pairs of owner ID and shard
+     * count such as "orgA:8,orgB:4". No wallet is sharded if it is missing.
+     */
+    public static final String ENV_VAR_SHARDED_WALLETS = "ShardedWallets";
+
+    /**
+     * The environment variable name for how long, in milliseconds, the in-process processor collects payments to net
+     * per recipient before settling them. Payments are settled one by one if it is missing or 0.
+     */
+    public static final String ENV_VAR_SETTLEMENT_NETTING_WINDOW_MILLIS = "SettlementNettingWindowMillis";
+
+    /**
+     * The environment variable name for the secret pagination tokens are signed with.
+     * Tokens are not signed if it is missing.
+     */
+    public static final String ENV_VAR_PAGINATION_TOKEN_SECRET = "PaginationTokenSecret";
+
+    /**
+     * The environment variable name for how long, in milliseconds, wallets read for display are cached.
+     * Wallets are not cached if it is missing or 0.
+     */
+    public static final String ENV_VAR_WALLET_CACHE_TTL_MILLIS = "WalletCacheTtlMillis";
+
+    /**
+     * The environment variable name for the directory of the ledger that balance reads are served from.
+     * Balances are read from the wallets if it is missing.
+     */
+    public static final String ENV_VAR_LEDGER_DIR = "LedgerDir";
+
+    /**
+     * The environment variable name for the ID of this server among those generating IDs, from 0 to 65535.
+     * A random node ID is used if it is missing.
+     */
+    public static final String ENV_VAR_NODE_ID = "NodeId";
 }
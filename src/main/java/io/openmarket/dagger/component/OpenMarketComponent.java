@@ -6,6 +6,7 @@ import io.openmarket.dagger.module.OpenMarketModule;
 import io.openmarket.marketplace.MarketPlaceServiceHandler;
 import io.openmarket.newsfeed.NewsFeedServiceHandler;
 import io.openmarket.organization.OrgServiceHandler;
+import io.openmarket.organization.airdrop.FollowerAirdrop;
 import io.openmarket.server.OpenMarketInterceptor;
 import io.openmarket.server.Server;
 import io.openmarket.server.services.AccountRPCService;
@@ -26,4 +27,5 @@ public interface OpenMarketComponent {
     NewsFeedServiceHandler buildNewsFeedService();
     Server buildServer();
     OpenMarketInterceptor buildInterceptor();
+    FollowerAirdrop buildFollowerAirdrop();
 }
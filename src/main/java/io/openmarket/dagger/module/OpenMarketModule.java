@@ -1,36 +1,193 @@
 package io.openmarket.dagger.module;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
+import com.amazonaws.services.sqs.AmazonSQS;
+import com.google.common.collect.ImmutableList;
 import dagger.Module;
 import dagger.Provides;
 import io.openmarket.account.dynamodb.UserDao;
 import io.openmarket.account.service.AccountServiceHandler;
 import io.openmarket.account.service.CredentialManager;
+import io.openmarket.ledger.Ledger;
 import io.openmarket.marketplace.MarketPlaceServiceHandler;
+import io.openmarket.marketplace.StockReservationEngine;
 import io.openmarket.marketplace.dao.ItemDao;
 import io.openmarket.order.dao.OrderDao;
+import io.openmarket.order.model.Order;
 import io.openmarket.organization.OrgServiceHandler;
+import io.openmarket.organization.airdrop.AirdropReceiptDao;
+import io.openmarket.organization.airdrop.DynamoDBAirdropReceiptDao;
+import io.openmarket.organization.airdrop.FollowerAirdrop;
 import io.openmarket.organization.dao.OrgDao;
+import io.openmarket.server.idempotency.DynamoDBIdempotencyStore;
+import io.openmarket.server.idempotency.IdempotencyInterceptor;
+import io.openmarket.server.idempotency.IdempotencyStore;
+import io.openmarket.server.idempotency.LocalIdempotencyStore;
 import io.openmarket.stamp.dao.dynamodb.StampEventDao;
 import io.openmarket.stamp.service.StampEventServiceHandler;
 import io.openmarket.transaction.dao.dynamodb.TransactionDao;
 import io.openmarket.transaction.dao.sqs.SQSTransactionTaskPublisher;
+import io.openmarket.transaction.model.Transaction;
+import io.openmarket.transaction.outbox.DynamoDBOutboxDao;
+import io.openmarket.transaction.outbox.OutboxDao;
+import io.openmarket.transaction.outbox.OutboxRelay;
+import io.openmarket.transaction.processor.TransactionProcessor;
+import io.openmarket.transaction.processor.TransactionSettler;
+import io.openmarket.transaction.processor.WalletShardRebalancer;
+import io.openmarket.transaction.queue.BatchingTransactionTaskPublisher;
+import io.openmarket.transaction.queue.SpillingTransactionTaskPublisher;
+import io.openmarket.transaction.queue.TaskJournal;
+import io.openmarket.transaction.queue.TransactionTaskPublisher;
+import io.openmarket.transaction.service.PaymentCompletionRegistry;
+import io.openmarket.transaction.service.PaymentStatusWatcher;
+import io.openmarket.transaction.service.TransactionCompletionListener;
 import io.openmarket.transaction.service.TransactionServiceHandler;
+import io.openmarket.transaction.service.WalletCache;
+import io.openmarket.transaction.service.WalletSharding;
+import io.openmarket.utils.PaginationTokenCodec;
 import io.openmarket.wallet.dao.dynamodb.WalletDao;
 
 import javax.inject.Named;
 import javax.inject.Singleton;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import static io.openmarket.config.EnvironmentConfig.*;
+import static io.openmarket.server.config.InterceptorConfig.IDEMPOTENCY_CACHE_MAX_SIZE;
+import static io.openmarket.server.config.InterceptorConfig.IDEMPOTENCY_TTL_MILLIS;
+import static io.openmarket.server.config.InterceptorConfig.IDEMPOTENT_RPCS;
 
 @Module(includes = {AWSModule.class, DaoModule.class})
 public class OpenMarketModule {
+    private static final int CHECKOUT_EXECUTOR_QUEUE_SIZE = 256;
+    private static final long WALLET_CACHE_MAX_SIZE = 100000;
+    private static final long LEDGER_MAX_AGE_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
     @Provides
     @Singleton
     TransactionServiceHandler provideTransacHandler(final TransactionDao transacDao,
                                                     final WalletDao walletDao,
-                                                    final SQSTransactionTaskPublisher sqsPublisher,
-                                                    @Named(ENV_VAR_TRANSAC_QUEUE_URL) final String queueURL) {
-        return new TransactionServiceHandler(transacDao, walletDao, sqsPublisher, queueURL);
+                                                    final TransactionTaskPublisher taskPublisher,
+                                                    @Named(ENV_VAR_TRANSAC_QUEUE_URL) final String queueURL,
+                                                    final OutboxRelay outboxRelay,
+                                                    final PaginationTokenCodec tokenCodec,
+                                                    final WalletCache walletCache) {
+        return TransactionServiceHandler.builder()
+                .transactionDao(transacDao)
+                .walletDao(walletDao)
+                .taskPublisher(taskPublisher)
+                .queueURL(queueURL)
+                .outboxRelay(outboxRelay)
+                .tokenCodec(tokenCodec)
+                .walletCache(walletCache)
+                .build();
+    }
+
+    @Provides
+    @Singleton
+    WalletCache provideWalletCache(final WalletDao walletDao, final WalletSharding walletSharding,
+                                   @Named(ENV_VAR_WALLET_CACHE_TTL_MILLIS) final long ttlMillis,
+                                   final Optional<Ledger> ledger) {
+        return new WalletCache(walletDao, walletSharding, ttlMillis > 0 ? WALLET_CACHE_MAX_SIZE : 0, ttlMillis,
+                ledger.orElse(null));
+    }
+
+    @Provides
+    @Singleton
+    Optional<Ledger> provideLedger(final WalletDao walletDao, final WalletSharding walletSharding,
+                                   @Named(ENV_VAR_LEDGER_DIR) final String ledgerDir) {
+        if (ledgerDir.isEmpty()) {
+            return Optional.empty();
+        }
+        // The ledger is filled from the stored wallets, never from a cache.
+        final WalletCache wallets = WalletCache.disabled(walletDao, walletSharding);
+        try {
+            return Optional.of(new Ledger(Paths.get(ledgerDir),
+                    ownerId -> wallets.load(ownerId).map(WalletCache.CachedWallet::getBalances).orElse(null),
+                    LEDGER_MAX_AGE_MILLIS, false));
+        } catch (IOException e) {
+            throw new UncheckedIOException(String.format("Failed to open the ledger in %s", ledgerDir), e);
+        }
+    }
+
+    @Provides
+    @Singleton
+    PaginationTokenCodec providePaginationTokenCodec(final AmazonDynamoDB dbClient, final EnvMap env) {
+        final DynamoDBMapper mapper = new DynamoDBMapper(dbClient);
+        // Schema IDs are positions in this list, so new schemas must be appended.
+        final List<List<String>> schemas = ImmutableList.of(
+                PaginationTokenCodec.schemaOf(mapper.getTableModel(Transaction.class)),
+                PaginationTokenCodec.schemaOf(mapper.getTableModel(Order.class)));
+        final String secret = env.get(ENV_VAR_PAGINATION_TOKEN_SECRET);
+        return new PaginationTokenCodec(schemas,
+                secret == null || secret.isEmpty() ? null : secret.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Provides
+    @Singleton
+    WalletSharding provideWalletSharding(final EnvMap env) {
+        final String spec = env.get(ENV_VAR_SHARDED_WALLETS);
+        return spec == null ? WalletSharding.none() : WalletSharding.parse(spec);
+    }
+
+    @Provides
+    @Singleton
+    TransactionTaskPublisher provideTaskPublisher(final AmazonSQS sqsClient,
+                                                  final SQSTransactionTaskPublisher sqsPublisher,
+                                                  @Named(ENV_VAR_TASK_PUBLISH_LINGER_MILLIS) final long lingerMillis,
+                                                  @Named(ENV_VAR_TASK_JOURNAL_DIR) final String journalDir,
+                                                  @Named(ENV_VAR_TASK_JOURNAL_FSYNC)
+                                                  final TaskJournal.FsyncPolicy fsyncPolicy) {
+        // Refunds are published through here, payments are published by the outbox relay.
+        TransactionTaskPublisher publisher = TransactionTaskPublisher.of(sqsPublisher);
+        if (lingerMillis > 0) {
+            final BatchingTransactionTaskPublisher batchingPublisher = new BatchingTransactionTaskPublisher(sqsClient,
+                    lingerMillis);
+            batchingPublisher.start();
+            Runtime.getRuntime().addShutdownHook(new Thread(batchingPublisher::stop));
+            publisher = batchingPublisher;
+        }
+        if (journalDir.isEmpty()) {
+            return publisher;
+        }
+        final TaskJournal journal;
+        try {
+            journal = new TaskJournal(Paths.get(journalDir), fsyncPolicy);
+        } catch (IOException e) {
+            throw new UncheckedIOException(String.format("Failed to open the task journal in %s", journalDir), e);
+        }
+        final SpillingTransactionTaskPublisher spillingPublisher = new SpillingTransactionTaskPublisher(publisher,
+                journal);
+        spillingPublisher.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(spillingPublisher::stop));
+        return spillingPublisher;
+    }
+
+    @Provides
+    @Singleton
+    OutboxDao provideOutboxDao(final AmazonDynamoDB dbClient) {
+        return new DynamoDBOutboxDao(dbClient);
+    }
+
+    @Provides
+    @Singleton
+    OutboxRelay provideOutboxRelay(final AmazonSQS sqsClient,
+                                   @Named(ENV_VAR_TRANSAC_QUEUE_URL) final String queueURL,
+                                   final OutboxDao outboxDao) {
+        final OutboxRelay relay = new OutboxRelay(sqsClient, queueURL, outboxDao);
+        relay.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(relay::stop));
+        return relay;
     }
 
     @Provides
@@ -47,6 +204,20 @@ public class OpenMarketModule {
         return new OrgServiceHandler(orgDao);
     }
 
+    @Provides
+    @Singleton
+    AirdropReceiptDao provideAirdropReceiptDao(final AmazonDynamoDB dbClient) {
+        return new DynamoDBAirdropReceiptDao(dbClient);
+    }
+
+    @Provides
+    @Singleton
+    FollowerAirdrop provideFollowerAirdrop(final OrgServiceHandler orgHandler,
+                                           final TransactionServiceHandler transactionServiceHandler,
+                                           final AirdropReceiptDao receiptDao) {
+        return new FollowerAirdrop(orgHandler, transactionServiceHandler, receiptDao);
+    }
+
     @Provides
     @Singleton
     StampEventServiceHandler provideStampEventHandler(final StampEventDao eventDao,
@@ -54,12 +225,121 @@ public class OpenMarketModule {
         return new StampEventServiceHandler(eventDao, transactionServiceHandler);
     }
 
+    @Provides
+    @Singleton
+    PaymentCompletionRegistry providePaymentCompletionRegistry() {
+        return new PaymentCompletionRegistry();
+    }
+
+    @Provides
+    @Singleton
+    Optional<TransactionProcessor> provideTransactionProcessor(final PaymentCompletionRegistry registry,
+                                                               final AmazonSQS sqsClient,
+                                                               final AmazonDynamoDB dbClient,
+                                                               final TransactionDao transacDao,
+                                                               final WalletDao walletDao,
+                                                               @Named(ENV_VAR_TRANSAC_QUEUE_URL) final String queueURL,
+                                                               @Named(ENV_VAR_TRANSACTION_PROCESSOR_CONCURRENCY)
+                                                               final int processorConcurrency,
+                                                               @Named(ENV_VAR_SETTLEMENT_NETTING_WINDOW_MILLIS)
+                                                               final long nettingWindowMillis,
+                                                               final WalletSharding walletSharding,
+                                                               final WalletCache walletCache) {
+        if (processorConcurrency <= 0) {
+            return Optional.empty();
+        }
+        return Optional.of(new TransactionProcessor(sqsClient, queueURL, transacDao,
+                new TransactionSettler(transacDao, walletDao, new DynamoDBMapper(dbClient), walletSharding),
+                TransactionCompletionListener.all(registry, walletCache),
+                processorConcurrency, TransactionProcessor.DEFAULT_WAIT_TIME_SECONDS, nettingWindowMillis));
+    }
+
+    @Provides
+    @Singleton
+    Optional<PaymentStatusWatcher> providePaymentStatusWatcher(final PaymentCompletionRegistry registry,
+                                                               final TransactionServiceHandler transacHandler,
+                                                               @Named(ENV_VAR_TRANSACTION_PROCESSOR_CONCURRENCY)
+                                                               final int processorConcurrency) {
+        // Stand-in for the processor's completion signal when the processor doesn't run in this server.
+        if (processorConcurrency > 0) {
+            return Optional.empty();
+        }
+        return Optional.of(new PaymentStatusWatcher(registry, transacHandler));
+    }
+
+    @Provides
+    @Singleton
+    Optional<WalletShardRebalancer> provideWalletShardRebalancer(final AmazonDynamoDB dbClient,
+                                                                 final TransactionDao transacDao,
+                                                                 final WalletDao walletDao,
+                                                                 @Named(ENV_VAR_TRANSACTION_PROCESSOR_CONCURRENCY)
+                                                                 final int processorConcurrency,
+                                                                 final WalletSharding walletSharding) {
+        if (processorConcurrency <= 0 || walletSharding.getShardedOwnerIds().isEmpty()) {
+            return Optional.empty();
+        }
+        return Optional.of(new WalletShardRebalancer(transacDao, walletDao, new DynamoDBMapper(dbClient),
+                walletSharding));
+    }
+
     @Provides
     @Singleton
     MarketPlaceServiceHandler provideMarketPlaceHandler(final ItemDao itemDao, final OrderDao orderDao,
                                                         final OrgServiceHandler orgServiceHandler,
-                                                        final TransactionServiceHandler transactionServiceHandler) {
-        return new MarketPlaceServiceHandler(itemDao, orderDao, orgServiceHandler, transactionServiceHandler);
+                                                        final TransactionServiceHandler transactionServiceHandler,
+                                                        final PaymentCompletionRegistry paymentCompletionRegistry,
+                                                        @Named(ENV_VAR_CHECKOUT_PARALLELISM) final int parallelism,
+                                                        @Named(ENV_VAR_STOCK_WRITE_BEHIND_MILLIS)
+                                                        final long stockWriteBehindMillis,
+                                                        final PaginationTokenCodec tokenCodec) {
+        ExecutorService checkoutExecutor = null;
+        if (parallelism >= 2) {
+            // Sub-orders run on the caller's thread once the queue is full, so a burst of checkouts slows down
+            // instead of failing.
+            checkoutExecutor = new ThreadPoolExecutor(parallelism, parallelism,
+                    0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(CHECKOUT_EXECUTOR_QUEUE_SIZE),
+                    new ThreadFactoryBuilder().setNameFormat("checkout-%d").setDaemon(true).build(),
+                    new ThreadPoolExecutor.CallerRunsPolicy());
+        }
+        StockReservationEngine stockReservationEngine = null;
+        if (stockWriteBehindMillis > 0) {
+            stockReservationEngine = new StockReservationEngine(itemDao, stockWriteBehindMillis);
+            stockReservationEngine.start();
+            Runtime.getRuntime().addShutdownHook(new Thread(stockReservationEngine::stop));
+        }
+        return MarketPlaceServiceHandler.builder()
+                .itemDao(itemDao)
+                .orderDao(orderDao)
+                .orgServiceHandler(orgServiceHandler)
+                .transactionServiceHandler(transactionServiceHandler)
+                .paymentCompletionRegistry(paymentCompletionRegistry)
+                .checkoutExecutor(checkoutExecutor)
+                .stockReservationEngine(stockReservationEngine)
+                .tokenCodec(tokenCodec)
+                .build();
+    }
+
+    @Provides
+    @Singleton
+    IdempotencyStore provideIdempotencyStore(final AmazonDynamoDB dbClient,
+                                             @Named(ENV_VAR_IDEMPOTENCY_TABLE_NAME) final String tableName) {
+        if (tableName.isEmpty()) {
+            return new LocalIdempotencyStore(IDEMPOTENCY_CACHE_MAX_SIZE, IDEMPOTENCY_TTL_MILLIS);
+        }
+        return new DynamoDBIdempotencyStore(dbClient, tableName, IDEMPOTENCY_TTL_MILLIS);
+    }
+
+    @Provides
+    @Singleton
+    IdempotencyInterceptor provideIdempotencyInterceptor(final IdempotencyStore store) {
+        return new IdempotencyInterceptor(store, IDEMPOTENT_RPCS);
+    }
+
+    @Provides
+    @Named(ENV_VAR_IDEMPOTENCY_TABLE_NAME)
+    String provideIdempotencyTableName(final EnvMap env) {
+        final String tableName = env.get(ENV_VAR_IDEMPOTENCY_TABLE_NAME);
+        return tableName == null ? "" : tableName;
     }
 
     @Provides
@@ -81,6 +361,70 @@ public class OpenMarketModule {
         return Boolean.parseBoolean(env.get(ENV_VAR_RPC_USE_VALIDATION));
     }
 
+    @Provides
+    @Named(ENV_VAR_CHECKOUT_PARALLELISM)
+    int provideCheckOutParallelism(final EnvMap env) {
+        final String parallelism = env.get(ENV_VAR_CHECKOUT_PARALLELISM);
+        return parallelism == null || parallelism.isEmpty() ? 1 : Integer.parseInt(parallelism);
+    }
+
+    @Provides
+    @Named(ENV_VAR_TRANSACTION_PROCESSOR_CONCURRENCY)
+    int provideTransactionProcessorConcurrency(final EnvMap env) {
+        final String concurrency = env.get(ENV_VAR_TRANSACTION_PROCESSOR_CONCURRENCY);
+        return concurrency == null || concurrency.isEmpty() ? 0 : Integer.parseInt(concurrency);
+    }
+
+    @Provides
+    @Named(ENV_VAR_WALLET_CACHE_TTL_MILLIS)
+    long provideWalletCacheTtlMillis(final EnvMap env) {
+        final String ttl = env.get(ENV_VAR_WALLET_CACHE_TTL_MILLIS);
+        return ttl == null || ttl.isEmpty() ? 0 : Long.parseLong(ttl);
+    }
+
+    @Provides
+    @Named(ENV_VAR_SETTLEMENT_NETTING_WINDOW_MILLIS)
+    long provideSettlementNettingWindowMillis(final EnvMap env) {
+        final String window = env.get(ENV_VAR_SETTLEMENT_NETTING_WINDOW_MILLIS);
+        return window == null || window.isEmpty() ? 0 : Long.parseLong(window);
+    }
+
+    @Provides
+    @Named(ENV_VAR_STOCK_WRITE_BEHIND_MILLIS)
+    long provideStockWriteBehindMillis(final EnvMap env) {
+        final String period = env.get(ENV_VAR_STOCK_WRITE_BEHIND_MILLIS);
+        return period == null || period.isEmpty() ? 0 : Long.parseLong(period);
+    }
+
+    @Provides
+    @Named(ENV_VAR_TASK_PUBLISH_LINGER_MILLIS)
+    long provideTaskPublishLingerMillis(final EnvMap env) {
+        final String linger = env.get(ENV_VAR_TASK_PUBLISH_LINGER_MILLIS);
+        return linger == null || linger.isEmpty() ? 0 : Long.parseLong(linger);
+    }
+
+    @Provides
+    @Named(ENV_VAR_LEDGER_DIR)
+    String provideLedgerDir(final EnvMap env) {
+        final String dir = env.get(ENV_VAR_LEDGER_DIR);
+        return dir == null ? "" : dir;
+    }
+
+    @Provides
+    @Named(ENV_VAR_TASK_JOURNAL_DIR)
+    String provideTaskJournalDir(final EnvMap env) {
+        final String dir = env.get(ENV_VAR_TASK_JOURNAL_DIR);
+        return dir == null ? "" : dir;
+    }
+
+    @Provides
+    @Named(ENV_VAR_TASK_JOURNAL_FSYNC)
+    TaskJournal.FsyncPolicy provideTaskJournalFsync(final EnvMap env) {
+        final String policy = env.get(ENV_VAR_TASK_JOURNAL_FSYNC);
+        return policy == null || policy.isEmpty() ? TaskJournal.FsyncPolicy.INTERVAL
+                : TaskJournal.FsyncPolicy.valueOf(policy.toUpperCase());
+    }
+
     @Provides
     @Named(ENV_VAR_TOKEN_DURATION)
     int provideTokenDuration(final EnvMap env) {
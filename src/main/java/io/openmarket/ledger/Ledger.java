@@ -0,0 +1,578 @@
+package io.openmarket.ledger;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.openmarket.transaction.model.Transaction;
+import io.openmarket.transaction.model.TransactionStatus;
+import io.openmarket.transaction.service.TransactionCompletionListener;
+import io.openmarket.utils.Money;
+import lombok.NonNull;
+import lombok.extern.log4j.Log4j2;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+
+/**
+ * An in-memory double-entry ledger of the coins each wallet owner holds, in minor units, serving balance reads
+ * without reading the wallets. Balances are kept in one primitive row per account with a column per currency.
+ * <p>
+ * The wallets in DynamoDB stay the source of truth, the ledger is a cache of them. An account is opened with the
+ * balances the loader reads from the owner's wallets, and each transaction the processor settles is mirrored as a
+ * transfer that debits the payer and credits the recipient by the same amount. An account is read from the wallets
+ * again once it is older than the max age, which bounds how long payments settled by other servers take to show,
+ * and as soon as it may have drifted: when it is invalidated, when a transfer overdraws it, or when a transaction
+ * settled while it was being read.
+ * <p>
+ * Transfers lock the stripes of their two accounts in stripe order, so transfers between unrelated accounts run in
+ * parallel and two transfers can't deadlock. Opening accounts and adding currencies resize the rows and exclude
+ * every transfer while they do.
+ * <p>
+ * Each change is written to an append-only log before it's applied, and the balances are recovered from the latest
+ * snapshot plus the log after it, so a restarted server doesn't read every wallet again.
+ */
+@Log4j2
+public class Ledger implements TransactionCompletionListener, Closeable {
+    public static final int STRIPE_COUNT = 256;
+
+    private static final String SNAPSHOT_FILE = "ledger.snapshot";
+    private static final int SNAPSHOT_VERSION = 1;
+    private static final long SYNC_PERIOD_MILLIS = 1000;
+    private static final long SNAPSHOT_PERIOD_MILLIS = TimeUnit.MINUTES.toMillis(5);
+    // Enough to drop the redeliveries of the transactions settled in the last few minutes.
+    private static final long MAX_SETTLED_TRANSACTIONS = 100000;
+
+    private final Path directory;
+    private final Function<String, Map<String, Long>> accountLoader;
+    private final long maxAgeMillis;
+    private final boolean isSyncedOnAppend;
+    private final LedgerLog ledgerLog;
+    private final ReentrantLock[] stripes;
+    private final ReentrantReadWriteLock structureLock;
+    private final AtomicLong sequence;
+    // Bumped by every settlement and invalidation of the owners of a stripe, so a load racing with one is redone.
+    private final AtomicLongArray ownerVersions;
+    private final Cache<String, Boolean> settledTransactionIds;
+    private final ScheduledExecutorService executor;
+
+    // Written under the write lock of structureLock. The rows past the last account are spare capacity.
+    private final Map<String, Integer> accountIndexes;
+    private final Map<String, Integer> currencyIndexes;
+    private final List<String> accountIds;
+    private final List<String> currencyIds;
+    private long[][] balances;
+    // When each account was read from the wallets, 0 once it must be read again. Written under its stripe's lock.
+    private long[] loadedAt;
+
+    /**
+     * Create a Ledger, recovering its balances from the given directory.
+     * @param directory the directory of the snapshot and the log.
+     * @param accountLoader reads the owner's balances in minor units by currency from the wallets, or returns null
+     *                      if the owner has no wallet.
+     * @param maxAgeMillis how long the balances of an account are served before they are read again.
+     * @param isSyncedOnAppend whether each entry is synced to disk before it's applied. Otherwise entries are synced
+     *                         every second once started, and may be lost on a crash.
+     * @throws IOException if the snapshot or the log could not be read.
+     */
+    public Ledger(@NonNull final Path directory, @NonNull final Function<String, Map<String, Long>> accountLoader,
+                  final long maxAgeMillis, final boolean isSyncedOnAppend) throws IOException {
+        if (maxAgeMillis <= 0) {
+            throw new IllegalArgumentException(String.format("Invalid ledger max age %dms", maxAgeMillis));
+        }
+        this.directory = directory;
+        this.accountLoader = accountLoader;
+        this.maxAgeMillis = maxAgeMillis;
+        this.isSyncedOnAppend = isSyncedOnAppend;
+        this.ledgerLog = new LedgerLog(directory, isSyncedOnAppend);
+        this.stripes = new ReentrantLock[STRIPE_COUNT];
+        for (int i = 0; i < STRIPE_COUNT; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+        this.structureLock = new ReentrantReadWriteLock();
+        this.sequence = new AtomicLong();
+        this.ownerVersions = new AtomicLongArray(STRIPE_COUNT);
+        this.settledTransactionIds = CacheBuilder.newBuilder().maximumSize(MAX_SETTLED_TRANSACTIONS).build();
+        this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("ledger-%d")
+                .setDaemon(true)
+                .build());
+        this.accountIndexes = new ConcurrentHashMap<>();
+        this.currencyIndexes = new ConcurrentHashMap<>();
+        this.accountIds = new ArrayList<>();
+        this.currencyIds = new ArrayList<>();
+        this.balances = new long[0][];
+        this.loadedAt = new long[0];
+        recover();
+    }
+
+    /**
+     * Start syncing the log and writing snapshots in the background.
+     */
+    public void start() {
+        if (!isSyncedOnAppend) {
+            executor.scheduleWithFixedDelay(this::syncQuietly, SYNC_PERIOD_MILLIS, SYNC_PERIOD_MILLIS,
+                    TimeUnit.MILLISECONDS);
+        }
+        executor.scheduleWithFixedDelay(this::snapshotQuietly, SNAPSHOT_PERIOD_MILLIS, SNAPSHOT_PERIOD_MILLIS,
+                TimeUnit.MILLISECONDS);
+        log.info("Ledger started with {} accounts", accountIds.size());
+    }
+
+    /**
+     * Stop the background work and write a final snapshot.
+     */
+    public void stop() {
+        executor.shutdownNow();
+        snapshotQuietly();
+        try {
+            close();
+        } catch (IOException e) {
+            log.error("Failed to close the ledger log", e);
+        }
+    }
+
+    @Override
+    public void onTransactionCompleted(final String transactionId, final TransactionStatus status) {
+        // The accounts are only known from the settled transaction.
+    }
+
+    @Override
+    public void onTransactionSettled(@NonNull final Transaction transaction, final TransactionStatus status) {
+        if (!TransactionStatus.COMPLETED.equals(status)) {
+            return;
+        }
+        try {
+            transfer(transaction.getTransactionId(), transaction.getPayerId(), transaction.getRecipientId(),
+                    transaction.getCurrencyId(),
+                    Money.toMinorUnits(transaction.getCurrencyId(), transaction.getAmount()));
+        } catch (IOException | RuntimeException e) {
+            log.error("Failed to mirror transaction {}, reloading its accounts", transaction.getTransactionId(), e);
+            invalidate(transaction.getPayerId());
+            invalidate(transaction.getRecipientId());
+        }
+    }
+
+    /**
+     * Mirror a settled transaction, debiting the payer and crediting the recipient. An account that isn't open is
+     * left alone, its wallets already hold the transaction when it's opened. A transaction that was already mirrored
+     * is ignored.
+     * @param transactionId the settled transaction.
+     * @param payerId the account debited.
+     * @param recipientId the account credited.
+     * @param currencyId the currency of the coins.
+     * @param amount the amount moved in minor units.
+     * @throws IllegalArgumentException if the amount isn't positive.
+     * @throws IOException if the transfer could not be logged, in which case it isn't applied.
+     */
+    public void transfer(@NonNull final String transactionId, @NonNull final String payerId,
+                         @NonNull final String recipientId, @NonNull final String currencyId,
+                         final long amount) throws IOException {
+        if (amount <= 0) {
+            throw new IllegalArgumentException(String.format("Invalid amount %d", amount));
+        }
+        ownerVersions.incrementAndGet(ownerStripeOf(payerId));
+        ownerVersions.incrementAndGet(ownerStripeOf(recipientId));
+        if (payerId.equals(recipientId)
+                || settledTransactionIds.asMap().putIfAbsent(transactionId, Boolean.TRUE) != null) {
+            return;
+        }
+        final Integer payer = accountIndexes.get(payerId);
+        final Integer recipient = accountIndexes.get(recipientId);
+        if (payer == null || recipient == null) {
+            // A one-sided entry would break the double entry, so the open side is read from its wallets instead.
+            if (payer != null) {
+                invalidate(payerId);
+            }
+            if (recipient != null) {
+                invalidate(recipientId);
+            }
+            return;
+        }
+        final int currency = addCurrency(currencyId);
+
+        structureLock.readLock().lock();
+        try {
+            final ReentrantLock first = stripes[Math.min(stripeOf(payer), stripeOf(recipient))];
+            final ReentrantLock second = stripes[Math.max(stripeOf(payer), stripeOf(recipient))];
+            first.lock();
+            second.lock();
+            try {
+                append(next -> LedgerEntry.transfer(next, transactionId, payerId, recipientId,
+                        currencyId, amount));
+                balances[payer][currency] = Math.subtractExact(balances[payer][currency], amount);
+                balances[recipient][currency] = Math.addExact(balances[recipient][currency], amount);
+                if (balances[payer][currency] < 0) {
+                    log.warn("Ledger account {} is overdrawn by transaction {}, it will be reloaded", payerId,
+                            transactionId);
+                    loadedAt[payer] = 0;
+                }
+            } finally {
+                second.unlock();
+                first.unlock();
+            }
+        } finally {
+            structureLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Read the owner's balances from the wallets on their next read, e.g. after the wallets were written directly.
+     * @param ownerId the owner of the account.
+     */
+    public void invalidate(@NonNull final String ownerId) {
+        ownerVersions.incrementAndGet(ownerStripeOf(ownerId));
+        final Integer account = accountIndexes.get(ownerId);
+        if (account == null) {
+            return;
+        }
+        structureLock.readLock().lock();
+        try {
+            final ReentrantLock stripe = stripes[stripeOf(account)];
+            stripe.lock();
+            try {
+                loadedAt[account] = 0;
+            } finally {
+                stripe.unlock();
+            }
+        } finally {
+            structureLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Get the balance of an account, opening it if needed.
+     * @param ownerId the owner of the account.
+     * @param currencyId the currency.
+     * @return the balance in minor units, 0 if the owner has no wallet or holds no such coins.
+     */
+    public long getBalance(@NonNull final String ownerId, @NonNull final String currencyId) {
+        final int account = openAccount(ownerId);
+        if (account < 0) {
+            return 0;
+        }
+        structureLock.readLock().lock();
+        try {
+            final Integer currency = currencyIndexes.get(currencyId);
+            if (currency == null) {
+                return 0;
+            }
+            final ReentrantLock stripe = stripes[stripeOf(account)];
+            stripe.lock();
+            try {
+                return balances[account][currency];
+            } finally {
+                stripe.unlock();
+            }
+        } finally {
+            structureLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Get the non-zero balances of an account, opening it if needed.
+     * @param ownerId the owner of the account.
+     * @return the balances in minor units by currency, empty if the owner has no wallet.
+     */
+    public Optional<Map<String, Long>> getBalances(@NonNull final String ownerId) {
+        final int account = openAccount(ownerId);
+        if (account < 0) {
+            return Optional.empty();
+        }
+        structureLock.readLock().lock();
+        try {
+            final ImmutableMap.Builder<String, Long> result = ImmutableMap.builder();
+            final ReentrantLock stripe = stripes[stripeOf(account)];
+            stripe.lock();
+            try {
+                final long[] row = balances[account];
+                for (int i = 0; i < row.length; i++) {
+                    if (row[i] != 0) {
+                        result.put(currencyIds.get(i), row[i]);
+                    }
+                }
+            } finally {
+                stripe.unlock();
+            }
+            return Optional.of(result.build());
+        } finally {
+            structureLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Write a snapshot of every balance and delete the log it covers. Transfers wait while the balances are copied,
+     * but not while the snapshot is written.
+     * @throws IOException if the snapshot could not be written.
+     */
+    public void snapshot() throws IOException {
+        final long snapshotSequence;
+        final List<String> snapshotAccountIds;
+        final List<String> snapshotCurrencyIds;
+        final long[][] snapshotBalances;
+        structureLock.writeLock().lock();
+        try {
+            snapshotSequence = sequence.get();
+            ledgerLog.roll(snapshotSequence + 1);
+            snapshotAccountIds = new ArrayList<>(accountIds);
+            snapshotCurrencyIds = new ArrayList<>(currencyIds);
+            snapshotBalances = new long[accountIds.size()][];
+            for (int i = 0; i < snapshotBalances.length; i++) {
+                snapshotBalances[i] = balances[i].clone();
+            }
+        } finally {
+            structureLock.writeLock().unlock();
+        }
+
+        final Path temporary = directory.resolve(SNAPSHOT_FILE + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+            out.writeInt(SNAPSHOT_VERSION);
+            out.writeLong(snapshotSequence);
+            out.writeInt(snapshotCurrencyIds.size());
+            for (String currencyId : snapshotCurrencyIds) {
+                out.writeUTF(currencyId);
+            }
+            out.writeInt(snapshotAccountIds.size());
+            for (int i = 0; i < snapshotAccountIds.size(); i++) {
+                out.writeUTF(snapshotAccountIds.get(i));
+                for (long balance : snapshotBalances[i]) {
+                    out.writeLong(balance);
+                }
+            }
+        }
+        Files.move(temporary, directory.resolve(SNAPSHOT_FILE), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        ledgerLog.deleteThrough(snapshotSequence);
+        log.info("Wrote ledger snapshot at sequence {} with {} accounts", snapshotSequence, snapshotAccountIds.size());
+    }
+
+    /**
+     * Sync the log to disk.
+     * @throws IOException if the log could not be synced.
+     */
+    public void sync() throws IOException {
+        ledgerLog.sync();
+    }
+
+    @Override
+    public void close() throws IOException {
+        ledgerLog.close();
+    }
+
+    @VisibleForTesting
+    long getSequence() {
+        return sequence.get();
+    }
+
+    // Gets the index of the account, reading its balances and logging them if it's new or must be read again.
+    // Returns -1 if the owner has no wallet.
+    private int openAccount(final String ownerId) {
+        final Integer existing = accountIndexes.get(ownerId);
+        if (existing != null && isFresh(existing)) {
+            return existing;
+        }
+        final int ownerStripe = ownerStripeOf(ownerId);
+        final long version = ownerVersions.get(ownerStripe);
+        // Read before taking the lock, since the wallets are remote.
+        final Map<String, Long> loaded = accountLoader.apply(ownerId);
+        if (loaded == null) {
+            return -1;
+        }
+        structureLock.writeLock().lock();
+        try {
+            final LedgerEntry entry;
+            try {
+                entry = append(next -> LedgerEntry.open(next, ownerId, loaded));
+            } catch (IOException e) {
+                throw new IllegalStateException(String.format("Failed to open ledger account %s", ownerId), e);
+            }
+            final int account = applyOpen(entry);
+            // A transaction settled during the read may be missing from it, so the account is read again next time.
+            loadedAt[account] = ownerVersions.get(ownerStripe) == version ? System.currentTimeMillis() : 0;
+            return account;
+        } finally {
+            structureLock.writeLock().unlock();
+        }
+    }
+
+    // Entries are appended in sequence order, since recovery skips any entry at or before the last one replayed.
+    private LedgerEntry append(final Function<Long, LedgerEntry> entryOfSequence) throws IOException {
+        synchronized (ledgerLog) {
+            final LedgerEntry entry = entryOfSequence.apply(sequence.get() + 1);
+            ledgerLog.append(entry);
+            sequence.set(entry.getSequence());
+            return entry;
+        }
+    }
+
+    private boolean isFresh(final int account) {
+        structureLock.readLock().lock();
+        try {
+            final ReentrantLock stripe = stripes[stripeOf(account)];
+            stripe.lock();
+            try {
+                return loadedAt[account] > 0 && System.currentTimeMillis() - loadedAt[account] < maxAgeMillis;
+            } finally {
+                stripe.unlock();
+            }
+        } finally {
+            structureLock.readLock().unlock();
+        }
+    }
+
+    // Gets the index of the currency, adding a column to every account if it's new.
+    private int addCurrency(final String currencyId) {
+        final Integer existing = currencyIndexes.get(currencyId);
+        if (existing != null) {
+            return existing;
+        }
+        structureLock.writeLock().lock();
+        try {
+            return addCurrencyLocked(currencyId);
+        } finally {
+            structureLock.writeLock().unlock();
+        }
+    }
+
+    private int addCurrencyLocked(final String currencyId) {
+        final Integer existing = currencyIndexes.get(currencyId);
+        if (existing != null) {
+            return existing;
+        }
+        final int index = currencyIds.size();
+        currencyIds.add(currencyId);
+        for (int i = 0; i < accountIds.size(); i++) {
+            balances[i] = Arrays.copyOf(balances[i], index + 1);
+        }
+        currencyIndexes.put(currencyId, index);
+        return index;
+    }
+
+    private int addAccountLocked(final String ownerId) {
+        final Integer existing = accountIndexes.get(ownerId);
+        if (existing != null) {
+            return existing;
+        }
+        final int index = accountIds.size();
+        accountIds.add(ownerId);
+        if (index == balances.length) {
+            final int capacity = Math.max(16, index + (index >> 1));
+            balances = Arrays.copyOf(balances, capacity);
+            loadedAt = Arrays.copyOf(loadedAt, capacity);
+        }
+        balances[index] = new long[currencyIds.size()];
+        // Recovered accounts are served until the max age like freshly read ones.
+        loadedAt[index] = System.currentTimeMillis();
+        accountIndexes.put(ownerId, index);
+        return index;
+    }
+
+    // The loaded balances replace the account's, the currencies they leave out are zero.
+    private int applyOpen(final LedgerEntry entry) {
+        final int account = addAccountLocked(entry.getRecipientId());
+        Arrays.fill(balances[account], 0);
+        for (Map.Entry<String, Long> balance : entry.getOpeningBalances().entrySet()) {
+            final int currency = addCurrencyLocked(balance.getKey());
+            balances[account][currency] = balance.getValue();
+        }
+        return account;
+    }
+
+    private void applyTransfer(final LedgerEntry entry) {
+        final int payer = addAccountLocked(entry.getPayerId());
+        final int recipient = addAccountLocked(entry.getRecipientId());
+        final int currency = addCurrencyLocked(entry.getCurrencyId());
+        balances[payer][currency] -= entry.getAmount();
+        balances[recipient][currency] += entry.getAmount();
+    }
+
+    private void recover() throws IOException {
+        structureLock.writeLock().lock();
+        try {
+            long snapshotSequence = 0;
+            final Path snapshot = directory.resolve(SNAPSHOT_FILE);
+            if (Files.exists(snapshot)) {
+                snapshotSequence = readSnapshot(snapshot);
+            }
+            sequence.set(ledgerLog.recover(snapshotSequence, entry -> {
+                if (entry.getType() == LedgerEntry.Type.OPEN) {
+                    applyOpen(entry);
+                } else {
+                    applyTransfer(entry);
+                    settledTransactionIds.put(entry.getTransactionId(), Boolean.TRUE);
+                }
+            }));
+            log.info("Recovered ledger at sequence {} with {} accounts", sequence.get(), accountIds.size());
+        } finally {
+            structureLock.writeLock().unlock();
+        }
+    }
+
+    private long readSnapshot(final Path snapshot) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(snapshot)))) {
+            final int version = in.readInt();
+            if (version != SNAPSHOT_VERSION) {
+                throw new IOException(String.format("Unknown ledger snapshot version %d", version));
+            }
+            final long snapshotSequence = in.readLong();
+            final int currencyCount = in.readInt();
+            for (int i = 0; i < currencyCount; i++) {
+                addCurrencyLocked(in.readUTF());
+            }
+            final int accountCount = in.readInt();
+            for (int i = 0; i < accountCount; i++) {
+                final int account = addAccountLocked(in.readUTF());
+                for (int j = 0; j < currencyCount; j++) {
+                    balances[account][j] = in.readLong();
+                }
+            }
+            return snapshotSequence;
+        }
+    }
+
+    private void syncQuietly() {
+        try {
+            sync();
+        } catch (IOException e) {
+            log.error("Failed to sync the ledger log", e);
+        }
+    }
+
+    private void snapshotQuietly() {
+        try {
+            snapshot();
+        } catch (IOException | RuntimeException e) {
+            log.error("Failed to write a ledger snapshot", e);
+        }
+    }
+
+    private static int stripeOf(final int account) {
+        return account & (STRIPE_COUNT - 1);
+    }
+
+    private static int ownerStripeOf(final String ownerId) {
+        return Math.floorMod(ownerId.hashCode(), STRIPE_COUNT);
+    }
+}
@@ -0,0 +1,80 @@
+package io.openmarket.ledger;
+
+import com.google.common.collect.ImmutableMap;
+import lombok.NonNull;
+import lombok.Value;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * An entry of the ledger's log, amounts are in minor units. An OPEN entry records the balances an account was
+ * loaded with, replacing any it held, and a TRANSFER entry records both sides of a settled transaction: the payer's
+ * debit and the recipient's credit of the same amount.
+ */
+@Value
+public class LedgerEntry {
+    public enum Type {
+        OPEN,
+        TRANSFER
+    }
+
+    Type type;
+    long sequence;
+    String transactionId;
+    String payerId;
+    String recipientId;
+    String currencyId;
+    long amount;
+    ImmutableMap<String, Long> openingBalances;
+
+    static LedgerEntry open(final long sequence, @NonNull final String ownerId,
+                            @NonNull final Map<String, Long> balances) {
+        return new LedgerEntry(Type.OPEN, sequence, "", "", ownerId, "", 0, ImmutableMap.copyOf(balances));
+    }
+
+    static LedgerEntry transfer(final long sequence, @NonNull final String transactionId,
+                                @NonNull final String payerId, @NonNull final String recipientId,
+                                @NonNull final String currencyId, final long amount) {
+        return new LedgerEntry(Type.TRANSFER, sequence, transactionId, payerId, recipientId, currencyId, amount,
+                ImmutableMap.of());
+    }
+
+    void writeTo(final DataOutputStream out) throws IOException {
+        out.writeByte(type.ordinal());
+        out.writeLong(sequence);
+        if (type == Type.OPEN) {
+            out.writeUTF(recipientId);
+            out.writeInt(openingBalances.size());
+            for (Map.Entry<String, Long> balance : openingBalances.entrySet()) {
+                out.writeUTF(balance.getKey());
+                out.writeLong(balance.getValue());
+            }
+        } else {
+            out.writeUTF(transactionId);
+            out.writeUTF(payerId);
+            out.writeUTF(recipientId);
+            out.writeUTF(currencyId);
+            out.writeLong(amount);
+        }
+    }
+
+    static LedgerEntry readFrom(final DataInputStream in) throws IOException {
+        final int type = in.readByte();
+        final long sequence = in.readLong();
+        if (type == Type.OPEN.ordinal()) {
+            final String ownerId = in.readUTF();
+            final int size = in.readInt();
+            final ImmutableMap.Builder<String, Long> balances = ImmutableMap.builder();
+            for (int i = 0; i < size; i++) {
+                balances.put(in.readUTF(), in.readLong());
+            }
+            return open(sequence, ownerId, balances.build());
+        } else if (type == Type.TRANSFER.ordinal()) {
+            return transfer(sequence, in.readUTF(), in.readUTF(), in.readUTF(), in.readUTF(), in.readLong());
+        }
+        throw new IOException(String.format("Unknown ledger entry type %d", type));
+    }
+}
@@ -0,0 +1,174 @@
+package io.openmarket.ledger;
+
+import lombok.NonNull;
+import lombok.extern.log4j.Log4j2;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * The append-only log of ledger entries, split into files named after the sequence of their first entry. Every entry
+ * carries a checksum, so a torn write at the end of the log is dropped on recovery. Files whose entries are all
+ * covered by a snapshot are deleted.
+ */
+@Log4j2
+class LedgerLog implements Closeable {
+    private static final String FILE_PREFIX = "ledger-";
+    private static final String FILE_SUFFIX = ".log";
+
+    // An entry is its payload length, the payload's CRC32 and the payload.
+    private static final int HEADER_SIZE = 8;
+
+    private final Path directory;
+    private final boolean isSyncedOnAppend;
+
+    // Guarded by this.
+    private final TreeMap<Long, Path> files;
+    private FileChannel channel;
+
+    LedgerLog(@NonNull final Path directory, final boolean isSyncedOnAppend) throws IOException {
+        this.directory = directory;
+        this.isSyncedOnAppend = isSyncedOnAppend;
+        this.files = new TreeMap<>();
+        Files.createDirectories(directory);
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, FILE_PREFIX + "*" + FILE_SUFFIX)) {
+            for (Path file : stream) {
+                final String name = file.getFileName().toString();
+                files.put(Long.parseLong(name.substring(FILE_PREFIX.length(), name.length() - FILE_SUFFIX.length())),
+                        file);
+            }
+        }
+    }
+
+    /**
+     * Replay the entries after the given sequence in the order they were appended, then open the log for appends.
+     * @param afterSequence the sequence covered by the snapshot the ledger was restored from.
+     * @param consumer receives each entry.
+     * @return the sequence of the last entry, or afterSequence if there is none after it.
+     */
+    synchronized long recover(final long afterSequence, @NonNull final Consumer<LedgerEntry> consumer)
+            throws IOException {
+        long lastSequence = afterSequence;
+        for (Path file : files.values()) {
+            final byte[] bytes = Files.readAllBytes(file);
+            final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            while (buffer.remaining() >= HEADER_SIZE) {
+                final int start = buffer.position();
+                final int length = buffer.getInt();
+                final int checksum = buffer.getInt();
+                if (length <= 0 || length > buffer.remaining() || checksum != crc(bytes, buffer.position(), length)) {
+                    buffer.position(start);
+                    break;
+                }
+                final LedgerEntry entry = LedgerEntry.readFrom(new DataInputStream(
+                        new ByteArrayInputStream(bytes, buffer.position(), length)));
+                buffer.position(buffer.position() + length);
+                if (entry.getSequence() > lastSequence) {
+                    consumer.accept(entry);
+                    lastSequence = entry.getSequence();
+                }
+            }
+            if (buffer.hasRemaining()) {
+                if (!file.equals(files.lastEntry().getValue())) {
+                    throw new IOException(String.format("Ledger log %s is corrupted at offset %d", file,
+                            buffer.position()));
+                }
+                log.warn("Dropping a torn entry at offset {} of ledger log {}", buffer.position(), file);
+                try (FileChannel truncated = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                    truncated.truncate(buffer.position());
+                }
+            }
+        }
+        // Appends continue in the last file, so restarts don't leave a file each.
+        openFile(files.isEmpty() ? lastSequence + 1 : files.lastKey());
+        return lastSequence;
+    }
+
+    synchronized void append(final LedgerEntry entry) throws IOException {
+        final ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(payload)) {
+            entry.writeTo(out);
+        }
+        final byte[] bytes = payload.toByteArray();
+        final ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + bytes.length);
+        buffer.putInt(bytes.length);
+        buffer.putInt(crc(bytes, 0, bytes.length));
+        buffer.put(bytes);
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        if (isSyncedOnAppend) {
+            channel.force(false);
+        }
+    }
+
+    /**
+     * Continue the log in a new file, so the current files can be deleted once a snapshot covers them.
+     * @param nextSequence the sequence of the next entry.
+     */
+    synchronized void roll(final long nextSequence) throws IOException {
+        channel.force(false);
+        channel.close();
+        openFile(nextSequence);
+    }
+
+    /**
+     * Delete the files whose entries are all at or before the given sequence.
+     * @param sequence the sequence covered by a durable snapshot.
+     */
+    synchronized void deleteThrough(final long sequence) throws IOException {
+        final List<Long> covered = new ArrayList<>();
+        Long previous = null;
+        for (Long first : files.keySet()) {
+            if (previous != null && first - 1 <= sequence) {
+                covered.add(previous);
+            }
+            previous = first;
+        }
+        for (Long first : covered) {
+            Files.deleteIfExists(files.remove(first));
+        }
+    }
+
+    synchronized void sync() throws IOException {
+        channel.force(false);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (channel != null) {
+            channel.force(false);
+            channel.close();
+        }
+    }
+
+    private void openFile(final long firstSequence) throws IOException {
+        final Path file = files.containsKey(firstSequence) ? files.get(firstSequence)
+                : directory.resolve(String.format("%s%020d%s", FILE_PREFIX, firstSequence, FILE_SUFFIX));
+        files.put(firstSequence, file);
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+    }
+
+    private static int crc(final byte[] bytes, final int offset, final int length) {
+        final CRC32 crc = new CRC32();
+        crc.update(bytes, offset, length);
+        return (int) crc.getValue();
+    }
+}
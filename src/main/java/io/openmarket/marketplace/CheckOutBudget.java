@@ -0,0 +1,56 @@
+package io.openmarket.marketplace;
+
+import io.openmarket.transaction.service.WalletSnapshot;
+import lombok.NonNull;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The balances a checkout may still spend, seeded from one {@link WalletSnapshot} and decremented locally as each
+ * organization's sub-order is reserved. It is safe to share between sub-orders that are processed concurrently.
+ * Reservations are counted in minor units, so a total that equals the balance is always affordable.
+ */
+class CheckOutBudget {
+    private final WalletSnapshot snapshot;
+    private final Map<String, AtomicLong> reserved;
+
+    CheckOutBudget(@NonNull final WalletSnapshot snapshot) {
+        this.snapshot = snapshot;
+        this.reserved = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Reserve the given amount if the remaining balance covers it.
+     * @param currency the currency ID.
+     * @param requested the amount to reserve in minor units.
+     * @return true if the amount was reserved, false if the balance is insufficient.
+     */
+    boolean tryReserve(@NonNull final String currency, final long requested) {
+        final long balance = snapshot.getBalance(currency);
+        final AtomicLong alreadyReserved = reserved.computeIfAbsent(currency, k -> new AtomicLong());
+        while (true) {
+            final long current = alreadyReserved.get();
+            if (Math.subtractExact(balance, current) < requested) {
+                return false;
+            }
+            if (alreadyReserved.compareAndSet(current, Math.addExact(current, requested))) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Give back an amount that was reserved but will not be spent.
+     * @param currency the currency ID.
+     * @param released the amount to release in minor units.
+     */
+    void release(@NonNull final String currency, final long released) {
+        final AtomicLong alreadyReserved = reserved.get(currency);
+        if (released <= 0 || alreadyReserved == null) {
+            return;
+        }
+        alreadyReserved.getAndUpdate(current -> Math.max(0, current - released));
+    }
+}
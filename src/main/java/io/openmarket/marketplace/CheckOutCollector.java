@@ -0,0 +1,150 @@
+package io.openmarket.marketplace;
+
+import com.google.common.collect.ImmutableSet;
+import io.openmarket.marketplace.grpc.MarketPlaceProto;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Collects the outcome of every organization's sub-order in a checkout.
+ * It is safe to share between sub-orders that are processed concurrently.
+ */
+class CheckOutCollector {
+    // Orders that have successfully checked out.
+    private final List<MarketPlaceProto.Order> successOrders;
+
+    // Items that failed to check out.
+    private final List<MarketPlaceProto.FailedItem> failedItems;
+
+    // Orders with unknown payment status (non-empty iff payment(s) time out).
+    private final List<MarketPlaceProto.Order> actionRequiredOrders;
+
+    // Shared by the collector of a checkout and the collectors of its sub-orders.
+    private final PaymentWaits paymentWaits;
+
+    CheckOutCollector() {
+        this(new PaymentWaits());
+    }
+
+    private CheckOutCollector(final PaymentWaits paymentWaits) {
+        this.successOrders = Collections.synchronizedList(new ArrayList<>());
+        this.failedItems = Collections.synchronizedList(new ArrayList<>());
+        this.actionRequiredOrders = Collections.synchronizedList(new ArrayList<>());
+        this.paymentWaits = paymentWaits;
+    }
+
+    /**
+     * Create a collector for one organization's sub-order, it shares this collector's cancellation state.
+     * @return an empty collector.
+     */
+    CheckOutCollector newSubOrderCollector() {
+        return new CheckOutCollector(paymentWaits);
+    }
+
+    /**
+     * Add all outcomes collected by a sub-order's collector.
+     * @param subOrderCollector the collector returned by {@link #newSubOrderCollector()}.
+     */
+    void addAll(final CheckOutCollector subOrderCollector) {
+        final MarketPlaceProto.CheckOutResult subOrderResult = subOrderCollector.toResult();
+        successOrders.addAll(subOrderResult.getSuccessOrdersList());
+        failedItems.addAll(subOrderResult.getFailedItemsList());
+        actionRequiredOrders.addAll(subOrderResult.getActionRequiredOrdersList());
+    }
+
+    void addSuccessOrder(final MarketPlaceProto.Order order) {
+        successOrders.add(order);
+    }
+
+    void addActionRequiredOrder(final MarketPlaceProto.Order order) {
+        actionRequiredOrders.add(order);
+    }
+
+    List<MarketPlaceProto.FailedItem> getFailedItems() {
+        return failedItems;
+    }
+
+    int getSuccessCount() {
+        return successOrders.size();
+    }
+
+    int getFailedCount() {
+        return failedItems.size();
+    }
+
+    int getActionRequiredCount() {
+        return actionRequiredOrders.size();
+    }
+
+    /**
+     * Record that the checkout is waiting on the given payment.
+     * @param transactionId the ID of the payment's transaction.
+     * @return false if the checkout has been cancelled, in which case the caller must not wait.
+     */
+    boolean startPaymentWait(final String transactionId) {
+        return paymentWaits.start(transactionId);
+    }
+
+    void finishPaymentWait(final String transactionId) {
+        paymentWaits.finish(transactionId);
+    }
+
+    /**
+     * Cancel the checkout, sub-orders that haven't started will be skipped.
+     * @return the IDs of the payments that are still being waited on.
+     */
+    Set<String> cancel() {
+        return paymentWaits.cancel();
+    }
+
+    boolean isCancelled() {
+        return paymentWaits.isCancelled();
+    }
+
+    MarketPlaceProto.CheckOutResult toResult() {
+        final MarketPlaceProto.CheckOutResult.Builder builder = MarketPlaceProto.CheckOutResult.newBuilder()
+                .setError(MarketPlaceProto.Error.NONE);
+        synchronized (successOrders) {
+            builder.addAllSuccessOrders(successOrders);
+        }
+        synchronized (failedItems) {
+            builder.addAllFailedItems(failedItems);
+        }
+        synchronized (actionRequiredOrders) {
+            builder.addAllActionRequiredOrders(actionRequiredOrders);
+        }
+        return builder.build();
+    }
+
+    private static class PaymentWaits {
+        private final Set<String> transactionIds = new HashSet<>();
+        private boolean isCancelled = false;
+
+        synchronized boolean start(final String transactionId) {
+            if (isCancelled) {
+                return false;
+            }
+            transactionIds.add(transactionId);
+            return true;
+        }
+
+        synchronized void finish(final String transactionId) {
+            transactionIds.remove(transactionId);
+        }
+
+        synchronized Set<String> cancel() {
+            isCancelled = true;
+            final Set<String> waiting = ImmutableSet.copyOf(transactionIds);
+            transactionIds.clear();
+            return waiting;
+        }
+
+        synchronized boolean isCancelled() {
+            return isCancelled;
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package io.openmarket.marketplace;
+
+import io.openmarket.marketplace.grpc.MarketPlaceProto;
+import io.openmarket.marketplace.model.Item;
+import lombok.NonNull;
+
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The items of a checkout keyed by item ID, with a bitset of the items that have failed to check out.
+ * Failed items are treated as absent. It is safe to share between sub-orders that are processed concurrently.
+ */
+class CheckOutItemTable {
+    private final IntIndex index;
+    private final MarketPlaceProto.CheckOutItem[] items;
+
+    // Guarded by this.
+    private final BitSet failed;
+
+    private CheckOutItemTable(final int maxSize) {
+        this.index = new IntIndex(maxSize);
+        this.items = new MarketPlaceProto.CheckOutItem[maxSize];
+        this.failed = new BitSet(maxSize);
+    }
+
+    /**
+     * Create a table of the given items.
+     * @param itemList the items being checked out.
+     * @param quantityMap a map of item ID to the quantity requested.
+     * @return the table.
+     */
+    static CheckOutItemTable of(@NonNull final List<Item> itemList, @NonNull final Map<Integer, Integer> quantityMap) {
+        final CheckOutItemTable table = new CheckOutItemTable(itemList.size());
+        for (Item item : itemList) {
+            final int position = table.index.add(item.getItemID());
+            table.items[position] = MarketPlaceServiceHandler.convertItemToCheckOutItem(item,
+                    quantityMap.get(item.getItemID()));
+        }
+        return table;
+    }
+
+    /**
+     * Create a table without items, for failures that happen before the items are known.
+     * @return an empty table.
+     */
+    static CheckOutItemTable empty() {
+        return new CheckOutItemTable(0);
+    }
+
+    /**
+     * Get the item with the given ID, or an item carrying only the ID if it is absent or has failed.
+     * @param itemId the item ID.
+     * @return the checkout item.
+     */
+    synchronized MarketPlaceProto.CheckOutItem getOrDefault(final int itemId) {
+        final int position = index.indexOf(itemId);
+        if (position < 0 || failed.get(position)) {
+            return MarketPlaceProto.CheckOutItem.newBuilder().setItemId(itemId).build();
+        }
+        return items[position];
+    }
+
+    synchronized boolean contains(final int itemId) {
+        final int position = index.indexOf(itemId);
+        return position >= 0 && !failed.get(position);
+    }
+
+    /**
+     * Mark the item as failed, it is treated as absent from now on.
+     * @param itemId the item ID.
+     */
+    synchronized void markFailed(final int itemId) {
+        final int position = index.indexOf(itemId);
+        if (position >= 0) {
+            failed.set(position);
+        }
+    }
+
+    /**
+     * Get the number of items that have not failed.
+     * @return the number of items.
+     */
+    synchronized int size() {
+        return index.size() - failed.cardinality();
+    }
+}
@@ -0,0 +1,33 @@
+package io.openmarket.marketplace;
+
+import io.openmarket.marketplace.grpc.MarketPlaceProto;
+
+/**
+ * A listener that gets notified as each organization's sub-order in a checkout settles.
+ */
+public interface CheckOutListener {
+    /**
+     * A listener that ignores all sub-order results and is never cancelled.
+     */
+    CheckOutListener NO_OP = new CheckOutListener() {
+        @Override
+        public void onSubOrderSettled(String orgId, MarketPlaceProto.CheckOutResult result) {}
+
+        @Override
+        public void setOnCancelHandler(Runnable onCancelHandler) {}
+    };
+
+    /**
+     * Called once an organization's sub-order has succeeded, failed or requires action.
+     * @param orgId the organization the sub-order belongs to.
+     * @param result the orders and failed items of this sub-order only.
+     */
+    void onSubOrderSettled(String orgId, MarketPlaceProto.CheckOutResult result);
+
+    /**
+     * Set the handler to run once the caller no longer wants the checkout. The handler must be run immediately if the
+     * caller has already gone away.
+     * @param onCancelHandler the handler that stops the remaining sub-orders.
+     */
+    void setOnCancelHandler(Runnable onCancelHandler);
+}
@@ -0,0 +1,90 @@
+package io.openmarket.marketplace;
+
+/**
+ * An open-addressing hash index from int keys to dense positions 0..size-1, in insertion order.
+ * The capacity is fixed at construction. It is not safe to add keys concurrently, but it may be read concurrently
+ * once fully built.
+ */
+final class IntIndex {
+    private static final int NO_POSITION = -1;
+
+    // The keys in insertion order.
+    private final int[] keys;
+
+    // Open-addressing table holding position + 1 of each key, 0 marks an empty bucket.
+    private final int[] buckets;
+    private final int mask;
+    private int size;
+
+    IntIndex(final int maxSize) {
+        if (maxSize < 0) {
+            throw new IllegalArgumentException(String.format("Invalid index size %d", maxSize));
+        }
+        this.keys = new int[maxSize];
+        // Keep the load factor at or below 0.5 so probe sequences stay short.
+        final int capacity = Integer.highestOneBit(Math.max(2, maxSize * 2) - 1) << 1;
+        this.buckets = new int[capacity];
+        this.mask = capacity - 1;
+        this.size = 0;
+    }
+
+    /**
+     * Add the key if it is not present yet.
+     * @param key the key to add.
+     * @return the position of the key.
+     */
+    int add(final int key) {
+        int bucket = hash(key) & mask;
+        while (buckets[bucket] != 0) {
+            final int position = buckets[bucket] - 1;
+            if (keys[position] == key) {
+                return position;
+            }
+            bucket = (bucket + 1) & mask;
+        }
+        if (size == keys.length) {
+            throw new IllegalStateException(String.format("Index is full with %d keys", size));
+        }
+        keys[size] = key;
+        buckets[bucket] = size + 1;
+        return size++;
+    }
+
+    /**
+     * Get the position of the key.
+     * @param key the key to look up.
+     * @return the position, or -1 if the key is not present.
+     */
+    int indexOf(final int key) {
+        int bucket = hash(key) & mask;
+        while (buckets[bucket] != 0) {
+            final int position = buckets[bucket] - 1;
+            if (keys[position] == key) {
+                return position;
+            }
+            bucket = (bucket + 1) & mask;
+        }
+        return NO_POSITION;
+    }
+
+    boolean contains(final int key) {
+        return indexOf(key) != NO_POSITION;
+    }
+
+    int keyAt(final int position) {
+        if (position < 0 || position >= size) {
+            throw new IndexOutOfBoundsException(String.format("Position %d is out of bound %d", position, size));
+        }
+        return keys[position];
+    }
+
+    int size() {
+        return size;
+    }
+
+    // Item IDs are often sequential, so spread them before masking.
+    private static int hash(final int key) {
+        final int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
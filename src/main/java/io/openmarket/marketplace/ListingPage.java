@@ -0,0 +1,22 @@
+package io.openmarket.marketplace;
+
+import io.openmarket.marketplace.grpc.MarketPlaceProto.GetOrgItemsResult;
+import lombok.NonNull;
+import lombok.Value;
+
+import javax.annotation.Nullable;
+
+/**
+ * A page of an organization's listing.
+ */
+@Value
+public class ListingPage {
+    @NonNull GetOrgItemsResult result;
+
+    // The token to pass to get the next page, or null if this is the last page.
+    @Nullable String nextPageToken;
+
+    public boolean hasNextPage() {
+        return nextPageToken != null;
+    }
+}
@@ -2,6 +2,7 @@ package io.openmarket.marketplace;
 
 import com.amazonaws.services.dynamodbv2.model.AttributeValue;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.CacheStats;
 import io.openmarket.marketplace.dao.ItemDao;
 import io.openmarket.marketplace.grpc.MarketPlaceProto;
 import io.openmarket.marketplace.grpc.MarketPlaceProto.GetOrgItemsRequest;
@@ -16,22 +17,29 @@ import io.openmarket.organization.OrgServiceHandler;
 import io.openmarket.organization.model.Organization;
 import io.openmarket.transaction.grpc.TransactionProto;
 import io.openmarket.transaction.model.TransactionStatus;
+import io.openmarket.transaction.service.PaymentCompletionRegistry;
 import io.openmarket.transaction.service.TransactionServiceHandler;
-import io.openmarket.utils.MiscUtils;
+import io.openmarket.utils.IdGenerator;
+import io.openmarket.utils.Money;
+import io.openmarket.utils.PaginationTokenCodec;
 import io.openmarket.utils.TimeUtils;
+import lombok.Builder;
 import lombok.NonNull;
 import lombok.extern.log4j.Log4j2;
 
 import javax.annotation.Nonnull;
-import javax.inject.Inject;
-import java.sql.SQLException;
+import javax.annotation.Nullable;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.UUID;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 @Log4j2
@@ -40,33 +48,110 @@ public class MarketPlaceServiceHandler {
     private final OrderDao orderDao;
     private final OrgServiceHandler orgServiceHandler;
     private final TransactionServiceHandler transactionServiceHandler;
-
-    private static final int CHECKOUT_PAYMENT_MAX_ATTEMPTS = 10;
-    private static final int CHECKOUT_PAYMENT_PERIOD = 1000;
-
-    @Inject
+    private final PaymentCompletionRegistry paymentCompletionRegistry;
+    private final long paymentTimeoutMillis;
+    private final ExecutorService checkoutExecutor;
+    private final StockReservationEngine stockReservationEngine;
+    private final OrgListingCache listingCache;
+    private final PaginationTokenCodec tokenCodec;
+
+    // The maximum time a checkout waits for the processor to settle a payment.
+    public static final long CHECKOUT_PAYMENT_TIMEOUT_MILLIS = 10000;
+
+    // The maximum number of items in a page of an organization's listing.
+    public static final int MAX_LISTING_PAGE_SIZE = 500;
+
+    // The maximum number of organizations whose listing is cached.
+    private static final long LISTING_CACHE_MAX_SIZE = 1000;
+
+    // How long a cached listing is served. Stock written by checkouts drops the listings of its orgs, so this only
+    // bounds how long changes made by other servers take to show.
+    private static final long LISTING_CACHE_TTL_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+    /**
+     * Create a MarketPlaceServiceHandler, use {@link #builder()} to leave out the optional parts.
+     * @param paymentTimeoutMillis the maximum time a checkout waits for a payment to settle.
+     * @param checkoutExecutor the executor to process organizations' sub-orders on in parallel,
+     *                         or null to process them one at a time.
+     * @param stockReservationEngine the engine to reserve stock in memory,
+     *                               or null to update the stock in the database on every checkout.
+     * @param tokenCodec the codec of the pagination tokens of order queries, or null for a default codec.
+     */
+    @Builder
     public MarketPlaceServiceHandler(@Nonnull final ItemDao itemDao,
                                      @NonNull final OrderDao orderDao,
                                      @NonNull final OrgServiceHandler orgServiceHandler,
-                                     @Nonnull final TransactionServiceHandler transactionServiceHandler) {
+                                     @Nonnull final TransactionServiceHandler transactionServiceHandler,
+                                     @NonNull final PaymentCompletionRegistry paymentCompletionRegistry,
+                                     final long paymentTimeoutMillis,
+                                     @Nullable final ExecutorService checkoutExecutor,
+                                     @Nullable final StockReservationEngine stockReservationEngine,
+                                     @Nullable final PaginationTokenCodec tokenCodec) {
         this.itemDao = itemDao;
         this.orderDao = orderDao;
         this.orgServiceHandler = orgServiceHandler;
         this.transactionServiceHandler = transactionServiceHandler;
-        log.info("MarketPlaceServiceHandler started");
+        this.paymentCompletionRegistry = paymentCompletionRegistry;
+        this.paymentTimeoutMillis = paymentTimeoutMillis;
+        this.checkoutExecutor = checkoutExecutor;
+        this.stockReservationEngine = stockReservationEngine;
+        this.tokenCodec = tokenCodec == null ? new PaginationTokenCodec() : tokenCodec;
+        this.listingCache = new OrgListingCache(itemDao, LISTING_CACHE_MAX_SIZE, LISTING_CACHE_TTL_MILLIS);
+        if (stockReservationEngine != null) {
+            // The engine writes stock behind checkouts, so listings are dropped once the stock reaches the database.
+            stockReservationEngine.setStockChangeListener(this::invalidateListing);
+        }
+        log.info("MarketPlaceServiceHandler started in {} checkout mode",
+                checkoutExecutor == null ? "sequential" : "parallel");
     }
   
-    public GetOrgItemsResult getListingByOrgId(GetOrgItemsRequest request) throws SQLException {
-        List<Integer> itemIds = this.itemDao.getItemIdsByOrg(request.getOrgId());
-        List<Integer> failedItemIds = new ArrayList<>();
-        List<Item> selling = this.itemDao.batchLoad(itemIds, failedItemIds);
-        List<MarketPlaceItem> result = new ArrayList<>();
-
-        for(Item item : selling) {
-            result.add(convertToGrpc(item));
+    /**
+     * Builds a MarketPlaceServiceHandler, checkouts wait {@link #CHECKOUT_PAYMENT_TIMEOUT_MILLIS} for their payment
+     * unless set otherwise.
+     */
+    public static class MarketPlaceServiceHandlerBuilder {
+        private long paymentTimeoutMillis = CHECKOUT_PAYMENT_TIMEOUT_MILLIS;
+    }
+
+    public GetOrgItemsResult getListingByOrgId(@NonNull final GetOrgItemsRequest request) {
+        return GetOrgItemsResult.newBuilder().addAllItems(listingCache.get(request.getOrgId())).build();
+    }
+
+    /**
+     * Get a page of an organization's listing, ordered by item ID.
+     * @param request the request with the org ID.
+     * @param pageToken the token returned with the previous page, or null for the first page.
+     * @param pageSize the maximum number of items in the page.
+     * @return the page.
+     */
+    public ListingPage getListingPage(@NonNull final GetOrgItemsRequest request,
+                                      @Nullable final String pageToken,
+                                      final int pageSize) {
+        if (pageSize <= 0 || pageSize > MAX_LISTING_PAGE_SIZE) {
+            throw new IllegalArgumentException(String.format("Invalid listing page size %d", pageSize));
         }
+        final List<MarketPlaceItem> listing = listingCache.get(request.getOrgId());
+        // The token is the last item ID returned, so the next page starts after it even if the listing changed.
+        final int start = pageToken == null ? 0 : indexAfterItemId(listing, parseListingPageToken(pageToken));
+        final int end = Math.min(listing.size(), start + pageSize);
+        final GetOrgItemsResult result = GetOrgItemsResult.newBuilder()
+                .addAllItems(listing.subList(start, end))
+                .build();
+        final String nextPageToken = end < listing.size() ? String.valueOf(listing.get(end - 1).getItemId()) : null;
+        return new ListingPage(result, nextPageToken);
+    }
 
-        return GetOrgItemsResult.newBuilder().addAllItems(result).build();
+    /**
+     * Drop the cached listing of the given org, e.g. after its items have been changed.
+     * @param orgId the org ID.
+     */
+    public void invalidateListing(@NonNull final String orgId) {
+        listingCache.invalidate(orgId);
+    }
+
+    @VisibleForTesting
+    protected CacheStats getListingCacheStats() {
+        return listingCache.getStats();
     }
 
     public MarketPlaceProto.GetAllOrdersResult getOrders(@NonNull final String userId,
@@ -76,7 +161,7 @@ public class MarketPlaceServiceHandler {
             throw new IllegalArgumentException("Invalid get order request");
         }
         final List<String> orderIds = new ArrayList<>();
-        Map<String, AttributeValue> exclusiveStartKey = MiscUtils.getExclusiveStartKey(request.getExclusiveStartKey())
+        Map<String, AttributeValue> exclusiveStartKey = tokenCodec.decode(request.getExclusiveStartKey())
                 .orElse(null);
         if (request.getRole().equals(MarketPlaceProto.Role.BUYER)) {
             exclusiveStartKey = orderDao.getOrderByBuyer(userId, exclusiveStartKey, orderIds, request.getMaxCount());
@@ -89,12 +174,29 @@ public class MarketPlaceServiceHandler {
         return MarketPlaceProto.GetAllOrdersResult.newBuilder()
                 .addAllOrders(orders.stream().map(MarketPlaceServiceHandler::convertOrderModelToGrpcOrder)
                         .collect(Collectors.toList()))
-                .setLastEvaluatedKey(MiscUtils.convertToLastEvaluatedKey(exclusiveStartKey))
+                .setLastEvaluatedKey(tokenCodec.encode(exclusiveStartKey))
                 .build();
     }
 
     public MarketPlaceProto.CheckOutResult checkout(@NonNull final String userId,
                                                     @NonNull final MarketPlaceProto.CheckOutRequest request) {
+        return checkout(userId, request, CheckOutListener.NO_OP);
+    }
+
+    /**
+     * Check out the given cart, notifying the listener as each organization's sub-order settles.
+     * <p>
+     * A checkout that fails after some of its payments were committed returns the orders paid so far without an
+     * error, rather than {@link MarketPlaceProto.Error#INTERNAL_SERVICE_ERROR}. A bare error would let a retry with
+     * the same idempotency key pay for those orders again.
+     * @param userId the ID of the buyer.
+     * @param request the checkout request.
+     * @param listener the listener for sub-order results and cancellation.
+     * @return the summary of all sub-orders.
+     */
+    public MarketPlaceProto.CheckOutResult checkout(@NonNull final String userId,
+                                                    @NonNull final MarketPlaceProto.CheckOutRequest request,
+                                                    @NonNull final CheckOutListener listener) {
         log.info("User {} requested checkout with request: {}", userId, request);
 
         // TODO: Modify error type
@@ -104,139 +206,247 @@ public class MarketPlaceServiceHandler {
                     .setError(MarketPlaceProto.Error.INTERNAL_SERVICE_ERROR)
                     .build();
         }
-        // A list containing orders that have successfully checked out.
-        final List<MarketPlaceProto.Order> successOrders = new ArrayList<>();
-
-        // A list of failed items.
-        final List<MarketPlaceProto.FailedItem> failedItems = new ArrayList<>();
-
-        // A list of orders with unknown payment status (non-empty iff payment(s) time out).
-        final List<MarketPlaceProto.Order> actionRequiredOrders = new ArrayList<>();
+        final CheckOutCollector collector = new CheckOutCollector();
+        listener.setOnCancelHandler(() -> cancelCheckOut(userId, collector));
         try {
             // Fetch all items in a batch.
             final List<Integer> batchFailedItemIds = new ArrayList<>();
-            List<Item> itemList = itemDao.batchLoad(request.getItemsMap().keySet(), batchFailedItemIds);
+            final List<Item> itemList = itemDao.batchLoad(request.getItemsMap().keySet(), batchFailedItemIds);
             if (!batchFailedItemIds.isEmpty()) {
                 log.warn("Some items failed to load: {}", batchFailedItemIds);
             }
 
             // Filter out the invalid ones.
-            moveAllInvalidItems(batchFailedItemIds, failedItems, itemList, new HashMap<>(),
+            moveAllInvalidItems(batchFailedItemIds, collector.getFailedItems(), itemList, CheckOutItemTable.empty(),
                     MarketPlaceProto.FailedCheckOutCause.ITEM_DOES_NOT_EXIST);
 
             // Use a table to speed up lookup.
-            final Map<Integer, MarketPlaceProto.CheckOutItem> itemIndex = convertItemListToCheckOutItemMap(itemList,
-                    request.getItemsMap());
+            final CheckOutItemTable itemIndex = CheckOutItemTable.of(itemList, request.getItemsMap());
 
             // A map of orgId to list of items sold by the particular org.
             final Map<String, List<Item>> orgIdToItemsMap = mapOrgIdToItems(itemList);
 
-            // Process each organization's order separately in a batch.
-            for (Map.Entry<String, List<Item>> itemsToCheckOut : orgIdToItemsMap.entrySet()) {
-                try {
-                    final Organization organization = orgServiceHandler.getOrgByName(itemsToCheckOut.getKey())
-                            .orElseThrow(() -> new IllegalArgumentException(String.format("OrgId %s is invalid",
-                                    itemsToCheckOut.getKey())));
-
-                    itemList = itemsToCheckOut.getValue();
-
-                    // A map of itemID to quantity.
-                    final Map<Integer, Integer> polishedRequest = itemList.stream()
-                            .collect(Collectors.toMap(Item::getItemID, a -> request.getItemsMap().get(a.getItemID())));
-
-                    // Avoids unwanted throttling by using a temporary order to check if user has enough balance.
-                    Order order = generateOrderFromCheckOutItems(userId, organization,
-                            itemList, request.getItemsMap());
-                    if (transactionServiceHandler.getBalanceForCurrency(userId, order.getCurrency()) < order.getTotal()) {
-                        log.info("User {} doesn't have enough {} to check out order {}", userId, order.getCurrency(), itemList);
-                        moveAllInvalidItems(itemList.stream().map(Item::getItemID).collect(Collectors.toList()),
-                                failedItems, itemList, itemIndex,
-                                MarketPlaceProto.FailedCheckOutCause.INSUFFICIENT_BALANCE);
-                        continue;
-                    }
-
-                    // Update stock quantity, then filter out of stock items.
-                    final List<Integer> updateFailedItemIds = itemDao.updateItemStock(polishedRequest);
-                    moveAllInvalidItems(updateFailedItemIds, failedItems, itemList, itemIndex,
-                            MarketPlaceProto.FailedCheckOutCause.OUT_OF_STOCK);
+            // Read the wallet once, each org's sub-order is then reserved against this budget.
+            final CheckOutBudget budget = orgIdToItemsMap.isEmpty() ? null
+                    : new CheckOutBudget(transactionServiceHandler.getWalletSnapshot(userId));
 
-                    if (itemList.isEmpty()) {
-                        log.info("All items are out of stock or invalid. UpdatedFailedItems: {}",
-                                updateFailedItemIds);
-                        continue;
-                    }
-                    order = generateOrderFromCheckOutItems(userId, organization,
-                            itemList, request.getItemsMap());
-                    final TransactionServiceHandler.Stepper stepper = transactionServiceHandler.createPaymentStepper(userId,
-                            TransactionProto.PaymentRequest.newBuilder()
-                                    .setType(TransactionProto.PaymentRequest.Type.PAY)
-                                    .setMoneyAmount(TransactionProto.MoneyAmount.newBuilder()
-                                            .setCurrencyId(order.getCurrency())
-                                            .setAmount(order.getTotal())
-                                            .build())
-                                    .setRecipientId(organization.getOrgName())
-                                    .setNote(String.format("Order %s", order.getOrderId()))
-                                    .build()
-                            );
-                    final String transactionId = stepper.getTransaction().getTransactionId();
-                    order.setTransactionId(transactionId);
-                    order.setStatus(OrderStatus.PENDING_PAYMENT);
-                    orderDao.save(order);
-                    stepper.commit();
-
-                    // Wait for payment to complete.
-                    final TransactionStatus status = getPaymentStatus(transactionId);
-                    log.info("The status for transaction {} is {}", transactionId, status);
-                    switch (status) {
-                        case PENDING:
-                            actionRequiredOrders.add(convertOrderModelToGrpcOrder(order));
-                            log.warn("Transaction {}'s status for order {} is pending",
-                                    order.getTransactionId(), order.getOrderId());
-                            break;
-                        case COMPLETED:
-                            successOrders.add(convertOrderModelToGrpcOrder(order));
-                            break;
-                        case ERROR:
-                            moveAllInvalidItems(itemList.stream().map(Item::getItemID).collect(Collectors.toList()),
-                                    failedItems, itemList, itemIndex,
-                                    MarketPlaceProto.FailedCheckOutCause.INSUFFICIENT_BALANCE);
-                            break;
-                        default:
-                            log.error("Unhandled payment status {}", status);
-                    }
-                } catch (IllegalArgumentException e) {
-                    // The org cannot be found, so all items sold by this org are considered not-to-exist.
-                    moveAllInvalidItems(itemsToCheckOut.getValue().stream().map(Item::getItemID)
-                                    .collect(Collectors.toList()),
-                            failedItems, itemList, itemIndex, MarketPlaceProto.FailedCheckOutCause.ITEM_DOES_NOT_EXIST);
-                    log.error("User {} requested check out invalid items belonging to org {}, request: {}", userId,
-                            itemsToCheckOut.getKey(), request);
+            // Process each organization's order separately in a batch.
+            if (checkoutExecutor == null || orgIdToItemsMap.size() <= 1) {
+                for (Map.Entry<String, List<Item>> itemsToCheckOut : orgIdToItemsMap.entrySet()) {
+                    checkoutOrg(userId, request, itemsToCheckOut.getKey(), itemsToCheckOut.getValue(), itemIndex,
+                            budget, collector, listener);
                 }
+            } else {
+                checkoutOrgsInParallel(userId, request, orgIdToItemsMap, itemIndex, budget, collector, listener);
             }
             log.info("Finished processing checkout for user {}, success: {}, failed: {}, action: {}", userId,
-                    successOrders.size(), failedItems.size(), actionRequiredOrders.size());
-            return MarketPlaceProto.CheckOutResult.newBuilder()
-                    .setError(MarketPlaceProto.Error.NONE)
-                    .addAllSuccessOrders(successOrders)
-                    .addAllFailedItems(failedItems)
-                    .addAllActionRequiredOrders(actionRequiredOrders)
-                    .build();
+                    collector.getSuccessCount(), collector.getFailedCount(), collector.getActionRequiredCount());
+            return collector.toResult();
         } catch (Exception e) {
             log.error("User {} triggered internal service error with request {}", userId, request, e);
+            if (collector.getSuccessCount() > 0 || collector.getActionRequiredCount() > 0) {
+                log.warn("Returning the {} orders user {} already paid for before the error",
+                        collector.getSuccessCount() + collector.getActionRequiredCount(), userId);
+                return collector.toResult();
+            }
             return MarketPlaceProto.CheckOutResult.newBuilder()
                     .setError(MarketPlaceProto.Error.INTERNAL_SERVICE_ERROR)
                     .build();
         }
     }
 
-    @VisibleForTesting
-    protected static Map<Integer, MarketPlaceProto.CheckOutItem> convertItemListToCheckOutItemMap(
-            @NonNull final List<Item> itemList, @NonNull final Map<Integer, Integer> quantityMap) {
-        final Map<Integer, MarketPlaceProto.CheckOutItem> result = new HashMap<>();
-        for (Item item : itemList) {
-            result.put(item.getItemID(), convertItemToCheckOutItem(item, quantityMap.get(item.getItemID())));
+    // Run every organization's sub-order on the checkout executor and wait for all of them to settle.
+    private void checkoutOrgsInParallel(final String userId,
+                                        final MarketPlaceProto.CheckOutRequest request,
+                                        final Map<String, List<Item>> orgIdToItemsMap,
+                                        final CheckOutItemTable itemIndex,
+                                        final CheckOutBudget budget,
+                                        final CheckOutCollector collector,
+                                        final CheckOutListener listener) throws InterruptedException {
+        final List<Future<?>> subOrders = new ArrayList<>();
+        for (Map.Entry<String, List<Item>> itemsToCheckOut : orgIdToItemsMap.entrySet()) {
+            subOrders.add(checkoutExecutor.submit(() -> checkoutOrg(userId, request, itemsToCheckOut.getKey(),
+                    itemsToCheckOut.getValue(), itemIndex, budget, collector, listener)));
+        }
+        // Every sub-order is waited on, so the ones paid before another failed are all in the collector.
+        IllegalStateException failure = null;
+        for (Future<?> subOrder : subOrders) {
+            try {
+                subOrder.get();
+            } catch (ExecutionException e) {
+                if (failure == null) {
+                    failure = new IllegalStateException("Sub-order failed during checkout", e.getCause());
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private void checkoutOrg(final String userId,
+                             final MarketPlaceProto.CheckOutRequest request,
+                             final String orgId,
+                             final List<Item> itemList,
+                             final CheckOutItemTable itemIndex,
+                             final CheckOutBudget budget,
+                             final CheckOutCollector collector,
+                             final CheckOutListener listener) {
+        if (collector.isCancelled()) {
+            log.info("Skipped org {} for user {} since the checkout was cancelled", orgId, userId);
+            return;
+        }
+        final CheckOutCollector orgCollector = collector.newSubOrderCollector();
+        final List<MarketPlaceProto.FailedItem> failedItems = orgCollector.getFailedItems();
+        try {
+            final Organization organization = orgServiceHandler.getOrgByName(orgId)
+                    .orElseThrow(() -> new IllegalArgumentException(String.format("OrgId %s is invalid", orgId)));
+            checkoutOrgItems(userId, request, organization, itemList, itemIndex, budget, orgCollector);
+        } catch (IllegalArgumentException e) {
+            // The org cannot be found, so all items sold by this org are considered not-to-exist.
+            moveAllItems(failedItems, itemList, itemIndex, MarketPlaceProto.FailedCheckOutCause.ITEM_DOES_NOT_EXIST);
+            log.error("User {} requested check out invalid items belonging to org {}, request: {}", userId,
+                    orgId, request);
+        } finally {
+            collector.addAll(orgCollector);
+        }
+        listener.onSubOrderSettled(orgId, orgCollector.toResult());
+    }
+
+    // Stop waiting on the checkout's payments, they are reported as action required.
+    private void cancelCheckOut(final String userId, final CheckOutCollector collector) {
+        final Set<String> transactionIds = collector.cancel();
+        log.info("User {} cancelled checkout, stopped waiting on payments {}", userId, transactionIds);
+        transactionIds.forEach(paymentCompletionRegistry::deregister);
+    }
+
+    // The checkout's budget keeps its sub-orders from overdrawing the wallet between them, without holding a lock
+    // across the payment wait. Concurrent checkouts by the same user each reserve against their own snapshot, a
+    // payment the wallet can't cover by the time it is processed settles as an error and frees its items.
+    private void checkoutOrgItems(final String userId,
+                                  final MarketPlaceProto.CheckOutRequest request,
+                                  final Organization organization,
+                                  final List<Item> itemList,
+                                  final CheckOutItemTable itemIndex,
+                                  final CheckOutBudget budget,
+                                  final CheckOutCollector collector) {
+        final List<MarketPlaceProto.FailedItem> failedItems = collector.getFailedItems();
+        StockReservationEngine.Reservation reservation = null;
+        boolean isStockSold = false;
+        try {
+            // A map of itemID to quantity.
+            final Map<Integer, Integer> polishedRequest = itemList.stream()
+                    .collect(Collectors.toMap(Item::getItemID, a -> request.getItemsMap().get(a.getItemID())));
+
+            // Avoids unwanted throttling by using a temporary order to reserve the user's balance.
+            Order order = generateOrderFromCheckOutItems(userId, organization,
+                    itemList, request.getItemsMap());
+            final long reservedAmount = Money.toMinorUnits(order.getCurrency(), order.getTotal());
+            if (!budget.tryReserve(order.getCurrency(), reservedAmount)) {
+                log.info("User {} doesn't have enough {} to check out order {}", userId, order.getCurrency(), itemList);
+                moveAllItems(failedItems, itemList, itemIndex, MarketPlaceProto.FailedCheckOutCause.INSUFFICIENT_BALANCE);
+                return;
+            }
+
+            // Update stock quantity, then filter out of stock items.
+            final List<Integer> updateFailedItemIds;
+            if (stockReservationEngine == null) {
+                updateFailedItemIds = itemDao.updateItemStock(polishedRequest);
+                invalidateListing(organization.getOrgName());
+            } else {
+                reservation = stockReservationEngine.reserve(itemList, polishedRequest);
+                updateFailedItemIds = reservation.getOutOfStockItemIds();
+            }
+            moveAllInvalidItems(updateFailedItemIds, failedItems, itemList, itemIndex,
+                    MarketPlaceProto.FailedCheckOutCause.OUT_OF_STOCK);
+            if (itemList.isEmpty()) {
+                log.info("All items are out of stock or invalid. UpdatedFailedItems: {}",
+                        updateFailedItemIds);
+                budget.release(order.getCurrency(), reservedAmount);
+                return;
+            }
+            order = generateOrderFromCheckOutItems(userId, organization,
+                    itemList, request.getItemsMap());
+            // Out of stock items are not paid for.
+            budget.release(order.getCurrency(),
+                    reservedAmount - Money.toMinorUnits(order.getCurrency(), order.getTotal()));
+            final TransactionServiceHandler.Stepper stepper = transactionServiceHandler.preparePaymentStepper(userId,
+                    TransactionProto.PaymentRequest.newBuilder()
+                            .setType(TransactionProto.PaymentRequest.Type.PAY)
+                            .setMoneyAmount(TransactionProto.MoneyAmount.newBuilder()
+                                    .setCurrencyId(order.getCurrency())
+                                    .setAmount(order.getTotal())
+                                    .build())
+                            .setRecipientId(organization.getOrgName())
+                            .setNote(String.format("Order %s", order.getOrderId()))
+                            .build()
+                    );
+            final String transactionId = stepper.getTransaction().getTransactionId();
+            order.setTransactionId(transactionId);
+            order.setStatus(OrderStatus.PENDING_PAYMENT);
+
+            // Register before committing so the completion signal cannot be missed.
+            paymentCompletionRegistry.register(transactionId);
+            try {
+                // The payment, the order and the payment's outbox record are written together.
+                stepper.commitWith(order);
+            } catch (RuntimeException e) {
+                paymentCompletionRegistry.deregister(transactionId);
+                throw e;
+            }
+
+            // Wait for payment to complete, unless the checkout has been cancelled.
+            TransactionStatus status;
+            try {
+                if (collector.startPaymentWait(transactionId)) {
+                    try {
+                        status = getPaymentStatus(transactionId);
+                    } finally {
+                        collector.finishPaymentWait(transactionId);
+                    }
+                } else {
+                    paymentCompletionRegistry.deregister(transactionId);
+                    status = transactionServiceHandler.getTransactionStatus(transactionId);
+                }
+            } catch (RuntimeException e) {
+                // The payment is committed, so the order is reported even though its status couldn't be read.
+                log.error("Failed to read the status of transaction {}", transactionId, e);
+                status = TransactionStatus.PENDING;
+            }
+            log.info("The status for transaction {} is {}", transactionId, status);
+            switch (status) {
+                case PENDING:
+                    isStockSold = true;
+                    collector.addActionRequiredOrder(convertOrderModelToGrpcOrder(order));
+                    log.warn("Transaction {}'s status for order {} is pending",
+                            order.getTransactionId(), order.getOrderId());
+                    break;
+                case COMPLETED:
+                    isStockSold = true;
+                    collector.addSuccessOrder(convertOrderModelToGrpcOrder(order));
+                    break;
+                case ERROR:
+                    budget.release(order.getCurrency(), Money.toMinorUnits(order.getCurrency(), order.getTotal()));
+                    moveAllItems(failedItems, itemList, itemIndex,
+                            MarketPlaceProto.FailedCheckOutCause.INSUFFICIENT_BALANCE);
+                    break;
+                default:
+                    log.error("Unhandled payment status {}", status);
+            }
+        } finally {
+            // A pending payment may still go through, so its stock stays sold.
+            if (reservation != null) {
+                if (isStockSold) {
+                    if (!stockReservationEngine.confirm(reservation)) {
+                        // The engine still records the sale, but the stock may have been sold again meanwhile.
+                        log.warn("Stock reservation for user {}'s order from {} expired before its payment settled",
+                                userId, organization.getOrgName());
+                    }
+                } else {
+                    stockReservationEngine.release(reservation);
+                }
+            }
         }
-        return result;
     }
 
     private boolean isGetOrderRequestValid(final MarketPlaceProto.GetAllOrdersRequest request) {
@@ -244,15 +454,36 @@ public class MarketPlaceServiceHandler {
     }
 
     private TransactionStatus getPaymentStatus(String transactionId) {
-        for (int i = 0; i < CHECKOUT_PAYMENT_MAX_ATTEMPTS; i++) {
-            TransactionStatus paymentStatus = transactionServiceHandler.getTransactionStatus(transactionId);
-            if (!paymentStatus.equals(TransactionStatus.PENDING)){
-                return paymentStatus;
+        final TransactionStatus paymentStatus = paymentCompletionRegistry.await(transactionId, paymentTimeoutMillis,
+                TimeUnit.MILLISECONDS);
+        if (!paymentStatus.equals(TransactionStatus.PENDING)) {
+            return paymentStatus;
+        }
+        // The signal may have been missed (e.g. settled by another node), so check the stored status once.
+        return transactionServiceHandler.getTransactionStatus(transactionId);
+    }
+
+    private static int parseListingPageToken(final String pageToken) {
+        try {
+            return Integer.parseInt(pageToken);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(String.format("Invalid listing page token %s", pageToken), e);
+        }
+    }
+
+    // Find the position of the first item whose ID is greater than the given one.
+    private static int indexAfterItemId(final List<MarketPlaceItem> listing, final int itemId) {
+        int low = 0;
+        int high = listing.size();
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (listing.get(mid).getItemId() <= itemId) {
+                low = mid + 1;
+            } else {
+                high = mid;
             }
-            try{ Thread.sleep(CHECKOUT_PAYMENT_PERIOD); }
-            catch (Exception ignored) {}
         }
-        return TransactionStatus.PENDING;
+        return low;
     }
 
     private static boolean isCheckOutRequestValid(MarketPlaceProto.CheckOutRequest request) {
@@ -273,33 +504,44 @@ public class MarketPlaceServiceHandler {
     protected static void moveAllInvalidItems(@NonNull final Collection<Integer> failedItemIdsFromBatch,
                                             @NonNull final List<MarketPlaceProto.FailedItem> failedItems,
                                             @NonNull final List<Item> loadedItems,
-                                            @NonNull final Map<Integer, MarketPlaceProto.CheckOutItem> itemIndex,
+                                            @NonNull final CheckOutItemTable itemIndex,
                                             MarketPlaceProto.FailedCheckOutCause cause) {
-
+        if (failedItemIdsFromBatch.isEmpty()) {
+            return;
+        }
+        final IntIndex idsToDelete = new IntIndex(failedItemIdsFromBatch.size());
         for (int id : failedItemIdsFromBatch) {
-            if (!itemIndex.containsKey(id) && cause.equals(MarketPlaceProto.FailedCheckOutCause.OUT_OF_STOCK)) {
-                System.err.println("Cannot find " + id + " " + cause);
-            } else {
-                System.err.println("Found " + id + " " + cause);
-            }
-            final MarketPlaceProto.CheckOutItem item = itemIndex.getOrDefault(id, MarketPlaceProto.CheckOutItem.newBuilder()
-                    .setItemId(id)
+            log.debug("Moving item {} to failed items with cause {}", id, cause);
+            failedItems.add(MarketPlaceProto.FailedItem.newBuilder()
+                    .setItem(itemIndex.getOrDefault(id))
+                    .setCause(cause)
                     .build());
-            System.out.println("processing " + id + " with cause " + cause);
+            idsToDelete.add(id);
+        }
+        deleteAllFromItemList(idsToDelete, loadedItems, itemIndex);
+    }
+
+    // Move every item in loadedItems into the failedItems with the given cause.
+    private static void moveAllItems(final List<MarketPlaceProto.FailedItem> failedItems,
+                                     final List<Item> loadedItems,
+                                     final CheckOutItemTable itemIndex,
+                                     final MarketPlaceProto.FailedCheckOutCause cause) {
+        for (Item item : loadedItems) {
             failedItems.add(MarketPlaceProto.FailedItem.newBuilder()
-                    .setItem(item)
+                    .setItem(itemIndex.getOrDefault(item.getItemID()))
                     .setCause(cause)
                     .build());
+            itemIndex.markFailed(item.getItemID());
         }
-        deleteAllFromItemList(failedItemIdsFromBatch, loadedItems, itemIndex);
+        loadedItems.clear();
     }
 
-    protected  static void deleteAllFromItemList(@NonNull final Collection<Integer> idsToDelete,
+    protected  static void deleteAllFromItemList(@NonNull final IntIndex idsToDelete,
                                                  @NonNull final List<Item> loadedItems,
-                                                 @NonNull final Map<Integer, MarketPlaceProto.CheckOutItem> itemIndex) {
+                                                 @NonNull final CheckOutItemTable itemIndex) {
         loadedItems.removeIf(a -> idsToDelete.contains(a.getItemID()));
-        for (int id : idsToDelete) {
-            itemIndex.remove(id);
+        for (int i = 0; i < idsToDelete.size(); i++) {
+            itemIndex.markFailed(idsToDelete.keyAt(i));
         }
     }
 
@@ -319,7 +561,7 @@ public class MarketPlaceServiceHandler {
                                                         @NonNull final Collection<Item> items,
                                                         @NonNull final Map<Integer, Integer> orderItems) {
         final String currentDate = TimeUtils.formatDate(new Date());
-        final double totalCost = calculateTotalCost(items, orderItems);
+        final double totalCost = calculateTotalCost(organization.getOrgCurrency(), items, orderItems);
         return Order.builder()
                 .orderId(generateUniqueOrderId())
                 .currency(organization.getOrgCurrency())
@@ -339,13 +581,16 @@ public class MarketPlaceServiceHandler {
                 .build();
     }
 
+    // Summed in minor units, so the total is exactly what the wallet is debited.
     @VisibleForTesting
-    protected static double calculateTotalCost(Collection<Item> items, Map<Integer, Integer> orderItems) {
-        double total = 0.0;
+    protected static double calculateTotalCost(String currency, Collection<Item> items,
+                                               Map<Integer, Integer> orderItems) {
+        long total = 0;
         for (Item item : items) {
-            total += item.getItemPrice() * orderItems.get(item.getItemID());
+            total = Math.addExact(total, Math.multiplyExact(Money.toMinorUnits(currency, item.getItemPrice()),
+                    (long) orderItems.get(item.getItemID())));
         }
-        return total;
+        return Money.toAmount(currency, total);
     }
 
     @VisibleForTesting
@@ -359,8 +604,7 @@ public class MarketPlaceServiceHandler {
     }
 
     private static String generateUniqueOrderId() {
-        // TODO: Avoid collision with a better generator.
-        return UUID.randomUUID().toString();
+        return IdGenerator.shared().next();
     }
 
     private static MarketPlaceProto.Order convertOrderModelToGrpcOrder(final Order order) {
@@ -395,7 +639,7 @@ public class MarketPlaceServiceHandler {
         return true;
     }
 
-    private MarketPlaceItem convertToGrpc(Item item) {
+    protected static MarketPlaceItem convertToGrpc(Item item) {
         return MarketPlaceItem.newBuilder()
                 .setItemName(item.getItemName()).setItemStock(item.getStock())
                 .setBelongTo(item.getBelongTo())
@@ -0,0 +1,83 @@
+package io.openmarket.marketplace;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import io.openmarket.marketplace.dao.ItemDao;
+import io.openmarket.marketplace.grpc.MarketPlaceProto.MarketPlaceItem;
+import io.openmarket.marketplace.model.Item;
+import lombok.NonNull;
+import lombok.extern.log4j.Log4j2;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caches each organization's listing sorted by item ID, so storefront views and pages don't reload the whole catalog
+ * from {@link ItemDao}. Entries expire after a fixed TTL, and can be invalidated early when an org's items are
+ * changed or their stock is written. Changes made by other servers aren't seen until the TTL expires.
+ */
+@Log4j2
+class OrgListingCache {
+    private final LoadingCache<String, ImmutableList<MarketPlaceItem>> listings;
+
+    OrgListingCache(@NonNull final ItemDao itemDao, final long maxSize, final long ttlMillis) {
+        // A LoadingCache collapses concurrent misses for the same org into a single load.
+        this.listings = CacheBuilder.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttlMillis, TimeUnit.MILLISECONDS)
+                .recordStats()
+                .build(new CacheLoader<String, ImmutableList<MarketPlaceItem>>() {
+                    @Override
+                    public ImmutableList<MarketPlaceItem> load(final String orgId) throws Exception {
+                        return loadListing(itemDao, orgId);
+                    }
+                });
+    }
+
+    /**
+     * Get the listing of the given org.
+     * @param orgId the org ID.
+     * @return the org's items sorted by item ID.
+     */
+    ImmutableList<MarketPlaceItem> get(@NonNull final String orgId) {
+        try {
+            return listings.getUnchecked(orgId);
+        } catch (UncheckedExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(String.format("Failed to load listing for org %s", orgId), e.getCause());
+        }
+    }
+
+    void invalidate(@NonNull final String orgId) {
+        listings.invalidate(orgId);
+    }
+
+    CacheStats getStats() {
+        return listings.stats();
+    }
+
+    private static ImmutableList<MarketPlaceItem> loadListing(final ItemDao itemDao, final String orgId)
+            throws Exception {
+        final List<Integer> itemIds = itemDao.getItemIdsByOrg(orgId);
+        final List<Integer> failedItemIds = new ArrayList<>();
+        final List<Item> selling = new ArrayList<>(itemDao.batchLoad(itemIds, failedItemIds));
+        if (!failedItemIds.isEmpty()) {
+            log.warn("Some items of org {} failed to load: {}", orgId, failedItemIds);
+        }
+        selling.sort(Comparator.comparingInt(Item::getItemID));
+        final ImmutableList.Builder<MarketPlaceItem> result = ImmutableList.builderWithExpectedSize(selling.size());
+        for (Item item : selling) {
+            result.add(MarketPlaceServiceHandler.convertToGrpc(item));
+        }
+        log.info("Loaded listing of {} items for org {}", selling.size(), orgId);
+        return result.build();
+    }
+}
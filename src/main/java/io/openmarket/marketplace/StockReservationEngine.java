@@ -0,0 +1,493 @@
+package io.openmarket.marketplace;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.openmarket.marketplace.dao.ItemDao;
+import io.openmarket.marketplace.model.Item;
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.extern.log4j.Log4j2;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * Keeps the stock of items being checked out in memory, so buyers of the same hot item don't serialize on the
+ * database. Checkout reserves stock here first, and the net decrements of confirmed reservations are written back
+ * to {@link ItemDao} periodically. Reservations that are neither confirmed nor released within the TTL are returned
+ * to stock.
+ * <p>
+ * The database stays the source of truth. After each write-back the stock of items reserved since the last one is
+ * reloaded, so restocks and sales made by other servers are seen within a period. Items that weren't reserved are
+ * dropped and seeded again from the loaded item on their next checkout.
+ * <p>
+ * The stock change listener is told the organizations whose items were written back or reloaded with a different
+ * stock, so caches of their listings can be dropped.
+ */
+@Log4j2
+public class StockReservationEngine {
+    private static final long DEFAULT_RESERVATION_TTL_MILLIS = 60 * 1000;
+    private static final int DEFAULT_MAX_TRACKED_ITEMS = 10000;
+
+    private final ItemDao itemDao;
+    private final long reservationTtlMillis;
+    private final long writeBehindPeriodMillis;
+    private final int maxTrackedItems;
+
+    // The in-memory stock of the items being checked out, by item ID.
+    private final ConcurrentMap<Integer, ItemStock> stocks;
+
+    private final ConcurrentMap<String, Reservation> reservations;
+    private final ScheduledExecutorService executor;
+    private volatile Consumer<String> stockChangeListener = orgId -> { };
+
+    public StockReservationEngine(@NonNull final ItemDao itemDao, final long writeBehindPeriodMillis) {
+        this(itemDao, writeBehindPeriodMillis, DEFAULT_RESERVATION_TTL_MILLIS);
+    }
+
+    public StockReservationEngine(@NonNull final ItemDao itemDao, final long writeBehindPeriodMillis,
+                                  final long reservationTtlMillis) {
+        this(itemDao, writeBehindPeriodMillis, reservationTtlMillis, DEFAULT_MAX_TRACKED_ITEMS);
+    }
+
+    /**
+     * Create a StockReservationEngine.
+     * @param writeBehindPeriodMillis the period of writing decrements back and reloading stock.
+     * @param reservationTtlMillis the time a reservation is held before its stock is returned.
+     * @param maxTrackedItems the maximum number of items whose stock is kept in memory.
+     */
+    public StockReservationEngine(@NonNull final ItemDao itemDao, final long writeBehindPeriodMillis,
+                                  final long reservationTtlMillis, final int maxTrackedItems) {
+        if (maxTrackedItems <= 0) {
+            throw new IllegalArgumentException(String.format("Invalid max tracked items %d", maxTrackedItems));
+        }
+        this.itemDao = itemDao;
+        this.writeBehindPeriodMillis = writeBehindPeriodMillis;
+        this.reservationTtlMillis = reservationTtlMillis;
+        this.maxTrackedItems = maxTrackedItems;
+        this.stocks = new ConcurrentHashMap<>();
+        this.reservations = new ConcurrentHashMap<>();
+        this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("stock-write-behind-%d")
+                .setDaemon(true)
+                .build());
+    }
+
+    public void start() {
+        executor.scheduleWithFixedDelay(this::runOnce, writeBehindPeriodMillis, writeBehindPeriodMillis,
+                TimeUnit.MILLISECONDS);
+        log.info("StockReservationEngine started with write-behind period {}ms", writeBehindPeriodMillis);
+    }
+
+    public void stop() {
+        executor.shutdownNow();
+        flush();
+    }
+
+    /**
+     * Set the listener told the org ID of every organization whose stock was written back or reloaded.
+     * @param listener the listener, called on the write-behind thread.
+     */
+    public void setStockChangeListener(@NonNull final Consumer<String> listener) {
+        this.stockChangeListener = listener;
+    }
+
+    /**
+     * Reserve stock for the given items. Items without enough stock are left out of the reservation.
+     * @param items the loaded items, used to seed the stock of items that aren't in memory.
+     * @param quantities a map of item ID to the quantity to reserve.
+     * @return the reservation, which must later be confirmed or released.
+     */
+    public Reservation reserve(@NonNull final Collection<Item> items, @NonNull final Map<Integer, Integer> quantities) {
+        final Map<Integer, Integer> reserved = new HashMap<>();
+        final List<Integer> outOfStockItemIds = new ArrayList<>();
+        for (Item item : items) {
+            final int itemId = item.getItemID();
+            final int quantity = quantities.getOrDefault(itemId, 0);
+            if (tryReserve(item, quantity)) {
+                reserved.put(itemId, quantity);
+            } else {
+                outOfStockItemIds.add(itemId);
+            }
+        }
+        final Reservation reservation = new Reservation(UUID.randomUUID().toString(), ImmutableMap.copyOf(reserved),
+                ImmutableList.copyOf(outOfStockItemIds), System.currentTimeMillis() + reservationTtlMillis);
+        if (!reserved.isEmpty()) {
+            reservations.put(reservation.getReservationId(), reservation);
+        }
+        return reservation;
+    }
+
+    /**
+     * Mark the reserved stock as sold, it will be written to the database on the next flush. A reservation that
+     * expired meanwhile is still recorded as sold, since the buyer has paid for it, and its stock is taken again.
+     * @param reservation the reservation to confirm.
+     * @return false if the reservation had expired or been released.
+     */
+    public boolean confirm(@NonNull final Reservation reservation) {
+        if (reservation.state.compareAndSet(ReservationState.HELD, ReservationState.CONFIRMED)) {
+            reservations.remove(reservation.getReservationId());
+            reservation.getQuantities().forEach((itemId, quantity) -> stocks.get(itemId).confirm(quantity));
+            return true;
+        }
+        if (reservation.state.compareAndSet(ReservationState.EXPIRED, ReservationState.CONFIRMED)) {
+            log.warn("Reservation {} expired before it was confirmed, recording {} as sold",
+                    reservation.getReservationId(), reservation.getQuantities());
+            reservation.getQuantities().forEach(this::recordSale);
+            return false;
+        }
+        log.warn("Reservation {} is no longer held", reservation.getReservationId());
+        return false;
+    }
+
+    /**
+     * Return the reserved stock, e.g. because the payment failed.
+     * @param reservation the reservation to release.
+     */
+    public void release(@NonNull final Reservation reservation) {
+        if (reservation.state.compareAndSet(ReservationState.HELD, ReservationState.RELEASED)) {
+            reservations.remove(reservation.getReservationId());
+            reservation.getQuantities().forEach((itemId, quantity) -> stocks.get(itemId).release(quantity));
+        }
+    }
+
+    /**
+     * Write the net decrements of all confirmed reservations to the database. Decrements the database rejects
+     * because it holds less stock than was sold are written up to the stock it holds, and the rest stays pending
+     * until the item is restocked.
+     */
+    public void flush() {
+        final Map<Integer, Integer> decrements = new HashMap<>();
+        for (Map.Entry<Integer, ItemStock> entry : stocks.entrySet()) {
+            final int quantity = entry.getValue().takePending();
+            if (quantity > 0) {
+                decrements.put(entry.getKey(), quantity);
+            }
+        }
+        if (decrements.isEmpty()) {
+            return;
+        }
+        final Map<Integer, Integer> unwritten = new HashMap<>();
+        try {
+            final List<Integer> failedItemIds = itemDao.updateItemStock(decrements);
+            if (!failedItemIds.isEmpty()) {
+                unwritten.putAll(writeAvailableStock(failedItemIds, decrements));
+            }
+            log.info("Wrote back stock decrements {}", decrements);
+        } catch (RuntimeException e) {
+            log.error("Failed to write back stock decrements {}, will retry", decrements, e);
+            unwritten.putAll(decrements);
+        } finally {
+            final Set<String> changedOrgIds = new HashSet<>();
+            decrements.forEach((itemId, quantity) -> {
+                final ItemStock stock = stocks.get(itemId);
+                final int unwrittenQuantity = unwritten.getOrDefault(itemId, 0);
+                stock.finishFlush(quantity, unwrittenQuantity);
+                if (unwrittenQuantity < quantity && stock.getOrgId() != null) {
+                    changedOrgIds.add(stock.getOrgId());
+                }
+            });
+            notifyStockChanged(changedOrgIds);
+        }
+    }
+
+    /**
+     * Return the stock of reservations held for longer than the TTL.
+     */
+    @VisibleForTesting
+    protected void expireReservations() {
+        final long now = System.currentTimeMillis();
+        for (Reservation reservation : reservations.values()) {
+            if (reservation.getExpiresAt() <= now
+                    && reservation.state.compareAndSet(ReservationState.HELD, ReservationState.EXPIRED)) {
+                reservations.remove(reservation.getReservationId());
+                log.warn("Reservation {} expired, returning {} to stock", reservation.getReservationId(),
+                        reservation.getQuantities());
+                reservation.getQuantities().forEach((itemId, quantity) -> stocks.get(itemId).release(quantity));
+            }
+        }
+    }
+
+    /**
+     * Reload the stock of the items reserved since the last reload from the database, and drop the idle ones.
+     */
+    @VisibleForTesting
+    protected void refreshStock() {
+        final List<Integer> activeItemIds = new ArrayList<>();
+        for (Map.Entry<Integer, ItemStock> entry : stocks.entrySet()) {
+            if (entry.getValue().takeTouched()) {
+                activeItemIds.add(entry.getKey());
+            } else if (entry.getValue().evictIfIdle()) {
+                stocks.remove(entry.getKey(), entry.getValue());
+            }
+        }
+        if (activeItemIds.isEmpty()) {
+            return;
+        }
+        final Set<String> changedOrgIds = new HashSet<>();
+        final List<Integer> missingItemIds = new ArrayList<>();
+        for (Item item : itemDao.batchLoad(activeItemIds, missingItemIds)) {
+            final ItemStock stock = stocks.get(item.getItemID());
+            if (stock != null && stock.refresh(item.getStock())) {
+                changedOrgIds.add(item.getBelongTo());
+            }
+        }
+        if (!missingItemIds.isEmpty()) {
+            log.warn("Items {} no longer exist, they can't be reserved", missingItemIds);
+            missingItemIds.forEach(itemId -> {
+                final ItemStock stock = stocks.get(itemId);
+                if (stock != null && stock.refresh(0) && stock.getOrgId() != null) {
+                    changedOrgIds.add(stock.getOrgId());
+                }
+            });
+        }
+        notifyStockChanged(changedOrgIds);
+    }
+
+    /**
+     * Get the stock that can currently be reserved for the given item.
+     * @param itemId the item ID.
+     * @return the available stock, or -1 if the item is not loaded.
+     */
+    public int getAvailableStock(final int itemId) {
+        final ItemStock stock = stocks.get(itemId);
+        return stock == null ? -1 : stock.getAvailable();
+    }
+
+    private void runOnce() {
+        try {
+            expireReservations();
+            flush();
+            refreshStock();
+        } catch (RuntimeException e) {
+            log.error("Stock write-behind failed", e);
+        }
+    }
+
+    private void notifyStockChanged(final Set<String> orgIds) {
+        for (String orgId : orgIds) {
+            try {
+                stockChangeListener.accept(orgId);
+            } catch (RuntimeException e) {
+                log.error("Stock change listener failed for org {}", orgId, e);
+            }
+        }
+    }
+
+    private boolean tryReserve(final Item item, final int quantity) {
+        while (true) {
+            final ItemStock stock = getOrSeed(item.getItemID(), item.getBelongTo(), item.getStock());
+            if (stock == null) {
+                log.warn("Stock of {} items is already in memory, can't reserve item {}", maxTrackedItems,
+                        item.getItemID());
+                return false;
+            }
+            final Boolean reserved = stock.tryReserve(quantity);
+            // Null if the stock was dropped as idle meanwhile, it is seeded again.
+            if (reserved != null) {
+                return reserved;
+            }
+        }
+    }
+
+    // Take the stock of a reservation that expired but was paid for.
+    private void recordSale(final int itemId, final int quantity) {
+        // The org is unknown here, the item is reloaded on the next refresh since it was touched.
+        while (!getOrSeed(itemId, null, 0).recordSale(quantity)) {
+            // Dropped as idle meanwhile, try a new one.
+        }
+    }
+
+    private ItemStock getOrSeed(final int itemId, final String orgId, final int stock) {
+        final ItemStock existing = stocks.get(itemId);
+        if (existing != null) {
+            return existing;
+        }
+        if (stocks.size() >= maxTrackedItems) {
+            evictIdle();
+            if (stocks.size() >= maxTrackedItems) {
+                return null;
+            }
+        }
+        return stocks.computeIfAbsent(itemId, k -> new ItemStock(orgId, stock));
+    }
+
+    // Drop every item with no reservation or decrement in flight, their stock is seeded again on a checkout.
+    private void evictIdle() {
+        for (Map.Entry<Integer, ItemStock> entry : stocks.entrySet()) {
+            if (entry.getValue().evictIfIdle()) {
+                stocks.remove(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    // Write what the database can take of the rejected decrements, and return the rest.
+    private Map<Integer, Integer> writeAvailableStock(final List<Integer> failedItemIds,
+                                                      final Map<Integer, Integer> decrements) {
+        final Map<Integer, Integer> unwritten = new HashMap<>();
+        failedItemIds.forEach(itemId -> unwritten.put(itemId, decrements.get(itemId)));
+        try {
+            final List<Integer> missingItemIds = new ArrayList<>();
+            final Map<Integer, Integer> partial = new HashMap<>();
+            for (Item item : itemDao.batchLoad(failedItemIds, missingItemIds)) {
+                final int writable = Math.min(decrements.get(item.getItemID()), Math.max(0, item.getStock()));
+                if (writable > 0) {
+                    partial.put(item.getItemID(), writable);
+                }
+            }
+            if (!missingItemIds.isEmpty()) {
+                log.error("Sold items {} no longer exist, dropping their stock decrements", missingItemIds);
+                missingItemIds.forEach(unwritten::remove);
+            }
+            if (!partial.isEmpty()) {
+                final List<Integer> partialFailedItemIds = itemDao.updateItemStock(partial);
+                partial.forEach((itemId, quantity) -> {
+                    if (!partialFailedItemIds.contains(itemId)) {
+                        unwritten.merge(itemId, -quantity, Integer::sum);
+                    }
+                });
+            }
+        } catch (RuntimeException e) {
+            log.error("Failed to write back rejected stock decrements for items {}, will retry", failedItemIds, e);
+        }
+        log.error("Database has less stock than was sold, decrements {} stay pending until restocked", unwritten);
+        return unwritten;
+    }
+
+    // The in-memory stock of one item. Reserving takes a short lock per item, so only buyers of the same item wait.
+    private static final class ItemStock {
+        // The org the item belongs to, or null if it was seeded by a late sale.
+        @Getter
+        private final String orgId;
+        private int available;
+        // Reserved but neither confirmed nor released yet.
+        private int held;
+        // Sold but not written to the database yet.
+        private int pending;
+        // Being written to the database by a flush.
+        private int flushing;
+        private boolean touched;
+        private boolean evicted;
+
+        ItemStock(final String orgId, final int available) {
+            this.orgId = orgId;
+            this.available = available;
+            this.touched = true;
+        }
+
+        // Null if the stock was dropped as idle.
+        synchronized Boolean tryReserve(final int quantity) {
+            if (evicted) {
+                return null;
+            }
+            touched = true;
+            if (available < quantity) {
+                return false;
+            }
+            available -= quantity;
+            held += quantity;
+            return true;
+        }
+
+        synchronized void confirm(final int quantity) {
+            held -= quantity;
+            pending += quantity;
+        }
+
+        synchronized void release(final int quantity) {
+            held -= quantity;
+            available += quantity;
+        }
+
+        // The stock may go below zero, which blocks reservations until the next reload.
+        synchronized boolean recordSale(final int quantity) {
+            if (evicted) {
+                return false;
+            }
+            touched = true;
+            available -= quantity;
+            pending += quantity;
+            return true;
+        }
+
+        synchronized int takePending() {
+            final int quantity = pending;
+            pending = 0;
+            flushing += quantity;
+            return quantity;
+        }
+
+        synchronized void finishFlush(final int quantity, final int unwritten) {
+            flushing -= quantity;
+            pending += unwritten;
+        }
+
+        // The database doesn't hold the stock that is reserved, or sold and not written yet.
+        // Returns whether the available stock changed.
+        synchronized boolean refresh(final int databaseStock) {
+            final int previous = available;
+            available = databaseStock - held - pending - flushing;
+            return available != previous;
+        }
+
+        synchronized boolean takeTouched() {
+            final boolean wasTouched = touched;
+            touched = false;
+            return wasTouched;
+        }
+
+        synchronized boolean evictIfIdle() {
+            if (held == 0 && pending == 0 && flushing == 0) {
+                evicted = true;
+            }
+            return evicted;
+        }
+
+        synchronized int getAvailable() {
+            return available;
+        }
+    }
+
+    private enum ReservationState {
+        HELD, CONFIRMED, RELEASED, EXPIRED
+    }
+
+    /**
+     * Stock held for one organization's sub-order.
+     */
+    @Getter
+    public static final class Reservation {
+        private final String reservationId;
+        // A map of item ID to the reserved quantity.
+        private final Map<Integer, Integer> quantities;
+        private final List<Integer> outOfStockItemIds;
+        private final long expiresAt;
+        @Getter(AccessLevel.NONE)
+        private final AtomicReference<ReservationState> state;
+
+        private Reservation(final String reservationId, final Map<Integer, Integer> quantities,
+                            final List<Integer> outOfStockItemIds, final long expiresAt) {
+            this.reservationId = reservationId;
+            this.quantities = quantities;
+            this.outOfStockItemIds = outOfStockItemIds;
+            this.expiresAt = expiresAt;
+            this.state = new AtomicReference<>(ReservationState.HELD);
+        }
+    }
+}
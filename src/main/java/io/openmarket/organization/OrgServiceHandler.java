@@ -6,7 +6,13 @@ import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
 import com.amazonaws.services.dynamodbv2.model.QueryRequest;
 import com.amazonaws.services.dynamodbv2.model.QueryResult;
 import com.amazonaws.services.dynamodbv2.model.UpdateItemRequest;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.LoadingCache;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 import io.openmarket.organization.dao.OrgDao;
 import io.openmarket.organization.grpc.OrganizationOuterClass;
 import io.openmarket.organization.grpc.OrganizationOuterClass.GetFollowerRequest;
@@ -17,23 +23,54 @@ import io.openmarket.organization.grpc.OrganizationOuterClass.OrgUpdateResult;
 import io.openmarket.organization.grpc.OrganizationOuterClass.UpdateFollowerRequest;
 import io.openmarket.organization.grpc.OrganizationOuterClass.UpdateFollowerResult;
 import io.openmarket.organization.model.Organization;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
 import lombok.NonNull;
 import lombok.extern.log4j.Log4j2;
 
 import javax.inject.Inject;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.TimeUnit;
 
 import static io.openmarket.config.OrgConfig.*;
 
 @Log4j2
 public class OrgServiceHandler {
-    private final OrgDao orgDao;
+    // The maximum number of organizations to keep in the metadata cache.
+    private static final long ORG_CACHE_MAX_SIZE = 10000;
+
+    // How long a loaded organization stays in the cache.
+    private static final long ORG_CACHE_TTL_MILLIS = TimeUnit.MINUTES.toMillis(1);
 
+    // How long the cache remembers that an organization does not exist.
+    private static final long ORG_CACHE_NEGATIVE_TTL_MILLIS = TimeUnit.SECONDS.toMillis(5);
+
+    private final OrgDao orgDao;
+    private final LoadingCache<String, CachedOrg> orgCache;
+    private final long negativeTtlMillis;
 
     @Inject
     public OrgServiceHandler (@NonNull final OrgDao orgDao) {
+        this(orgDao, ORG_CACHE_MAX_SIZE, ORG_CACHE_TTL_MILLIS, ORG_CACHE_NEGATIVE_TTL_MILLIS);
+    }
+
+    @VisibleForTesting
+    protected OrgServiceHandler(@NonNull final OrgDao orgDao, final long cacheMaxSize, final long ttlMillis,
+                                final long negativeTtlMillis) {
         this.orgDao = orgDao;
+        this.negativeTtlMillis = negativeTtlMillis;
+        // A LoadingCache collapses concurrent misses for the same org into a single load.
+        this.orgCache = CacheBuilder.newBuilder()
+                .maximumSize(cacheMaxSize)
+                .expireAfterWrite(ttlMillis, TimeUnit.MILLISECONDS)
+                .recordStats()
+                .build(new CacheLoader<String, CachedOrg>() {
+                    @Override
+                    public CachedOrg load(final String orgName) {
+                        return new CachedOrg(orgDao.load(orgName), System.currentTimeMillis());
+                    }
+                });
     }
 
     public OrganizationOuterClass.AddOrgResult handleAddOrgRequest(@NonNull final OrganizationOuterClass.OrgMetadata params) {
@@ -47,6 +84,7 @@ public class OrgServiceHandler {
         }
         final Organization newOrg = orgMetadata2Org(params);
         this.orgDao.save(newOrg);
+        invalidateOrg(newOrg.getOrgName());
         return OrganizationOuterClass.AddOrgResult.newBuilder()
                 .setError(OrganizationOuterClass.AddOrgResult.AddOrgError.NONE)
                 .build();
@@ -60,6 +98,7 @@ public class OrgServiceHandler {
 
         if (org.getOrgDescription() == null) org.setOrgDescription("");
         orgDao.save(org);
+        invalidateOrg(org.getOrgName());
     }
 
     public UpdateFollowerResult updateFollower(UpdateFollowerRequest request) {
@@ -88,6 +127,7 @@ public class OrgServiceHandler {
         }catch (ConditionalCheckFailedException e) {
             log.error(e);
         }
+        invalidateOrg(request.getOrgId());
         return UpdateFollowerResult.newBuilder().build();
     }
 
@@ -126,8 +166,29 @@ public class OrgServiceHandler {
                 .build();
     }
 
-    public Optional<Organization> getOrgByName(String name) {
-        return orgDao.load(name);
+    /**
+     * Get an organization by name, served from the metadata cache when possible.
+     * The returned organization is shared with other callers and must not be modified.
+     * @param name the name of the organization.
+     * @return an {@link Optional} containing the organization, or empty if it doesn't exist.
+     */
+    public Optional<Organization> getOrgByName(@NonNull final String name) {
+        CachedOrg cached = getCachedOrg(name);
+        if (!cached.getOrg().isPresent()
+                && System.currentTimeMillis() - cached.getLoadedAt() > negativeTtlMillis) {
+            // Negative lookups expire sooner, so a newly created org becomes visible quickly.
+            orgCache.asMap().remove(name, cached);
+            cached = getCachedOrg(name);
+        }
+        return cached.getOrg();
+    }
+
+    /**
+     * Get the hit and miss counters of the organization metadata cache.
+     * @return the {@link CacheStats} of the cache.
+     */
+    public CacheStats getOrgCacheStats() {
+        return orgCache.stats();
     }
 
     public OrganizationOuterClass.GetOrgResult getOrgRequest(@NonNull final OrganizationOuterClass.GetOrgRequest request) {
@@ -135,7 +196,7 @@ public class OrgServiceHandler {
             log.error("Missing organization name!");
             throw new IllegalArgumentException("Missing organization name on get organization request");
         }
-        final Optional<Organization> organization = orgDao.load(request.getOrgName());
+        final Optional<Organization> organization = getOrgByName(request.getOrgName());
         return organization.map(value -> OrganizationOuterClass.GetOrgResult.newBuilder()
                 .setError(OrganizationOuterClass.Error.NONE)
                 .setOrganization(org2OrgMetadata(value))
@@ -175,11 +236,29 @@ public class OrgServiceHandler {
         }
 
         this.orgDao.save(toUpdate);
+        invalidateOrg(toUpdate.getOrgName());
 
         return OrgUpdateResult.newBuilder().setError(OrgUpdateResult.UpdateError.NONE).build();
 
     }
 
+    private CachedOrg getCachedOrg(final String name) {
+        try {
+            return orgCache.getUnchecked(name);
+        } catch (UncheckedExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    private void invalidateOrg(final String name) {
+        if (name != null) {
+            orgCache.invalidate(name);
+        }
+    }
+
     private void validateOrgMetaDataOnCreate(OrganizationOuterClass.OrgMetadata params) {
         if (params.getOrgName().isEmpty() || params.getOrgName() == null){
             log.error("Organization name is missing!");
@@ -248,4 +327,11 @@ public class OrgServiceHandler {
                 .setOrgName(org.getOrgName())
                 .build();
     }
+
+    @Getter
+    @AllArgsConstructor
+    private static final class CachedOrg {
+        private final Optional<Organization> org;
+        private final long loadedAt;
+    }
 }
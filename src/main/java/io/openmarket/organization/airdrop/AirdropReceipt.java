@@ -0,0 +1,99 @@
+package io.openmarket.organization.airdrop;
+
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBAttribute;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBHashKey;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBIgnore;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBTable;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBTransactionWriteExpression;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBTypeConvertedEnum;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.google.common.collect.ImmutableMap;
+import io.openmarket.transaction.model.TransactionStatus;
+import io.openmarket.transaction.service.PaymentReceipt;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.NonNull;
+
+import java.util.Date;
+
+/**
+ * Records that a follower was paid by an airdrop, and with which transaction. It is written in the same
+ * transactional write as the payment and only if it doesn't exist yet, so it is the airdrop's checkpoint: a resumed
+ * airdrop never pays a follower twice. A receipt whose payment failed is replaced by the one of the payment retrying
+ * it, under the condition it still holds the failed transaction. Once its payment completes the receipt records it,
+ * so later runs don't check the payment again.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@DynamoDBTable(tableName = AirdropReceipt.TABLE_NAME)
+public class AirdropReceipt implements PaymentReceipt {
+    public static final String TABLE_NAME = "OrgAirdropReceipt";
+    public static final String KEY_RECEIPT_ID = "ReceiptId";
+    public static final String ATTR_TRANSACTION_ID = "TransactionId";
+    public static final String ATTR_PAYMENT_STATUS = "PaymentStatus";
+
+    @DynamoDBHashKey(attributeName = KEY_RECEIPT_ID)
+    private String receiptId;
+
+    @DynamoDBAttribute(attributeName = ATTR_TRANSACTION_ID)
+    private String transactionId;
+
+    @DynamoDBAttribute(attributeName = "CreatedAt")
+    private Date createdAt;
+
+    // COMPLETED once the payment is known to have completed, which is final, or null while it may still fail.
+    @DynamoDBTypeConvertedEnum
+    @DynamoDBAttribute(attributeName = ATTR_PAYMENT_STATUS)
+    private TransactionStatus paymentStatus;
+
+    // The failed transaction of the receipt this one replaces, or null for a follower's first receipt.
+    @DynamoDBIgnore
+    private String replacedTransactionId;
+
+    public static AirdropReceipt of(@NonNull final String airdropId, @NonNull final String followerId) {
+        return AirdropReceipt.builder()
+                .receiptId(idOf(airdropId, followerId))
+                .createdAt(new Date())
+                .build();
+    }
+
+    /**
+     * Create the receipt of a payment retrying a failed one.
+     * @param failed the receipt of the failed payment.
+     * @return the new receipt, only written if the failed receipt hasn't been replaced since.
+     */
+    public static AirdropReceipt replacing(@NonNull final AirdropReceipt failed) {
+        return AirdropReceipt.builder()
+                .receiptId(failed.getReceiptId())
+                .createdAt(new Date())
+                .replacedTransactionId(failed.getTransactionId())
+                .build();
+    }
+
+    public static String idOf(@NonNull final String airdropId, @NonNull final String followerId) {
+        return String.format("%s:%s", airdropId, followerId);
+    }
+
+    /**
+     * The condition the receipt is written under, so a follower is only paid by the first write, or by the first
+     * write replacing a failed payment.
+     * @return the condition.
+     */
+    @Override
+    public DynamoDBTransactionWriteExpression writeCondition() {
+        if (replacedTransactionId == null) {
+            return new DynamoDBTransactionWriteExpression()
+                    .withConditionExpression("attribute_not_exists(#receiptId)")
+                    .withExpressionAttributeNames(ImmutableMap.of("#receiptId", KEY_RECEIPT_ID));
+        }
+        return new DynamoDBTransactionWriteExpression()
+                .withConditionExpression("#transactionId = :replaced")
+                .withExpressionAttributeNames(ImmutableMap.of("#transactionId", ATTR_TRANSACTION_ID))
+                .withExpressionAttributeValues(ImmutableMap.of(":replaced",
+                        new AttributeValue().withS(replacedTransactionId)));
+    }
+}
@@ -0,0 +1,33 @@
+package io.openmarket.organization.airdrop;
+
+import io.openmarket.transaction.model.TransactionStatus;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Reads {@link AirdropReceipt}s and the status of their payments. Receipts are created as part of the transactional
+ * write that pays their follower, and only updated on their own to record that the payment completed.
+ */
+public interface AirdropReceiptDao {
+    /**
+     * Get the receipts an airdrop wrote for the given followers.
+     * @param airdropId the airdrop.
+     * @param followerIds the followers to check.
+     * @return the receipts by follower ID, followers without a receipt are left out.
+     */
+    Map<String, AirdropReceipt> loadReceipts(String airdropId, Collection<String> followerIds);
+
+    /**
+     * Get the status of the payments of receipts, read in batches.
+     * @param transactionIds the IDs of the payments.
+     * @return the statuses by transaction ID, payments that don't exist are left out.
+     */
+    Map<String, TransactionStatus> loadPaymentStatuses(Collection<String> transactionIds);
+
+    /**
+     * Record that the payments of the given receipts completed, so they aren't checked again.
+     * @param receipts the receipts as loaded, with their payment status set.
+     */
+    void saveCompleted(Collection<AirdropReceipt> receipts);
+}
@@ -0,0 +1,33 @@
+package io.openmarket.organization.airdrop;
+
+import io.openmarket.dagger.component.DaggerOpenMarketComponent;
+import io.openmarket.dagger.module.EnvMap;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Runs a {@link FollowerAirdrop} from the command line with the server's environment variables:
+ * {@code AirdropRunner <airdropId> <orgName> <amount>}. Running it again with the same airdrop ID resumes it. Exits
+ * with 0 once every follower has a payment that hasn't failed, 1 if some followers are left to pay and 2 if the
+ * airdrop couldn't start.
+ */
+@Log4j2
+public class AirdropRunner {
+    public static void main(String[] args) {
+        if (args.length != 3) {
+            System.err.println("Usage: AirdropRunner <airdropId> <orgName> <amount>");
+            System.exit(2);
+        }
+        final EnvMap map = new EnvMap().withMap(System.getenv());
+        final FollowerAirdrop airdrop = DaggerOpenMarketComponent.builder().envMap(map).build()
+                .buildFollowerAirdrop();
+        try {
+            final FollowerAirdrop.Report report = airdrop.run(args[0], args[1], Double.parseDouble(args[2]));
+            System.out.println(report);
+            System.exit(report.isComplete() ? 0 : 1);
+        } catch (IllegalArgumentException e) {
+            log.error("Airdrop {} couldn't start", args[0], e);
+            System.err.println(e.getMessage());
+            System.exit(2);
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package io.openmarket.organization.airdrop;
+
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
+import io.openmarket.transaction.model.Transaction;
+import io.openmarket.transaction.model.TransactionStatus;
+import lombok.NonNull;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+public class DynamoDBAirdropReceiptDao implements AirdropReceiptDao {
+    private final DynamoDBMapper mapper;
+
+    public DynamoDBAirdropReceiptDao(@NonNull final AmazonDynamoDB dbClient) {
+        this.mapper = new DynamoDBMapper(dbClient);
+    }
+
+    @Override
+    public Map<String, AirdropReceipt> loadReceipts(@NonNull final String airdropId,
+                                                    @NonNull final Collection<String> followerIds) {
+        final Map<String, String> followersByReceiptId = new HashMap<>();
+        followerIds.forEach(followerId -> followersByReceiptId.put(AirdropReceipt.idOf(airdropId, followerId),
+                followerId));
+        final List<AirdropReceipt> keys = followersByReceiptId.keySet().stream()
+                .map(receiptId -> AirdropReceipt.builder().receiptId(receiptId).build())
+                .collect(Collectors.toList());
+        final Map<String, AirdropReceipt> receiptsByFollower = new HashMap<>();
+        // The mapper splits the keys into batches of 100 and retries unprocessed keys.
+        for (List<Object> receipts : mapper.batchLoad(keys).values()) {
+            for (Object receipt : receipts) {
+                receiptsByFollower.put(followersByReceiptId.get(((AirdropReceipt) receipt).getReceiptId()),
+                        (AirdropReceipt) receipt);
+            }
+        }
+        return receiptsByFollower;
+    }
+
+    @Override
+    public Map<String, TransactionStatus> loadPaymentStatuses(@NonNull final Collection<String> transactionIds) {
+        final List<Transaction> keys = transactionIds.stream().distinct()
+                .map(transactionId -> Transaction.builder().transactionId(transactionId).build())
+                .collect(Collectors.toList());
+        final Map<String, TransactionStatus> statuses = new HashMap<>();
+        for (List<Object> transactions : mapper.batchLoad(keys).values()) {
+            for (Object transaction : transactions) {
+                statuses.put(((Transaction) transaction).getTransactionId(), ((Transaction) transaction).getStatus());
+            }
+        }
+        return statuses;
+    }
+
+    @Override
+    public void saveCompleted(@NonNull final Collection<AirdropReceipt> receipts) {
+        // A receipt is only replaced once its payment failed, so one that completed can be saved as loaded.
+        final List<DynamoDBMapper.FailedBatch> failed = mapper.batchSave(receipts);
+        if (!failed.isEmpty()) {
+            throw new IllegalStateException(String.format("Failed to save %d batches of completed receipts",
+                    failed.size()), failed.get(0).getException());
+        }
+    }
+}
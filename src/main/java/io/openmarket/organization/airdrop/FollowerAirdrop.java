@@ -0,0 +1,314 @@
+package io.openmarket.organization.airdrop;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.openmarket.organization.OrgServiceHandler;
+import io.openmarket.organization.grpc.OrganizationOuterClass.GetFollowerRequest;
+import io.openmarket.organization.model.Organization;
+import io.openmarket.transaction.exception.BulkPaymentException;
+import io.openmarket.transaction.grpc.TransactionProto;
+import io.openmarket.transaction.model.TransactionStatus;
+import io.openmarket.transaction.service.TransactionServiceHandler;
+import io.openmarket.transaction.service.WalletSnapshot;
+import io.openmarket.utils.Money;
+import lombok.NonNull;
+import lombok.Value;
+import lombok.extern.log4j.Log4j2;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * Pays an amount of an organization's currency from the organization to each of its followers. Followers are paid
+ * a page at a time with bulk payments, with at most a set number of pages in flight.
+ * <p>
+ * Each payment is written with an {@link AirdropReceipt}, which is the airdrop's checkpoint. Running an airdrop again
+ * with the same ID resumes it: followers with a receipt are skipped, so a restart after a crash or a failed page
+ * pays the rest without paying anyone twice. Payments are processed asynchronously, and the followers whose payment
+ * ended in {@link TransactionStatus#ERROR} are paid again when the airdrop is resumed. A payment found to have
+ * completed is recorded on its receipt, so a resumed airdrop only reads the payments that may still fail.
+ * <p>
+ * The receipts are read before any follower is paid, so the organization's balance is checked once against the
+ * total of the whole run rather than against each page on its own.
+ */
+@Log4j2
+public class FollowerAirdrop {
+    public static final int DEFAULT_PAGE_SIZE = 200;
+    public static final int DEFAULT_CONCURRENCY = 4;
+
+    private final OrgServiceHandler orgHandler;
+    private final TransactionServiceHandler transactionHandler;
+    private final AirdropReceiptDao receiptDao;
+    private final int pageSize;
+    private final int concurrency;
+
+    public FollowerAirdrop(@NonNull final OrgServiceHandler orgHandler,
+                           @NonNull final TransactionServiceHandler transactionHandler,
+                           @NonNull final AirdropReceiptDao receiptDao) {
+        this(orgHandler, transactionHandler, receiptDao, DEFAULT_PAGE_SIZE, DEFAULT_CONCURRENCY);
+    }
+
+    /**
+     * Create a FollowerAirdrop.
+     * @param pageSize the number of followers paid with each bulk payment.
+     * @param concurrency the maximum number of pages paid at the same time.
+     */
+    public FollowerAirdrop(@NonNull final OrgServiceHandler orgHandler,
+                           @NonNull final TransactionServiceHandler transactionHandler,
+                           @NonNull final AirdropReceiptDao receiptDao,
+                           final int pageSize, final int concurrency) {
+        if (pageSize <= 0 || pageSize > TransactionServiceHandler.MAX_BULK_PAYMENT_SIZE) {
+            throw new IllegalArgumentException(String.format("Invalid page size %d", pageSize));
+        }
+        if (concurrency <= 0) {
+            throw new IllegalArgumentException(String.format("Invalid concurrency %d", concurrency));
+        }
+        this.orgHandler = orgHandler;
+        this.transactionHandler = transactionHandler;
+        this.receiptDao = receiptDao;
+        this.pageSize = pageSize;
+        this.concurrency = concurrency;
+    }
+
+    /**
+     * Pay every follower of the organization who hasn't been paid by this airdrop yet, and wait until it's done.
+     * @param airdropId the ID of the airdrop, the same ID resumes it.
+     * @param orgName the organization paying its followers.
+     * @param amount the amount of the organization's currency each follower gets.
+     * @return the report of this run.
+     * @throws IllegalArgumentException if the organization doesn't exist or the amount is invalid.
+     */
+    public Report run(@NonNull final String airdropId, @NonNull final String orgName, final double amount) {
+        if (airdropId.trim().isEmpty()) {
+            throw new IllegalArgumentException("Missing airdrop ID");
+        }
+        final Organization org = orgHandler.getOrgByName(orgName).orElseThrow(() ->
+                new IllegalArgumentException(String.format("Organization '%s' doesn't exist", orgName)));
+        final String currency = org.getOrgCurrency();
+        if (!Money.isValid(currency, amount) || Money.toMinorUnits(currency, amount) <= 0) {
+            throw new IllegalArgumentException(String.format("Invalid airdrop amount %s", amount));
+        }
+
+        // Sorted, so the pages of a resumed airdrop line up with those of the first run.
+        final Set<String> followerSet = new TreeSet<>(orgHandler.getFollowerIds(GetFollowerRequest.newBuilder()
+                .setOrgId(orgName).build()).getUserIdsList());
+        followerSet.remove(orgName);
+        final List<String> followers = new ArrayList<>(followerSet);
+        final Progress progress = new Progress(airdropId, followers.size());
+        log.info("Starting airdrop {} of {} {} to {} followers of {}", airdropId, amount, currency,
+                followers.size(), orgName);
+
+        final ExecutorService executor = Executors.newFixedThreadPool(concurrency, new ThreadFactoryBuilder()
+                .setNameFormat("airdrop-" + airdropId + "-%d")
+                .setDaemon(true)
+                .build());
+        try {
+            final List<Future<Map<String, AirdropReceipt>>> plans = new ArrayList<>();
+            for (List<String> page : Lists.partition(followers, pageSize)) {
+                plans.add(executor.submit(() -> planPage(airdropId, page, progress)));
+            }
+            final List<Map<String, AirdropReceipt>> unpaidPages = new ArrayList<>();
+            long unpaidCount = 0;
+            for (Future<Map<String, AirdropReceipt>> plan : plans) {
+                final Map<String, AirdropReceipt> unpaid = plan.get();
+                if (unpaid != null && !unpaid.isEmpty()) {
+                    unpaidPages.add(unpaid);
+                    unpaidCount += unpaid.size();
+                }
+            }
+
+            final long total = Math.multiplyExact(unpaidCount, Money.toMinorUnits(currency, amount));
+            final WalletSnapshot wallet = transactionHandler.getWalletSnapshot(orgName);
+            if (wallet.getBalance(currency) < total) {
+                log.error("Organization '{}' can't afford to pay {} followers in airdrop {}", orgName, unpaidCount,
+                        airdropId);
+                throw new IllegalArgumentException(String.format("Insufficient %s to pay %d followers %s each",
+                        currency, unpaidCount, amount));
+            }
+
+            final List<Future<?>> pages = new ArrayList<>();
+            for (Map<String, AirdropReceipt> unpaid : unpaidPages) {
+                pages.add(executor.submit(() -> payPage(airdropId, orgName, currency, amount, unpaid, progress)));
+            }
+            for (Future<?> page : pages) {
+                page.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.warn("Interrupted airdrop {}, run it again to resume", airdropId);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(String.format("Airdrop %s failed", airdropId), e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+
+        final Report report = progress.toReport();
+        log.info("Finished airdrop {}: {}", airdropId, report);
+        return report;
+    }
+
+    /**
+     * Find the followers of a page that still have to be paid: those without a receipt, and those whose payment
+     * failed. The receipts of payments found to have completed are updated to record it.
+     * @return the receipt to write for each of them by follower ID, or null if the receipts couldn't be read.
+     */
+    @Nullable
+    private Map<String, AirdropReceipt> planPage(final String airdropId, final List<String> page,
+                                                 final Progress progress) {
+        try {
+            final Map<String, AirdropReceipt> receipts = receiptDao.loadReceipts(airdropId, page);
+            final List<String> unsettledIds = receipts.values().stream()
+                    .filter(receipt -> receipt.getPaymentStatus() != TransactionStatus.COMPLETED)
+                    .map(AirdropReceipt::getTransactionId)
+                    .collect(Collectors.toList());
+            final Map<String, TransactionStatus> statuses = unsettledIds.isEmpty() ? ImmutableMap.of()
+                    : receiptDao.loadPaymentStatuses(unsettledIds);
+            final Map<String, AirdropReceipt> unpaid = new LinkedHashMap<>();
+            final List<AirdropReceipt> completed = new ArrayList<>();
+            for (String followerId : page) {
+                final AirdropReceipt receipt = receipts.get(followerId);
+                if (receipt == null) {
+                    unpaid.put(followerId, AirdropReceipt.of(airdropId, followerId));
+                } else if (receipt.getPaymentStatus() != TransactionStatus.COMPLETED) {
+                    final TransactionStatus status = statuses.get(receipt.getTransactionId());
+                    if (status == TransactionStatus.ERROR) {
+                        unpaid.put(followerId, AirdropReceipt.replacing(receipt));
+                    } else if (status == TransactionStatus.COMPLETED) {
+                        receipt.setPaymentStatus(TransactionStatus.COMPLETED);
+                        completed.add(receipt);
+                    } else if (status == null) {
+                        // The receipt is written with its payment, so this is only a read lagging behind.
+                        log.warn("Payment {} of receipt {} wasn't found", receipt.getTransactionId(),
+                                receipt.getReceiptId());
+                    }
+                }
+            }
+            progress.skipped.addAndGet(page.size() - unpaid.size());
+            saveCompleted(airdropId, completed);
+            return unpaid;
+        } catch (RuntimeException e) {
+            log.error("Failed to read the receipts of a page of {} followers in airdrop {}", page.size(),
+                    airdropId, e);
+            progress.failed.addAndGet(page.size());
+            return null;
+        }
+    }
+
+    // Recording completed payments only saves later runs from reading them, so a failure doesn't fail the page.
+    private void saveCompleted(final String airdropId, final List<AirdropReceipt> completed) {
+        if (completed.isEmpty()) {
+            return;
+        }
+        try {
+            receiptDao.saveCompleted(completed);
+        } catch (RuntimeException e) {
+            log.warn("Failed to record {} completed payments of airdrop {}", completed.size(), airdropId, e);
+        }
+    }
+
+    private void payPage(final String airdropId, final String orgName, final String currency, final double amount,
+                         final Map<String, AirdropReceipt> unpaid, final Progress progress) {
+        try {
+            final int created = transactionHandler.createBulkPayment(orgName,
+                    toPaymentRequests(airdropId, currency, amount, new ArrayList<>(unpaid.keySet())),
+                    new ArrayList<>(unpaid.values())).size();
+            progress.paid.addAndGet(created);
+            // Paid by a concurrent run of the same airdrop since the receipts were read.
+            progress.skipped.addAndGet(unpaid.size() - created);
+        } catch (BulkPaymentException e) {
+            // The chunks before the failure were committed, the receipts tell a resumed airdrop which ones.
+            log.error("Failed to pay {} of {} followers in airdrop {}", unpaid.size() - e.getFailedIndex(),
+                    unpaid.size(), airdropId, e);
+            progress.paid.addAndGet(e.getCommittedTransactionIds().size());
+            progress.skipped.addAndGet(e.getFailedIndex() - e.getCommittedTransactionIds().size());
+            progress.failed.addAndGet(unpaid.size() - e.getFailedIndex());
+        } catch (RuntimeException e) {
+            log.error("Failed to pay a page of {} followers in airdrop {}", unpaid.size(), airdropId, e);
+            progress.failed.addAndGet(unpaid.size());
+        }
+        progress.logProgress();
+    }
+
+    private static List<TransactionProto.PaymentRequest> toPaymentRequests(final String airdropId,
+                                                                           final String currency,
+                                                                           final double amount,
+                                                                           final List<String> followerIds) {
+        return followerIds.stream().map(followerId -> TransactionProto.PaymentRequest.newBuilder()
+                .setType(TransactionProto.PaymentRequest.Type.TRANSFER)
+                .setRecipientId(followerId)
+                .setMoneyAmount(TransactionProto.MoneyAmount.newBuilder()
+                        .setCurrencyId(currency)
+                        .setAmount(amount)
+                        .build())
+                .setNote(String.format("Airdrop %s", airdropId))
+                .build()).collect(Collectors.toList());
+    }
+
+    /**
+     * The outcome of an airdrop run. Followers paid got a payment created by this run, followers skipped have a
+     * payment from an earlier run that hasn't failed. Payments are processed asynchronously, so either may still be
+     * pending and end in an error, which the next run of the airdrop pays again.
+     */
+    @Value
+    public static class Report {
+        String airdropId;
+        long followerCount;
+        long paidCount;
+        long skippedCount;
+        long failedCount;
+        long elapsedMillis;
+
+        /**
+         * Whether every follower has a payment that hasn't failed, created by this run or an earlier one.
+         */
+        public boolean isComplete() {
+            return failedCount == 0 && paidCount + skippedCount == followerCount;
+        }
+
+        public double getPaymentsPerSecond() {
+            return elapsedMillis == 0 ? paidCount : paidCount * 1000.0 / elapsedMillis;
+        }
+    }
+
+    private static final class Progress {
+        private final String airdropId;
+        private final long followerCount;
+        private final long startMillis;
+        private final AtomicLong paid;
+        private final AtomicLong skipped;
+        private final AtomicLong failed;
+
+        Progress(final String airdropId, final long followerCount) {
+            this.airdropId = airdropId;
+            this.followerCount = followerCount;
+            this.startMillis = System.currentTimeMillis();
+            this.paid = new AtomicLong();
+            this.skipped = new AtomicLong();
+            this.failed = new AtomicLong();
+        }
+
+        void logProgress() {
+            final Report report = toReport();
+            log.info("Airdrop {} has paid {}, skipped {} and failed {} of {} followers at {} payments per second",
+                    airdropId, report.getPaidCount(), report.getSkippedCount(), report.getFailedCount(),
+                    followerCount, String.format("%.1f", report.getPaymentsPerSecond()));
+        }
+
+        Report toReport() {
+            return new Report(airdropId, followerCount, paid.get(), skipped.get(), failed.get(),
+                    System.currentTimeMillis() - startMillis);
+        }
+    }
+}
@@ -2,7 +2,12 @@ package io.openmarket.server;
 
 
 import io.grpc.ServerBuilder;
+import io.openmarket.ledger.Ledger;
+import io.openmarket.server.idempotency.IdempotencyInterceptor;
 import io.openmarket.server.services.*;
+import io.openmarket.transaction.processor.TransactionProcessor;
+import io.openmarket.transaction.processor.WalletShardRebalancer;
+import io.openmarket.transaction.service.PaymentStatusWatcher;
 import lombok.NonNull;
 import lombok.extern.log4j.Log4j2;
 
@@ -10,12 +15,18 @@ import javax.annotation.Nonnull;
 import javax.inject.Inject;
 import javax.inject.Named;
 
+import java.util.Optional;
+
 import static io.openmarket.config.EnvironmentConfig.ENV_VAR_SERVER_PORT;
 
 @Log4j2
 public class Server {
     private final int port;
     private final io.grpc.Server server;
+    private final Optional<TransactionProcessor> transactionProcessor;
+    private final Optional<PaymentStatusWatcher> paymentStatusWatcher;
+    private final Optional<WalletShardRebalancer> walletShardRebalancer;
+    private final Optional<Ledger> ledger;
 
     @Inject
     public Server(@Named(ENV_VAR_SERVER_PORT) int port,
@@ -24,9 +35,19 @@ public class Server {
                   @NonNull final OrganizationRPCService orgSerice,
                   @NonNull final StampEventRPCService eventService,
                   @NonNull final OpenMarketInterceptor interceptor,
+                  @NonNull final IdempotencyInterceptor idempotencyInterceptor,
                   @Nonnull final MarketPlaceRPCService marketplaceService,
-                  @Nonnull final NewsFeedRPCService newsfeedService) {
+                  @Nonnull final MarketPlaceStreamRPCService marketplaceStreamService,
+                  @Nonnull final NewsFeedRPCService newsfeedService,
+                  @NonNull final Optional<TransactionProcessor> transactionProcessor,
+                  @NonNull final Optional<PaymentStatusWatcher> paymentStatusWatcher,
+                  @NonNull final Optional<WalletShardRebalancer> walletShardRebalancer,
+                  @NonNull final Optional<Ledger> ledger) {
         this.port = port;
+        this.transactionProcessor = transactionProcessor;
+        this.paymentStatusWatcher = paymentStatusWatcher;
+        this.walletShardRebalancer = walletShardRebalancer;
+        this.ledger = ledger;
         this.server = ServerBuilder
                 .forPort(port)
                 .addService(accountService)
@@ -34,13 +55,21 @@ public class Server {
                 .addService(orgSerice)
                 .addService(eventService)
                 .addService(marketplaceService)
+                .addService(marketplaceStreamService)
                 .addService(newsfeedService)
+                // Interceptors added last run first, so idempotency keys are checked after authentication.
+                .intercept(idempotencyInterceptor)
                 .intercept(interceptor)
                 .build();
     }
 
     public void run() {
         try {
+            // Payments are settled in the background, checkouts served here wait for them.
+            ledger.ifPresent(Ledger::start);
+            transactionProcessor.ifPresent(TransactionProcessor::start);
+            paymentStatusWatcher.ifPresent(PaymentStatusWatcher::start);
+            walletShardRebalancer.ifPresent(WalletShardRebalancer::start);
             this.server.start();
             log.info("Server started at port {}", port);
             this.server.awaitTermination();
@@ -52,5 +81,10 @@ public class Server {
     public void exit() {
         log.info("Server shutting down");
         this.server.shutdown();
+        walletShardRebalancer.ifPresent(WalletShardRebalancer::stop);
+        paymentStatusWatcher.ifPresent(PaymentStatusWatcher::stop);
+        transactionProcessor.ifPresent(TransactionProcessor::stop);
+        // Stopped after the processor, so the final snapshot holds every payment it settled.
+        ledger.ifPresent(Ledger::stop);
     }
 }
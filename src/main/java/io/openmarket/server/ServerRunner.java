@@ -9,6 +9,7 @@ public class ServerRunner {
         final EnvMap map = new EnvMap().withMap(System.getenv());
         final OpenMarketComponent comp = DaggerOpenMarketComponent.builder().envMap(map).build();
         final Server server = comp.buildServer();
+        Runtime.getRuntime().addShutdownHook(new Thread(server::exit));
         server.run();
     }
 }
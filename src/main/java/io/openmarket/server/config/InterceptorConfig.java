@@ -4,6 +4,11 @@ import com.google.common.collect.ImmutableSet;
 import io.grpc.Context;
 import io.grpc.Metadata;
 import io.openmarket.config.GlobalConfig;
+import io.openmarket.event.grpc.StampEventGrpc;
+import io.openmarket.marketplace.grpc.MarketPlaceGrpc;
+import io.openmarket.server.services.MarketPlaceStreamRPCService;
+import io.openmarket.server.services.TransactionRPCService;
+import io.openmarket.transaction.grpc.TransactionGrpc;
 
 import java.util.Set;
 
@@ -31,4 +36,30 @@ public class InterceptorConfig {
      */
     public static final Set<String> RPC_WHITE_LIST = ImmutableSet.of("Account/handleRegister", "Account/handleLogin");
 
+    /**
+     * The metadata key for the client-chosen key that identifies retries of the same request.
+     */
+    public static final Metadata.Key<String> IDEMPOTENCY_KEY_METADATA_KEY = Metadata
+            .Key.of("idempotency-key", ASCII_STRING_MARSHALLER);
+
+    /**
+     * The methods whose retries are answered with the stored response when they carry an idempotency key.
+     */
+    public static final Set<String> IDEMPOTENT_RPCS = ImmutableSet.of(
+            TransactionGrpc.getProcessPaymentMethod().getFullMethodName(),
+            TransactionRPCService.BULK_PAYMENT_METHOD.getFullMethodName(),
+            MarketPlaceGrpc.getCheckoutMethod().getFullMethodName(),
+            MarketPlaceStreamRPCService.CHECKOUT_METHOD.getFullMethodName(),
+            StampEventGrpc.getRedeemMethod().getFullMethodName());
+
+    /**
+     * The maximum number of idempotency records kept in memory.
+     */
+    public static final long IDEMPOTENCY_CACHE_MAX_SIZE = 100000;
+
+    /**
+     * How long the response of a request is kept for its retries.
+     */
+    public static final long IDEMPOTENCY_TTL_MILLIS = 24 * 60 * 60 * 1000;
+
 }
@@ -0,0 +1,108 @@
+package io.openmarket.server.idempotency;
+
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
+import com.amazonaws.services.dynamodbv2.model.DeleteItemRequest;
+import com.amazonaws.services.dynamodbv2.model.GetItemRequest;
+import com.amazonaws.services.dynamodbv2.model.GetItemResult;
+import com.amazonaws.services.dynamodbv2.model.PutItemRequest;
+import com.google.common.collect.ImmutableMap;
+import lombok.NonNull;
+import lombok.extern.log4j.Log4j2;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An {@link IdempotencyStore} backed by a DynamoDB table, so retries are deduplicated across servers.
+ * Keys are claimed with a conditional put. The table should have TTL enabled on {@link #ATTR_EXPIRES_AT}.
+ */
+@Log4j2
+public class DynamoDBIdempotencyStore implements IdempotencyStore {
+    public static final String ATTR_KEY = "IdempotencyKey";
+    public static final String ATTR_REQUEST_HASH = "RequestHash";
+    public static final String ATTR_RESPONSE = "Response";
+    public static final String ATTR_EXPIRES_AT = "ExpiresAt";
+
+    private final AmazonDynamoDB dbClient;
+    private final String tableName;
+    private final long ttlMillis;
+
+    public DynamoDBIdempotencyStore(@NonNull final AmazonDynamoDB dbClient, @NonNull final String tableName,
+                                    final long ttlMillis) {
+        this.dbClient = dbClient;
+        this.tableName = tableName;
+        this.ttlMillis = ttlMillis;
+    }
+
+    @Override
+    public Optional<IdempotencyRecord> claim(@NonNull final String key, @NonNull final String requestHash) {
+        try {
+            dbClient.putItem(new PutItemRequest()
+                    .withTableName(tableName)
+                    .withItem(ImmutableMap.of(
+                            ATTR_KEY, new AttributeValue(key),
+                            ATTR_REQUEST_HASH, new AttributeValue(requestHash),
+                            ATTR_EXPIRES_AT, new AttributeValue().withN(getExpiresAt())))
+                    .withConditionExpression("attribute_not_exists(#key)")
+                    .withExpressionAttributeNames(ImmutableMap.of("#key", ATTR_KEY)));
+            return Optional.empty();
+        } catch (ConditionalCheckFailedException e) {
+            final Optional<IdempotencyRecord> record = load(key);
+            if (!record.isPresent()) {
+                // The record expired or was released in between, try to claim it again.
+                return claim(key, requestHash);
+            }
+            return record;
+        }
+    }
+
+    @Override
+    public void complete(@NonNull final String key, @NonNull final String requestHash, @NonNull final byte[] response) {
+        dbClient.putItem(new PutItemRequest()
+                .withTableName(tableName)
+                .withItem(ImmutableMap.of(
+                        ATTR_KEY, new AttributeValue(key),
+                        ATTR_REQUEST_HASH, new AttributeValue(requestHash),
+                        ATTR_RESPONSE, new AttributeValue().withB(ByteBuffer.wrap(response)),
+                        ATTR_EXPIRES_AT, new AttributeValue().withN(getExpiresAt()))));
+    }
+
+    @Override
+    public void release(@NonNull final String key) {
+        dbClient.deleteItem(new DeleteItemRequest()
+                .withTableName(tableName)
+                .withKey(ImmutableMap.of(ATTR_KEY, new AttributeValue(key))));
+    }
+
+    private Optional<IdempotencyRecord> load(final String key) {
+        final GetItemResult result = dbClient.getItem(new GetItemRequest()
+                .withTableName(tableName)
+                .withKey(ImmutableMap.of(ATTR_KEY, new AttributeValue(key)))
+                .withConsistentRead(true));
+        final Map<String, AttributeValue> item = result.getItem();
+        if (item == null || item.isEmpty()) {
+            return Optional.empty();
+        }
+        // Expired items may linger until DynamoDB removes them.
+        if (Long.parseLong(item.get(ATTR_EXPIRES_AT).getN()) < TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis())) {
+            log.info("Ignoring expired idempotency record {}", key);
+            release(key);
+            return Optional.empty();
+        }
+        byte[] response = null;
+        if (item.containsKey(ATTR_RESPONSE)) {
+            final ByteBuffer buffer = item.get(ATTR_RESPONSE).getB();
+            response = new byte[buffer.remaining()];
+            buffer.get(response);
+        }
+        return Optional.of(new IdempotencyRecord(item.get(ATTR_REQUEST_HASH).getS(), response));
+    }
+
+    private String getExpiresAt() {
+        return String.valueOf(TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis() + ttlMillis));
+    }
+}
@@ -0,0 +1,248 @@
+package io.openmarket.server.idempotency;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+import com.google.protobuf.Descriptors;
+import com.google.protobuf.Message;
+import io.grpc.ForwardingServerCall;
+import io.grpc.ForwardingServerCallListener;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+import io.grpc.Status;
+import io.openmarket.server.config.InterceptorConfig;
+import lombok.NonNull;
+import lombok.extern.log4j.Log4j2;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Answers retries of unary and server-streaming RPCs carrying the same idempotency key with the stored response of
+ * the first request, without calling the service again. Keys are scoped to the method and the authenticated user,
+ * so this interceptor must run after authentication.
+ * <p>
+ * Only successful responses are stored. A call that closes with an error status, or whose response reports an
+ * error in its {@code error} field, releases its key so that a retry is processed again. A service must therefore
+ * only report an error when the request had no lasting effect, and otherwise respond with what it did.
+ */
+@Log4j2
+public class IdempotencyInterceptor implements ServerInterceptor {
+    // The values of an error field that report success.
+    private static final Set<String> NO_ERROR_VALUES = ImmutableSet.of("NONE", "NOTHING");
+
+    private final IdempotencyStore store;
+    private final Set<String> idempotentMethods;
+
+    public IdempotencyInterceptor(@NonNull final IdempotencyStore store, @NonNull final Set<String> idempotentMethods) {
+        this.store = store;
+        this.idempotentMethods = idempotentMethods;
+    }
+
+    @Override
+    public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(ServerCall<ReqT, RespT> call, Metadata metadata,
+                                                                 ServerCallHandler<ReqT, RespT> serverCallHandler) {
+        final String idempotencyKey = metadata.get(InterceptorConfig.IDEMPOTENCY_KEY_METADATA_KEY);
+        final MethodDescriptor<ReqT, RespT> method = call.getMethodDescriptor();
+        if (idempotencyKey == null || idempotencyKey.isEmpty()
+                || !(method.getType().equals(MethodDescriptor.MethodType.UNARY)
+                        || method.getType().equals(MethodDescriptor.MethodType.SERVER_STREAMING))
+                || !idempotentMethods.contains(method.getFullMethodName())) {
+            return serverCallHandler.startCall(call, metadata);
+        }
+        final RecordingServerCall<ReqT, RespT> recordingCall = new RecordingServerCall<>(call);
+        final ServerCall.Listener<ReqT> listener = serverCallHandler.startCall(recordingCall, metadata);
+        return new IdempotentServerCallListener<>(listener, recordingCall, idempotencyKey);
+    }
+
+    private class IdempotentServerCallListener<ReqT, RespT>
+            extends ForwardingServerCallListener.SimpleForwardingServerCallListener<ReqT> {
+        private final RecordingServerCall<ReqT, RespT> call;
+        private final String idempotencyKey;
+        private boolean isAnswered = false;
+
+        IdempotentServerCallListener(final ServerCall.Listener<ReqT> listener,
+                                     final RecordingServerCall<ReqT, RespT> call, final String idempotencyKey) {
+            super(listener);
+            this.call = call;
+            this.idempotencyKey = idempotencyKey;
+        }
+
+        @Override
+        public void onMessage(final ReqT message) {
+            final MethodDescriptor<ReqT, RespT> method = call.getMethodDescriptor();
+            // The authentication interceptor has attached the user's context by now.
+            final String userId = InterceptorConfig.USER_NAME_CONTEXT_KEY.get();
+            final String key = String.format("%s/%s/%s", method.getFullMethodName(), userId, idempotencyKey);
+            final String requestHash = Hashing.sha256().hashBytes(toBytes(method.streamRequest(message))).toString();
+
+            final Optional<IdempotencyRecord> existing = store.claim(key, requestHash);
+            if (!existing.isPresent()) {
+                call.claimed(key, requestHash);
+                super.onMessage(message);
+                return;
+            }
+
+            isAnswered = true;
+            final IdempotencyRecord record = existing.get();
+            if (!record.getRequestHash().equals(requestHash)) {
+                log.warn("Idempotency key {} was reused for a different request", key);
+                call.close(Status.INVALID_ARGUMENT.withDescription("Idempotency key was used for another request"),
+                        new Metadata());
+            } else if (!record.isCompleted()) {
+                log.info("Request with idempotency key {} is still in progress", key);
+                call.close(Status.ABORTED.withDescription("A request with this idempotency key is in progress"),
+                        new Metadata());
+            } else {
+                log.info("Replaying stored response for idempotency key {}", key);
+                call.sendHeaders(new Metadata());
+                for (byte[] response : decodeResponses(method, record.getResponse())) {
+                    call.sendMessage(method.parseResponse(new ByteArrayInputStream(response)));
+                }
+                call.close(Status.OK, new Metadata());
+            }
+        }
+
+        @Override
+        public void onHalfClose() {
+            if (isAnswered) {
+                return;
+            }
+            try {
+                super.onHalfClose();
+            } catch (RuntimeException e) {
+                call.releaseIfIncomplete();
+                throw e;
+            }
+        }
+
+        @Override
+        public void onCancel() {
+            call.releaseIfIncomplete();
+            super.onCancel();
+        }
+    }
+
+    // Stores the responses of a claimed request just before the call is closed.
+    private class RecordingServerCall<ReqT, RespT> extends ForwardingServerCall.SimpleForwardingServerCall<ReqT, RespT> {
+        private final List<byte[]> responses = new ArrayList<>();
+        private String key;
+        private String requestHash;
+        private boolean isFailed = false;
+        private boolean isStored = false;
+
+        RecordingServerCall(final ServerCall<ReqT, RespT> call) {
+            super(call);
+        }
+
+        synchronized void claimed(final String key, final String requestHash) {
+            this.key = key;
+            this.requestHash = requestHash;
+        }
+
+        @Override
+        public void sendMessage(final RespT message) {
+            synchronized (this) {
+                if (key != null && !isFailed) {
+                    if (isErrorResponse(message)) {
+                        isFailed = true;
+                    } else {
+                        responses.add(toBytes(getMethodDescriptor().streamResponse(message)));
+                    }
+                }
+            }
+            super.sendMessage(message);
+        }
+
+        @Override
+        public void close(final Status status, final Metadata trailers) {
+            synchronized (this) {
+                if (key != null && !isStored) {
+                    isStored = true;
+                    if (status.isOk() && !isFailed && !responses.isEmpty()) {
+                        store.complete(key, requestHash, encodeResponses(getMethodDescriptor(), responses));
+                    } else {
+                        store.release(key);
+                    }
+                }
+            }
+            super.close(status, trailers);
+        }
+
+        synchronized void releaseIfIncomplete() {
+            if (key != null && !isStored) {
+                isStored = true;
+                store.release(key);
+            }
+        }
+    }
+
+    // Whether the response reports an error in an enum field named error, like a checkout's INTERNAL_SERVICE_ERROR.
+    private static boolean isErrorResponse(final Object response) {
+        if (!(response instanceof Message)) {
+            return false;
+        }
+        final Message message = (Message) response;
+        final Descriptors.FieldDescriptor errorField = message.getDescriptorForType().findFieldByName("error");
+        if (errorField == null || errorField.getJavaType() != Descriptors.FieldDescriptor.JavaType.ENUM) {
+            return false;
+        }
+        final Descriptors.EnumValueDescriptor error = (Descriptors.EnumValueDescriptor) message.getField(errorField);
+        return error.getNumber() != 0 && !NO_ERROR_VALUES.contains(error.getName());
+    }
+
+    // A unary response is stored as is, the messages of a stream are each prefixed with their length.
+    private static byte[] encodeResponses(final MethodDescriptor<?, ?> method, final List<byte[]> responses) {
+        if (method.getType().equals(MethodDescriptor.MethodType.UNARY)) {
+            return responses.get(0);
+        }
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream output = new DataOutputStream(bytes)) {
+            for (byte[] response : responses) {
+                output.writeInt(response.length);
+                output.write(response);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static List<byte[]> decodeResponses(final MethodDescriptor<?, ?> method, final byte[] stored) {
+        final List<byte[]> responses = new ArrayList<>();
+        if (method.getType().equals(MethodDescriptor.MethodType.UNARY)) {
+            responses.add(stored);
+            return responses;
+        }
+        try (DataInputStream input = new DataInputStream(new ByteArrayInputStream(stored))) {
+            while (input.available() > 0) {
+                final byte[] response = new byte[input.readInt()];
+                input.readFully(response);
+                responses.add(response);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return responses;
+    }
+
+    private static byte[] toBytes(final InputStream stream) {
+        try {
+            return ByteStreams.toByteArray(stream);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package io.openmarket.server.idempotency;
+
+import lombok.NonNull;
+import lombok.Value;
+
+import javax.annotation.Nullable;
+
+/**
+ * The state of a request made with an idempotency key.
+ */
+@Value
+public class IdempotencyRecord {
+    // A hash of the serialized request, to detect a key being reused for a different request.
+    String requestHash;
+
+    // The serialized response, or null while the first request is still in progress.
+    byte[] response;
+
+    public IdempotencyRecord(@NonNull final String requestHash, @Nullable final byte[] response) {
+        this.requestHash = requestHash;
+        this.response = response;
+    }
+
+    public boolean isCompleted() {
+        return response != null;
+    }
+}
@@ -0,0 +1,30 @@
+package io.openmarket.server.idempotency;
+
+import java.util.Optional;
+
+/**
+ * Stores the responses of requests made with an idempotency key, so retries can be answered without redoing them.
+ */
+public interface IdempotencyStore {
+    /**
+     * Claim the key for a new request.
+     * @param key the scoped idempotency key.
+     * @param requestHash a hash of the serialized request.
+     * @return empty if the key was claimed by this call, otherwise the existing record for the key.
+     */
+    Optional<IdempotencyRecord> claim(String key, String requestHash);
+
+    /**
+     * Store the response of a claimed key.
+     * @param key the scoped idempotency key.
+     * @param requestHash a hash of the serialized request.
+     * @param response the serialized response.
+     */
+    void complete(String key, String requestHash, byte[] response);
+
+    /**
+     * Give up a claimed key without a response, e.g. because the request failed, so it can be retried.
+     * @param key the scoped idempotency key.
+     */
+    void release(String key);
+}
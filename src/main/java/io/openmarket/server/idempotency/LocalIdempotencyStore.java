@@ -0,0 +1,38 @@
+package io.openmarket.server.idempotency;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import lombok.NonNull;
+
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A bounded in-memory {@link IdempotencyStore} whose records expire after a fixed time.
+ * It only deduplicates retries that reach the same server.
+ */
+public class LocalIdempotencyStore implements IdempotencyStore {
+    private final Cache<String, IdempotencyRecord> records;
+
+    public LocalIdempotencyStore(final long maxSize, final long ttlMillis) {
+        this.records = CacheBuilder.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttlMillis, TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+    @Override
+    public Optional<IdempotencyRecord> claim(@NonNull final String key, @NonNull final String requestHash) {
+        return Optional.ofNullable(records.asMap().putIfAbsent(key, new IdempotencyRecord(requestHash, null)));
+    }
+
+    @Override
+    public void complete(@NonNull final String key, @NonNull final String requestHash, @NonNull final byte[] response) {
+        records.put(key, new IdempotencyRecord(requestHash, response));
+    }
+
+    @Override
+    public void release(@NonNull final String key) {
+        records.invalidate(key);
+    }
+}
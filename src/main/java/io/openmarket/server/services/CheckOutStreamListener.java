@@ -0,0 +1,98 @@
+package io.openmarket.server.services;
+
+import io.grpc.stub.ServerCallStreamObserver;
+import io.openmarket.marketplace.CheckOutListener;
+import io.openmarket.marketplace.grpc.MarketPlaceProto;
+import lombok.NonNull;
+import lombok.extern.log4j.Log4j2;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+
+/**
+ * Streams each settled sub-order to the client, followed by the checkout summary. Results are buffered while the
+ * transport is not ready, and are sent once gRPC signals readiness.
+ */
+@Log4j2
+class CheckOutStreamListener implements CheckOutListener {
+    private final ServerCallStreamObserver<MarketPlaceProto.CheckOutResult> observer;
+
+    // Guarded by this.
+    private final Queue<MarketPlaceProto.CheckOutResult> pendingResults;
+    private boolean isSummaryQueued;
+    private boolean isClosed;
+    private boolean isCancelled;
+    private Runnable onCancelHandler;
+
+    CheckOutStreamListener(@NonNull final ServerCallStreamObserver<MarketPlaceProto.CheckOutResult> observer) {
+        this.observer = observer;
+        this.pendingResults = new ArrayDeque<>();
+        observer.setOnReadyHandler(this::drain);
+        observer.setOnCancelHandler(this::cancel);
+    }
+
+    @Override
+    public synchronized void onSubOrderSettled(final String orgId, final MarketPlaceProto.CheckOutResult result) {
+        if (isSummaryQueued) {
+            return;
+        }
+        pendingResults.add(result);
+        drain();
+    }
+
+    @Override
+    public void setOnCancelHandler(@NonNull final Runnable onCancelHandler) {
+        synchronized (this) {
+            if (!isCancelled) {
+                this.onCancelHandler = onCancelHandler;
+                return;
+            }
+        }
+        onCancelHandler.run();
+    }
+
+    /**
+     * Queue the checkout summary, the stream completes once it has been sent.
+     * @param summary the result of the whole checkout.
+     */
+    synchronized void complete(@NonNull final MarketPlaceProto.CheckOutResult summary) {
+        pendingResults.add(summary);
+        isSummaryQueued = true;
+        drain();
+    }
+
+    synchronized void fail(@NonNull final Throwable error) {
+        if (isClosed || isCancelled) {
+            return;
+        }
+        isClosed = true;
+        pendingResults.clear();
+        observer.onError(error);
+    }
+
+    private synchronized void drain() {
+        if (isClosed || isCancelled) {
+            return;
+        }
+        while (observer.isReady() && !pendingResults.isEmpty()) {
+            observer.onNext(pendingResults.poll());
+        }
+        if (isSummaryQueued && pendingResults.isEmpty()) {
+            isClosed = true;
+            observer.onCompleted();
+        }
+    }
+
+    private void cancel() {
+        final Runnable handler;
+        synchronized (this) {
+            isCancelled = true;
+            pendingResults.clear();
+            handler = onCancelHandler;
+        }
+        log.info("Client cancelled streaming checkout");
+        if (handler != null) {
+            handler.run();
+        }
+    }
+}
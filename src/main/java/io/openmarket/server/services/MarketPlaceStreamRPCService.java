@@ -0,0 +1,138 @@
+package io.openmarket.server.services;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.grpc.BindableService;
+import io.grpc.Context;
+import io.grpc.MethodDescriptor;
+import io.grpc.ServerServiceDefinition;
+import io.grpc.Status;
+import io.grpc.protobuf.ProtoUtils;
+import io.grpc.stub.ServerCallStreamObserver;
+import io.grpc.stub.ServerCalls;
+import io.grpc.stub.StreamObserver;
+import io.openmarket.marketplace.ListingPage;
+import io.openmarket.marketplace.MarketPlaceServiceHandler;
+import io.openmarket.marketplace.grpc.MarketPlaceProto;
+import io.openmarket.server.config.InterceptorConfig;
+import lombok.NonNull;
+import lombok.extern.log4j.Log4j2;
+
+import javax.inject.Inject;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Streaming counterparts of the MarketPlace RPCs, reusing the MarketPlace messages.
+ */
+@Log4j2
+public class MarketPlaceStreamRPCService implements BindableService {
+    public static final String SERVICE_NAME = "MarketPlaceStream";
+
+    /**
+     * Streams a {@link MarketPlaceProto.CheckOutResult} for each organization's sub-order as it settles, then one
+     * with the summary of the whole checkout.
+     */
+    public static final MethodDescriptor<MarketPlaceProto.CheckOutRequest, MarketPlaceProto.CheckOutResult>
+            CHECKOUT_METHOD = MethodDescriptor.<MarketPlaceProto.CheckOutRequest, MarketPlaceProto.CheckOutResult>
+            newBuilder()
+            .setType(MethodDescriptor.MethodType.SERVER_STREAMING)
+            .setFullMethodName(MethodDescriptor.generateFullMethodName(SERVICE_NAME, "checkout"))
+            .setRequestMarshaller(ProtoUtils.marshaller(MarketPlaceProto.CheckOutRequest.getDefaultInstance()))
+            .setResponseMarshaller(ProtoUtils.marshaller(MarketPlaceProto.CheckOutResult.getDefaultInstance()))
+            .build();
+
+    /**
+     * Streams an organization's listing as a {@link MarketPlaceProto.GetOrgItemsResult} per page, ordered by item ID.
+     */
+    public static final MethodDescriptor<MarketPlaceProto.GetOrgItemsRequest, MarketPlaceProto.GetOrgItemsResult>
+            GET_LISTING_METHOD = MethodDescriptor.<MarketPlaceProto.GetOrgItemsRequest,
+            MarketPlaceProto.GetOrgItemsResult>newBuilder()
+            .setType(MethodDescriptor.MethodType.SERVER_STREAMING)
+            .setFullMethodName(MethodDescriptor.generateFullMethodName(SERVICE_NAME, "getListing"))
+            .setRequestMarshaller(ProtoUtils.marshaller(MarketPlaceProto.GetOrgItemsRequest.getDefaultInstance()))
+            .setResponseMarshaller(ProtoUtils.marshaller(MarketPlaceProto.GetOrgItemsResult.getDefaultInstance()))
+            .build();
+
+    // The number of items sent in each message of a streamed listing.
+    private static final int LISTING_STREAM_PAGE_SIZE = 100;
+
+    private static final int CHECKOUT_THREADS = 16;
+    private static final int CHECKOUT_QUEUE_SIZE = 256;
+
+    private final MarketPlaceServiceHandler marketPlaceServiceHandler;
+    private final ExecutorService checkoutExecutor;
+
+    @Inject
+    public MarketPlaceStreamRPCService(@NonNull final MarketPlaceServiceHandler marketPlaceServiceHandler) {
+        this.marketPlaceServiceHandler = marketPlaceServiceHandler;
+        // Checkouts run off the gRPC thread so that readiness and cancellation callbacks are delivered meanwhile.
+        this.checkoutExecutor = new ThreadPoolExecutor(CHECKOUT_THREADS, CHECKOUT_THREADS,
+                0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(CHECKOUT_QUEUE_SIZE),
+                new ThreadFactoryBuilder().setNameFormat("stream-checkout-%d").setDaemon(true).build());
+    }
+
+    @Override
+    public ServerServiceDefinition bindService() {
+        return ServerServiceDefinition.builder(SERVICE_NAME)
+                .addMethod(CHECKOUT_METHOD, ServerCalls.asyncServerStreamingCall(this::checkout))
+                .addMethod(GET_LISTING_METHOD, ServerCalls.asyncServerStreamingCall(this::getListing))
+                .build();
+    }
+
+    public void checkout(@NonNull final MarketPlaceProto.CheckOutRequest request,
+                         @NonNull final StreamObserver<MarketPlaceProto.CheckOutResult> observer) {
+        final String userId = InterceptorConfig.USER_NAME_CONTEXT_KEY.get(Context.current());
+        log.info("Streaming CheckOut invoked by user {}", userId);
+        final CheckOutStreamListener listener = new CheckOutStreamListener(
+                (ServerCallStreamObserver<MarketPlaceProto.CheckOutResult>) observer);
+        try {
+            checkoutExecutor.execute(() -> {
+                try {
+                    listener.complete(marketPlaceServiceHandler.checkout(userId, request, listener));
+                } catch (RuntimeException e) {
+                    log.error("Streaming checkout failed for user {}", userId, e);
+                    listener.fail(Status.INTERNAL.withDescription(e.getMessage()).asRuntimeException());
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            log.warn("Rejected streaming checkout for user {}, too many checkouts in progress", userId);
+            listener.fail(Status.RESOURCE_EXHAUSTED.withDescription("Too many checkouts in progress")
+                    .asRuntimeException());
+        }
+    }
+
+    public void getListing(@NonNull final MarketPlaceProto.GetOrgItemsRequest request,
+                           @NonNull final StreamObserver<MarketPlaceProto.GetOrgItemsResult> observer) {
+        log.info("Streaming listing invoked for org {}", request.getOrgId());
+        final ServerCallStreamObserver<MarketPlaceProto.GetOrgItemsResult> call =
+                (ServerCallStreamObserver<MarketPlaceProto.GetOrgItemsResult>) observer;
+        // Pages are only produced while the client keeps up, so a large catalog is never buffered in full.
+        call.setOnReadyHandler(new Runnable() {
+            private String pageToken = null;
+            private boolean isDone = false;
+
+            @Override
+            public void run() {
+                try {
+                    while (!isDone && call.isReady() && !call.isCancelled()) {
+                        final ListingPage page = marketPlaceServiceHandler.getListingPage(request, pageToken,
+                                LISTING_STREAM_PAGE_SIZE);
+                        call.onNext(page.getResult());
+                        pageToken = page.getNextPageToken();
+                        if (!page.hasNextPage()) {
+                            isDone = true;
+                            call.onCompleted();
+                        }
+                    }
+                } catch (RuntimeException e) {
+                    log.error("Streaming listing failed for org {}", request.getOrgId(), e);
+                    isDone = true;
+                    call.onError(Status.INTERNAL.withDescription(e.getMessage()).asRuntimeException());
+                }
+            }
+        });
+    }
+}
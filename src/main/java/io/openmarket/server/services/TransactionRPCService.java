@@ -1,16 +1,62 @@
 package io.openmarket.server.services;
 
+import com.google.common.collect.ImmutableList;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.MessageLite;
+import com.google.protobuf.Parser;
 import io.grpc.Context;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.ServerMethodDefinition;
+import io.grpc.ServerServiceDefinition;
+import io.grpc.Status;
+import io.grpc.stub.ServerCallStreamObserver;
+import io.grpc.stub.ServerCalls;
 import io.grpc.stub.StreamObserver;
 import io.openmarket.server.config.InterceptorConfig;
+import io.openmarket.transaction.exception.BulkPaymentException;
 import io.openmarket.transaction.grpc.TransactionGrpc;
 import io.openmarket.transaction.grpc.TransactionProto;
 import io.openmarket.transaction.service.TransactionServiceHandler;
 import lombok.NonNull;
+import lombok.extern.log4j.Log4j2;
 
 import javax.inject.Inject;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.stream.Collectors;
 
+@Log4j2
 public class TransactionRPCService extends TransactionGrpc.TransactionImplBase {
+    /**
+     * Pays many recipients from the caller's wallet. The request is the payments as length-delimited
+     * {@link TransactionProto.PaymentRequest}s, and each streamed response is the length-delimited
+     * {@link TransactionProto.PaymentResult}s of one committed chunk, in the order of the requests, so the results
+     * streamed before a failure are the committed payments. A bulk payment that fails part way still ends with an OK
+     * status so that retries replay the committed chunks rather than paying them again, and its trailers hold
+     * {@link #BULK_PAYMENT_FAILED_INDEX_KEY}, the number of results streamed: only the payments from there on may be
+     * retried, under a new key.
+     */
+    public static final MethodDescriptor<List<TransactionProto.PaymentRequest>,
+            List<TransactionProto.PaymentResult>> BULK_PAYMENT_METHOD = MethodDescriptor
+            .<List<TransactionProto.PaymentRequest>, List<TransactionProto.PaymentResult>>newBuilder()
+            .setType(MethodDescriptor.MethodType.SERVER_STREAMING)
+            .setFullMethodName(MethodDescriptor.generateFullMethodName(TransactionGrpc.SERVICE_NAME,
+                    "processBulkPayment"))
+            .setRequestMarshaller(new DelimitedListMarshaller<>(TransactionProto.PaymentRequest.parser()))
+            .setResponseMarshaller(new DelimitedListMarshaller<>(TransactionProto.PaymentResult.parser()))
+            .build();
+
+    /**
+     * The trailer of a failed bulk payment holding the index of the first payment that wasn't written.
+     */
+    public static final Metadata.Key<String> BULK_PAYMENT_FAILED_INDEX_KEY = Metadata.Key.of(
+            "bulk-payment-failed-index", Metadata.ASCII_STRING_MARSHALLER);
+
     private final TransactionServiceHandler handler;
 
     @Inject
@@ -18,6 +64,17 @@ public class TransactionRPCService extends TransactionGrpc.TransactionImplBase {
         this.handler = handler;
     }
 
+    @Override
+    public ServerServiceDefinition bindService() {
+        final ServerServiceDefinition.Builder builder = ServerServiceDefinition.builder(TransactionGrpc.SERVICE_NAME);
+        for (ServerMethodDefinition<?, ?> method : super.bindService().getMethods()) {
+            builder.addMethod(method);
+        }
+        return builder
+                .addMethod(BULK_PAYMENT_METHOD, ServerCalls.asyncServerStreamingCall(this::processBulkPayment))
+                .build();
+    }
+
     @Override
     public void processPayment(@NonNull final TransactionProto.PaymentRequest request,
                                @NonNull final StreamObserver<TransactionProto.PaymentResult> responseObserver) {
@@ -25,6 +82,39 @@ public class TransactionRPCService extends TransactionGrpc.TransactionImplBase {
         responseObserver.onCompleted();
     }
 
+    public void processBulkPayment(@NonNull final List<TransactionProto.PaymentRequest> requests,
+                                   @NonNull final StreamObserver<List<TransactionProto.PaymentResult>> observer) {
+        final String userId = InterceptorConfig.USER_NAME_CONTEXT_KEY.get(Context.current());
+        log.info("Bulk payment of {} payments invoked by user {}", requests.size(), userId);
+        final ServerCallStreamObserver<List<TransactionProto.PaymentResult>> call =
+                (ServerCallStreamObserver<List<TransactionProto.PaymentResult>>) observer;
+        try {
+            handler.createBulkPayment(userId, requests, null, transactionIds -> {
+                if (!call.isCancelled()) {
+                    call.onNext(transactionIds.stream()
+                            .map(id -> TransactionProto.PaymentResult.newBuilder().setTransactionId(id).build())
+                            .collect(Collectors.toList()));
+                }
+            });
+            call.onCompleted();
+        } catch (IllegalArgumentException e) {
+            call.onError(Status.INVALID_ARGUMENT.withDescription(e.getMessage()).asRuntimeException());
+        } catch (BulkPaymentException e) {
+            final Metadata trailers = new Metadata();
+            trailers.put(BULK_PAYMENT_FAILED_INDEX_KEY, String.valueOf(e.getFailedIndex()));
+            if (call.isCancelled()) {
+                return;
+            }
+            if (e.getCommittedTransactionIds().isEmpty()) {
+                // Nothing was written, so the whole bulk payment may be retried.
+                call.onError(Status.UNAVAILABLE.withDescription(e.getMessage()).asRuntimeException(trailers));
+            } else {
+                // The committed chunks were streamed, their IDs are the results before the failed index.
+                call.onError(Status.OK.withDescription(e.getMessage()).asRuntimeException(trailers));
+            }
+        }
+    }
+
     @Override
     public void processQuery(@NonNull final TransactionProto.QueryRequest request,
                                @NonNull final StreamObserver<TransactionProto.QueryResult> responseObserver) {
@@ -47,4 +137,42 @@ public class TransactionRPCService extends TransactionGrpc.TransactionImplBase {
         responseObserver.onNext(handler.getWallet(userId, request));
         responseObserver.onCompleted();
     }
+
+    // Marshals a list of messages as consecutive length-delimited messages.
+    private static class DelimitedListMarshaller<T extends MessageLite>
+            implements MethodDescriptor.Marshaller<List<T>> {
+        private final Parser<T> parser;
+
+        DelimitedListMarshaller(final Parser<T> parser) {
+            this.parser = parser;
+        }
+
+        @Override
+        public InputStream stream(final List<T> messages) {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try {
+                for (T message : messages) {
+                    message.writeDelimitedTo(out);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return new ByteArrayInputStream(out.toByteArray());
+        }
+
+        @Override
+        public List<T> parse(final InputStream stream) {
+            final ImmutableList.Builder<T> messages = ImmutableList.builder();
+            try {
+                T message;
+                while ((message = parser.parseDelimitedFrom(stream)) != null) {
+                    messages.add(message);
+                }
+            } catch (InvalidProtocolBufferException e) {
+                throw Status.INVALID_ARGUMENT.withDescription("Malformed message list").withCause(e)
+                        .asRuntimeException();
+            }
+            return messages.build();
+        }
+    }
 }
@@ -17,6 +17,7 @@ import io.openmarket.stamp.model.EventOwnerType;
 import io.openmarket.stamp.model.StampEvent;
 import io.openmarket.transaction.grpc.TransactionProto;
 import io.openmarket.transaction.service.TransactionServiceHandler;
+import io.openmarket.utils.IdGenerator;
 import io.openmarket.utils.TimeUtils;
 import lombok.NonNull;
 import lombok.extern.log4j.Log4j2;
@@ -158,6 +159,7 @@ public class StampEventServiceHandler {
 
         // TODO: Optimize
         final StampEvent event = StampEvent.builder()
+                .eventId(IdGenerator.shared().next())
                 .ownerId(ownerId)
                 .name(request.getName())
                 .type(EventOwnerType.USER)
@@ -3,12 +3,16 @@ package io.openmarket.transaction.cli;
 import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
 import com.amazonaws.services.dynamodbv2.AmazonDynamoDBClientBuilder;
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
+import com.amazonaws.services.sqs.AmazonSQS;
 import com.amazonaws.services.sqs.AmazonSQSClientBuilder;
 import io.grpc.Context;
 import io.openmarket.server.config.InterceptorConfig;
 import io.openmarket.transaction.dao.dynamodb.TransactionDaoImpl;
 import io.openmarket.transaction.dao.sqs.SQSTransactionTaskPublisher;
 import io.openmarket.transaction.grpc.TransactionProto;
+import io.openmarket.transaction.outbox.DynamoDBOutboxDao;
+import io.openmarket.transaction.outbox.OutboxRelay;
+import io.openmarket.transaction.queue.TransactionTaskPublisher;
 import io.openmarket.transaction.service.TransactionServiceHandler;
 import io.openmarket.wallet.dao.dynamodb.WalletDao;
 import io.openmarket.wallet.dao.dynamodb.WalletDaoImpl;
@@ -48,9 +52,18 @@ public class CLI {
         scanner = new Scanner(System.in);
         AmazonDynamoDB dbClient = AmazonDynamoDBClientBuilder.standard().build();
         WalletDao walletDao = new WalletDaoImpl(dbClient, new DynamoDBMapper(dbClient));
-        SQSTransactionTaskPublisher sqsPublisher = new SQSTransactionTaskPublisher(AmazonSQSClientBuilder.standard().build());
-        handler = new TransactionServiceHandler(new TransactionDaoImpl(dbClient, new DynamoDBMapper(dbClient)),
-                walletDao, sqsPublisher, "https://sqs.us-west-2.amazonaws.com/185046651126/TransactionTaskQueue");
+        AmazonSQS sqsClient = AmazonSQSClientBuilder.standard().build();
+        SQSTransactionTaskPublisher sqsPublisher = new SQSTransactionTaskPublisher(sqsClient);
+        String queueUrl = "https://sqs.us-west-2.amazonaws.com/185046651126/TransactionTaskQueue";
+        OutboxRelay outboxRelay = new OutboxRelay(sqsClient, queueUrl, new DynamoDBOutboxDao(dbClient));
+        outboxRelay.start();
+        handler = TransactionServiceHandler.builder()
+                .transactionDao(new TransactionDaoImpl(dbClient, new DynamoDBMapper(dbClient)))
+                .walletDao(walletDao)
+                .taskPublisher(TransactionTaskPublisher.of(sqsPublisher))
+                .queueURL(queueUrl)
+                .outboxRelay(outboxRelay)
+                .build();
         context = Context.current();
     }
 
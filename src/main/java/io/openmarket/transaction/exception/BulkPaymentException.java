@@ -0,0 +1,29 @@
+package io.openmarket.transaction.exception;
+
+import lombok.Getter;
+
+import java.util.List;
+
+/**
+ * Thrown when a bulk payment fails part way through. The chunks written before the failure stay committed and are
+ * processed as usual, so a caller retrying it must only retry the payments from {@link #getFailedIndex()} on.
+ */
+@Getter
+public class BulkPaymentException extends RuntimeException {
+    /**
+     * The IDs of the transactions committed before the failure, in the order of the requests.
+     */
+    private final List<String> committedTransactionIds;
+
+    /**
+     * The index of the first request that wasn't written. The requests before it were committed or skipped.
+     */
+    private final int failedIndex;
+
+    public BulkPaymentException(final String msg, final Throwable cause,
+                                final List<String> committedTransactionIds, final int failedIndex) {
+        super(msg, cause);
+        this.committedTransactionIds = committedTransactionIds;
+        this.failedIndex = failedIndex;
+    }
+}
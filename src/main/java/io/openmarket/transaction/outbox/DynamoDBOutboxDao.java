@@ -0,0 +1,74 @@
+package io.openmarket.transaction.outbox;
+
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBScanExpression;
+import com.amazonaws.services.dynamodbv2.datamodeling.ScanResultPage;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.WriteRequest;
+import com.amazonaws.util.DateUtils;
+import com.google.common.collect.ImmutableMap;
+import lombok.NonNull;
+import lombok.extern.log4j.Log4j2;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+@Log4j2
+public class DynamoDBOutboxDao implements OutboxDao {
+    // The number of items DynamoDB evaluates per scan call, before the filter is applied.
+    private static final int SCAN_PAGE_SIZE = 100;
+
+    private final DynamoDBMapper mapper;
+
+    public DynamoDBOutboxDao(@NonNull final AmazonDynamoDB dbClient) {
+        this.mapper = new DynamoDBMapper(dbClient);
+    }
+
+    @Override
+    public List<OutboxRecord> loadCreatedBefore(@NonNull final Date createdBefore, final int limit) {
+        final List<OutboxRecord> result = new ArrayList<>();
+        Map<String, AttributeValue> exclusiveStartKey = null;
+        do {
+            // Dates are stored as ISO-8601 strings, so they compare in time order.
+            final ScanResultPage<OutboxRecord> page = mapper.scanPage(OutboxRecord.class, new DynamoDBScanExpression()
+                    .withFilterExpression("CreatedAt < :createdBefore")
+                    .withExpressionAttributeValues(ImmutableMap.of(":createdBefore",
+                            new AttributeValue().withS(DateUtils.formatISO8601Date(createdBefore))))
+                    .withLimit(SCAN_PAGE_SIZE)
+                    .withExclusiveStartKey(exclusiveStartKey));
+            for (OutboxRecord record : page.getResults()) {
+                if (result.size() == limit) {
+                    return result;
+                }
+                result.add(record);
+            }
+            exclusiveStartKey = page.getLastEvaluatedKey();
+        } while (exclusiveStartKey != null && result.size() < limit);
+        return result;
+    }
+
+    @Override
+    public List<OutboxRecord> batchDelete(@NonNull final Collection<OutboxRecord> records) {
+        final Map<String, OutboxRecord> recordsById = new HashMap<>();
+        records.forEach(record -> recordsById.put(record.getTransactionId(), record));
+        final List<OutboxRecord> failedRecords = new ArrayList<>();
+        for (DynamoDBMapper.FailedBatch failedBatch : mapper.batchDelete(records)) {
+            log.warn("Failed to delete a batch of outbox records", failedBatch.getException());
+            for (List<WriteRequest> writeRequests : failedBatch.getUnprocessedItems().values()) {
+                for (WriteRequest writeRequest : writeRequests) {
+                    final AttributeValue key = writeRequest.getDeleteRequest().getKey().get("TransactionId");
+                    final OutboxRecord record = recordsById.get(key.getS());
+                    if (record != null) {
+                        failedRecords.add(record);
+                    }
+                }
+            }
+        }
+        return failedRecords;
+    }
+}
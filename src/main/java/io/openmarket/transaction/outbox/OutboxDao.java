@@ -0,0 +1,26 @@
+package io.openmarket.transaction.outbox;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Reads and clears {@link OutboxRecord}s. Records are written as part of the transactional write that creates their
+ * transaction, never on their own.
+ */
+public interface OutboxDao {
+    /**
+     * Load outbox records created before the given time.
+     * @param createdBefore only records created before this time are loaded.
+     * @param limit the maximum number of records to load.
+     * @return the records.
+     */
+    List<OutboxRecord> loadCreatedBefore(Date createdBefore, int limit);
+
+    /**
+     * Delete the given records in batches.
+     * @param records the records to delete.
+     * @return the records that failed to be deleted.
+     */
+    List<OutboxRecord> batchDelete(Collection<OutboxRecord> records);
+}
@@ -0,0 +1,38 @@
+package io.openmarket.transaction.outbox;
+
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBAttribute;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBHashKey;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBTable;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.NonNull;
+
+import java.util.Date;
+
+/**
+ * A transaction that still has to be published to the processor queue. It is written in the same transactional write
+ * as the transaction itself, so a transaction is never left without a pending task, and deleted once published.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@DynamoDBTable(tableName = OutboxRecord.TABLE_NAME)
+public class OutboxRecord {
+    public static final String TABLE_NAME = "TransactionOutbox";
+
+    @DynamoDBHashKey(attributeName = "TransactionId")
+    private String transactionId;
+
+    @DynamoDBAttribute(attributeName = "CreatedAt")
+    private Date createdAt;
+
+    public static OutboxRecord forTransaction(@NonNull final String transactionId) {
+        return OutboxRecord.builder()
+                .transactionId(transactionId)
+                .createdAt(new Date())
+                .build();
+    }
+}
@@ -0,0 +1,246 @@
+package io.openmarket.transaction.outbox;
+
+import com.amazonaws.services.sqs.AmazonSQS;
+import com.amazonaws.services.sqs.model.BatchResultErrorEntry;
+import com.amazonaws.services.sqs.model.SendMessageBatchRequest;
+import com.amazonaws.services.sqs.model.SendMessageBatchRequestEntry;
+import com.amazonaws.services.sqs.model.SendMessageBatchResult;
+import com.amazonaws.services.sqs.model.SendMessageBatchResultEntry;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.openmarket.transaction.model.TransactionTask;
+import io.openmarket.transaction.queue.TransactionTaskMessages;
+import lombok.NonNull;
+import lombok.extern.log4j.Log4j2;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Publishes outbox records to the processor queue off the request path. Records committed on this server are handed
+ * over directly, and the outbox table is swept periodically for records left behind by a crash or another server.
+ * Records are sent with SendMessageBatch, retried with exponential backoff while SQS fails, and deleted from the
+ * outbox in batches once sent.
+ */
+@Log4j2
+public class OutboxRelay {
+    // The maximum number of entries in a SendMessageBatch call.
+    public static final int MAX_SEND_BATCH_SIZE = 10;
+
+    // The maximum number of items in a DynamoDB BatchWriteItem call.
+    private static final int DELETE_BATCH_SIZE = 25;
+
+    private static final long DEFAULT_SWEEP_PERIOD_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+    // Records younger than this are likely still being handed over by the server that wrote them.
+    private static final long DEFAULT_SWEEP_AGE_MILLIS = TimeUnit.SECONDS.toMillis(10);
+    private static final int SWEEP_LIMIT = 1000;
+    private static final long INITIAL_BACKOFF_MILLIS = 100;
+    private static final long MAX_BACKOFF_MILLIS = TimeUnit.SECONDS.toMillis(10);
+    private static final long POLL_MILLIS = 100;
+
+    private final AmazonSQS sqs;
+    private final String queueUrl;
+    private final OutboxDao outboxDao;
+    private final long sweepPeriodMillis;
+    private final long sweepAgeMillis;
+
+    private final BlockingQueue<OutboxRecord> pending;
+
+    // Transaction IDs that are pending or sent but not yet deleted, so a sweep doesn't send them again.
+    private final Set<String> inFlight;
+
+    // Confined to the relay thread.
+    private final List<OutboxRecord> sent;
+    private long backoffMillis;
+    private long lastSweepAt;
+
+    private final ExecutorService executor;
+    private volatile boolean isRunning;
+
+    public OutboxRelay(@NonNull final AmazonSQS sqs, @NonNull final String queueUrl,
+                       @NonNull final OutboxDao outboxDao) {
+        this(sqs, queueUrl, outboxDao, DEFAULT_SWEEP_PERIOD_MILLIS, DEFAULT_SWEEP_AGE_MILLIS);
+    }
+
+    public OutboxRelay(@NonNull final AmazonSQS sqs, @NonNull final String queueUrl,
+                       @NonNull final OutboxDao outboxDao, final long sweepPeriodMillis,
+                       final long sweepAgeMillis) {
+        this.sqs = sqs;
+        this.queueUrl = queueUrl;
+        this.outboxDao = outboxDao;
+        this.sweepPeriodMillis = sweepPeriodMillis;
+        this.sweepAgeMillis = sweepAgeMillis;
+        this.pending = new LinkedBlockingQueue<>();
+        this.inFlight = ConcurrentHashMap.newKeySet();
+        this.sent = new ArrayList<>();
+        this.backoffMillis = 0;
+        this.lastSweepAt = 0;
+        this.executor = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("outbox-relay-%d")
+                .setDaemon(true)
+                .build());
+    }
+
+    public void start() {
+        isRunning = true;
+        executor.execute(this::run);
+        log.info("OutboxRelay started for queue {}", queueUrl);
+    }
+
+    public void stop() {
+        isRunning = false;
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(MAX_BACKOFF_MILLIS, TimeUnit.MILLISECONDS)) {
+                log.warn("OutboxRelay did not stop in time, {} records are left in the outbox", inFlight.size());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Hand over a committed outbox record to be published.
+     * @param record the outbox record.
+     */
+    public void enqueue(@NonNull final OutboxRecord record) {
+        if (inFlight.add(record.getTransactionId())) {
+            pending.add(record);
+        }
+    }
+
+    /**
+     * Get the number of records that are not yet deleted from the outbox.
+     * @return the number of records.
+     */
+    public int getInFlightCount() {
+        return inFlight.size();
+    }
+
+    private void run() {
+        while (isRunning) {
+            try {
+                runOnce();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                log.error("Unexpected error in OutboxRelay", e);
+            }
+        }
+        // Clear what has already been sent, the rest is picked up by a sweep after restart.
+        deleteSent();
+    }
+
+    /**
+     * Sweep the outbox if due, send up to one batch of pending records and delete sent records once enough have
+     * accumulated or nothing is pending.
+     * @return the number of records sent.
+     */
+    @VisibleForTesting
+    int runOnce() throws InterruptedException {
+        sweepIfDue();
+        final OutboxRecord first = pending.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+        if (first == null) {
+            deleteSent();
+            return 0;
+        }
+        final List<OutboxRecord> batch = new ArrayList<>(MAX_SEND_BATCH_SIZE);
+        batch.add(first);
+        pending.drainTo(batch, MAX_SEND_BATCH_SIZE - 1);
+        final int sentCount = send(batch);
+        if (sent.size() >= DELETE_BATCH_SIZE || pending.isEmpty()) {
+            deleteSent();
+        }
+        return sentCount;
+    }
+
+    private int send(final List<OutboxRecord> batch) throws InterruptedException {
+        final List<SendMessageBatchRequestEntry> entries = new ArrayList<>(batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+            entries.add(new SendMessageBatchRequestEntry()
+                    .withId(String.valueOf(i))
+                    .withMessageBody(TransactionTaskMessages.encode(
+                            new TransactionTask(batch.get(i).getTransactionId()))));
+        }
+        final SendMessageBatchResult result;
+        try {
+            result = sqs.sendMessageBatch(new SendMessageBatchRequest(queueUrl, entries));
+        } catch (RuntimeException e) {
+            log.warn("Failed to send {} outbox records, retrying in {}ms", batch.size(), nextBackoffMillis(), e);
+            pending.addAll(batch);
+            backOff();
+            return 0;
+        }
+        for (SendMessageBatchResultEntry entry : result.getSuccessful()) {
+            sent.add(batch.get(Integer.parseInt(entry.getId())));
+        }
+        if (result.getFailed().isEmpty()) {
+            backoffMillis = 0;
+        } else {
+            for (BatchResultErrorEntry entry : result.getFailed()) {
+                log.warn("Failed to send outbox record {}: {}", batch.get(Integer.parseInt(entry.getId()))
+                        .getTransactionId(), entry.getMessage());
+                pending.add(batch.get(Integer.parseInt(entry.getId())));
+            }
+            backOff();
+        }
+        return result.getSuccessful().size();
+    }
+
+    private void deleteSent() {
+        if (sent.isEmpty()) {
+            return;
+        }
+        final List<OutboxRecord> failedRecords;
+        try {
+            failedRecords = outboxDao.batchDelete(sent);
+        } catch (RuntimeException e) {
+            log.warn("Failed to delete {} sent outbox records, retrying later", sent.size(), e);
+            return;
+        }
+        sent.forEach(record -> inFlight.remove(record.getTransactionId()));
+        sent.clear();
+        // Keep the ones that failed, so they are neither lost nor sent again by a sweep.
+        for (OutboxRecord record : failedRecords) {
+            inFlight.add(record.getTransactionId());
+            sent.add(record);
+        }
+    }
+
+    private void sweepIfDue() {
+        final long now = System.currentTimeMillis();
+        if (now - lastSweepAt < sweepPeriodMillis) {
+            return;
+        }
+        lastSweepAt = now;
+        try {
+            final List<OutboxRecord> records = outboxDao.loadCreatedBefore(new Date(now - sweepAgeMillis),
+                    SWEEP_LIMIT);
+            records.forEach(this::enqueue);
+            if (!records.isEmpty()) {
+                log.info("Found {} outbox records left behind", records.size());
+            }
+        } catch (RuntimeException e) {
+            log.warn("Failed to sweep the outbox", e);
+        }
+    }
+
+    private long nextBackoffMillis() {
+        return backoffMillis == 0 ? INITIAL_BACKOFF_MILLIS : Math.min(MAX_BACKOFF_MILLIS, backoffMillis * 2);
+    }
+
+    private void backOff() throws InterruptedException {
+        backoffMillis = nextBackoffMillis();
+        Thread.sleep(backoffMillis);
+    }
+}
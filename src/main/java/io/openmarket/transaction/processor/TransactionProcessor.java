@@ -0,0 +1,386 @@
+package io.openmarket.transaction.processor;
+
+import com.amazonaws.services.sqs.AmazonSQS;
+import com.amazonaws.services.sqs.model.BatchResultErrorEntry;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchRequest;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchRequestEntry;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchResult;
+import com.amazonaws.services.sqs.model.Message;
+import com.amazonaws.services.sqs.model.ReceiveMessageRequest;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.openmarket.transaction.dao.dynamodb.TransactionDao;
+import io.openmarket.transaction.model.Transaction;
+import io.openmarket.transaction.model.TransactionStatus;
+import io.openmarket.transaction.queue.TransactionTaskMessages;
+import io.openmarket.transaction.service.TransactionCompletionListener;
+import lombok.NonNull;
+import lombok.Value;
+import lombok.extern.log4j.Log4j2;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+/**
+ * Consumes the transaction task queue and settles the transactions with a {@link TransactionSettler}.
+ * Each round receives up to 10 messages per ReceiveMessage call, settles them in parallel and deletes the settled
+ * ones with DeleteMessageBatch. Transactions are partitioned by payer onto single-threaded workers, so one payer's
+ * transactions are settled one at a time in the order they were received. Messages that fail to settle are left on
+ * the queue to be received again once their visibility timeout expires.
+ * <p>
+ * With a netting window, each round keeps receiving for that long after its first message, and transactions of the
+ * round with the same recipient and currency are settled together with
+ * {@link TransactionSettler#settleNetted(List)}, before the round's other transactions. A payer's transactions are
+ * only netted if all of the payer's transactions in the round are in the same group, so netting never settles a
+ * payer's transaction ahead of an earlier one, and no two groups debit the same wallet at the same time.
+ * The window should stay well below the queue's visibility timeout.
+ */
+@Log4j2
+public class TransactionProcessor {
+    // The maximum number of messages in a ReceiveMessage or DeleteMessageBatch call.
+    public static final int MAX_BATCH_SIZE = 10;
+    public static final int DEFAULT_WAIT_TIME_SECONDS = 20;
+
+    private static final int MAX_NETTING_ROUND_SIZE = 100;
+    private static final long NETTING_POLL_MILLIS = 50;
+    private static final long ERROR_BACKOFF_MILLIS = TimeUnit.SECONDS.toMillis(1);
+
+    private final AmazonSQS sqs;
+    private final String queueUrl;
+    private final TransactionDao transactionDao;
+    private final TransactionSettler settler;
+    private final TransactionCompletionListener listener;
+    private final int concurrency;
+    private final int waitTimeSeconds;
+    private final long nettingWindowMillis;
+    private final ExecutorService[] partitions;
+    private final ExecutorService poller;
+    private volatile boolean isRunning;
+
+    private final LongAdder settledCount = new LongAdder();
+    private final LongAdder failedCount = new LongAdder();
+
+    public TransactionProcessor(@NonNull final AmazonSQS sqs, @NonNull final String queueUrl,
+                                @NonNull final TransactionDao transactionDao,
+                                @NonNull final TransactionSettler settler,
+                                @NonNull final TransactionCompletionListener listener, final int concurrency) {
+        this(sqs, queueUrl, transactionDao, settler, listener, concurrency, DEFAULT_WAIT_TIME_SECONDS);
+    }
+
+    /**
+     * Create a TransactionProcessor.
+     * @param concurrency the number of transactions settled at the same time.
+     * @param waitTimeSeconds how long a ReceiveMessage call waits for messages to arrive.
+     */
+    public TransactionProcessor(@NonNull final AmazonSQS sqs, @NonNull final String queueUrl,
+                                @NonNull final TransactionDao transactionDao,
+                                @NonNull final TransactionSettler settler,
+                                @NonNull final TransactionCompletionListener listener, final int concurrency,
+                                final int waitTimeSeconds) {
+        this(sqs, queueUrl, transactionDao, settler, listener, concurrency, waitTimeSeconds, 0);
+    }
+
+    /**
+     * Create a TransactionProcessor that nets payments to the same recipient.
+     * @param concurrency the number of transactions settled at the same time.
+     * @param waitTimeSeconds how long a ReceiveMessage call waits for messages to arrive.
+     * @param nettingWindowMillis how long a round collects messages to net, 0 to settle each on its own.
+     */
+    public TransactionProcessor(@NonNull final AmazonSQS sqs, @NonNull final String queueUrl,
+                                @NonNull final TransactionDao transactionDao,
+                                @NonNull final TransactionSettler settler,
+                                @NonNull final TransactionCompletionListener listener, final int concurrency,
+                                final int waitTimeSeconds, final long nettingWindowMillis) {
+        if (concurrency <= 0 || waitTimeSeconds < 0 || nettingWindowMillis < 0) {
+            throw new IllegalArgumentException(String.format("Invalid processor config: concurrency %d, "
+                    + "wait time %ds, netting window %dms", concurrency, waitTimeSeconds, nettingWindowMillis));
+        }
+        this.sqs = sqs;
+        this.queueUrl = queueUrl;
+        this.transactionDao = transactionDao;
+        this.settler = settler;
+        this.listener = listener;
+        this.concurrency = concurrency;
+        this.waitTimeSeconds = waitTimeSeconds;
+        this.nettingWindowMillis = nettingWindowMillis;
+        this.partitions = new ExecutorService[concurrency];
+        for (int i = 0; i < concurrency; i++) {
+            partitions[i] = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+                    .setNameFormat(String.format("transaction-settler-%d", i))
+                    .setDaemon(true)
+                    .build());
+        }
+        this.poller = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("transaction-poller-%d")
+                .setDaemon(true)
+                .build());
+    }
+
+    public void start() {
+        isRunning = true;
+        poller.execute(this::run);
+        log.info("TransactionProcessor started for queue {} with concurrency {} and netting window {}ms",
+                queueUrl, concurrency, nettingWindowMillis);
+    }
+
+    public void stop() {
+        isRunning = false;
+        poller.shutdown();
+        try {
+            poller.awaitTermination(waitTimeSeconds + 1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (ExecutorService partition : partitions) {
+            partition.shutdown();
+        }
+    }
+
+    public long getSettledCount() {
+        return settledCount.sum();
+    }
+
+    public long getFailedCount() {
+        return failedCount.sum();
+    }
+
+    private void run() {
+        while (isRunning) {
+            try {
+                runOnce();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                log.error("Unexpected error in TransactionProcessor", e);
+                try {
+                    Thread.sleep(ERROR_BACKOFF_MILLIS);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Receive a round of messages, settle them and delete the ones that were settled.
+     * @return the number of messages deleted.
+     */
+    @VisibleForTesting
+    int runOnce() throws InterruptedException {
+        final List<Message> messages = receive();
+        if (messages.isEmpty()) {
+            return 0;
+        }
+        final Queue<Message> settled = new ConcurrentLinkedQueue<>();
+
+        // Payers are only known once the transactions are loaded, so load them all before settling any.
+        final List<CompletableFuture<Optional<Transaction>>> loads = new ArrayList<>(messages.size());
+        for (int i = 0; i < messages.size(); i++) {
+            final Message message = messages.get(i);
+            loads.add(CompletableFuture.supplyAsync(() -> load(message), partitions[i % concurrency]));
+        }
+        final List<Task> tasks = new ArrayList<>(messages.size());
+        for (int i = 0; i < messages.size(); i++) {
+            final Message message = messages.get(i);
+            final Optional<Transaction> transaction;
+            try {
+                transaction = loads.get(i).join();
+            } catch (CompletionException e) {
+                log.warn("Failed to load the transaction of message {}", message.getMessageId(), e.getCause());
+                failedCount.increment();
+                continue;
+            }
+            if (!transaction.isPresent()) {
+                settled.add(message);
+                continue;
+            }
+            tasks.add(new Task(transaction.get(), message));
+        }
+        final List<Task> unnetted = nettingWindowMillis > 0 ? settleNetted(tasks, settled) : tasks;
+
+        final List<CompletableFuture<Void>> settlements = new ArrayList<>(unnetted.size());
+        for (Task task : unnetted) {
+            settlements.add(CompletableFuture.runAsync(() -> settle(task.getTransaction(), task.getMessage(), settled),
+                    partitionOf(task.getTransaction().getPayerId())));
+        }
+        CompletableFuture.allOf(settlements.toArray(new CompletableFuture[0])).join();
+        return delete(new ArrayList<>(settled));
+    }
+
+    // Receive enough messages to keep every partition busy, stopping early once the queue runs dry. With a netting
+    // window, keep polling until the window after the first message has passed.
+    private List<Message> receive() throws InterruptedException {
+        final List<Message> messages = new ArrayList<>();
+        final int maxMessages = nettingWindowMillis > 0 ? Math.max(concurrency, MAX_NETTING_ROUND_SIZE) : concurrency;
+        long deadline = 0;
+        while (messages.size() < maxMessages) {
+            final List<Message> received = sqs.receiveMessage(new ReceiveMessageRequest(queueUrl)
+                    .withMaxNumberOfMessages(MAX_BATCH_SIZE)
+                    .withWaitTimeSeconds(messages.isEmpty() ? waitTimeSeconds : 0)).getMessages();
+            if (messages.isEmpty()) {
+                deadline = System.currentTimeMillis() + nettingWindowMillis;
+            }
+            messages.addAll(received);
+            if (received.size() < MAX_BATCH_SIZE) {
+                final long remaining = deadline - System.currentTimeMillis();
+                if (messages.isEmpty() || remaining <= 0) {
+                    break;
+                }
+                Thread.sleep(Math.min(remaining, NETTING_POLL_MILLIS));
+            }
+        }
+        return messages;
+    }
+
+    // Settle the tasks whose transaction shares a recipient and currency with another one of the round, each group
+    // on its recipient's partition. Payers with transactions in more than one group are left out of netting, so
+    // their transactions are settled in order on their own partition. Returns the tasks that were not netted, in
+    // the order they were received.
+    private List<Task> settleNetted(final List<Task> tasks, final Queue<Message> settled) {
+        // A payer's group key, or an empty string if the payer's transactions span several groups.
+        final Map<String, String> groupKeyByPayer = new HashMap<>();
+        for (Task task : tasks) {
+            groupKeyByPayer.merge(task.getTransaction().getPayerId(), groupKeyOf(task),
+                    (key, other) -> key.equals(other) ? key : "");
+        }
+        final Map<String, List<Task>> groups = new LinkedHashMap<>();
+        for (Task task : tasks) {
+            if (groupKeyByPayer.get(task.getTransaction().getPayerId()).equals(groupKeyOf(task))) {
+                groups.computeIfAbsent(groupKeyOf(task), key -> new ArrayList<>()).add(task);
+            }
+        }
+        final Set<Task> netted = Collections.newSetFromMap(new IdentityHashMap<>());
+        final List<CompletableFuture<Void>> settlements = new ArrayList<>(groups.size());
+        for (List<Task> group : groups.values()) {
+            if (group.size() < 2) {
+                continue;
+            }
+            netted.addAll(group);
+            settlements.add(CompletableFuture.runAsync(() -> settleGroup(group, settled),
+                    partitionOf(group.get(0).getTransaction().getRecipientId())));
+        }
+        CompletableFuture.allOf(settlements.toArray(new CompletableFuture[0])).join();
+        return tasks.stream().filter(task -> !netted.contains(task)).collect(Collectors.toList());
+    }
+
+    private static String groupKeyOf(final Task task) {
+        return task.getTransaction().getRecipientId() + "/" + task.getTransaction().getCurrencyId();
+    }
+
+    private void settleGroup(final List<Task> group, final Queue<Message> settled) {
+        final List<Transaction> transactions = new ArrayList<>(group.size());
+        for (Task task : group) {
+            transactions.add(task.getTransaction());
+        }
+        final Map<String, TransactionStatus> statuses;
+        try {
+            statuses = settler.settleNetted(transactions);
+        } catch (RuntimeException e) {
+            log.warn("Failed to settle {} netted transactions, they will be retried", group.size(), e);
+            failedCount.add(group.size());
+            return;
+        }
+        for (Task task : group) {
+            final String transactionId = task.getTransaction().getTransactionId();
+            final TransactionStatus status = statuses.get(transactionId);
+            if (status == null) {
+                failedCount.increment();
+                continue;
+            }
+            settledCount.increment();
+            settled.add(task.getMessage());
+            notifyCompleted(task.getTransaction(), status);
+        }
+    }
+
+    // Returns empty if the message can never be settled, so it is deleted.
+    private Optional<Transaction> load(final Message message) {
+        final String transactionId;
+        try {
+            transactionId = TransactionTaskMessages.decode(message.getBody()).getTransactionId();
+        } catch (IllegalArgumentException e) {
+            log.error("Dropping malformed message {}", message.getMessageId(), e);
+            return Optional.empty();
+        }
+        final Optional<Transaction> transaction = transactionDao.load(transactionId);
+        if (!transaction.isPresent()) {
+            log.error("Dropping task for transaction {} that does not exist", transactionId);
+        }
+        return transaction;
+    }
+
+    private void settle(final Transaction transaction, final Message message, final Queue<Message> settled) {
+        final TransactionStatus status;
+        try {
+            status = settler.settle(transaction);
+        } catch (RuntimeException e) {
+            log.warn("Failed to settle transaction {}, it will be retried", transaction.getTransactionId(), e);
+            failedCount.increment();
+            return;
+        }
+        settledCount.increment();
+        settled.add(message);
+        notifyCompleted(transaction, status);
+    }
+
+    private void notifyCompleted(final Transaction transaction, final TransactionStatus status) {
+        try {
+            listener.onTransactionSettled(transaction, status);
+        } catch (RuntimeException e) {
+            log.error("Failed to notify the completion of transaction {}", transaction.getTransactionId(), e);
+        }
+    }
+
+    private ExecutorService partitionOf(final String payerId) {
+        return partitions[Math.floorMod(payerId.hashCode(), concurrency)];
+    }
+
+    private int delete(final List<Message> messages) {
+        int deleted = 0;
+        for (int start = 0; start < messages.size(); start += MAX_BATCH_SIZE) {
+            final List<Message> batch = messages.subList(start, Math.min(messages.size(), start + MAX_BATCH_SIZE));
+            final List<DeleteMessageBatchRequestEntry> entries = new ArrayList<>(batch.size());
+            for (int i = 0; i < batch.size(); i++) {
+                entries.add(new DeleteMessageBatchRequestEntry(String.valueOf(i), batch.get(i).getReceiptHandle()));
+            }
+            final DeleteMessageBatchResult result;
+            try {
+                result = sqs.deleteMessageBatch(new DeleteMessageBatchRequest(queueUrl, entries));
+            } catch (RuntimeException e) {
+                // The messages are received again, and settling them again does nothing.
+                log.warn("Failed to delete {} settled messages", batch.size(), e);
+                continue;
+            }
+            for (BatchResultErrorEntry entry : result.getFailed()) {
+                log.warn("Failed to delete settled message {}: {}",
+                        batch.get(Integer.parseInt(entry.getId())).getMessageId(), entry.getMessage());
+            }
+            deleted += result.getSuccessful().size();
+        }
+        return deleted;
+    }
+
+    @Value
+    private static class Task {
+        Transaction transaction;
+        Message message;
+    }
+}
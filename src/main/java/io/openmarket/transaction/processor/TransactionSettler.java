@@ -0,0 +1,276 @@
+package io.openmarket.transaction.processor;
+
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
+import com.amazonaws.services.dynamodbv2.datamodeling.TransactionWriteRequest;
+import com.amazonaws.services.dynamodbv2.model.TransactionCanceledException;
+import com.google.common.collect.Lists;
+import io.openmarket.transaction.dao.dynamodb.TransactionDao;
+import io.openmarket.transaction.model.Transaction;
+import io.openmarket.transaction.model.TransactionStatus;
+import io.openmarket.transaction.model.TransactionType;
+import io.openmarket.transaction.service.WalletSharding;
+import io.openmarket.utils.Money;
+import io.openmarket.wallet.dao.dynamodb.WalletDao;
+import io.openmarket.wallet.model.Wallet;
+import lombok.NonNull;
+import lombok.extern.log4j.Log4j2;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Settles pending transactions. The transaction's new status and both wallets are written in one transactional
+ * write, conditioned on the transaction still being pending and on the wallets being unchanged since they were
+ * read, so concurrent settlements and redelivered tasks never move money twice.
+ * Payments to and from a sharded owner go through the shard their transaction ID hashes to. When that shard can't
+ * cover a payment, the owner's shards are consolidated into their own wallet as part of the same write.
+ */
+@Log4j2
+public class TransactionSettler {
+    private static final int MAX_ATTEMPTS = 5;
+
+    // A netted write holds each transaction, each payer's wallet and the recipient's wallet, within the 25 items a
+    // DynamoDB transactional write allows.
+    public static final int MAX_NETTED_TRANSACTIONS = 11;
+
+    private final TransactionDao transactionDao;
+    private final WalletDao walletDao;
+    private final WalletSharding walletSharding;
+    private final WriteConditions conditions;
+
+    public TransactionSettler(@NonNull final TransactionDao transactionDao, @NonNull final WalletDao walletDao,
+                              @NonNull final DynamoDBMapper mapper) {
+        this(transactionDao, walletDao, mapper, WalletSharding.none());
+    }
+
+    /**
+     * Create a TransactionSettler.
+     * @param mapper the mapper to look up the attribute names and values of the conditions with.
+     * @param walletSharding the owners whose wallets are sharded.
+     */
+    public TransactionSettler(@NonNull final TransactionDao transactionDao, @NonNull final WalletDao walletDao,
+                              @NonNull final DynamoDBMapper mapper, @NonNull final WalletSharding walletSharding) {
+        this.transactionDao = transactionDao;
+        this.walletDao = walletDao;
+        this.walletSharding = walletSharding;
+        this.conditions = new WriteConditions(mapper);
+    }
+
+    /**
+     * Settle the transaction, retrying while the wallets are changed concurrently.
+     * @param transaction the transaction, as loaded by the caller.
+     * @return the final status of the transaction, which is its current status if it is no longer pending.
+     * @throws IllegalStateException if the transaction could not be settled after 5 attempts.
+     */
+    public TransactionStatus settle(@NonNull final Transaction transaction) {
+        Transaction current = transaction;
+        for (int attempt = 1; attempt <= MAX_ATTEMPTS; attempt++) {
+            if (!TransactionStatus.PENDING.equals(current.getStatus())) {
+                return current.getStatus();
+            }
+            try {
+                return trySettle(current);
+            } catch (TransactionCanceledException e) {
+                log.info("Settlement of transaction {} conflicted on attempt {}", current.getTransactionId(),
+                        attempt);
+            }
+            final String transactionId = current.getTransactionId();
+            current = transactionDao.load(transactionId).orElseThrow(() -> new IllegalStateException(
+                    String.format("Transaction %s disappeared during settlement", transactionId)));
+        }
+        throw new IllegalStateException(String.format("Failed to settle transaction %s after %d attempts",
+                transaction.getTransactionId(), MAX_ATTEMPTS));
+    }
+
+    /**
+     * Settle transactions of the same currency to the same recipient, crediting the recipient once with their net
+     * amount. Each transaction still gets its own status, and each payer is debited once for all of their
+     * transactions that they can afford. Refunds and payments from sharded wallets are settled on their own.
+     * @param transactions the transactions, as loaded by the caller.
+     * @return the final status of each transaction by transaction ID.
+     * @throws IllegalArgumentException if the transactions don't share a recipient and currency.
+     */
+    public Map<String, TransactionStatus> settleNetted(@NonNull final List<Transaction> transactions) {
+        final Map<String, TransactionStatus> statuses = new LinkedHashMap<>();
+        if (transactions.isEmpty()) {
+            return statuses;
+        }
+        final Transaction first = transactions.get(0);
+        final List<Transaction> nettable = new ArrayList<>(transactions.size());
+        for (Transaction transaction : transactions) {
+            if (!transaction.getRecipientId().equals(first.getRecipientId())
+                    || !transaction.getCurrencyId().equals(first.getCurrencyId())) {
+                throw new IllegalArgumentException(String.format("Transaction %s can't be netted with %s",
+                        transaction.getTransactionId(), first.getTransactionId()));
+            }
+            if (!TransactionStatus.PENDING.equals(transaction.getStatus())) {
+                statuses.put(transaction.getTransactionId(), transaction.getStatus());
+            } else if (TransactionType.REFUND.equals(transaction.getType())
+                    || walletSharding.isSharded(transaction.getPayerId())) {
+                statuses.put(transaction.getTransactionId(), settle(transaction));
+            } else {
+                nettable.add(transaction);
+            }
+        }
+        for (List<Transaction> chunk : Lists.partition(nettable, MAX_NETTED_TRANSACTIONS)) {
+            try {
+                statuses.putAll(trySettleNetted(chunk));
+            } catch (TransactionCanceledException e) {
+                log.info("Netted settlement of {} transactions to {} conflicted, settling them one by one",
+                        chunk.size(), first.getRecipientId());
+                for (Transaction transaction : chunk) {
+                    final String transactionId = transaction.getTransactionId();
+                    statuses.put(transactionId, settle(transactionDao.load(transactionId).orElseThrow(() ->
+                            new IllegalStateException(String.format("Transaction %s disappeared during settlement",
+                                    transactionId)))));
+                }
+            }
+        }
+        return statuses;
+    }
+
+    private Map<String, TransactionStatus> trySettleNetted(final List<Transaction> transactions) {
+        final Transaction first = transactions.get(0);
+        final String currency = first.getCurrencyId();
+        final Map<String, Optional<Wallet>> payers = new HashMap<>();
+        final Map<String, Long> debits = new LinkedHashMap<>();
+        final Map<String, TransactionStatus> statuses = new LinkedHashMap<>();
+        final TransactionWriteRequest request = new TransactionWriteRequest();
+        long credit = 0;
+        for (Transaction transaction : transactions) {
+            final String payerId = transaction.getPayerId();
+            final Optional<Wallet> payer = payers.computeIfAbsent(payerId, walletDao::load);
+            final long debit = debits.getOrDefault(payerId, 0L);
+            final long amount = Money.toMinorUnits(currency, transaction.getAmount());
+            final TransactionStatus status;
+            if (balanceOf(payer, currency) - debit >= amount) {
+                debits.put(payerId, Math.addExact(debit, amount));
+                credit = Math.addExact(credit, amount);
+                status = TransactionStatus.COMPLETED;
+            } else {
+                log.info("Payer {} can't afford transaction {}", payerId, transaction.getTransactionId());
+                status = TransactionStatus.ERROR;
+            }
+            transaction.setStatus(status);
+            request.addPut(transaction, conditions.hasStatus(TransactionStatus.PENDING));
+            statuses.put(transaction.getTransactionId(), status);
+        }
+        for (Map.Entry<String, Long> debit : debits.entrySet()) {
+            final Optional<Wallet> payer = payers.get(debit.getKey());
+            request.addPut(withDelta(debit.getKey(), payer, currency, -debit.getValue()), conditions.unchanged(payer));
+        }
+        if (credit > 0) {
+            final String recipientWalletId = walletSharding.getWalletId(first.getRecipientId(),
+                    first.getTransactionId());
+            final Optional<Wallet> recipient = walletDao.load(recipientWalletId);
+            request.addPut(withDelta(recipientWalletId, recipient, currency, credit),
+                    conditions.unchanged(recipient));
+        }
+        transactionDao.transactionWrite(request);
+        log.info("Settled {} transactions to {} with a net credit of {} {}", transactions.size(),
+                first.getRecipientId(), Money.toAmount(currency, credit), currency);
+        return statuses;
+    }
+
+    private TransactionStatus trySettle(final Transaction transaction) {
+        final TransactionWriteRequest request = new TransactionWriteRequest();
+        final TransactionStatus status;
+        if (addDebit(request, transaction)) {
+            status = TransactionStatus.COMPLETED;
+            final String recipientWalletId = walletSharding.getWalletId(transaction.getRecipientId(),
+                    transaction.getTransactionId());
+            final Optional<Wallet> recipient = walletDao.load(recipientWalletId);
+            request.addPut(withDelta(recipientWalletId, recipient, transaction.getCurrencyId(),
+                    Money.toMinorUnits(transaction.getCurrencyId(), transaction.getAmount())),
+                    conditions.unchanged(recipient));
+        } else {
+            log.info("Payer {} can't afford transaction {}", transaction.getPayerId(),
+                    transaction.getTransactionId());
+            status = TransactionStatus.ERROR;
+        }
+        transaction.setStatus(status);
+        request.addPut(transaction, conditions.hasStatus(TransactionStatus.PENDING));
+        if (TransactionType.REFUND.equals(transaction.getType())) {
+            settleRefunded(request, transaction, status);
+        }
+        transactionDao.transactionWrite(request);
+        log.info("Settled transaction {} as {}", transaction.getTransactionId(), status);
+        return status;
+    }
+
+    // A refund settles its source transaction too, which goes back to completed if the refund failed.
+    private void settleRefunded(final TransactionWriteRequest request, final Transaction refund,
+                                final TransactionStatus refundStatus) {
+        if (refund.getRefundTransacIds() == null || refund.getRefundTransacIds().isEmpty()) {
+            return;
+        }
+        final Optional<Transaction> source = transactionDao.load(refund.getRefundTransacIds().get(0));
+        if (!source.isPresent() || !TransactionStatus.REFUND_STARTED.equals(source.get().getStatus())) {
+            log.warn("Refund {} has no source transaction awaiting it", refund.getTransactionId());
+            return;
+        }
+        source.get().setStatus(TransactionStatus.COMPLETED.equals(refundStatus) ? TransactionStatus.REFUNDED
+                : TransactionStatus.COMPLETED);
+        request.addPut(source.get(), conditions.hasStatus(TransactionStatus.REFUND_STARTED));
+    }
+
+    // Add the payer's debit to the request, returns false if the payer can't afford the transaction.
+    private boolean addDebit(final TransactionWriteRequest request, final Transaction transaction) {
+        final String payerId = transaction.getPayerId();
+        final String currency = transaction.getCurrencyId();
+        final long amount = Money.toMinorUnits(currency, transaction.getAmount());
+        final String walletId = walletSharding.getWalletId(payerId, transaction.getTransactionId());
+        final Optional<Wallet> wallet = walletDao.load(walletId);
+        if (balanceOf(wallet, currency) >= amount) {
+            request.addPut(withDelta(walletId, wallet, currency, -amount), conditions.unchanged(wallet));
+            return true;
+        }
+        if (!walletSharding.isSharded(payerId)) {
+            return false;
+        }
+
+        // Move the currency held by every shard into the owner's own wallet and debit it there.
+        final List<String> walletIds = walletSharding.getWalletIds(payerId);
+        final List<Optional<Wallet>> shards = new ArrayList<>(walletIds.size());
+        long total = 0;
+        for (String shardId : walletIds) {
+            final Optional<Wallet> shard = shardId.equals(walletId) ? wallet : walletDao.load(shardId);
+            shards.add(shard);
+            total = Math.addExact(total, balanceOf(shard, currency));
+        }
+        if (total < amount) {
+            return false;
+        }
+        for (int i = 1; i < walletIds.size(); i++) {
+            final long balance = balanceOf(shards.get(i), currency);
+            if (balance != 0) {
+                request.addPut(withDelta(walletIds.get(i), shards.get(i), currency, -balance),
+                        conditions.unchanged(shards.get(i)));
+            }
+        }
+        request.addPut(withDelta(payerId, shards.get(0), currency, total - balanceOf(shards.get(0), currency)
+                - amount), conditions.unchanged(shards.get(0)));
+        log.info("Consolidated {} shards of {} to settle transaction {}", walletIds.size(), payerId,
+                transaction.getTransactionId());
+        return true;
+    }
+
+    // Balances are compared and changed in minor units, so they can't drift from repeated double arithmetic.
+    private static long balanceOf(final Optional<Wallet> wallet, final String currency) {
+        return Money.toMinorUnits(currency,
+                wallet.map(Wallet::getCoins).map(coins -> coins.getOrDefault(currency, 0.0)).orElse(0.0));
+    }
+
+    private static Wallet withDelta(final String walletId, final Optional<Wallet> wallet, final String currency,
+                                    final long delta) {
+        final Map<String, Double> coins = new HashMap<>();
+        wallet.map(Wallet::getCoins).ifPresent(coins::putAll);
+        coins.put(currency, Money.toAmount(currency, Math.addExact(
+                Money.toMinorUnits(currency, coins.getOrDefault(currency, 0.0)), delta)));
+        return Wallet.builder().ownerId(walletId).coins(coins).build();
+    }
+}
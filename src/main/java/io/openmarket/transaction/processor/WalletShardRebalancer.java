@@ -0,0 +1,146 @@
+package io.openmarket.transaction.processor;
+
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
+import com.amazonaws.services.dynamodbv2.datamodeling.TransactionWriteRequest;
+import com.amazonaws.services.dynamodbv2.model.TransactionCanceledException;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.openmarket.transaction.dao.dynamodb.TransactionDao;
+import io.openmarket.transaction.service.WalletSharding;
+import io.openmarket.utils.Money;
+import io.openmarket.wallet.dao.dynamodb.WalletDao;
+import io.openmarket.wallet.model.Wallet;
+import lombok.NonNull;
+import lombok.extern.log4j.Log4j2;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodically consolidates the balances of each sharded owner and spreads them evenly over the owner's shards, so
+ * payments that land unevenly don't leave shards too empty to pay out from. Each owner is rebalanced with one
+ * conditional transactional write, and an owner whose shards change in the meantime is left for the next round.
+ */
+@Log4j2
+public class WalletShardRebalancer {
+    private static final long DEFAULT_PERIOD_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    private final TransactionDao transactionDao;
+    private final WalletDao walletDao;
+    private final WalletSharding walletSharding;
+    private final WriteConditions conditions;
+    private final long periodMillis;
+    private final ScheduledExecutorService executor;
+
+    public WalletShardRebalancer(@NonNull final TransactionDao transactionDao, @NonNull final WalletDao walletDao,
+                                 @NonNull final DynamoDBMapper mapper, @NonNull final WalletSharding walletSharding) {
+        this(transactionDao, walletDao, mapper, walletSharding, DEFAULT_PERIOD_MILLIS);
+    }
+
+    public WalletShardRebalancer(@NonNull final TransactionDao transactionDao, @NonNull final WalletDao walletDao,
+                                 @NonNull final DynamoDBMapper mapper, @NonNull final WalletSharding walletSharding,
+                                 final long periodMillis) {
+        this.transactionDao = transactionDao;
+        this.walletDao = walletDao;
+        this.walletSharding = walletSharding;
+        this.conditions = new WriteConditions(mapper);
+        this.periodMillis = periodMillis;
+        this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("wallet-shard-rebalancer-%d")
+                .setDaemon(true)
+                .build());
+    }
+
+    public void start() {
+        executor.scheduleWithFixedDelay(this::runOnce, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+        log.info("WalletShardRebalancer started for {} owners with period {}ms",
+                walletSharding.getShardedOwnerIds().size(), periodMillis);
+    }
+
+    public void stop() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Rebalance every sharded owner.
+     * @return the number of owners whose shards were rewritten.
+     */
+    @VisibleForTesting
+    int runOnce() {
+        int rebalanced = 0;
+        for (String ownerId : walletSharding.getShardedOwnerIds()) {
+            try {
+                if (rebalance(ownerId)) {
+                    rebalanced++;
+                }
+            } catch (TransactionCanceledException e) {
+                log.info("Shards of {} changed while rebalancing, retrying next round", ownerId);
+            } catch (RuntimeException e) {
+                log.error("Failed to rebalance the shards of {}", ownerId, e);
+            }
+        }
+        return rebalanced;
+    }
+
+    private boolean rebalance(final String ownerId) {
+        final List<String> walletIds = walletSharding.getWalletIds(ownerId);
+        final List<Optional<Wallet>> shards = new ArrayList<>(walletIds.size());
+        final Set<String> currencies = new HashSet<>();
+        for (String walletId : walletIds) {
+            final Optional<Wallet> shard = walletDao.load(walletId);
+            shards.add(shard);
+            shard.map(Wallet::getCoins).ifPresent(coins -> currencies.addAll(coins.keySet()));
+        }
+        final List<Map<String, Double>> balanced = new ArrayList<>(walletIds.size());
+        for (int i = 0; i < walletIds.size(); i++) {
+            balanced.add(new HashMap<>());
+        }
+        for (String currency : currencies) {
+            long total = 0;
+            for (Optional<Wallet> shard : shards) {
+                total = Math.addExact(total, balanceOf(shard, currency));
+            }
+            // Shards get an equal share in whole units, the owner's own wallet gets the rest.
+            final long unit = Money.unitOf(currency);
+            final long share = Math.floorDiv(total, Math.multiplyExact(unit, walletIds.size())) * unit;
+            for (int i = 1; i < walletIds.size(); i++) {
+                balanced.get(i).put(currency, Money.toAmount(currency, share));
+            }
+            balanced.get(0).put(currency, Money.toAmount(currency, total - share * (walletIds.size() - 1)));
+        }
+
+        final TransactionWriteRequest request = new TransactionWriteRequest();
+        int changed = 0;
+        for (int i = 0; i < walletIds.size(); i++) {
+            final Map<String, Double> coins = balanced.get(i);
+            final Optional<Wallet> shard = shards.get(i);
+            final boolean isUnchanged = currencies.stream().allMatch(currency ->
+                    balanceOf(shard, currency) == Money.toMinorUnits(currency, coins.get(currency)));
+            if (isUnchanged) {
+                continue;
+            }
+            request.addPut(Wallet.builder().ownerId(walletIds.get(i)).coins(coins).build(),
+                    conditions.unchanged(shard));
+            changed++;
+        }
+        if (changed == 0) {
+            return false;
+        }
+        transactionDao.transactionWrite(request);
+        log.info("Rebalanced {} shards of {}", changed, ownerId);
+        return true;
+    }
+
+    private static long balanceOf(final Optional<Wallet> wallet, final String currency) {
+        return Money.toMinorUnits(currency,
+                wallet.map(Wallet::getCoins).map(coins -> coins.getOrDefault(currency, 0.0)).orElse(0.0));
+    }
+}
@@ -0,0 +1,72 @@
+package io.openmarket.transaction.processor;
+
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapperFieldModel;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapperTableModel;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBTransactionWriteExpression;
+import com.google.common.collect.ImmutableMap;
+import io.openmarket.transaction.model.Transaction;
+import io.openmarket.transaction.model.TransactionStatus;
+import io.openmarket.wallet.model.Wallet;
+import lombok.NonNull;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Builds the conditions of settlement writes. The attribute names are looked up from the mapper's table models.
+ */
+class WriteConditions {
+    private final DynamoDBMapperFieldModel<Transaction, Object> statusField;
+    private final DynamoDBMapperFieldModel<Wallet, Object> coinsField;
+    private final DynamoDBMapperFieldModel<Wallet, Object> ownerField;
+
+    WriteConditions(@NonNull final DynamoDBMapper mapper) {
+        final DynamoDBMapperTableModel<Transaction> transactionModel = mapper.getTableModel(Transaction.class);
+        final DynamoDBMapperTableModel<Wallet> walletModel = mapper.getTableModel(Wallet.class);
+        this.statusField = fieldHolding(transactionModel,
+                Transaction.builder().status(TransactionStatus.PENDING).build(), TransactionStatus.PENDING);
+        final Map<String, Double> coins = new HashMap<>();
+        this.coinsField = fieldHolding(walletModel, Wallet.builder().coins(coins).build(), coins);
+        this.ownerField = walletModel.hashKey();
+    }
+
+    DynamoDBTransactionWriteExpression hasStatus(final TransactionStatus status) {
+        return new DynamoDBTransactionWriteExpression()
+                .withConditionExpression("#status = :status")
+                .withExpressionAttributeNames(ImmutableMap.of("#status", statusField.name()))
+                .withExpressionAttributeValues(ImmutableMap.of(":status", statusField.convert(status)));
+    }
+
+    // The wallet as it was read, or its absence, is still what is stored.
+    DynamoDBTransactionWriteExpression unchanged(final Optional<Wallet> wallet) {
+        if (!wallet.isPresent()) {
+            return new DynamoDBTransactionWriteExpression()
+                    .withConditionExpression("attribute_not_exists(#owner)")
+                    .withExpressionAttributeNames(ImmutableMap.of("#owner", ownerField.name()));
+        }
+        if (wallet.get().getCoins() == null) {
+            return new DynamoDBTransactionWriteExpression()
+                    .withConditionExpression("attribute_not_exists(#coins)")
+                    .withExpressionAttributeNames(ImmutableMap.of("#coins", coinsField.name()));
+        }
+        return new DynamoDBTransactionWriteExpression()
+                .withConditionExpression("#coins = :coins")
+                .withExpressionAttributeNames(ImmutableMap.of("#coins", coinsField.name()))
+                .withExpressionAttributeValues(ImmutableMap.of(":coins",
+                        coinsField.convert(wallet.get().getCoins())));
+    }
+
+    // The table models are keyed by attribute name, so find the field by the value a probe object holds in it.
+    private static <T> DynamoDBMapperFieldModel<T, Object> fieldHolding(final DynamoDBMapperTableModel<T> model,
+                                                                       final T probe, final Object value) {
+        for (DynamoDBMapperFieldModel<T, Object> field : model.fields()) {
+            if (field.get(probe) == value) {
+                return field;
+            }
+        }
+        throw new IllegalStateException(String.format("%s has no attribute holding %s",
+                model.targetType().getSimpleName(), value));
+    }
+}
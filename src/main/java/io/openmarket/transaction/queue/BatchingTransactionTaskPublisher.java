@@ -0,0 +1,297 @@
+package io.openmarket.transaction.queue;
+
+import com.amazonaws.services.sqs.AmazonSQS;
+import com.amazonaws.services.sqs.model.BatchResultErrorEntry;
+import com.amazonaws.services.sqs.model.SendMessageBatchRequest;
+import com.amazonaws.services.sqs.model.SendMessageBatchRequestEntry;
+import com.amazonaws.services.sqs.model.SendMessageBatchResult;
+import com.amazonaws.services.sqs.model.SendMessageBatchResultEntry;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.openmarket.transaction.model.TransactionTask;
+import lombok.NonNull;
+import lombok.Value;
+import lombok.extern.log4j.Log4j2;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Publishes tasks with SendMessageBatch. Tasks are accumulated for up to the linger time or until a batch of 10 is
+ * full, and each caller only waits for its own entry. Lingering is adaptive: while tasks arrive further apart than the
+ * linger time, no other task is likely to join the batch, so tasks are sent as soon as they arrive.
+ * Payments don't go through here: the {@link io.openmarket.transaction.outbox.OutboxRelay} already sends them in
+ * batches, so this only batches the tasks the service handler publishes directly, i.e. refunds.
+ */
+@Log4j2
+public class BatchingTransactionTaskPublisher implements TransactionTaskPublisher {
+    // The maximum number of entries in a SendMessageBatch call.
+    public static final int MAX_BATCH_SIZE = 10;
+
+    // The weight of the latest interval in the moving average of the time between tasks.
+    private static final double ARRIVAL_SMOOTHING = 0.2;
+
+    private static final int DEFAULT_SENDER_THREADS = 4;
+    private static final long DEFAULT_PUBLISH_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(10);
+
+    private final AmazonSQS sqs;
+    private final long lingerMillis;
+    private final long publishTimeoutMillis;
+    private final BlockingQueue<PendingTask> pending;
+    private final ExecutorService batcher;
+    private final ExecutorService senders;
+    private volatile boolean isRunning;
+
+    // Confined to the batcher thread, negative until two tasks have been seen.
+    private double averageArrivalIntervalNanos;
+    private long lastEnqueuedAt;
+
+    private final LongAdder batchCount = new LongAdder();
+    private final LongAdder taskCount = new LongAdder();
+    private final LongAdder failedTaskCount = new LongAdder();
+    private final LongAdder totalLingerNanos = new LongAdder();
+
+    public BatchingTransactionTaskPublisher(@NonNull final AmazonSQS sqs, final long lingerMillis) {
+        this(sqs, lingerMillis, DEFAULT_SENDER_THREADS, DEFAULT_PUBLISH_TIMEOUT_MILLIS);
+    }
+
+    public BatchingTransactionTaskPublisher(@NonNull final AmazonSQS sqs, final long lingerMillis,
+                                            final int senderThreads, final long publishTimeoutMillis) {
+        if (lingerMillis < 0 || senderThreads <= 0 || publishTimeoutMillis <= 0) {
+            throw new IllegalArgumentException(String.format("Invalid batching config: linger %dms, %d senders, "
+                    + "timeout %dms", lingerMillis, senderThreads, publishTimeoutMillis));
+        }
+        this.sqs = sqs;
+        this.lingerMillis = lingerMillis;
+        this.publishTimeoutMillis = publishTimeoutMillis;
+        this.pending = new LinkedBlockingQueue<>();
+        this.batcher = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("task-batcher-%d")
+                .setDaemon(true)
+                .build());
+        this.senders = Executors.newFixedThreadPool(senderThreads, new ThreadFactoryBuilder()
+                .setNameFormat("task-sender-%d")
+                .setDaemon(true)
+                .build());
+        this.averageArrivalIntervalNanos = -1;
+        this.lastEnqueuedAt = 0;
+    }
+
+    public void start() {
+        isRunning = true;
+        batcher.execute(this::run);
+        log.info("BatchingTransactionTaskPublisher started with linger {}ms", lingerMillis);
+    }
+
+    public void stop() {
+        isRunning = false;
+        batcher.shutdown();
+        try {
+            batcher.awaitTermination(publishTimeoutMillis, TimeUnit.MILLISECONDS);
+            senders.shutdown();
+            senders.awaitTermination(publishTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void publish(@NonNull final String queueUrl, @NonNull final TransactionTask task) {
+        try {
+            publishAsync(queueUrl, task).get(publishTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(String.format("Failed to publish task %s", task), e.getCause());
+        } catch (TimeoutException e) {
+            throw new IllegalStateException(String.format("Timed out publishing task %s", task), e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(String.format("Interrupted publishing task %s", task), e);
+        }
+    }
+
+    /**
+     * Queue the task to be sent with the next batch.
+     * @param queueUrl the queue URL.
+     * @param task the task to publish.
+     * @return a future of the SQS message ID, completed once the task's entry has been sent.
+     */
+    public CompletableFuture<String> publishAsync(@NonNull final String queueUrl,
+                                                  @NonNull final TransactionTask task) {
+        final PendingTask pendingTask = new PendingTask(queueUrl, TransactionTaskMessages.encode(task),
+                System.nanoTime());
+        if (!isRunning) {
+            pendingTask.future.completeExceptionally(new IllegalStateException("Publisher is not running"));
+            return pendingTask.future;
+        }
+        pending.add(pendingTask);
+        return pendingTask.future;
+    }
+
+    public PublisherStats getStats() {
+        final long batches = batchCount.sum();
+        final long tasks = taskCount.sum();
+        return new PublisherStats(batches, tasks, failedTaskCount.sum(),
+                batches == 0 ? 0 : (double) tasks / (batches * MAX_BATCH_SIZE),
+                tasks == 0 ? 0 : totalLingerNanos.sum() / (tasks * 1e6));
+    }
+
+    private void run() {
+        while (isRunning || !pending.isEmpty()) {
+            try {
+                runOnce();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                log.error("Unexpected error in BatchingTransactionTaskPublisher", e);
+            }
+        }
+    }
+
+    /**
+     * Collect the next batches and hand them over to the senders.
+     * @return the number of tasks collected.
+     */
+    @VisibleForTesting
+    int runOnce() throws InterruptedException {
+        final PendingTask first = pending.poll(100, TimeUnit.MILLISECONDS);
+        if (first == null) {
+            return 0;
+        }
+        final Map<String, List<PendingTask>> batches = new HashMap<>();
+        addToBatch(batches, first);
+        int collected = 1;
+        final long lingerNanos = TimeUnit.MILLISECONDS.toNanos(lingerMillis);
+        final boolean shouldLinger = averageArrivalIntervalNanos >= 0 && averageArrivalIntervalNanos < lingerNanos;
+        final long deadline = first.enqueuedAt + lingerNanos;
+        while (true) {
+            PendingTask next = pending.poll();
+            if (next == null && shouldLinger) {
+                final long remaining = deadline - System.nanoTime();
+                if (remaining > 0) {
+                    next = pending.poll(remaining, TimeUnit.NANOSECONDS);
+                }
+            }
+            if (next == null) {
+                break;
+            }
+            collected++;
+            if (addToBatch(batches, next)) {
+                // A batch is full, send what has been collected.
+                break;
+            }
+        }
+        for (List<PendingTask> batch : batches.values()) {
+            submit(batch);
+        }
+        return collected;
+    }
+
+    // Add the task to its queue's batch, sending the batch once full. Returns whether a batch was sent.
+    private boolean addToBatch(final Map<String, List<PendingTask>> batches, final PendingTask task) {
+        recordArrival(task);
+        final List<PendingTask> batch = batches.computeIfAbsent(task.queueUrl, k -> new ArrayList<>());
+        batch.add(task);
+        if (batch.size() < MAX_BATCH_SIZE) {
+            return false;
+        }
+        submit(new ArrayList<>(batch));
+        batch.clear();
+        return true;
+    }
+
+    private void recordArrival(final PendingTask task) {
+        if (lastEnqueuedAt != 0) {
+            // Callers enqueue concurrently, so tasks may be taken slightly out of order.
+            final long interval = Math.max(0, task.enqueuedAt - lastEnqueuedAt);
+            averageArrivalIntervalNanos = averageArrivalIntervalNanos < 0 ? interval
+                    : ARRIVAL_SMOOTHING * interval + (1 - ARRIVAL_SMOOTHING) * averageArrivalIntervalNanos;
+        }
+        lastEnqueuedAt = Math.max(lastEnqueuedAt, task.enqueuedAt);
+    }
+
+    private void submit(final List<PendingTask> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            senders.execute(() -> send(batch));
+        } catch (RejectedExecutionException e) {
+            // The senders are stopping, send on this thread so no task is dropped.
+            send(batch);
+        }
+    }
+
+    private void send(final List<PendingTask> batch) {
+        final long sentAt = System.nanoTime();
+        final List<SendMessageBatchRequestEntry> entries = new ArrayList<>(batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+            entries.add(new SendMessageBatchRequestEntry(String.valueOf(i), batch.get(i).messageBody));
+            totalLingerNanos.add(sentAt - batch.get(i).enqueuedAt);
+        }
+        batchCount.increment();
+        taskCount.add(batch.size());
+        final SendMessageBatchResult result;
+        try {
+            result = sqs.sendMessageBatch(new SendMessageBatchRequest(batch.get(0).queueUrl, entries));
+        } catch (RuntimeException e) {
+            log.warn("Failed to send a batch of {} tasks", batch.size(), e);
+            failedTaskCount.add(batch.size());
+            batch.forEach(task -> task.future.completeExceptionally(e));
+            return;
+        }
+        for (SendMessageBatchResultEntry entry : result.getSuccessful()) {
+            batch.get(Integer.parseInt(entry.getId())).future.complete(entry.getMessageId());
+        }
+        for (BatchResultErrorEntry entry : result.getFailed()) {
+            failedTaskCount.increment();
+            batch.get(Integer.parseInt(entry.getId())).future.completeExceptionally(new IllegalStateException(
+                    String.format("Failed to send task: %s %s", entry.getCode(), entry.getMessage())));
+        }
+    }
+
+    private static class PendingTask {
+        private final String queueUrl;
+        private final String messageBody;
+        private final long enqueuedAt;
+        private final CompletableFuture<String> future;
+
+        PendingTask(final String queueUrl, final String messageBody, final long enqueuedAt) {
+            this.queueUrl = queueUrl;
+            this.messageBody = messageBody;
+            this.enqueuedAt = enqueuedAt;
+            this.future = new CompletableFuture<>();
+        }
+    }
+
+    /**
+     * Counters of the tasks published so far.
+     */
+    @Value
+    public static class PublisherStats {
+        long batchCount;
+        long taskCount;
+        long failedTaskCount;
+
+        // The average share of the 10 entries a batch can hold that were used.
+        double averageFillRatio;
+
+        // The average time a task waited between being queued and being sent.
+        double averageLingerMillis;
+    }
+}
@@ -0,0 +1,225 @@
+package io.openmarket.transaction.queue;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.sqs.AbstractAmazonSQS;
+import com.amazonaws.services.sqs.model.BatchResultErrorEntry;
+import com.amazonaws.services.sqs.model.CreateQueueRequest;
+import com.amazonaws.services.sqs.model.CreateQueueResult;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchRequest;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchRequestEntry;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchResult;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchResultEntry;
+import com.amazonaws.services.sqs.model.DeleteMessageRequest;
+import com.amazonaws.services.sqs.model.DeleteMessageResult;
+import com.amazonaws.services.sqs.model.Message;
+import com.amazonaws.services.sqs.model.ReceiptHandleIsInvalidException;
+import com.amazonaws.services.sqs.model.ReceiveMessageRequest;
+import com.amazonaws.services.sqs.model.ReceiveMessageResult;
+import com.amazonaws.services.sqs.model.SendMessageBatchRequest;
+import com.amazonaws.services.sqs.model.SendMessageBatchRequestEntry;
+import com.amazonaws.services.sqs.model.SendMessageBatchResult;
+import com.amazonaws.services.sqs.model.SendMessageBatchResultEntry;
+import com.amazonaws.services.sqs.model.SendMessageRequest;
+import com.amazonaws.services.sqs.model.SendMessageResult;
+import lombok.NonNull;
+import lombok.Setter;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A local stand-in for SQS, so the transaction queue can be exercised offline. It supports sending, receiving with
+ * long polling and visibility timeouts, and deleting, each singly or in batches. Queues are created on first use.
+ */
+public class InMemoryAmazonSQS extends AbstractAmazonSQS {
+    private static final String QUEUE_URL_PREFIX = "inmemory://";
+    private static final int DEFAULT_VISIBILITY_TIMEOUT_SECONDS = 30;
+
+    private final ConcurrentMap<String, InMemoryQueue> queues = new ConcurrentHashMap<>();
+    private final AtomicLong sendCallCount = new AtomicLong();
+
+    // Sends fail with a 503 while the queue is unavailable.
+    @Setter
+    private volatile boolean isAvailable = true;
+
+    @Override
+    public CreateQueueResult createQueue(@NonNull final CreateQueueRequest request) {
+        final String queueUrl = QUEUE_URL_PREFIX + request.getQueueName();
+        getQueue(queueUrl);
+        return new CreateQueueResult().withQueueUrl(queueUrl);
+    }
+
+    @Override
+    public SendMessageResult sendMessage(@NonNull final SendMessageRequest request) {
+        checkAvailable();
+        sendCallCount.incrementAndGet();
+        final Message message = getQueue(request.getQueueUrl()).add(request.getMessageBody());
+        return new SendMessageResult().withMessageId(message.getMessageId());
+    }
+
+    @Override
+    public SendMessageBatchResult sendMessageBatch(@NonNull final SendMessageBatchRequest request) {
+        checkAvailable();
+        sendCallCount.incrementAndGet();
+        final InMemoryQueue queue = getQueue(request.getQueueUrl());
+        final SendMessageBatchResult result = new SendMessageBatchResult();
+        for (SendMessageBatchRequestEntry entry : request.getEntries()) {
+            final Message message = queue.add(entry.getMessageBody());
+            result.withSuccessful(new SendMessageBatchResultEntry()
+                    .withId(entry.getId())
+                    .withMessageId(message.getMessageId()));
+        }
+        return result;
+    }
+
+    @Override
+    public ReceiveMessageResult receiveMessage(@NonNull final ReceiveMessageRequest request) {
+        final int maxMessages = request.getMaxNumberOfMessages() == null ? 1 : request.getMaxNumberOfMessages();
+        final int waitSeconds = request.getWaitTimeSeconds() == null ? 0 : request.getWaitTimeSeconds();
+        final int visibilitySeconds = request.getVisibilityTimeout() == null ? DEFAULT_VISIBILITY_TIMEOUT_SECONDS
+                : request.getVisibilityTimeout();
+        try {
+            return new ReceiveMessageResult().withMessages(getQueue(request.getQueueUrl())
+                    .receive(maxMessages, TimeUnit.SECONDS.toMillis(waitSeconds),
+                            TimeUnit.SECONDS.toMillis(visibilitySeconds)));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new ReceiveMessageResult();
+        }
+    }
+
+    @Override
+    public DeleteMessageResult deleteMessage(@NonNull final DeleteMessageRequest request) {
+        if (!getQueue(request.getQueueUrl()).delete(request.getReceiptHandle())) {
+            throw new ReceiptHandleIsInvalidException(String.format("Receipt handle %s is invalid",
+                    request.getReceiptHandle()));
+        }
+        return new DeleteMessageResult();
+    }
+
+    @Override
+    public DeleteMessageBatchResult deleteMessageBatch(@NonNull final DeleteMessageBatchRequest request) {
+        final InMemoryQueue queue = getQueue(request.getQueueUrl());
+        final DeleteMessageBatchResult result = new DeleteMessageBatchResult();
+        for (DeleteMessageBatchRequestEntry entry : request.getEntries()) {
+            if (queue.delete(entry.getReceiptHandle())) {
+                result.withSuccessful(new DeleteMessageBatchResultEntry().withId(entry.getId()));
+            } else {
+                result.withFailed(new BatchResultErrorEntry()
+                        .withId(entry.getId())
+                        .withCode("ReceiptHandleIsInvalid")
+                        .withSenderFault(true));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Get the number of messages in the queue, including those received but not yet deleted.
+     * @param queueUrl the queue URL.
+     * @return the number of messages.
+     */
+    public int getMessageCount(@NonNull final String queueUrl) {
+        return getQueue(queueUrl).size();
+    }
+
+    /**
+     * Get the number of successful send calls, counting a batch as one.
+     * @return the number of calls.
+     */
+    public long getSendCallCount() {
+        return sendCallCount.get();
+    }
+
+    private void checkAvailable() {
+        if (!isAvailable) {
+            final AmazonServiceException exception = new AmazonServiceException("Queue is unavailable");
+            exception.setStatusCode(503);
+            throw exception;
+        }
+    }
+
+    private InMemoryQueue getQueue(final String queueUrl) {
+        return queues.computeIfAbsent(queueUrl, k -> new InMemoryQueue());
+    }
+
+    private static class InMemoryQueue {
+        private final Deque<Message> visible = new ArrayDeque<>();
+
+        // Received messages by receipt handle, with the time they become visible again.
+        private final Map<String, InFlightMessage> inFlight = new HashMap<>();
+
+        synchronized Message add(final String body) {
+            final Message message = new Message()
+                    .withMessageId(UUID.randomUUID().toString())
+                    .withBody(body);
+            visible.addLast(message);
+            notifyAll();
+            return message;
+        }
+
+        synchronized List<Message> receive(final int maxMessages, final long waitMillis,
+                                           final long visibilityMillis) throws InterruptedException {
+            final long deadline = System.currentTimeMillis() + waitMillis;
+            restoreExpired();
+            while (visible.isEmpty()) {
+                final long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    return new ArrayList<>();
+                }
+                // Wake up periodically as in-flight messages may become visible again.
+                wait(Math.min(remaining, 100));
+                restoreExpired();
+            }
+            final List<Message> result = new ArrayList<>();
+            final long visibleAt = System.currentTimeMillis() + visibilityMillis;
+            while (!visible.isEmpty() && result.size() < maxMessages) {
+                final Message message = visible.pollFirst();
+                final String receiptHandle = UUID.randomUUID().toString();
+                inFlight.put(receiptHandle, new InFlightMessage(message, visibleAt));
+                result.add(message.clone().withReceiptHandle(receiptHandle));
+            }
+            return result;
+        }
+
+        synchronized boolean delete(final String receiptHandle) {
+            return inFlight.remove(receiptHandle) != null;
+        }
+
+        synchronized int size() {
+            return visible.size() + inFlight.size();
+        }
+
+        private void restoreExpired() {
+            final long now = System.currentTimeMillis();
+            final Iterator<InFlightMessage> iterator = inFlight.values().iterator();
+            while (iterator.hasNext()) {
+                final InFlightMessage inFlightMessage = iterator.next();
+                if (inFlightMessage.visibleAt <= now) {
+                    visible.addFirst(inFlightMessage.message);
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    private static class InFlightMessage {
+        private final Message message;
+        private final long visibleAt;
+
+        InFlightMessage(final Message message, final long visibleAt) {
+            this.message = message;
+            this.visibleAt = visibleAt;
+        }
+    }
+}
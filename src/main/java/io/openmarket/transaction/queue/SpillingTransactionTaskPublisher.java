@@ -0,0 +1,264 @@
+package io.openmarket.transaction.queue;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.openmarket.transaction.model.TransactionTask;
+import lombok.NonNull;
+import lombok.extern.log4j.Log4j2;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Publishes tasks through another publisher, spilling them to a {@link TaskJournal} when it fails or takes longer
+ * than the latency threshold, so refunds don't wait on SQS. Once a task is spilled, later tasks are journaled too
+ * until the drainer has replayed the journal, so tasks reach the queue in the order they were published.
+ * A publish that times out is cancelled, but it may still reach the queue along with its journaled copy, so a task
+ * can be delivered twice. Payments don't go through here: their tasks are kept in the DynamoDB outbox until the
+ * {@link io.openmarket.transaction.outbox.OutboxRelay} has sent them, which is more durable than a local journal.
+ */
+@Log4j2
+public class SpillingTransactionTaskPublisher implements TransactionTaskPublisher {
+    public static final long DEFAULT_LATENCY_THRESHOLD_MILLIS = 200;
+    private static final int DEFAULT_PUBLISHER_THREADS = 16;
+    private static final int DRAIN_BATCH_SIZE = 10;
+    private static final long IDLE_POLL_MILLIS = 100;
+    private static final long INITIAL_BACKOFF_MILLIS = 100;
+    private static final long MAX_BACKOFF_MILLIS = TimeUnit.SECONDS.toMillis(10);
+
+    private final TransactionTaskPublisher delegate;
+    private final TaskJournal journal;
+    private final long latencyThresholdMillis;
+    private final ExecutorService publishers;
+    private final ExecutorService drainer;
+    private volatile boolean isRunning;
+
+    // Publishers spill under the read lock, the drainer stops spilling under the write lock once the journal is
+    // empty, so no task is published directly while an earlier one is still in the journal.
+    private final ReadWriteLock spillLock;
+    private volatile boolean isSpilling;
+
+    // Confined to the drainer thread.
+    private long backoffMillis;
+
+    private final LongAdder spilledCount = new LongAdder();
+    private final LongAdder replayedCount = new LongAdder();
+
+    public SpillingTransactionTaskPublisher(@NonNull final TransactionTaskPublisher delegate,
+                                            @NonNull final TaskJournal journal) {
+        this(delegate, journal, DEFAULT_LATENCY_THRESHOLD_MILLIS);
+    }
+
+    public SpillingTransactionTaskPublisher(@NonNull final TransactionTaskPublisher delegate,
+                                            @NonNull final TaskJournal journal,
+                                            final long latencyThresholdMillis) {
+        this(delegate, journal, latencyThresholdMillis, DEFAULT_PUBLISHER_THREADS);
+    }
+
+    public SpillingTransactionTaskPublisher(@NonNull final TransactionTaskPublisher delegate,
+                                            @NonNull final TaskJournal journal,
+                                            final long latencyThresholdMillis,
+                                            final int publisherThreads) {
+        if (latencyThresholdMillis <= 0 || publisherThreads <= 0) {
+            throw new IllegalArgumentException(String.format("Invalid spilling config: latency threshold %dms, "
+                    + "%d publishers", latencyThresholdMillis, publisherThreads));
+        }
+        this.delegate = delegate;
+        this.journal = journal;
+        this.latencyThresholdMillis = latencyThresholdMillis;
+        // Publishes don't queue up: when every thread is stuck on a slow publish, the task is spilled right away.
+        this.publishers = new ThreadPoolExecutor(publisherThreads, publisherThreads, 0, TimeUnit.MILLISECONDS,
+                new SynchronousQueue<>(), new ThreadFactoryBuilder()
+                .setNameFormat("task-publisher-%d")
+                .setDaemon(true)
+                .build());
+        this.drainer = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("task-journal-drainer-%d")
+                .setDaemon(true)
+                .build());
+        this.spillLock = new ReentrantReadWriteLock();
+        // Tasks left in the journal by the last run go first.
+        this.isSpilling = !journal.isEmpty();
+        this.backoffMillis = 0;
+    }
+
+    public void start() {
+        isRunning = true;
+        drainer.execute(this::run);
+        log.info("SpillingTransactionTaskPublisher started with latency threshold {}ms and fsync policy {}",
+                latencyThresholdMillis, journal.getFsyncPolicy());
+    }
+
+    public void stop() {
+        isRunning = false;
+        drainer.shutdown();
+        publishers.shutdown();
+        try {
+            drainer.awaitTermination(MAX_BACKOFF_MILLIS, TimeUnit.MILLISECONDS);
+            journal.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            log.warn("Failed to close the task journal", e);
+        }
+    }
+
+    @Override
+    public void publish(@NonNull final String queueUrl, @NonNull final TransactionTask task) {
+        spillLock.readLock().lock();
+        try {
+            if (isSpilling) {
+                spill(queueUrl, task);
+                return;
+            }
+        } finally {
+            spillLock.readLock().unlock();
+        }
+        Future<?> future = null;
+        try {
+            future = publishers.submit(() -> delegate.publish(queueUrl, task));
+            future.get(latencyThresholdMillis, TimeUnit.MILLISECONDS);
+            return;
+        } catch (RejectedExecutionException e) {
+            log.warn("Every publisher is busy, spilling task {} to the journal", task);
+        } catch (TimeoutException e) {
+            log.warn("Publishing task {} took over {}ms, spilling to the journal", task, latencyThresholdMillis);
+            future.cancel(true);
+        } catch (ExecutionException e) {
+            log.warn("Failed to publish task {}, spilling to the journal", task, e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(String.format("Interrupted publishing task %s", task), e);
+        }
+        spillLock.readLock().lock();
+        try {
+            isSpilling = true;
+            spill(queueUrl, task);
+        } finally {
+            spillLock.readLock().unlock();
+        }
+    }
+
+    public boolean isSpilling() {
+        return isSpilling;
+    }
+
+    public long getSpilledCount() {
+        return spilledCount.sum();
+    }
+
+    public long getReplayedCount() {
+        return replayedCount.sum();
+    }
+
+    private void spill(final String queueUrl, final TransactionTask task) {
+        try {
+            journal.append(queueUrl, TransactionTaskMessages.encode(task));
+        } catch (IOException e) {
+            throw new IllegalStateException(String.format("Failed to spill task %s", task), e);
+        }
+        spilledCount.increment();
+    }
+
+    private void run() {
+        while (isRunning) {
+            try {
+                if (runOnce() == 0) {
+                    Thread.sleep(IDLE_POLL_MILLIS);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                log.error("Unexpected error in SpillingTransactionTaskPublisher", e);
+            }
+        }
+    }
+
+    /**
+     * Replay up to one batch of journaled tasks in order, stopping at the first one that fails to publish.
+     * @return the number of journal entries consumed.
+     */
+    @VisibleForTesting
+    int runOnce() throws InterruptedException {
+        final List<TaskJournal.Entry> entries = journal.peek(DRAIN_BATCH_SIZE);
+        if (entries.isEmpty()) {
+            stopSpillingIfDrained();
+            return 0;
+        }
+        TaskJournal.Entry lastReplayed = null;
+        int consumed = 0;
+        boolean hasFailed = false;
+        for (TaskJournal.Entry entry : entries) {
+            final TransactionTask task;
+            try {
+                task = TransactionTaskMessages.decode(entry.getMessageBody());
+            } catch (IllegalArgumentException e) {
+                log.error("Dropping malformed journal entry {}", entry.getMessageBody(), e);
+                lastReplayed = entry;
+                consumed++;
+                continue;
+            }
+            try {
+                delegate.publish(entry.getQueueUrl(), task);
+            } catch (RuntimeException e) {
+                log.warn("Failed to replay task {}, retrying in {}ms", task, nextBackoffMillis(), e);
+                hasFailed = true;
+                break;
+            }
+            lastReplayed = entry;
+            consumed++;
+            replayedCount.increment();
+        }
+        if (lastReplayed != null) {
+            try {
+                journal.commit(lastReplayed);
+            } catch (IOException e) {
+                // The tasks are replayed again after a restart.
+                log.warn("Failed to checkpoint the task journal", e);
+            }
+        }
+        if (hasFailed) {
+            backOff();
+        } else {
+            backoffMillis = 0;
+        }
+        return consumed;
+    }
+
+    private void stopSpillingIfDrained() {
+        if (!isSpilling) {
+            return;
+        }
+        spillLock.writeLock().lock();
+        try {
+            if (journal.isEmpty()) {
+                isSpilling = false;
+                log.info("Task journal drained, publishing tasks directly");
+            }
+        } finally {
+            spillLock.writeLock().unlock();
+        }
+    }
+
+    private long nextBackoffMillis() {
+        return backoffMillis == 0 ? INITIAL_BACKOFF_MILLIS : Math.min(MAX_BACKOFF_MILLIS, backoffMillis * 2);
+    }
+
+    private void backOff() throws InterruptedException {
+        backoffMillis = nextBackoffMillis();
+        Thread.sleep(backoffMillis);
+    }
+}
@@ -0,0 +1,402 @@
+package io.openmarket.transaction.queue;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.Value;
+import lombok.extern.log4j.Log4j2;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only journal of task messages, stored in memory-mapped segment files. Entries are read back in the order
+ * they were appended, and the read position is checkpointed so a restart resumes where the reader left off. Every
+ * entry carries a checksum, so a torn write at the end of the journal is dropped on recovery.
+ * Appends are group committed: under {@link FsyncPolicy#ALWAYS}, appends waiting at the same time share one fsync.
+ */
+@Log4j2
+public class TaskJournal implements Closeable {
+    public static final int DEFAULT_SEGMENT_SIZE = 16 * 1024 * 1024;
+    private static final long FSYNC_INTERVAL_MILLIS = 100;
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String CHECKPOINT_FILE = "checkpoint";
+
+    // An entry is its payload length, the payload's CRC32 and the payload. A zero length marks the end of a segment.
+    private static final int HEADER_SIZE = 8;
+
+    /**
+     * How appended entries are flushed to disk.
+     */
+    public enum FsyncPolicy {
+        // Appends return once their entry is on disk.
+        ALWAYS,
+        // Entries are flushed every 100ms, so a crash may lose the entries appended since.
+        INTERVAL,
+        // Entries are flushed by the OS, so only a process crash is survived.
+        NEVER
+    }
+
+    private final Path directory;
+    private final int segmentSize;
+    @Getter
+    private final FsyncPolicy fsyncPolicy;
+    private final ScheduledExecutorService flusher;
+
+    // Guarded by this.
+    private final TreeMap<Long, Segment> segments;
+    private Segment writeSegment;
+    private int writeOffset;
+    private long appendedCount;
+    private Segment readSegment;
+    private int readOffset;
+
+    // Guarded by flushLock, which is never acquired while holding this.
+    private final Object flushLock = new Object();
+    private long durableCount;
+
+    public TaskJournal(@NonNull final Path directory, @NonNull final FsyncPolicy fsyncPolicy) throws IOException {
+        this(directory, fsyncPolicy, DEFAULT_SEGMENT_SIZE);
+    }
+
+    public TaskJournal(@NonNull final Path directory, @NonNull final FsyncPolicy fsyncPolicy,
+                       final int segmentSize) throws IOException {
+        if (segmentSize <= HEADER_SIZE) {
+            throw new IllegalArgumentException(String.format("Invalid segment size %d", segmentSize));
+        }
+        this.directory = directory;
+        this.fsyncPolicy = fsyncPolicy;
+        this.segmentSize = segmentSize;
+        this.segments = new TreeMap<>();
+        this.appendedCount = 0;
+        this.durableCount = 0;
+        recover();
+        if (fsyncPolicy == FsyncPolicy.INTERVAL) {
+            this.flusher = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                    .setNameFormat("task-journal-flusher-%d")
+                    .setDaemon(true)
+                    .build());
+            flusher.scheduleWithFixedDelay(this::flushQuietly, FSYNC_INTERVAL_MILLIS, FSYNC_INTERVAL_MILLIS,
+                    TimeUnit.MILLISECONDS);
+        } else {
+            this.flusher = null;
+        }
+    }
+
+    /**
+     * Append an entry to the journal.
+     * @param queueUrl the queue URL the message is for.
+     * @param messageBody the message body.
+     * @throws IOException if a new segment could not be created.
+     */
+    public void append(@NonNull final String queueUrl, @NonNull final String messageBody) throws IOException {
+        final byte[] payload = encode(queueUrl, messageBody);
+        if (payload.length > segmentSize - HEADER_SIZE) {
+            throw new IllegalArgumentException(String.format("Entry of %d bytes does not fit in a segment",
+                    payload.length));
+        }
+        final CRC32 crc = new CRC32();
+        crc.update(payload);
+        final long count;
+        synchronized (this) {
+            if (writeOffset + HEADER_SIZE + payload.length > segmentSize) {
+                roll();
+            }
+            final ByteBuffer buffer = writeSegment.buffer.duplicate();
+            buffer.position(writeOffset + 4);
+            buffer.putInt((int) crc.getValue());
+            buffer.put(payload);
+            // The length goes last, so an entry cut short by a crash usually reads as the end of the segment, and
+            // the checksum catches the rest.
+            buffer.putInt(writeOffset, payload.length);
+            writeOffset += HEADER_SIZE + payload.length;
+            count = ++appendedCount;
+        }
+        if (fsyncPolicy == FsyncPolicy.ALWAYS) {
+            awaitDurable(count);
+        }
+    }
+
+    /**
+     * Read entries from the read position without consuming them.
+     * @param limit the maximum number of entries to read.
+     * @return the entries, in the order they were appended.
+     */
+    public synchronized List<Entry> peek(final int limit) {
+        final List<Entry> entries = new ArrayList<>(Math.min(limit, 16));
+        Segment segment = readSegment;
+        int offset = readOffset;
+        while (entries.size() < limit) {
+            final int length = segment == writeSegment ? (offset < writeOffset ? lengthAt(segment, offset) : 0)
+                    : validLengthAt(segment, offset);
+            if (length == 0) {
+                if (segment == writeSegment) {
+                    break;
+                }
+                segment = segments.higherEntry(segment.sequence).getValue();
+                offset = 0;
+                continue;
+            }
+            final byte[] payload = new byte[length];
+            final ByteBuffer buffer = segment.buffer.duplicate();
+            buffer.position(offset + HEADER_SIZE);
+            buffer.get(payload);
+            offset += HEADER_SIZE + length;
+            entries.add(decode(payload, segment.sequence, offset));
+        }
+        return entries;
+    }
+
+    /**
+     * Consume the entries up to and including the given one, deleting the segments that were fully read.
+     * @param entry the last entry to consume, as returned by {@link #peek(int)}.
+     * @throws IOException if the checkpoint could not be written.
+     */
+    public synchronized void commit(@NonNull final Entry entry) throws IOException {
+        final Segment segment = segments.get(entry.segmentSequence);
+        if (segment == null || (segment == readSegment && entry.endOffset <= readOffset)) {
+            return;
+        }
+        readSegment = segment;
+        readOffset = entry.endOffset;
+        final Map<Long, Segment> consumed = segments.headMap(segment.sequence);
+        for (Segment consumedSegment : consumed.values()) {
+            consumedSegment.delete();
+        }
+        consumed.clear();
+        writeCheckpoint();
+    }
+
+    public boolean isEmpty() {
+        return peek(1).isEmpty();
+    }
+
+    /**
+     * Flush every appended entry to disk.
+     */
+    public void flush() {
+        final long count;
+        synchronized (this) {
+            count = appendedCount;
+        }
+        awaitDurable(count);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (flusher != null) {
+            flusher.shutdown();
+        }
+        if (fsyncPolicy != FsyncPolicy.NEVER) {
+            flush();
+        }
+        synchronized (this) {
+            for (Segment segment : segments.values()) {
+                segment.channel.close();
+            }
+        }
+    }
+
+    // Whoever gets the lock first flushes everything appended so far, so the appends waiting behind it return
+    // without flushing again.
+    private void awaitDurable(final long count) {
+        synchronized (flushLock) {
+            if (durableCount >= count) {
+                return;
+            }
+            final long target;
+            final Segment segment;
+            synchronized (this) {
+                target = appendedCount;
+                segment = writeSegment;
+            }
+            // Earlier segments were flushed when they were rolled over.
+            segment.buffer.force();
+            durableCount = target;
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            log.warn("Failed to flush the task journal in {}", directory, e);
+        }
+    }
+
+    private void roll() throws IOException {
+        if (fsyncPolicy != FsyncPolicy.NEVER) {
+            writeSegment.buffer.force();
+        }
+        final Segment segment = Segment.open(segmentPath(writeSegment.sequence + 1), writeSegment.sequence + 1,
+                segmentSize);
+        segments.put(segment.sequence, segment);
+        writeSegment = segment;
+        writeOffset = 0;
+        log.info("Task journal rolled over to segment {}", segment.sequence);
+    }
+
+    private void recover() throws IOException {
+        Files.createDirectories(directory);
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory,
+                SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path file : files) {
+                final String name = file.getFileName().toString();
+                final long sequence = Long.parseLong(name.substring(SEGMENT_PREFIX.length(),
+                        name.length() - SEGMENT_SUFFIX.length()));
+                segments.put(sequence, Segment.open(file, sequence, segmentSize));
+            }
+        }
+        if (segments.isEmpty()) {
+            segments.put(0L, Segment.open(segmentPath(0), 0, segmentSize));
+        }
+        readSegment = segments.firstEntry().getValue();
+        readOffset = 0;
+        final Path checkpoint = directory.resolve(CHECKPOINT_FILE);
+        if (Files.exists(checkpoint)) {
+            final ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(checkpoint));
+            final Segment segment = segments.get(buffer.getLong());
+            if (segment != null) {
+                readSegment = segment;
+                readOffset = buffer.getInt();
+            }
+        }
+        final Map<Long, Segment> consumed = segments.headMap(readSegment.sequence);
+        for (Segment consumedSegment : consumed.values()) {
+            consumedSegment.delete();
+        }
+        consumed.clear();
+        writeSegment = segments.lastEntry().getValue();
+        writeOffset = writeSegment == readSegment ? readOffset : 0;
+        // Whatever follows the last valid entry was never fully written.
+        int length;
+        while ((length = validLengthAt(writeSegment, writeOffset)) > 0) {
+            writeOffset += HEADER_SIZE + length;
+        }
+        log.info("Task journal in {} recovered with {} segments", directory, segments.size());
+    }
+
+    private void writeCheckpoint() throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(12);
+        buffer.putLong(readSegment.sequence);
+        buffer.putInt(readOffset);
+        final Path temp = directory.resolve(CHECKPOINT_FILE + ".tmp");
+        Files.write(temp, buffer.array());
+        Files.move(temp, directory.resolve(CHECKPOINT_FILE), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private Path segmentPath(final long sequence) {
+        return directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, sequence, SEGMENT_SUFFIX));
+    }
+
+    private int lengthAt(final Segment segment, final int offset) {
+        return segment.buffer.getInt(offset);
+    }
+
+    // Get the payload length of the entry at the offset, or 0 if there is no complete entry there.
+    private int validLengthAt(final Segment segment, final int offset) {
+        if (offset + HEADER_SIZE > segmentSize) {
+            return 0;
+        }
+        final int length = segment.buffer.getInt(offset);
+        if (length <= 0 || length > segmentSize - offset - HEADER_SIZE) {
+            return 0;
+        }
+        final byte[] payload = new byte[length];
+        final ByteBuffer buffer = segment.buffer.duplicate();
+        buffer.position(offset + 4);
+        final int checksum = buffer.getInt();
+        buffer.get(payload);
+        final CRC32 crc = new CRC32();
+        crc.update(payload);
+        if ((int) crc.getValue() != checksum) {
+            log.warn("Dropping a torn entry at offset {} of task journal segment {}", offset, segment.sequence);
+            return 0;
+        }
+        return length;
+    }
+
+    private static byte[] encode(final String queueUrl, final String messageBody) {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeUTF(queueUrl);
+            out.writeUTF(messageBody);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(String.format("Invalid entry for queue %s", queueUrl), e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static Entry decode(final byte[] payload, final long segmentSequence, final int endOffset) {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload))) {
+            return new Entry(in.readUTF(), in.readUTF(), segmentSequence, endOffset);
+        } catch (IOException e) {
+            throw new IllegalStateException(String.format("Corrupted entry in task journal segment %d",
+                    segmentSequence), e);
+        }
+    }
+
+    /**
+     * An entry read from the journal.
+     */
+    @Value
+    public static class Entry {
+        String queueUrl;
+        String messageBody;
+
+        // Where the entry ends, to consume it by.
+        @Getter(AccessLevel.NONE)
+        long segmentSequence;
+        @Getter(AccessLevel.NONE)
+        int endOffset;
+    }
+
+    private static class Segment {
+        private final long sequence;
+        private final Path path;
+        private final FileChannel channel;
+        private final MappedByteBuffer buffer;
+
+        private Segment(final long sequence, final Path path, final FileChannel channel,
+                        final MappedByteBuffer buffer) {
+            this.sequence = sequence;
+            this.path = path;
+            this.channel = channel;
+            this.buffer = buffer;
+        }
+
+        static Segment open(final Path path, final long sequence, final int size) throws IOException {
+            final FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            return new Segment(sequence, path, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+        }
+
+        void delete() throws IOException {
+            channel.close();
+            Files.deleteIfExists(path);
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package io.openmarket.transaction.queue;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonSyntaxException;
+import io.openmarket.transaction.model.TransactionTask;
+import lombok.NonNull;
+
+/**
+ * Converts {@link TransactionTask}s to and from SQS message bodies, in the JSON format the processor queue uses.
+ */
+public final class TransactionTaskMessages {
+    private static final Gson GSON = new Gson();
+
+    private TransactionTaskMessages() {}
+
+    public static String encode(@NonNull final TransactionTask task) {
+        return GSON.toJson(task);
+    }
+
+    public static TransactionTask decode(@NonNull final String messageBody) {
+        final TransactionTask task;
+        try {
+            task = GSON.fromJson(messageBody, TransactionTask.class);
+        } catch (JsonSyntaxException e) {
+            throw new IllegalArgumentException(String.format("Invalid transaction task message %s", messageBody), e);
+        }
+        if (task == null || task.getTransactionId() == null) {
+            throw new IllegalArgumentException(String.format("Invalid transaction task message %s", messageBody));
+        }
+        return task;
+    }
+}
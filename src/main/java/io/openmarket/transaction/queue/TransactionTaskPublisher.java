@@ -0,0 +1,26 @@
+package io.openmarket.transaction.queue;
+
+import io.openmarket.transaction.dao.sqs.SQSTransactionTaskPublisher;
+import io.openmarket.transaction.model.TransactionTask;
+import lombok.NonNull;
+
+/**
+ * Publishes {@link TransactionTask}s to the processor queue.
+ */
+public interface TransactionTaskPublisher {
+    /**
+     * Publish the task, returning once it has been accepted by the queue.
+     * @param queueUrl the queue URL.
+     * @param task the task to publish.
+     */
+    void publish(String queueUrl, TransactionTask task);
+
+    /**
+     * Publish every task with its own SendMessage call.
+     * @param sqsPublisher the publisher to send with.
+     * @return the publisher.
+     */
+    static TransactionTaskPublisher of(@NonNull final SQSTransactionTaskPublisher sqsPublisher) {
+        return sqsPublisher::publish;
+    }
+}
@@ -0,0 +1,96 @@
+package io.openmarket.transaction.service;
+
+import com.google.common.collect.ImmutableSet;
+import io.openmarket.transaction.model.TransactionStatus;
+import lombok.NonNull;
+import lombok.extern.log4j.Log4j2;
+
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Keeps track of payments that a caller is waiting on, and resolves them once the processor signals completion.
+ * Callers must register a transaction before it is sent to the processor, otherwise the signal may be missed.
+ */
+@Log4j2
+public class PaymentCompletionRegistry implements TransactionCompletionListener {
+    private final ConcurrentMap<String, CompletableFuture<TransactionStatus>> pendingPayments;
+
+    public PaymentCompletionRegistry() {
+        this.pendingPayments = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Register interest in the completion of the given transaction.
+     * @param transactionId the ID of the transaction to wait for.
+     * @return a future that completes with the final status of the transaction.
+     */
+    public CompletableFuture<TransactionStatus> register(@NonNull final String transactionId) {
+        return pendingPayments.computeIfAbsent(transactionId, k -> new CompletableFuture<>());
+    }
+
+    /**
+     * Stop waiting for the given transaction, any caller blocked on it will see {@link TransactionStatus#PENDING}.
+     * @param transactionId the ID of the transaction.
+     */
+    public void deregister(@NonNull final String transactionId) {
+        final CompletableFuture<TransactionStatus> future = pendingPayments.remove(transactionId);
+        if (future != null) {
+            future.complete(TransactionStatus.PENDING);
+        }
+    }
+
+    /**
+     * Wait for a registered transaction to complete.
+     * @param transactionId the ID of a transaction previously passed to {@link #register(String)}.
+     * @param timeout the maximum time to wait.
+     * @param unit the unit of timeout.
+     * @return the final status, or {@link TransactionStatus#PENDING} if it did not complete in time.
+     */
+    public TransactionStatus await(@NonNull final String transactionId, final long timeout,
+                                   @NonNull final TimeUnit unit) {
+        final CompletableFuture<TransactionStatus> future = pendingPayments.get(transactionId);
+        if (future == null) {
+            log.warn("Tried to wait for transaction {} that is not registered", transactionId);
+            return TransactionStatus.PENDING;
+        }
+        try {
+            return future.get(timeout, unit);
+        } catch (TimeoutException e) {
+            log.warn("Timed out waiting for transaction {} to complete", transactionId);
+            return TransactionStatus.PENDING;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return TransactionStatus.PENDING;
+        } catch (ExecutionException e) {
+            log.error("Failed to wait for transaction {}", transactionId, e);
+            return TransactionStatus.PENDING;
+        } finally {
+            pendingPayments.remove(transactionId, future);
+        }
+    }
+
+    @Override
+    public void onTransactionCompleted(@NonNull final String transactionId, @NonNull final TransactionStatus status) {
+        if (TransactionStatus.PENDING.equals(status)) {
+            return;
+        }
+        final CompletableFuture<TransactionStatus> future = pendingPayments.remove(transactionId);
+        if (future != null) {
+            future.complete(status);
+        }
+    }
+
+    /**
+     * Get the IDs of all transactions that are still being waited on.
+     * @return an immutable copy of the pending transaction IDs.
+     */
+    public Set<String> getPendingTransactionIds() {
+        return ImmutableSet.copyOf(pendingPayments.keySet());
+    }
+}
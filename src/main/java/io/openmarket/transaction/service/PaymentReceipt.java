@@ -0,0 +1,21 @@
+package io.openmarket.transaction.service;
+
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBTransactionWriteExpression;
+
+/**
+ * A DynamoDB-mapped record written in the same transactional write as one payment of a bulk payment, such as a
+ * receipt that makes retrying the bulk payment safe.
+ */
+public interface PaymentReceipt {
+    /**
+     * Set the ID of the payment the receipt is written with, it is called before the receipt is written.
+     * @param transactionId the ID of the payment.
+     */
+    void setTransactionId(String transactionId);
+
+    /**
+     * Get the condition the receipt is written under. A receipt that fails its condition skips its payment.
+     * @return the condition.
+     */
+    DynamoDBTransactionWriteExpression writeCondition();
+}
@@ -0,0 +1,67 @@
+package io.openmarket.transaction.service;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.openmarket.transaction.exception.InvalidTransactionException;
+import io.openmarket.transaction.model.TransactionStatus;
+import lombok.NonNull;
+import lombok.extern.log4j.Log4j2;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A local stand-in for the processor's completion signal. A single background thread checks the status of the
+ * payments registered in a {@link PaymentCompletionRegistry} and resolves those that have left the pending state.
+ */
+@Log4j2
+public class PaymentStatusWatcher {
+    private static final long DEFAULT_POLL_PERIOD_MILLIS = 500;
+
+    private final PaymentCompletionRegistry registry;
+    private final TransactionServiceHandler transactionServiceHandler;
+    private final long pollPeriodMillis;
+    private final ScheduledExecutorService executor;
+
+    public PaymentStatusWatcher(@NonNull final PaymentCompletionRegistry registry,
+                                @NonNull final TransactionServiceHandler transactionServiceHandler) {
+        this(registry, transactionServiceHandler, DEFAULT_POLL_PERIOD_MILLIS);
+    }
+
+    public PaymentStatusWatcher(@NonNull final PaymentCompletionRegistry registry,
+                                @NonNull final TransactionServiceHandler transactionServiceHandler,
+                                final long pollPeriodMillis) {
+        this.registry = registry;
+        this.transactionServiceHandler = transactionServiceHandler;
+        this.pollPeriodMillis = pollPeriodMillis;
+        this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("payment-status-watcher-%d")
+                .setDaemon(true)
+                .build());
+    }
+
+    public void start() {
+        executor.scheduleWithFixedDelay(this::pollOnce, pollPeriodMillis, pollPeriodMillis, TimeUnit.MILLISECONDS);
+        log.info("PaymentStatusWatcher started with period {}ms", pollPeriodMillis);
+    }
+
+    public void stop() {
+        executor.shutdownNow();
+    }
+
+    @VisibleForTesting
+    protected void pollOnce() {
+        for (String transactionId : registry.getPendingTransactionIds()) {
+            try {
+                final TransactionStatus status = transactionServiceHandler.getTransactionStatus(transactionId);
+                registry.onTransactionCompleted(transactionId, status);
+            } catch (InvalidTransactionException e) {
+                log.error("Registered transaction {} does not exist", transactionId, e);
+                registry.deregister(transactionId);
+            } catch (RuntimeException e) {
+                log.error("Failed to check status for transaction {}", transactionId, e);
+            }
+        }
+    }
+}
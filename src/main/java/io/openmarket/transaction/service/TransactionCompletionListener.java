@@ -0,0 +1,48 @@
+package io.openmarket.transaction.service;
+
+import io.openmarket.transaction.model.Transaction;
+import io.openmarket.transaction.model.TransactionStatus;
+
+/**
+ * A listener that gets notified once the transaction processor has settled a transaction.
+ */
+public interface TransactionCompletionListener {
+    /**
+     * Called when the transaction with the given ID has left the pending state.
+     * @param transactionId the ID of the settled transaction.
+     * @param status the final status of the transaction.
+     */
+    void onTransactionCompleted(String transactionId, TransactionStatus status);
+
+    /**
+     * Called with the settled transaction by processors that hold it, such as the in-process processor.
+     * @param transaction the settled transaction.
+     * @param status the final status of the transaction.
+     */
+    default void onTransactionSettled(Transaction transaction, TransactionStatus status) {
+        onTransactionCompleted(transaction.getTransactionId(), status);
+    }
+
+    /**
+     * Notify each of the given listeners in order.
+     * @param listeners the listeners.
+     * @return a listener that notifies them all.
+     */
+    static TransactionCompletionListener all(final TransactionCompletionListener... listeners) {
+        return new TransactionCompletionListener() {
+            @Override
+            public void onTransactionCompleted(final String transactionId, final TransactionStatus status) {
+                for (TransactionCompletionListener listener : listeners) {
+                    listener.onTransactionCompleted(transactionId, status);
+                }
+            }
+
+            @Override
+            public void onTransactionSettled(final Transaction transaction, final TransactionStatus status) {
+                for (TransactionCompletionListener listener : listeners) {
+                    listener.onTransactionSettled(transaction, status);
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,173 @@
+package io.openmarket.transaction.service;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.google.common.collect.ImmutableList;
+import io.openmarket.transaction.dao.dynamodb.TransactionDao;
+import io.openmarket.transaction.model.Transaction;
+import io.openmarket.utils.PaginationTokenCodec;
+import io.openmarket.utils.PaginationTokenCodec.Cursor;
+import lombok.NonNull;
+import lombok.Value;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiFunction;
+
+/**
+ * Merges a user's transactions as payer and as recipient into one history ordered by creation time. Both indexes
+ * are read one page at a time and merged as they are read, so a query holds at most one page of each index besides
+ * the transactions it returns. Where each index stopped is returned as a single cursor token of
+ * {@link PaginationTokenCodec}.
+ * <p>
+ * Merging a page at a time relies on both the payer and the recipient index having createdAt as their range key,
+ * so each index is read in creation order. A page read out of order fails the query rather than returning a
+ * misordered history.
+ */
+public class TransactionHistoryMerger {
+    public static final int DEFAULT_PAGE_SIZE = 50;
+
+    private static final Comparator<Transaction> BY_CREATED_AT = Comparator.comparing(Transaction::getCreatedAt,
+            Comparator.nullsFirst(Comparator.naturalOrder()));
+
+    private final TransactionDao transactionDao;
+    private final PaginationTokenCodec keyCodec;
+    private final int pageSize;
+
+    public TransactionHistoryMerger(@NonNull final TransactionDao transactionDao,
+                                    @NonNull final PaginationTokenCodec keyCodec) {
+        this(transactionDao, keyCodec, DEFAULT_PAGE_SIZE);
+    }
+
+    /**
+     * Create a TransactionHistoryMerger.
+     * @param keyCodec the codec of the index keys held in continuation tokens.
+     * @param pageSize the maximum number of transactions per page.
+     */
+    public TransactionHistoryMerger(@NonNull final TransactionDao transactionDao,
+                                    @NonNull final PaginationTokenCodec keyCodec, final int pageSize) {
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException(String.format("Invalid page size %d", pageSize));
+        }
+        this.transactionDao = transactionDao;
+        this.keyCodec = keyCodec;
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * Get a page of the user's transaction history.
+     * @param userId the user.
+     * @param continuationToken the token returned with the previous page, or empty for the first page.
+     * @return the page, whose continuation token is empty once both indexes are exhausted.
+     * @throws IllegalArgumentException if the continuation token is malformed.
+     */
+    public Page query(@NonNull final String userId, @NonNull final String continuationToken) {
+        final List<Cursor> cursors = parse(continuationToken);
+        final IndexCursor paid = new IndexCursor((startKey, result) ->
+                transactionDao.getTransactionForPayer(userId, result, startKey), cursors.get(0));
+        final IndexCursor received = new IndexCursor((startKey, result) ->
+                transactionDao.getTransactionForRecipient(userId, result, startKey), cursors.get(1));
+
+        final List<Transaction> transactions = new ArrayList<>(pageSize);
+        while (transactions.size() < pageSize) {
+            final Transaction nextPaid = paid.peek();
+            final Transaction nextReceived = received.peek();
+            if (nextReceived != null && userId.equals(nextReceived.getPayerId())) {
+                // Paid to themselves, so it is merged from the payer index.
+                received.advance();
+                continue;
+            }
+            if (nextPaid == null && nextReceived == null) {
+                break;
+            }
+            if (nextReceived == null || (nextPaid != null && BY_CREATED_AT.compare(nextPaid, nextReceived) <= 0)) {
+                transactions.add(nextPaid);
+                paid.advance();
+            } else {
+                transactions.add(nextReceived);
+                received.advance();
+            }
+        }
+        final Cursor payer = paid.position();
+        final Cursor recipient = received.position();
+        return new Page(transactions, payer == null && recipient == null ? ""
+                : keyCodec.encodeCursors(Arrays.asList(payer, recipient)));
+    }
+
+    // The payer's and the recipient's cursor, a null cursor is an exhausted index.
+    private List<Cursor> parse(final String continuationToken) {
+        if (continuationToken.isEmpty()) {
+            return ImmutableList.of(new Cursor(null, 0), new Cursor(null, 0));
+        }
+        final List<Cursor> cursors = keyCodec.decodeCursors(continuationToken);
+        if (cursors.size() != 2) {
+            throw new IllegalArgumentException(String.format("Invalid continuation token '%s'", continuationToken));
+        }
+        return cursors;
+    }
+
+    @Value
+    public static class Page {
+        List<Transaction> transactions;
+        String continuationToken;
+    }
+
+    // Reads one index a page at a time. Pages are re-read from their start key when a query resumes.
+    private static final class IndexCursor {
+        private final BiFunction<Map<String, AttributeValue>, Collection<Transaction>, Map<String, AttributeValue>>
+                pageLoader;
+        private Map<String, AttributeValue> startKey;
+        private int offset;
+        private List<Transaction> page;
+        private Map<String, AttributeValue> nextKey;
+        private boolean isExhausted;
+
+        IndexCursor(final BiFunction<Map<String, AttributeValue>, Collection<Transaction>,
+                Map<String, AttributeValue>> pageLoader, final Cursor cursor) {
+            this.pageLoader = pageLoader;
+            this.startKey = cursor == null ? null : cursor.getStartKey();
+            this.offset = cursor == null ? 0 : cursor.getOffset();
+            this.isExhausted = cursor == null;
+        }
+
+        Transaction peek() {
+            if (!isExhausted && page == null) {
+                load();
+            }
+            while (!isExhausted && offset >= page.size()) {
+                if (nextKey == null || nextKey.isEmpty()) {
+                    isExhausted = true;
+                } else {
+                    startKey = nextKey;
+                    offset = 0;
+                    load();
+                }
+            }
+            return isExhausted ? null : page.get(offset);
+        }
+
+        void advance() {
+            offset++;
+        }
+
+        Cursor position() {
+            return peek() == null ? null : new Cursor(startKey, offset);
+        }
+
+        // Pages come in range key order, which is createdAt for both indexes, so they are merged as read.
+        private void load() {
+            page = new ArrayList<>();
+            nextKey = pageLoader.apply(startKey, page);
+            for (int i = 1; i < page.size(); i++) {
+                if (BY_CREATED_AT.compare(page.get(i - 1), page.get(i)) > 0) {
+                    throw new IllegalStateException(String.format(
+                            "Transaction index page isn't sorted by createdAt at transaction %s",
+                            page.get(i).getTransactionId()));
+                }
+            }
+        }
+    }
+}
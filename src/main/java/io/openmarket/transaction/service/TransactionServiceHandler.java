@@ -3,15 +3,15 @@ package io.openmarket.transaction.service;
 import com.amazonaws.services.dynamodbv2.datamodeling.TransactionWriteRequest;
 import com.amazonaws.services.dynamodbv2.model.AttributeValue;
 import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
+import com.amazonaws.services.dynamodbv2.model.TransactionCanceledException;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableList;
-import com.google.common.reflect.TypeToken;
-import com.google.gson.Gson;
+import com.google.common.collect.ImmutableMap;
 import io.grpc.Context;
 import io.openmarket.config.NewAccountConfig;
 import io.openmarket.server.config.InterceptorConfig;
 import io.openmarket.transaction.dao.dynamodb.TransactionDao;
-import io.openmarket.transaction.dao.sqs.SQSTransactionTaskPublisher;
+import io.openmarket.transaction.exception.BulkPaymentException;
 import io.openmarket.transaction.exception.InvalidTransactionException;
 import io.openmarket.transaction.grpc.TransactionProto;
 import io.openmarket.transaction.model.Transaction;
@@ -19,20 +19,27 @@ import io.openmarket.transaction.model.TransactionErrorType;
 import io.openmarket.transaction.model.TransactionStatus;
 import io.openmarket.transaction.model.TransactionTask;
 import io.openmarket.transaction.model.TransactionType;
+import io.openmarket.transaction.outbox.OutboxRecord;
+import io.openmarket.transaction.outbox.OutboxRelay;
+import io.openmarket.transaction.queue.TransactionTaskPublisher;
 import io.openmarket.transaction.utils.TransactionUtils;
+import io.openmarket.utils.Money;
+import io.openmarket.utils.PaginationTokenCodec;
 import io.openmarket.utils.TimeUtils;
 import io.openmarket.wallet.dao.dynamodb.WalletDao;
 import io.openmarket.wallet.model.Wallet;
+import lombok.Builder;
 import lombok.Getter;
 import lombok.NonNull;
 import lombok.extern.log4j.Log4j2;
 
-import javax.inject.Inject;
-import java.lang.reflect.Type;
+import javax.annotation.Nullable;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 import static io.openmarket.config.TransactionConfig.TRANSACTION_INITIAL_ERROR_TYPE;
@@ -40,23 +47,45 @@ import static io.openmarket.config.TransactionConfig.TRANSACTION_INITIAL_STATUS;
 
 @Log4j2
 public class TransactionServiceHandler {
-    private static final Gson GSON = new Gson();
     private static final String INVALID_REFUND_REQUEST_ERR_MSG = "The given refund request is invalid";
+    public static final int MAX_BULK_PAYMENT_SIZE = 5000;
+
+    // Each payment is written with its outbox record, and a transactional write holds at most 25 items.
+    private static final int BULK_PAYMENT_CHUNK_SIZE = 12;
+    private static final int BULK_PAYMENT_WITH_RECEIPTS_CHUNK_SIZE = 8;
     private final TransactionDao transactionDao;
     private final WalletDao walletDao;
-    private final SQSTransactionTaskPublisher sqsPublisher;
+    private final TransactionTaskPublisher taskPublisher;
     private final String queueURL;
+    private final OutboxRelay outboxRelay;
+    private final WalletCache walletCache;
+    private final TransactionHistoryMerger historyMerger;
+    private final PaginationTokenCodec tokenCodec;
 
-    @Inject
+    /**
+     * Create a TransactionServiceHandler, use {@link #builder()} to leave out the optional parts.
+     * @param taskPublisher the publisher that sends tasks to the processor queue.
+     * @param outboxRelay the relay that publishes committed payments in the background.
+     * @param tokenCodec the codec of the pagination tokens returned by queries, or null for a default codec.
+     * @param walletCache the cache wallets are displayed from, it reads sharded wallets across their shards,
+     *                    or null to read unsharded wallets without caching.
+     */
+    @Builder
     public TransactionServiceHandler(@NonNull final TransactionDao transactionDao,
                                      @NonNull final WalletDao walletDao,
-                                     @NonNull final SQSTransactionTaskPublisher sqsPublisher,
-                                     @NonNull final String queueURL) {
+                                     @NonNull final TransactionTaskPublisher taskPublisher,
+                                     @NonNull final String queueURL,
+                                     @NonNull final OutboxRelay outboxRelay,
+                                     @Nullable final PaginationTokenCodec tokenCodec,
+                                     @Nullable final WalletCache walletCache) {
         this.transactionDao = transactionDao;
         this.walletDao = walletDao;
-        this.sqsPublisher = sqsPublisher;
+        this.taskPublisher = taskPublisher;
         this.queueURL = queueURL;
-        log.info("TransactionServiceHandler started");
+        this.outboxRelay = outboxRelay;
+        this.walletCache = walletCache == null ? WalletCache.disabled(walletDao, WalletSharding.none()) : walletCache;
+        this.tokenCodec = tokenCodec == null ? new PaginationTokenCodec() : tokenCodec;
+        this.historyMerger = new TransactionHistoryMerger(transactionDao, this.tokenCodec);
     }
     
     public TransactionProto.PaymentResult handlePayment(@NonNull final Context context,
@@ -85,7 +114,10 @@ public class TransactionServiceHandler {
                         convertToExclusiveStartKey(request.getExclusiveStartKey()));
                     break;
                 case ALL:
-                    // blablabla
+                    final TransactionHistoryMerger.Page page = historyMerger.query(userId,
+                            request.getExclusiveStartKey());
+                    log.info("Found {} transactions", page.getTransactions().size());
+                    return convertTransactionToQueryResult(page.getTransactions(), page.getContinuationToken());
                 default:
                     log.warn("Transaction query has invalid type: {}", request.getType());
             }
@@ -148,17 +180,152 @@ public class TransactionServiceHandler {
 
     public String createPayment(final String payerId, TransactionProto.PaymentRequest request) {
         final Transaction transaction = createPaymentDraft(payerId, request);
-        transactionDao.save(transaction);
-        sendTransactionToProcessorQueue(transaction);
+        commitPaymentWith(transaction);
         return transaction.getTransactionId();
     }
 
+    /**
+     * Create payments from one payer to many recipients, such as payouts or airdrops. The payer's wallet is read
+     * once and must cover the total of each currency. Payments are written in chunks together with their outbox
+     * records, so the chunks written before a failure are still processed.
+     * @param payerId the payer.
+     * @param requests the payments, at most {@link #MAX_BULK_PAYMENT_SIZE}.
+     * @return the IDs of the transactions, in the order of the requests.
+     * @throws IllegalArgumentException if a payment is invalid or the payer can't afford the total.
+     * @throws BulkPaymentException if a chunk fails to be written, with the IDs of the transactions committed before.
+     */
+    public List<String> createBulkPayment(@NonNull final String payerId,
+                                          @NonNull final List<TransactionProto.PaymentRequest> requests) {
+        return createBulkPayment(payerId, requests, null);
+    }
+
+    /**
+     * Create payments from one payer to many recipients, each written together with a receipt that records its
+     * transaction ID. A receipt that fails its condition, such as one that already exists, skips its payment, so a
+     * bulk payment can be retried without paying anyone twice.
+     * @param payerId the payer.
+     * @param requests the payments, at most {@link #MAX_BULK_PAYMENT_SIZE}.
+     * @param receipts the receipts, one per request, or null to write none.
+     * @return the IDs of the transactions created, in the order of the requests.
+     * @throws IllegalArgumentException if a payment is invalid or the payer can't afford the total.
+     * @throws BulkPaymentException if a chunk fails to be written, with the IDs of the transactions committed before.
+     */
+    public List<String> createBulkPayment(@NonNull final String payerId,
+                                          @NonNull final List<TransactionProto.PaymentRequest> requests,
+                                          @Nullable final List<? extends PaymentReceipt> receipts) {
+        return createBulkPayment(payerId, requests, receipts, null);
+    }
+
+    /**
+     * Create payments from one payer to many recipients, reporting each chunk as soon as it's committed, such as to
+     * stream the progress of a bulk payment to its client.
+     * @param payerId the payer.
+     * @param requests the payments, at most {@link #MAX_BULK_PAYMENT_SIZE}.
+     * @param receipts the receipts, one per request, or null to write none.
+     * @param chunkListener receives the IDs of the transactions of each committed chunk, in the order of the
+     *                      requests, or null. A chunk whose receipts all failed their condition is reported empty.
+     * @return the IDs of the transactions created, in the order of the requests.
+     * @throws IllegalArgumentException if a payment is invalid or the payer can't afford the total.
+     * @throws BulkPaymentException if a chunk fails to be written, with the IDs of the transactions committed before.
+     */
+    public List<String> createBulkPayment(@NonNull final String payerId,
+                                          @NonNull final List<TransactionProto.PaymentRequest> requests,
+                                          @Nullable final List<? extends PaymentReceipt> receipts,
+                                          @Nullable final Consumer<List<String>> chunkListener) {
+        if (requests.isEmpty() || requests.size() > MAX_BULK_PAYMENT_SIZE) {
+            throw new IllegalArgumentException(String.format("A bulk payment must have 1 to %d payments, got %d",
+                    MAX_BULK_PAYMENT_SIZE, requests.size()));
+        }
+        if (receipts != null && receipts.size() != requests.size()) {
+            throw new IllegalArgumentException(String.format("Got %d receipts for %d payments", receipts.size(),
+                    requests.size()));
+        }
+        final List<Transaction> transactions = new ArrayList<>(requests.size());
+        final Map<String, Long> totals = new HashMap<>();
+        for (TransactionProto.PaymentRequest request : requests) {
+            final Transaction transaction = createPaymentDraft(payerId, request);
+            transactions.add(transaction);
+            totals.merge(transaction.getCurrencyId(),
+                    Money.toMinorUnits(transaction.getCurrencyId(), transaction.getAmount()), Math::addExact);
+        }
+        final WalletSnapshot wallet = getWalletSnapshot(payerId);
+        for (Map.Entry<String, Long> total : totals.entrySet()) {
+            if (wallet.getBalance(total.getKey()) < total.getValue()) {
+                log.error("User '{}' can't afford a bulk payment of {} {}", payerId,
+                        Money.toAmount(total.getKey(), total.getValue()), total.getKey());
+                throw new IllegalArgumentException(String.format("Insufficient %s for a bulk payment of %d payments",
+                        total.getKey(), requests.size()));
+            }
+        }
+
+        final int chunkSize = receipts == null ? BULK_PAYMENT_CHUNK_SIZE : BULK_PAYMENT_WITH_RECEIPTS_CHUNK_SIZE;
+        final List<String> transactionIds = new ArrayList<>(transactions.size());
+        int next = 0;
+        try {
+            for (int start = 0; start < transactions.size(); start += chunkSize) {
+                next = start;
+                final int end = Math.min(transactions.size(), start + chunkSize);
+                final List<Transaction> chunk = transactions.subList(start, end);
+                final List<? extends PaymentReceipt> chunkReceipts = receipts == null ? null
+                        : receipts.subList(start, end);
+                final int chunkStart = transactionIds.size();
+                try {
+                    writeBulkPaymentChunk(chunk, chunkReceipts);
+                    transactionIds.addAll(chunk.stream().map(Transaction::getTransactionId)
+                            .collect(Collectors.toList()));
+                } catch (TransactionCanceledException e) {
+                    if (chunkReceipts == null) {
+                        throw e;
+                    }
+                    // Some receipts failed their condition, so the payments are written one by one to skip them.
+                    for (int i = 0; i < chunk.size(); i++) {
+                        next = start + i;
+                        try {
+                            writeBulkPaymentChunk(chunk.subList(i, i + 1), chunkReceipts.subList(i, i + 1));
+                            transactionIds.add(chunk.get(i).getTransactionId());
+                        } catch (TransactionCanceledException skipped) {
+                            if (!isConditionFailure(skipped)) {
+                                throw skipped;
+                            }
+                            log.info("Skipped payment to '{}', its receipt failed its condition",
+                                    chunk.get(i).getRecipientId());
+                        }
+                    }
+                }
+                // The chunk is committed, so a failing listener doesn't report it as unwritten.
+                next = end;
+                if (chunkListener != null) {
+                    chunkListener.accept(ImmutableList.copyOf(transactionIds.subList(chunkStart,
+                            transactionIds.size())));
+                }
+            }
+        } catch (RuntimeException e) {
+            log.error("Bulk payment from '{}' failed at payment {} of {} after committing {} transactions",
+                    payerId, next, requests.size(), transactionIds.size(), e);
+            throw new BulkPaymentException(String.format("Bulk payment failed at payment %d of %d", next,
+                    requests.size()), e, transactionIds, next);
+        }
+        log.info("Created a bulk payment of {} transactions from '{}'", transactionIds.size(), payerId);
+        return transactionIds;
+    }
+
     public Stepper createPaymentStepper(final String payerId, TransactionProto.PaymentRequest request) {
         final Transaction transaction = createPaymentDraft(payerId, request);
         transactionDao.save(transaction);
         return new Stepper(transaction);
     }
 
+    /**
+     * Prepare a payment without writing it, it is written when the stepper is committed with
+     * {@link Stepper#commitWith(Object...)}.
+     * @param payerId the payer.
+     * @param request the payment request.
+     * @return the stepper of the unsaved payment.
+     */
+    public Stepper preparePaymentStepper(final String payerId, TransactionProto.PaymentRequest request) {
+        return new Stepper(createPaymentDraft(payerId, request), false);
+    }
+
     public Transaction createPaymentDraft(final String payerId, TransactionProto.PaymentRequest request) {
         if (!isPaymentRequestValid(request)
                 || request.getRecipientId().equals(payerId)) {
@@ -171,7 +338,8 @@ public class TransactionServiceHandler {
                 .payerId(payerId)
                 .recipientId(request.getRecipientId())
                 .currencyId(request.getMoneyAmount().getCurrencyId())
-                .amount(request.getMoneyAmount().getAmount())
+                .amount(Money.round(request.getMoneyAmount().getCurrencyId(),
+                        request.getMoneyAmount().getAmount()))
                 .status(TRANSACTION_INITIAL_STATUS)
                 .type(TransactionType.valueOf(request.getType().toString()))
                 .note(request.getNote())
@@ -181,14 +349,12 @@ public class TransactionServiceHandler {
     }
 
     public TransactionProto.GetWalletResult getWallet(final String userId, TransactionProto.GetWalletRequest request) {
-        final Optional<Wallet> wallet = walletDao.load(userId);
+        final Optional<WalletCache.CachedWallet> wallet = walletCache.get(userId);
         if (!wallet.isPresent()) {
             log.error("UserId {} is invalid", userId);
             throw new IllegalArgumentException(String.format("UserId '%s' is invalid", userId));
         }
-        final Map<String, Double> filteredMap = wallet.get().getCoins()
-                .entrySet().stream().filter(x -> x.getValue() > 0)
-                .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
+        final Map<String, Double> filteredMap = wallet.get().getPositiveAmounts();
         log.info("User '{}' successfully got wallet data," +
                 " result contains {} entries", userId, filteredMap.size());
         return TransactionProto.GetWalletResult.newBuilder()
@@ -202,17 +368,31 @@ public class TransactionServiceHandler {
             throw new IllegalArgumentException(String.format("User with ID '%s' already has wallet!"));
         }
         walletDao.save(Wallet.builder().ownerId(userId).coins(NewAccountConfig.INITIAL_PROFILE).build());
+        walletCache.invalidate(userId);
     }
 
 
-    public double getBalanceForCurrency(@NonNull final String userId, @NonNull final String currency) {
-        double balance = 0.0;
-        Optional<Wallet> wallet = walletDao.load(userId);
+    /**
+     * Take an immutable snapshot of the user's wallet with a single read. It never comes from the wallet cache, so
+     * checkouts can check their budget against it.
+     * @param userId the owner of the wallet.
+     * @return the snapshot, which holds no balance if the wallet doesn't exist.
+     */
+    public WalletSnapshot getWalletSnapshot(@NonNull final String userId) {
+        final Optional<WalletCache.CachedWallet> wallet = walletCache.load(userId);
         if (!wallet.isPresent()) {
-            return balance;
+            return new WalletSnapshot(userId, ImmutableMap.of());
         }
-        balance = wallet.get().getCoins().getOrDefault(currency, balance);
-        return balance;
+        return new WalletSnapshot(userId, wallet.get().getBalances());
+    }
+
+    /**
+     * Get the user's balance of a currency for display, possibly from the wallet cache.
+     * Use {@link #getWalletSnapshot(String)} to check whether the user can afford a payment.
+     */
+    public double getBalanceForCurrency(@NonNull final String userId, @NonNull final String currency) {
+        return walletCache.get(userId).map(wallet -> Money.toAmount(currency, wallet.getBalance(currency)))
+                .orElse(0.0);
     }
 
     private void createRefundTransactionPair(final Transaction source, final Transaction refundTransaction) {
@@ -220,25 +400,58 @@ public class TransactionServiceHandler {
                 .addUpdate(source)
                 .addPut(refundTransaction)
         );
-        sqsPublisher.publish(queueURL, new TransactionTask(refundTransaction.getTransactionId()));
+        taskPublisher.publish(queueURL, new TransactionTask(refundTransaction.getTransactionId()));
+    }
+
+    // Write the payment, the given records and its outbox record in one transactional write, then hand the record
+    // to the relay.
+    private void commitPaymentWith(final Transaction transaction, final Object... records) {
+        final OutboxRecord outboxRecord = OutboxRecord.forTransaction(transaction.getTransactionId());
+        final TransactionWriteRequest request = new TransactionWriteRequest().addPut(transaction);
+        for (Object record : records) {
+            request.addPut(record);
+        }
+        request.addPut(outboxRecord);
+        transactionDao.transactionWrite(request);
+        log.info("Created a new transaction: {}", transaction);
+        outboxRelay.enqueue(outboxRecord);
+    }
+
+    private void writeBulkPaymentChunk(final List<Transaction> chunk,
+                                       @Nullable final List<? extends PaymentReceipt> receipts) {
+        final List<OutboxRecord> outboxRecords = new ArrayList<>(chunk.size());
+        final TransactionWriteRequest request = new TransactionWriteRequest();
+        for (int i = 0; i < chunk.size(); i++) {
+            final OutboxRecord outboxRecord = OutboxRecord.forTransaction(chunk.get(i).getTransactionId());
+            request.addPut(chunk.get(i)).addPut(outboxRecord);
+            if (receipts != null) {
+                receipts.get(i).setTransactionId(chunk.get(i).getTransactionId());
+                request.addPut(receipts.get(i), receipts.get(i).writeCondition());
+            }
+            outboxRecords.add(outboxRecord);
+        }
+        transactionDao.transactionWrite(request);
+        outboxRecords.forEach(outboxRelay::enqueue);
+    }
+
+    private static boolean isConditionFailure(final TransactionCanceledException e) {
+        // Without the reasons it can't be told apart from a throttled or conflicting write, so it isn't skipped.
+        return e.getCancellationReasons() != null && e.getCancellationReasons().stream()
+                .anyMatch(reason -> "ConditionalCheckFailed".equals(reason.getCode()));
     }
 
     private void sendTransactionToProcessorQueue(final Transaction transaction) {
-        sqsPublisher.publish(queueURL, new TransactionTask(transaction.getTransactionId()));
+        taskPublisher.publish(queueURL, new TransactionTask(transaction.getTransactionId()));
         log.info("Created a new transaction: {}", transaction);
     }
 
     private Map<String, AttributeValue> convertToExclusiveStartKey(final String exclusiveStartKeyStr) {
-        Map<String, AttributeValue> exclusiveStartKey = null;
-        if (!exclusiveStartKeyStr.isEmpty()) {
-            try {
-                Type type = new TypeToken<Map<String, AttributeValue>>(){}.getType();
-                exclusiveStartKey = GSON.fromJson(exclusiveStartKeyStr, type);
-            } catch (Exception e) {
-                log.error("Failed to parse exclusiveStartKey {}", exclusiveStartKeyStr);
-            }
+        try {
+            return tokenCodec.decode(exclusiveStartKeyStr).orElse(null);
+        } catch (IllegalArgumentException e) {
+            log.error("Failed to parse exclusiveStartKey {}", exclusiveStartKeyStr);
+            return null;
         }
-        return exclusiveStartKey;
     }
 
     private Transaction getTransactionByID(final String transactionID) {
@@ -271,6 +484,11 @@ public class TransactionServiceHandler {
 
     private TransactionProto.QueryResult convertTransactionToQueryResult(final List<Transaction> transactions,
                                                                          final Map<String, AttributeValue> lastEvaluatedKey) {
+        return convertTransactionToQueryResult(transactions, tokenCodec.encode(lastEvaluatedKey));
+    }
+
+    private TransactionProto.QueryResult convertTransactionToQueryResult(final List<Transaction> transactions,
+                                                                         final String continuationToken) {
         return TransactionProto.QueryResult.newBuilder().addAllItems(transactions.stream().map(
                 t -> TransactionProto.QueryResultItem.newBuilder()
                 .setTransactionId(t.getTransactionId())
@@ -286,14 +504,18 @@ public class TransactionServiceHandler {
                         .setError(TransactionProto.ErrorCategory.valueOf(t.getError().toString()))
                         .setNote(t.getNote())
                 .build()).collect(Collectors.toList()))
-                .setLastEvaluatedKey(lastEvaluatedKey == null ? "" : GSON.toJson(lastEvaluatedKey))
+                .setLastEvaluatedKey(continuationToken)
                 .build();
     }
 
     @VisibleForTesting
     protected boolean isPaymentRequestValid(final TransactionProto.PaymentRequest request) {
-        return !request.getMoneyAmount().getCurrencyId().trim().isEmpty()
-                && request.getMoneyAmount().getAmount() > 0
+        final String currency = request.getMoneyAmount().getCurrencyId();
+        final double amount = request.getMoneyAmount().getAmount();
+        // Amounts smaller than the currency's minor unit round to nothing.
+        return !currency.trim().isEmpty()
+                && Money.isValid(currency, amount)
+                && Money.toMinorUnits(currency, amount) > 0
                 && !request.getRecipientId().trim().isEmpty();
     }
 
@@ -308,18 +530,43 @@ public class TransactionServiceHandler {
     public class Stepper {
         @Getter
         private final Transaction transaction;
+        private boolean isSaved;
         private boolean hasCommitted = false;
         public Stepper(@NonNull final Transaction transactionId) {
-            this.transaction = transactionId;
+            this(transactionId, true);
+        }
+
+        private Stepper(@NonNull final Transaction transaction, final boolean isSaved) {
+            this.transaction = transaction;
+            this.isSaved = isSaved;
         }
 
         public void commit() {
+            if (!isSaved) {
+                commitWith();
+                return;
+            }
             sendTransactionToProcessorQueue(this.transaction);
             hasCommitted = true;
         }
 
+        /**
+         * Write the transaction together with the given records in a single transactional write, then send it to
+         * the processor. Only a stepper from {@link #preparePaymentStepper} can be committed this way.
+         * @param records other DynamoDB-mapped records to put, such as the order being paid for.
+         */
+        public void commitWith(@NonNull final Object... records) {
+            if (isSaved) {
+                throw new IllegalStateException(String.format("Transaction %s has already been saved",
+                        transaction.getTransactionId()));
+            }
+            commitPaymentWith(this.transaction, records);
+            isSaved = true;
+            hasCommitted = true;
+        }
+
         public void abort() {
-            if (!hasCommitted) {
+            if (isSaved && !hasCommitted) {
                 transactionDao.delete(this.transaction);
             }
         }
@@ -0,0 +1,201 @@
+package io.openmarket.transaction.service;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.ImmutableMap;
+import io.openmarket.ledger.Ledger;
+import io.openmarket.transaction.model.Transaction;
+import io.openmarket.transaction.model.TransactionStatus;
+import io.openmarket.utils.Money;
+import io.openmarket.wallet.dao.dynamodb.WalletDao;
+import io.openmarket.wallet.model.Wallet;
+import lombok.NonNull;
+import lombok.Value;
+
+import javax.annotation.Nullable;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Caches the balances of wallets, in minor units, for reads that only display them. An owner's entry is invalidated
+ * when this server writes their wallet and when the transaction processor settles one of their transactions; entries
+ * written by other servers' processors expire after the TTL.
+ * <p>
+ * Each owner maps to a version that invalidation bumps, and a load only stays cached if the version didn't change
+ * while it ran, so a read racing with a settlement can't cache the balance from before it. Balance checks that gate
+ * payments must use {@link #load(String)}, which always reads the stored wallets.
+ * <p>
+ * With a {@link Ledger}, reads are served from the ledger instead, which mirrors settled transactions rather than
+ * dropping the owners' entries, and invalidations are forwarded to it.
+ */
+public class WalletCache implements TransactionCompletionListener {
+    private static final int VERSION_STRIPES = 1024;
+
+    private final WalletDao walletDao;
+    private final WalletSharding walletSharding;
+    private final Cache<String, CachedWallet> wallets;
+    private final AtomicLongArray versions;
+    private final boolean isEnabled;
+    @Nullable
+    private final Ledger ledger;
+
+    public WalletCache(@NonNull final WalletDao walletDao, @NonNull final WalletSharding walletSharding,
+                       final long maxSize, final long ttlMillis) {
+        this(walletDao, walletSharding, maxSize, ttlMillis, null);
+    }
+
+    public WalletCache(@NonNull final WalletDao walletDao, @NonNull final WalletSharding walletSharding,
+                       final long maxSize, final long ttlMillis, @Nullable final Ledger ledger) {
+        if (maxSize < 0 || ttlMillis < 0) {
+            throw new IllegalArgumentException(String.format("Invalid wallet cache config: max size %d, ttl %dms",
+                    maxSize, ttlMillis));
+        }
+        this.walletDao = walletDao;
+        this.walletSharding = walletSharding;
+        this.wallets = CacheBuilder.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttlMillis, TimeUnit.MILLISECONDS)
+                .recordStats()
+                .build();
+        this.versions = new AtomicLongArray(VERSION_STRIPES);
+        this.isEnabled = maxSize > 0 && ttlMillis > 0;
+        this.ledger = ledger;
+    }
+
+    /**
+     * Create a WalletCache that caches nothing.
+     */
+    public static WalletCache disabled(@NonNull final WalletDao walletDao,
+                                       @NonNull final WalletSharding walletSharding) {
+        return new WalletCache(walletDao, walletSharding, 0, 0);
+    }
+
+    /**
+     * Get the owner's wallet, from the ledger if there is one, otherwise from the cache if it holds it.
+     * @param ownerId the owner.
+     * @return the wallet, empty if the owner has none.
+     */
+    public Optional<CachedWallet> get(@NonNull final String ownerId) {
+        if (ledger != null) {
+            return ledger.getBalances(ownerId).map(balances -> new CachedWallet(ImmutableMap.copyOf(balances)));
+        }
+        final CachedWallet cached = wallets.getIfPresent(ownerId);
+        if (cached != null) {
+            return cached.isPresent() ? Optional.of(cached) : Optional.empty();
+        }
+        final int stripe = stripeOf(ownerId);
+        final long version = versions.get(stripe);
+        final Optional<CachedWallet> wallet = load(ownerId);
+        if (isEnabled) {
+            wallets.put(ownerId, wallet.orElse(CachedWallet.ABSENT));
+            // An invalidation that ran during the load may have missed the entry just put.
+            if (versions.get(stripe) != version) {
+                wallets.invalidate(ownerId);
+            }
+        }
+        return wallet;
+    }
+
+    /**
+     * Read the owner's wallet from the database, summed across its shards, bypassing the cache.
+     * @param ownerId the owner.
+     * @return the wallet, empty if the owner has none.
+     */
+    public Optional<CachedWallet> load(@NonNull final String ownerId) {
+        final Optional<Wallet> wallet = walletDao.load(ownerId);
+        if (!wallet.isPresent()) {
+            return Optional.empty();
+        }
+        if (!walletSharding.isSharded(ownerId)) {
+            return wallet.map(Wallet::getCoins).map(CachedWallet::of);
+        }
+        final Map<String, Long> balances = new HashMap<>();
+        addBalances(balances, wallet.get());
+        walletSharding.getWalletIds(ownerId).stream().skip(1)
+                .map(walletDao::load)
+                .forEach(shard -> shard.ifPresent(shardWallet -> addBalances(balances, shardWallet)));
+        return Optional.of(new CachedWallet(ImmutableMap.copyOf(balances)));
+    }
+
+    public void invalidate(@NonNull final String ownerId) {
+        versions.incrementAndGet(stripeOf(ownerId));
+        wallets.invalidate(ownerId);
+        if (ledger != null) {
+            ledger.invalidate(ownerId);
+        }
+    }
+
+    @Override
+    public void onTransactionCompleted(final String transactionId, final TransactionStatus status) {
+        // The owners are only known from the settled transaction.
+    }
+
+    @Override
+    public void onTransactionSettled(@NonNull final Transaction transaction, final TransactionStatus status) {
+        if (ledger != null) {
+            ledger.onTransactionSettled(transaction, status);
+            return;
+        }
+        invalidate(transaction.getPayerId());
+        invalidate(transaction.getRecipientId());
+    }
+
+    public CacheStats getStats() {
+        return wallets.stats();
+    }
+
+    private static void addBalances(final Map<String, Long> balances, final Wallet wallet) {
+        if (wallet.getCoins() != null) {
+            wallet.getCoins().forEach((currency, balance) -> balances.merge(currency,
+                    Money.toMinorUnits(currency, balance), Math::addExact));
+        }
+    }
+
+    private static int stripeOf(final String ownerId) {
+        return Math.floorMod(ownerId.hashCode(), VERSION_STRIPES);
+    }
+
+    /**
+     * An owner's balances by currency ID, in minor units.
+     */
+    @Value
+    public static class CachedWallet {
+        private static final CachedWallet ABSENT = new CachedWallet(null);
+
+        ImmutableMap<String, Long> balances;
+
+        // Stored coins are amounts in whole units.
+        static CachedWallet of(final Map<String, Double> coins) {
+            final ImmutableMap.Builder<String, Long> balances = ImmutableMap.builder();
+            coins.forEach((currency, balance) -> balances.put(currency, Money.toMinorUnits(currency, balance)));
+            return new CachedWallet(balances.build());
+        }
+
+        boolean isPresent() {
+            return balances != null;
+        }
+
+        public long getBalance(@NonNull final String currency) {
+            return balances.getOrDefault(currency, 0L);
+        }
+
+        /**
+         * Get the positive balances in whole units, as sent to clients.
+         * @return the amounts by currency ID.
+         */
+        public Map<String, Double> getPositiveAmounts() {
+            final ImmutableMap.Builder<String, Double> amounts = ImmutableMap.builder();
+            balances.forEach((currency, balance) -> {
+                if (balance > 0) {
+                    amounts.put(currency, Money.toAmount(currency, balance));
+                }
+            });
+            return amounts.build();
+        }
+    }
+}
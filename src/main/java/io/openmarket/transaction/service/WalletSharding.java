@@ -0,0 +1,95 @@
+package io.openmarket.transaction.service;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import lombok.NonNull;
+
+import java.util.Map;
+
+/**
+ * Maps the wallets of high-volume owners onto shards. A sharded owner's balance is split across their own wallet,
+ * which is shard 0, and sub-wallets stored under IDs derived from the owner's. Each payment lands on the shard its
+ * transaction ID hashes to, so concurrent payments to or from the owner write to different wallet items.
+ */
+public class WalletSharding {
+    // Keeps a settlement that consolidates every shard within a single DynamoDB transactional write.
+    public static final int MAX_SHARD_COUNT = 16;
+    private static final String SHARD_SEPARATOR = "#shard-";
+
+    private final ImmutableMap<String, Integer> shardCounts;
+
+    public WalletSharding(@NonNull final Map<String, Integer> shardCounts) {
+        for (Map.Entry<String, Integer> entry : shardCounts.entrySet()) {
+            if (entry.getValue() < 1 || entry.getValue() > MAX_SHARD_COUNT) {
+                throw new IllegalArgumentException(String.format("Invalid shard count %d for wallet %s",
+                        entry.getValue(), entry.getKey()));
+            }
+        }
+        this.shardCounts = ImmutableMap.copyOf(shardCounts);
+    }
+
+    public static WalletSharding none() {
+        return new WalletSharding(ImmutableMap.of());
+    }
+
+    /**
+     * Parse a sharding spec such as {@code "orgA:8,orgB:4"}.
+     * @param spec comma separated pairs of owner ID and shard count, may be empty.
+     * @return the sharding.
+     */
+    public static WalletSharding parse(@NonNull final String spec) {
+        final ImmutableMap.Builder<String, Integer> shardCounts = ImmutableMap.builder();
+        for (String pair : spec.split(",")) {
+            if (pair.trim().isEmpty()) {
+                continue;
+            }
+            final int separator = pair.lastIndexOf(':');
+            if (separator <= 0) {
+                throw new IllegalArgumentException(String.format("Invalid wallet sharding '%s'", pair));
+            }
+            try {
+                shardCounts.put(pair.substring(0, separator).trim(),
+                        Integer.parseInt(pair.substring(separator + 1).trim()));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException(String.format("Invalid wallet sharding '%s'", pair), e);
+            }
+        }
+        return new WalletSharding(shardCounts.build());
+    }
+
+    public boolean isSharded(@NonNull final String ownerId) {
+        return shardCounts.containsKey(ownerId);
+    }
+
+    public ImmutableSet<String> getShardedOwnerIds() {
+        return shardCounts.keySet();
+    }
+
+    /**
+     * Get the IDs of every wallet holding the owner's balance, starting with the owner's own wallet.
+     * @param ownerId the owner.
+     * @return the wallet IDs, only the owner ID if the owner isn't sharded.
+     */
+    public ImmutableList<String> getWalletIds(@NonNull final String ownerId) {
+        final int shardCount = shardCounts.getOrDefault(ownerId, 1);
+        final ImmutableList.Builder<String> walletIds = ImmutableList.builder();
+        walletIds.add(ownerId);
+        for (int i = 1; i < shardCount; i++) {
+            walletIds.add(ownerId + SHARD_SEPARATOR + i);
+        }
+        return walletIds.build();
+    }
+
+    /**
+     * Get the ID of the wallet a transaction pays to or from.
+     * @param ownerId the owner.
+     * @param transactionId the transaction.
+     * @return the wallet ID, the owner ID if the owner isn't sharded.
+     */
+    public String getWalletId(@NonNull final String ownerId, @NonNull final String transactionId) {
+        final int shardCount = shardCounts.getOrDefault(ownerId, 1);
+        final int shard = Math.floorMod(transactionId.hashCode(), shardCount);
+        return shard == 0 ? ownerId : ownerId + SHARD_SEPARATOR + shard;
+    }
+}
@@ -0,0 +1,29 @@
+package io.openmarket.transaction.service;
+
+import com.google.common.collect.ImmutableMap;
+import lombok.NonNull;
+import lombok.Value;
+
+/**
+ * An immutable copy of a user's balances in minor units, taken with a single wallet read.
+ */
+@Value
+public class WalletSnapshot {
+    String ownerId;
+    // The balances by currency ID, in minor units.
+    ImmutableMap<String, Long> balances;
+
+    public WalletSnapshot(@NonNull final String ownerId, @NonNull final ImmutableMap<String, Long> balances) {
+        this.ownerId = ownerId;
+        this.balances = balances;
+    }
+
+    /**
+     * Get the balance of the given currency at the time the snapshot was taken.
+     * @param currency the currency ID.
+     * @return the balance in minor units, or 0 if the wallet doesn't hold the currency.
+     */
+    public long getBalance(@NonNull final String currency) {
+        return balances.getOrDefault(currency, 0L);
+    }
+}
@@ -1,15 +1,15 @@
 package io.openmarket.transaction.utils;
 
-import java.util.UUID;
+import io.openmarket.utils.IdGenerator;
 
 public final class TransactionUtils {
     private TransactionUtils() {}
 
     /**
-     * Get a unique transaction ID.
+     * Get a unique transaction ID, ordered by creation time.
      * @return a unique transaction ID.
      */
     public static String generateTransactionID() {
-        return UUID.randomUUID().toString();
+        return IdGenerator.shared().next();
     }
 }
@@ -0,0 +1,177 @@
+package io.openmarket.utils;
+
+import com.google.common.annotations.VisibleForTesting;
+import lombok.NonNull;
+import lombok.extern.log4j.Log4j2;
+
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+
+import static io.openmarket.config.EnvironmentConfig.ENV_VAR_NODE_ID;
+
+/**
+ * Generates 128-bit IDs ordered by creation time, written as 26 Crockford base32 characters like ULIDs so that
+ * their string order is their time order. An ID holds, from its most significant bit:
+ * <ul>
+ *     <li>48 bits of milliseconds since the epoch.</li>
+ *     <li>16 bits of node ID, so servers never generate the same ID.</li>
+ *     <li>20 bits of thread slot, so threads of a server never generate the same ID.</li>
+ *     <li>44 bits of sequence, starting at a random value each millisecond.</li>
+ * </ul>
+ * Each thread generates from its own state, so generating takes no lock and touches no shared random source.
+ * A thread's IDs are strictly increasing, even if the clock goes back.
+ */
+@Log4j2
+public final class IdGenerator {
+    public static final int ID_LENGTH = 26;
+    public static final int MAX_NODE_ID = 0xFFFF;
+
+    private static final int NODE_BITS = 16;
+    private static final int SEQUENCE_BITS = 44;
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+    private static final int THREAD_SLOT_MASK = (1 << (Long.SIZE - SEQUENCE_BITS)) - 1;
+    private static final int TIMESTAMP_LENGTH = 10;
+    private static final char[] ALPHABET = "0123456789ABCDEFGHJKMNPQRSTVWXYZ".toCharArray();
+    private static final int[] VALUES = new int[128];
+
+    static {
+        Arrays.fill(VALUES, -1);
+        for (int i = 0; i < ALPHABET.length; i++) {
+            VALUES[ALPHABET[i]] = i;
+            VALUES[Character.toLowerCase(ALPHABET[i])] = i;
+        }
+    }
+
+    private final long nodeId;
+    private final LongSupplier clock;
+    private final AtomicInteger threadSlots;
+    private final ThreadLocal<State> state;
+
+    /**
+     * Create an IdGenerator.
+     * @param nodeId the ID of this server, unique among the servers generating IDs.
+     */
+    public IdGenerator(final int nodeId) {
+        this(nodeId, System::currentTimeMillis);
+    }
+
+    @VisibleForTesting
+    IdGenerator(final int nodeId, @NonNull final LongSupplier clock) {
+        if (nodeId < 0 || nodeId > MAX_NODE_ID) {
+            throw new IllegalArgumentException(String.format("Invalid node ID %d", nodeId));
+        }
+        this.nodeId = nodeId;
+        this.clock = clock;
+        this.threadSlots = new AtomicInteger();
+        this.state = ThreadLocal.withInitial(() -> new State(threadSlots.getAndIncrement() & THREAD_SLOT_MASK));
+    }
+
+    /**
+     * Get the generator shared by the server. Its node ID is read from the NodeId environment variable, or is
+     * random if it's unset.
+     * @return the shared generator.
+     */
+    public static IdGenerator shared() {
+        return Shared.INSTANCE;
+    }
+
+    /**
+     * Generate an ID.
+     * @return the ID.
+     */
+    public String next() {
+        final State current = state.get();
+        final long now = clock.getAsLong();
+        if (now > current.millis) {
+            current.millis = now;
+            current.sequence = ThreadLocalRandom.current().nextLong(SEQUENCE_MASK >>> 1);
+        } else if (++current.sequence > SEQUENCE_MASK) {
+            // Runs ahead of the clock rather than repeat an ID.
+            current.millis++;
+            current.sequence = 0;
+        }
+        return encode((current.millis << NODE_BITS) | nodeId,
+                ((long) current.slot << SEQUENCE_BITS) | current.sequence);
+    }
+
+    /**
+     * Get when an ID was generated.
+     * @param id the ID.
+     * @return its creation time in milliseconds since the epoch.
+     * @throws IllegalArgumentException if the ID wasn't generated by an IdGenerator.
+     */
+    public static long timestampOf(@NonNull final String id) {
+        if (id.length() != ID_LENGTH) {
+            throw new IllegalArgumentException(String.format("Invalid ID '%s'", id));
+        }
+        long millis = 0;
+        for (int i = 0; i < ID_LENGTH; i++) {
+            final char c = id.charAt(i);
+            final int value = c < VALUES.length ? VALUES[c] : -1;
+            if (value < 0 || (i == 0 && value > 7)) {
+                throw new IllegalArgumentException(String.format("Invalid ID '%s'", id));
+            }
+            if (i < TIMESTAMP_LENGTH) {
+                millis = (millis << 5) | value;
+            }
+        }
+        return millis;
+    }
+
+    /**
+     * Get the prefix shared by the IDs generated in a millisecond. IDs generated at or after the millisecond are
+     * greater than or equal to it, so it bounds range queries by ID.
+     * @param millis milliseconds since the epoch.
+     * @return the prefix.
+     */
+    public static String prefixOf(final long millis) {
+        if (millis < 0 || millis >>> (Long.SIZE - NODE_BITS) != 0) {
+            throw new IllegalArgumentException(String.format("Invalid timestamp %d", millis));
+        }
+        return encode(millis << NODE_BITS, 0).substring(0, TIMESTAMP_LENGTH);
+    }
+
+    private static String encode(final long high, final long low) {
+        final char[] chars = new char[ID_LENGTH];
+        long hi = high;
+        long lo = low;
+        for (int i = ID_LENGTH - 1; i >= 0; i--) {
+            chars[i] = ALPHABET[(int) (lo & 31)];
+            lo = (lo >>> 5) | (hi << 59);
+            hi >>>= 5;
+        }
+        return new String(chars);
+    }
+
+    // Only touched by its thread.
+    private static final class State {
+        private final int slot;
+        private long millis;
+        private long sequence;
+
+        State(final int slot) {
+            this.slot = slot;
+            this.millis = -1;
+        }
+    }
+
+    private static final class Shared {
+        private static final IdGenerator INSTANCE = new IdGenerator(nodeIdOf(System.getenv(ENV_VAR_NODE_ID)));
+
+        private static int nodeIdOf(final String value) {
+            if (value == null || value.trim().isEmpty()) {
+                final int nodeId = new SecureRandom().nextInt(MAX_NODE_ID + 1);
+                log.warn("{} is not set, generating IDs as node {}", ENV_VAR_NODE_ID, nodeId);
+                return nodeId;
+            }
+            try {
+                return Integer.parseInt(value.trim());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException(String.format("Invalid node ID '%s'", value), e);
+            }
+        }
+    }
+}
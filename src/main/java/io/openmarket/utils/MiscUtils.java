@@ -11,10 +11,11 @@ import java.util.Optional;
 
 public class MiscUtils {
     private static final Gson GSON = new Gson();
+    private static final Type KEY_TYPE = new TypeToken<Map<String, AttributeValue>>(){}.getType();
+
     public static Optional<Map<String, AttributeValue>> getExclusiveStartKey(final String key) {
         try {
-            final Type mapType = new TypeToken<Map<String, AttributeValue>>(){}.getType();
-            return Optional.ofNullable(GSON.fromJson(key, mapType));
+            return Optional.ofNullable(GSON.fromJson(key, KEY_TYPE));
         } catch (JsonSyntaxException e) {
             return Optional.empty();
         }
@@ -0,0 +1,127 @@
+package io.openmarket.utils;
+
+import lombok.NonNull;
+
+import static io.openmarket.config.CurrencyConfig.DEFAULT_SCALE;
+import static io.openmarket.config.CurrencyConfig.SCALES;
+
+/**
+ * Fixed-point arithmetic on amounts of money held as a long count of their currency's minor unit, so sums and
+ * comparisons don't drift the way doubles do. Amounts are still stored and sent as doubles; they are converted to
+ * minor units when read and back when written, which rounds them to the nearest minor unit.
+ * <p>
+ * Arithmetic is overflow-checked and throws ArithmeticException rather than wrapping, and allocates nothing.
+ */
+public final class Money {
+    private static final int MAX_SCALE = 18;
+    private static final long[] POWERS_OF_TEN = new long[MAX_SCALE + 1];
+
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i <= MAX_SCALE; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+        }
+    }
+
+    private Money() {}
+
+    /**
+     * Get the number of decimal digits of a currency's minor unit.
+     * @param currency the currency ID.
+     * @return the scale.
+     */
+    public static int scaleOf(@NonNull final String currency) {
+        final Integer scale = SCALES.get(currency);
+        if (scale == null) {
+            return DEFAULT_SCALE;
+        }
+        if (scale < 0 || scale > MAX_SCALE) {
+            throw new IllegalStateException(String.format("Invalid scale %d of currency %s", scale, currency));
+        }
+        return scale;
+    }
+
+    /**
+     * Get how many minor units make a whole unit of the currency.
+     * @param currency the currency ID.
+     * @return the number of minor units.
+     */
+    public static long unitOf(@NonNull final String currency) {
+        return POWERS_OF_TEN[scaleOf(currency)];
+    }
+
+    /**
+     * Convert an amount to minor units, rounding it to the nearest one.
+     * @param currency the currency ID.
+     * @param amount the amount in whole units.
+     * @return the amount in minor units.
+     * @throws ArithmeticException if the amount isn't finite or doesn't fit.
+     */
+    public static long toMinorUnits(@NonNull final String currency, final double amount) {
+        final double scaled = amount * unitOf(currency);
+        if (!isRepresentable(scaled)) {
+            throw new ArithmeticException(String.format("Amount %s of %s is out of range", amount, currency));
+        }
+        return Math.round(scaled);
+    }
+
+    /**
+     * Convert minor units to an amount in whole units, as stored and sent.
+     * @param currency the currency ID.
+     * @param minorUnits the amount in minor units.
+     * @return the amount in whole units.
+     */
+    public static double toAmount(@NonNull final String currency, final long minorUnits) {
+        return (double) minorUnits / unitOf(currency);
+    }
+
+    /**
+     * Round an amount to the currency's minor unit.
+     * @param currency the currency ID.
+     * @param amount the amount in whole units.
+     * @return the rounded amount.
+     * @throws ArithmeticException if the amount isn't finite or doesn't fit.
+     */
+    public static double round(@NonNull final String currency, final double amount) {
+        return toAmount(currency, toMinorUnits(currency, amount));
+    }
+
+    /**
+     * Check whether an amount can be converted to minor units.
+     * @param currency the currency ID.
+     * @param amount the amount in whole units.
+     * @return true if it is finite and fits in minor units.
+     */
+    public static boolean isValid(@NonNull final String currency, final double amount) {
+        return isRepresentable(amount * unitOf(currency));
+    }
+
+    /**
+     * Add two amounts, adding them in minor units.
+     * @param currency the currency ID.
+     * @param augend an amount in whole units.
+     * @param addend an amount in whole units.
+     * @return the sum in whole units.
+     * @throws ArithmeticException if an amount or the sum doesn't fit.
+     */
+    public static double add(@NonNull final String currency, final double augend, final double addend) {
+        return toAmount(currency, Math.addExact(toMinorUnits(currency, augend), toMinorUnits(currency, addend)));
+    }
+
+    /**
+     * Compare two amounts in minor units, so amounts that round to the same minor unit are equal.
+     * @param currency the currency ID.
+     * @param first an amount in whole units.
+     * @param second an amount in whole units.
+     * @return a negative number, zero or a positive number as the first amount is less than, equal to, or greater
+     * than the second.
+     */
+    public static int compare(@NonNull final String currency, final double first, final double second) {
+        return Long.compare(toMinorUnits(currency, first), toMinorUnits(currency, second));
+    }
+
+    // Math.round saturates instead of failing, so the range is checked against the largest long as a double.
+    private static boolean isRepresentable(final double scaled) {
+        return !Double.isNaN(scaled) && scaled > -0x1p63 && scaled < 0x1p63;
+    }
+}
@@ -0,0 +1,439 @@
+package io.openmarket.utils;
+
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapperFieldModel;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapperTableModel;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.google.common.collect.ImmutableList;
+import com.google.common.reflect.TypeToken;
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import lombok.NonNull;
+import lombok.Value;
+
+import javax.annotation.Nullable;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Encodes DynamoDB pagination keys into compact URL-safe tokens. A key whose attributes all belong to a registered
+ * schema is written as the schema's ID, a bitmask of the attributes present and their values; other keys carry
+ * their attribute names. Tokens are versioned and, when the codec has a secret, signed with a truncated
+ * HMAC-SHA256 so clients can't forge keys.
+ * <p>
+ * A query reading several indexes at once, such as a merge of them, resumes from one cursor token holding where it
+ * stopped in each index. The whole cursor token is framed and signed like a single key.
+ * <p>
+ * Tokens in the former Gson format are still decoded by unsigned codecs, so paginations in flight survive a deploy.
+ */
+public final class PaginationTokenCodec {
+    private static final byte VERSION = 1;
+    private static final byte CURSORS_VERSION = 2;
+    private static final byte CURSOR_EXHAUSTED = 0;
+    private static final byte CURSOR_FROM_START = 1;
+    private static final byte CURSOR_FROM_KEY = 2;
+    private static final byte INLINE_SCHEMA = 0;
+    private static final byte TYPE_S = 1;
+    private static final byte TYPE_N = 2;
+    private static final byte TYPE_B = 3;
+    private static final int MAX_SCHEMA_SIZE = 63;
+    private static final int SIGNATURE_LENGTH = 16;
+    private static final String MAC_ALGORITHM = "HmacSHA256";
+    private static final Gson GSON = new Gson();
+    private static final Type LEGACY_KEY_TYPE = new TypeToken<Map<String, AttributeValue>>(){}.getType();
+
+    private final ImmutableList<ImmutableList<String>> schemas;
+    private final SecretKeySpec secret;
+    private final ThreadLocal<Mac> mac;
+
+    /**
+     * Create an unsigned PaginationTokenCodec without schemas.
+     */
+    public PaginationTokenCodec() {
+        this(ImmutableList.of(), null);
+    }
+
+    /**
+     * Create a PaginationTokenCodec.
+     * @param schemas the attribute names of known keys. A schema's ID is its position in the list, so new schemas
+     *                must only be appended.
+     * @param secret the secret tokens are signed with, or null to leave them unsigned.
+     */
+    public PaginationTokenCodec(@NonNull final List<? extends List<String>> schemas,
+                                @Nullable final byte[] secret) {
+        if (schemas.size() > Byte.MAX_VALUE) {
+            throw new IllegalArgumentException(String.format("Too many token schemas: %d", schemas.size()));
+        }
+        final ImmutableList.Builder<ImmutableList<String>> builder = ImmutableList.builder();
+        for (List<String> schema : schemas) {
+            if (schema.isEmpty() || schema.size() > MAX_SCHEMA_SIZE) {
+                throw new IllegalArgumentException(String.format("Invalid token schema %s", schema));
+            }
+            builder.add(ImmutableList.copyOf(schema));
+        }
+        this.schemas = builder.build();
+        if (secret != null && secret.length == 0) {
+            throw new IllegalArgumentException("The token secret must not be empty");
+        }
+        this.secret = secret == null ? null : new SecretKeySpec(secret, MAC_ALGORITHM);
+        this.mac = ThreadLocal.withInitial(this::newMac);
+    }
+
+    /**
+     * Get the key attributes of a table and its indexes, sorted by name, for use as a schema.
+     * @param model the table model.
+     * @return the attribute names.
+     */
+    public static List<String> schemaOf(@NonNull final DynamoDBMapperTableModel<?> model) {
+        final List<String> names = new ArrayList<>();
+        for (DynamoDBMapperFieldModel<?, Object> field : model.fields()) {
+            if (field.keyType() != null || field.indexed()) {
+                names.add(field.name());
+            }
+        }
+        Collections.sort(names);
+        return names;
+    }
+
+    /**
+     * Encode a pagination key.
+     * @param key the key, may be null or empty once there are no more pages.
+     * @return the token, empty if there is no key.
+     */
+    public String encode(@Nullable final Map<String, AttributeValue> key) {
+        if (key == null || key.isEmpty()) {
+            return "";
+        }
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(VERSION);
+            writeKey(out, key);
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to encode pagination key", e);
+        }
+        return seal(bytes.toByteArray());
+    }
+
+    /**
+     * Encode where a query stopped in each of the indexes it reads.
+     * @param cursors the cursor of each index, null for an exhausted index.
+     * @return the token.
+     */
+    public String encodeCursors(@NonNull final List<Cursor> cursors) {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(CURSORS_VERSION);
+            writeVarLong(out, cursors.size());
+            for (Cursor cursor : cursors) {
+                if (cursor == null) {
+                    out.writeByte(CURSOR_EXHAUSTED);
+                    continue;
+                }
+                if (cursor.getStartKey() == null || cursor.getStartKey().isEmpty()) {
+                    out.writeByte(CURSOR_FROM_START);
+                } else {
+                    out.writeByte(CURSOR_FROM_KEY);
+                    writeKey(out, cursor.getStartKey());
+                }
+                writeVarLong(out, cursor.getOffset());
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to encode pagination cursors", e);
+        }
+        return seal(bytes.toByteArray());
+    }
+
+    /**
+     * Decode a pagination token.
+     * @param token the token, may be empty for the first page.
+     * @return the key, empty if there is no token.
+     * @throws IllegalArgumentException if the token is malformed or its signature doesn't match.
+     */
+    public Optional<Map<String, AttributeValue>> decode(@NonNull final String token) {
+        if (token.isEmpty()) {
+            return Optional.empty();
+        }
+        if (token.startsWith("{") || token.equals("null")) {
+            return decodeLegacy(token);
+        }
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(unseal(token)))) {
+            if (in.readByte() != VERSION) {
+                throw invalidToken(token, null);
+            }
+            final Map<String, AttributeValue> key = readKey(in);
+            if (in.available() > 0) {
+                throw invalidToken(token, null);
+            }
+            return Optional.of(key);
+        } catch (IOException e) {
+            throw invalidToken(token, e);
+        }
+    }
+
+    /**
+     * Decode a token of {@link #encodeCursors(List)}.
+     * @param token the token.
+     * @return the cursor of each index, null for an exhausted index.
+     * @throws IllegalArgumentException if the token is malformed or its signature doesn't match.
+     */
+    public List<Cursor> decodeCursors(@NonNull final String token) {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(unseal(token)))) {
+            if (in.readByte() != CURSORS_VERSION) {
+                throw invalidToken(token, null);
+            }
+            final long count = readVarLong(in);
+            if (count > in.available()) {
+                throw invalidToken(token, null);
+            }
+            final List<Cursor> cursors = new ArrayList<>((int) count);
+            for (long i = 0; i < count; i++) {
+                final byte state = in.readByte();
+                if (state == CURSOR_EXHAUSTED) {
+                    cursors.add(null);
+                    continue;
+                }
+                if (state != CURSOR_FROM_START && state != CURSOR_FROM_KEY) {
+                    throw invalidToken(token, null);
+                }
+                final Map<String, AttributeValue> startKey = state == CURSOR_FROM_KEY ? readKey(in) : null;
+                final long offset = readVarLong(in);
+                if (offset < 0 || offset > Integer.MAX_VALUE) {
+                    throw invalidToken(token, null);
+                }
+                cursors.add(new Cursor(startKey, (int) offset));
+            }
+            if (in.available() > 0) {
+                throw invalidToken(token, null);
+            }
+            return cursors;
+        } catch (IOException e) {
+            throw invalidToken(token, e);
+        }
+    }
+
+    private void writeKey(final DataOutputStream out, final Map<String, AttributeValue> key) throws IOException {
+        final int schemaId = findSchema(key);
+        out.writeByte(schemaId);
+        if (schemaId == INLINE_SCHEMA) {
+            writeVarLong(out, key.size());
+            for (Map.Entry<String, AttributeValue> attribute : key.entrySet()) {
+                writeBytes(out, attribute.getKey().getBytes(StandardCharsets.UTF_8));
+                writeValue(out, attribute.getValue());
+            }
+        } else {
+            final List<String> schema = schemas.get(schemaId - 1);
+            long present = 0;
+            for (int i = 0; i < schema.size(); i++) {
+                if (key.containsKey(schema.get(i))) {
+                    present |= 1L << i;
+                }
+            }
+            writeVarLong(out, present);
+            for (String name : schema) {
+                if (key.containsKey(name)) {
+                    writeValue(out, key.get(name));
+                }
+            }
+        }
+    }
+
+    private Map<String, AttributeValue> readKey(final DataInputStream in) throws IOException {
+        final int schemaId = in.readByte();
+        final Map<String, AttributeValue> key = new LinkedHashMap<>();
+        if (schemaId == INLINE_SCHEMA) {
+            final long size = readVarLong(in);
+            for (long i = 0; i < size; i++) {
+                key.put(new String(readBytes(in), StandardCharsets.UTF_8), readValue(in));
+            }
+        } else if (schemaId > 0 && schemaId <= schemas.size()) {
+            final List<String> schema = schemas.get(schemaId - 1);
+            final long present = readVarLong(in);
+            for (int i = 0; i < schema.size(); i++) {
+                if ((present & (1L << i)) != 0) {
+                    key.put(schema.get(i), readValue(in));
+                }
+            }
+        } else {
+            throw new IOException(String.format("Unknown token schema %d", schemaId));
+        }
+        if (key.isEmpty()) {
+            throw new IOException("Empty pagination key");
+        }
+        return key;
+    }
+
+    // Append the signature, if any, and encode as URL-safe base64.
+    private String seal(final byte[] payload) {
+        byte[] token = payload;
+        if (secret != null) {
+            final byte[] signature = sign(token);
+            token = Arrays.copyOf(token, token.length + SIGNATURE_LENGTH);
+            System.arraycopy(signature, 0, token, token.length - SIGNATURE_LENGTH, SIGNATURE_LENGTH);
+        }
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(token);
+    }
+
+    // Decode the base64 and check and strip the signature, if any.
+    private byte[] unseal(final String token) {
+        final byte[] bytes;
+        try {
+            bytes = Base64.getUrlDecoder().decode(token);
+        } catch (IllegalArgumentException e) {
+            throw invalidToken(token, e);
+        }
+        if (secret == null) {
+            return bytes;
+        }
+        if (bytes.length < SIGNATURE_LENGTH) {
+            throw invalidToken(token, null);
+        }
+        final byte[] payload = Arrays.copyOf(bytes, bytes.length - SIGNATURE_LENGTH);
+        final byte[] signature = Arrays.copyOfRange(bytes, payload.length, bytes.length);
+        if (!MessageDigest.isEqual(signature, sign(payload))) {
+            throw invalidToken(token, null);
+        }
+        return payload;
+    }
+
+    // Gson wrote the last page's missing key as "null".
+    private Optional<Map<String, AttributeValue>> decodeLegacy(final String token) {
+        if (secret != null && !token.equals("null")) {
+            throw invalidToken(token, null);
+        }
+        try {
+            return Optional.ofNullable(GSON.fromJson(token, LEGACY_KEY_TYPE));
+        } catch (JsonParseException e) {
+            throw invalidToken(token, e);
+        }
+    }
+
+    // The ID of the first schema holding every attribute of the key, or the inline schema.
+    private int findSchema(final Map<String, AttributeValue> key) {
+        for (int i = 0; i < schemas.size(); i++) {
+            if (schemas.get(i).containsAll(key.keySet())) {
+                return i + 1;
+            }
+        }
+        return INLINE_SCHEMA;
+    }
+
+    private byte[] sign(final byte[] payload) {
+        return Arrays.copyOf(mac.get().doFinal(payload), SIGNATURE_LENGTH);
+    }
+
+    private Mac newMac() {
+        if (secret == null) {
+            return null;
+        }
+        try {
+            final Mac newMac = Mac.getInstance(MAC_ALGORITHM);
+            newMac.init(secret);
+            return newMac;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Failed to create the pagination token signer", e);
+        }
+    }
+
+    private static void writeValue(final DataOutputStream out, final AttributeValue value) throws IOException {
+        if (value.getS() != null) {
+            out.writeByte(TYPE_S);
+            writeBytes(out, value.getS().getBytes(StandardCharsets.UTF_8));
+        } else if (value.getN() != null) {
+            out.writeByte(TYPE_N);
+            writeBytes(out, value.getN().getBytes(StandardCharsets.UTF_8));
+        } else if (value.getB() != null) {
+            out.writeByte(TYPE_B);
+            final ByteBuffer buffer = value.getB().duplicate();
+            final byte[] binary = new byte[buffer.remaining()];
+            buffer.get(binary);
+            writeBytes(out, binary);
+        } else {
+            // Key attributes are always strings, numbers or binary.
+            throw new IllegalArgumentException(String.format("Unsupported key attribute value %s", value));
+        }
+    }
+
+    private static AttributeValue readValue(final DataInputStream in) throws IOException {
+        final byte type = in.readByte();
+        final byte[] bytes = readBytes(in);
+        switch (type) {
+            case TYPE_S:
+                return new AttributeValue().withS(new String(bytes, StandardCharsets.UTF_8));
+            case TYPE_N:
+                return new AttributeValue().withN(new String(bytes, StandardCharsets.UTF_8));
+            case TYPE_B:
+                return new AttributeValue().withB(ByteBuffer.wrap(bytes));
+            default:
+                throw new IOException(String.format("Unknown attribute type %d", type));
+        }
+    }
+
+    private static void writeBytes(final DataOutputStream out, final byte[] bytes) throws IOException {
+        writeVarLong(out, bytes.length);
+        out.write(bytes);
+    }
+
+    private static byte[] readBytes(final DataInputStream in) throws IOException {
+        final long length = readVarLong(in);
+        if (length > in.available()) {
+            throw new IOException(String.format("Length %d exceeds the token", length));
+        }
+        final byte[] bytes = new byte[(int) length];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    private static void writeVarLong(final DataOutputStream out, final long value) throws IOException {
+        long remaining = value;
+        while ((remaining & ~0x7FL) != 0) {
+            out.writeByte((int) ((remaining & 0x7F) | 0x80));
+            remaining >>>= 7;
+        }
+        out.writeByte((int) remaining);
+    }
+
+    private static long readVarLong(final DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            final byte b = in.readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    /**
+     * Where a query stopped in one index: the key its current page started from and how many of the page's items
+     * were consumed.
+     */
+    @Value
+    public static class Cursor {
+        // Null for the index's first page.
+        @Nullable
+        Map<String, AttributeValue> startKey;
+        int offset;
+    }
+
+    private static IllegalArgumentException invalidToken(final String token, @Nullable final Exception cause) {
+        return new IllegalArgumentException(String.format("Invalid pagination token '%s'", token), cause);
+    }
+}
@@ -0,0 +1,299 @@
+package io.openmarket.ledger;
+
+import com.google.common.collect.ImmutableMap;
+import io.openmarket.transaction.model.Transaction;
+import io.openmarket.transaction.model.TransactionStatus;
+import io.openmarket.transaction.model.TransactionType;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LedgerTest {
+    private static final String CURRENCY = "DashCoin";
+    private static final long MAX_AGE_MILLIS = 60000;
+
+    private Path directory;
+    private Map<String, Map<String, Long>> wallets;
+    private AtomicInteger loads;
+    private Function<String, Map<String, Long>> loader;
+
+    @BeforeEach
+    public void setup() throws IOException {
+        this.directory = Files.createTempDirectory("ledger");
+        this.wallets = new ConcurrentHashMap<>();
+        this.loads = new AtomicInteger();
+        this.loader = ownerId -> {
+            loads.incrementAndGet();
+            return wallets.get(ownerId);
+        };
+        wallets.put("rich", ImmutableMap.of(CURRENCY, 10000L));
+        wallets.put("poor", ImmutableMap.of());
+    }
+
+    @AfterEach
+    public void teardown() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    @Test
+    public void test_Transfer_Debits_Payer_And_Credits_Recipient() throws IOException {
+        try (Ledger ledger = new Ledger(directory, loader, MAX_AGE_MILLIS, false)) {
+            openAccounts(ledger, "rich", "poor");
+            ledger.transfer("tx1", "rich", "poor", CURRENCY, 4000);
+
+            assertEquals(6000, ledger.getBalance("rich", CURRENCY));
+            assertEquals(Optional.of(ImmutableMap.of(CURRENCY, 4000L)), ledger.getBalances("poor"));
+            assertEquals(0, ledger.getBalance("poor", "OtherCoin"));
+            assertEquals(2, loads.get());
+        }
+    }
+
+    @Test
+    public void test_Settled_Transaction_Is_Mirrored_Once() throws IOException {
+        try (Ledger ledger = new Ledger(directory, loader, MAX_AGE_MILLIS, false)) {
+            openAccounts(ledger, "rich", "poor");
+            ledger.onTransactionSettled(transaction("tx1", 12.34), TransactionStatus.COMPLETED);
+            ledger.onTransactionSettled(transaction("tx1", 12.34), TransactionStatus.COMPLETED);
+            ledger.onTransactionSettled(transaction("tx2", 1.0), TransactionStatus.ERROR);
+
+            assertEquals(8766, ledger.getBalance("rich", CURRENCY));
+            assertEquals(1234, ledger.getBalance("poor", CURRENCY));
+            assertEquals(2, loads.get());
+        }
+    }
+
+    @Test
+    public void test_Transfer_With_Unopened_Side_Reloads_The_Open_One() throws IOException {
+        try (Ledger ledger = new Ledger(directory, loader, MAX_AGE_MILLIS, false)) {
+            openAccounts(ledger, "rich");
+            // The settler already wrote the payment to the wallets.
+            wallets.put("rich", ImmutableMap.of(CURRENCY, 9000L));
+            wallets.put("poor", ImmutableMap.of(CURRENCY, 1000L));
+            ledger.transfer("tx1", "rich", "poor", CURRENCY, 1000);
+
+            assertEquals(9000, ledger.getBalance("rich", CURRENCY));
+            assertEquals(1000, ledger.getBalance("poor", CURRENCY));
+            assertEquals(3, loads.get());
+        }
+    }
+
+    @Test
+    public void test_Overdrawn_Account_Is_Reloaded() throws IOException {
+        try (Ledger ledger = new Ledger(directory, loader, MAX_AGE_MILLIS, false)) {
+            openAccounts(ledger, "rich", "poor");
+            ledger.transfer("tx1", "poor", "rich", CURRENCY, 100);
+            assertEquals(0, ledger.getBalance("poor", CURRENCY));
+            assertEquals(3, loads.get());
+        }
+    }
+
+    @Test
+    public void test_Invalidated_Or_Expired_Account_Is_Reloaded() throws IOException {
+        try (Ledger ledger = new Ledger(directory, loader, 1, false)) {
+            openAccounts(ledger, "rich");
+            sleep(5);
+            ledger.getBalance("rich", CURRENCY);
+            assertEquals(2, loads.get());
+        }
+        try (Ledger ledger = new Ledger(directory, loader, MAX_AGE_MILLIS, false)) {
+            openAccounts(ledger, "rich");
+            ledger.invalidate("rich");
+            wallets.put("rich", ImmutableMap.of(CURRENCY, 500L));
+            assertEquals(Optional.of(ImmutableMap.of(CURRENCY, 500L)), ledger.getBalances("rich"));
+        }
+    }
+
+    @Test
+    public void test_Settlement_During_Load_Is_Not_Lost() throws IOException {
+        final Ledger[] holder = new Ledger[1];
+        try (Ledger ledger = new Ledger(directory, ownerId -> {
+            loads.incrementAndGet();
+            if (loads.get() == 1) {
+                holder[0].invalidate(ownerId);
+            }
+            return wallets.get(ownerId);
+        }, MAX_AGE_MILLIS, false)) {
+            holder[0] = ledger;
+            ledger.getBalance("rich", CURRENCY);
+            ledger.getBalance("rich", CURRENCY);
+            assertEquals(2, loads.get());
+        }
+    }
+
+    @Test
+    public void test_Owner_Without_Wallet_Has_No_Account() throws IOException {
+        try (Ledger ledger = new Ledger(directory, loader, MAX_AGE_MILLIS, false)) {
+            assertFalse(ledger.getBalances("nobody").isPresent());
+            assertEquals(0, ledger.getBalance("nobody", CURRENCY));
+        }
+    }
+
+    @Test
+    public void test_Transfer_With_Invalid_Amount_Throws() throws IOException {
+        try (Ledger ledger = new Ledger(directory, loader, MAX_AGE_MILLIS, false)) {
+            assertThrows(IllegalArgumentException.class, () -> ledger.transfer("tx1", "rich", "poor", CURRENCY, 0));
+            assertThrows(IllegalArgumentException.class, () -> ledger.transfer("tx1", "rich", "poor", CURRENCY, -1));
+        }
+    }
+
+    @Test
+    public void test_Reopen_Replays_Log_Without_Reloading_Accounts() throws IOException {
+        try (Ledger ledger = new Ledger(directory, loader, MAX_AGE_MILLIS, true)) {
+            openAccounts(ledger, "rich", "poor");
+            ledger.transfer("tx1", "rich", "poor", CURRENCY, 3000);
+        }
+
+        wallets.put("rich", ImmutableMap.of(CURRENCY, 1L));
+        loads.set(0);
+        try (Ledger ledger = new Ledger(directory, loader, MAX_AGE_MILLIS, false)) {
+            assertEquals(7000, ledger.getBalance("rich", CURRENCY));
+            assertEquals(3000, ledger.getBalance("poor", CURRENCY));
+            assertEquals(3, ledger.getSequence());
+            assertEquals(0, loads.get());
+            // A redelivered settlement is still ignored after the restart.
+            ledger.transfer("tx1", "rich", "poor", CURRENCY, 3000);
+            assertEquals(7000, ledger.getBalance("rich", CURRENCY));
+        }
+    }
+
+    @Test
+    public void test_Snapshot_Deletes_Covered_Log_And_Recovers() throws IOException {
+        try (Ledger ledger = new Ledger(directory, loader, MAX_AGE_MILLIS, false)) {
+            openAccounts(ledger, "rich", "poor");
+            ledger.transfer("tx1", "rich", "poor", CURRENCY, 3000);
+            ledger.snapshot();
+            ledger.transfer("tx2", "poor", "rich", CURRENCY, 500);
+            assertEquals(1, logFiles().size());
+        }
+
+        try (Ledger ledger = new Ledger(directory, loader, MAX_AGE_MILLIS, false)) {
+            assertEquals(7500, ledger.getBalance("rich", CURRENCY));
+            assertEquals(2500, ledger.getBalance("poor", CURRENCY));
+            assertEquals(4, ledger.getSequence());
+        }
+    }
+
+    @Test
+    public void test_Torn_Tail_Is_Dropped_On_Recovery() throws IOException {
+        try (Ledger ledger = new Ledger(directory, loader, MAX_AGE_MILLIS, false)) {
+            openAccounts(ledger, "rich", "poor");
+            ledger.transfer("tx1", "rich", "poor", CURRENCY, 3000);
+            ledger.transfer("tx2", "rich", "poor", CURRENCY, 2000);
+        }
+        Path log = logFiles().get(0);
+        try (RandomAccessFile file = new RandomAccessFile(log.toFile(), "rw")) {
+            file.setLength(file.length() - 3);
+        }
+
+        try (Ledger ledger = new Ledger(directory, loader, MAX_AGE_MILLIS, false)) {
+            assertEquals(7000, ledger.getBalance("rich", CURRENCY));
+            ledger.transfer("tx3", "rich", "poor", CURRENCY, 100);
+        }
+        try (Ledger ledger = new Ledger(directory, loader, MAX_AGE_MILLIS, false)) {
+            assertEquals(6900, ledger.getBalance("rich", CURRENCY));
+        }
+    }
+
+    @Test
+    public void test_Concurrent_Transfers_Conserve_Coins() throws Exception {
+        final int accounts = 8;
+        for (int i = 0; i < accounts; i++) {
+            wallets.put("rich" + i, ImmutableMap.of(CURRENCY, 10000L));
+        }
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try (Ledger ledger = new Ledger(directory, loader, MAX_AGE_MILLIS, false)) {
+            for (int i = 0; i < accounts; i++) {
+                openAccounts(ledger, "rich" + i);
+            }
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                final int thread = t;
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < 500; i++) {
+                        String payer = "rich" + ((i + thread) % accounts);
+                        String recipient = "rich" + ((i * 3 + thread + 1) % accounts);
+                        ledger.transfer("tx-" + thread + "-" + i, payer, recipient, CURRENCY, 1);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            assertEquals(10000L * accounts, totalOf(ledger, accounts));
+        } finally {
+            executor.shutdown();
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        }
+
+        try (Ledger ledger = new Ledger(directory, loader, MAX_AGE_MILLIS, false)) {
+            assertEquals(10000L * accounts, totalOf(ledger, accounts));
+        }
+    }
+
+    private static void openAccounts(final Ledger ledger, final String... ownerIds) {
+        for (String ownerId : ownerIds) {
+            ledger.getBalances(ownerId);
+        }
+    }
+
+    private static long totalOf(final Ledger ledger, final int accounts) {
+        long total = 0;
+        for (int i = 0; i < accounts; i++) {
+            total += ledger.getBalance("rich" + i, CURRENCY);
+        }
+        return total;
+    }
+
+    private static Transaction transaction(final String transactionId, final double amount) {
+        return Transaction.builder()
+                .transactionId(transactionId)
+                .payerId("rich")
+                .recipientId("poor")
+                .currencyId(CURRENCY)
+                .amount(amount)
+                .type(TransactionType.TRANSFER)
+                .status(TransactionStatus.COMPLETED)
+                .build();
+    }
+
+    private static void sleep(final long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private List<Path> logFiles() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> file.getFileName().toString().endsWith(".log")).sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+}
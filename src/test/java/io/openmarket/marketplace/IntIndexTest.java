@@ -0,0 +1,45 @@
+package io.openmarket.marketplace;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class IntIndexTest {
+    @Test
+    public void test_Add_And_Lookup() {
+        IntIndex index = new IntIndex(100);
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i, index.add(i * 16));
+        }
+        assertEquals(100, index.size());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i, index.indexOf(i * 16));
+            assertEquals(i * 16, index.keyAt(i));
+        }
+        assertFalse(index.contains(1));
+    }
+
+    @Test
+    public void test_Add_Duplicate_Returns_Same_Position() {
+        IntIndex index = new IntIndex(2);
+        assertEquals(0, index.add(-5));
+        assertEquals(1, index.add(0));
+        assertEquals(0, index.add(-5));
+        assertEquals(2, index.size());
+    }
+
+    @Test
+    public void test_Add_Beyond_Size_Throws() {
+        IntIndex index = new IntIndex(1);
+        index.add(1);
+        assertThrows(IllegalStateException.class, () -> index.add(2));
+    }
+
+    @Test
+    public void test_Empty_Index() {
+        IntIndex index = new IntIndex(0);
+        assertEquals(0, index.size());
+        assertFalse(index.contains(0));
+        assertThrows(IndexOutOfBoundsException.class, () -> index.keyAt(0));
+    }
+}
@@ -2,8 +2,10 @@ package io.openmarket.marketplace;
 
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import io.openmarket.marketplace.dao.ItemDao;
 import io.openmarket.marketplace.grpc.MarketPlaceProto;
+import io.openmarket.marketplace.grpc.MarketPlaceProto.GetOrgItemsRequest;
 import io.openmarket.marketplace.model.Item;
 import io.openmarket.order.dao.OrderDao;
 import io.openmarket.order.model.ItemInfo;
@@ -15,7 +17,10 @@ import io.openmarket.transaction.model.Transaction;
 import io.openmarket.transaction.model.TransactionErrorType;
 import io.openmarket.transaction.model.TransactionStatus;
 import io.openmarket.transaction.model.TransactionType;
+import io.openmarket.transaction.service.PaymentCompletionRegistry;
 import io.openmarket.transaction.service.TransactionServiceHandler;
+import io.openmarket.transaction.service.WalletSnapshot;
+import io.openmarket.utils.Money;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
@@ -28,6 +33,9 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
@@ -36,6 +44,7 @@ public class MarketPlaceHandlerTest {
     private static final String BUYER_ID = "123";
     private static final String SELLER_ID = "321";
     private static final String TRANSACTION_ID = "abcdefg";
+    private static final long PAYMENT_TIMEOUT_MILLIS = 10;
 
     private static final String ORG_A_CURRENCY = "DashCoin";
     private static final String ORG_B_CURRENCY = "Silicoin";
@@ -97,6 +106,7 @@ public class MarketPlaceHandlerTest {
     private OrgServiceHandler orgServiceHandler;
     private MarketPlaceServiceHandler marketPlaceServiceHandler;
     private TransactionServiceHandler transactionServiceHandler;
+    private PaymentCompletionRegistry paymentCompletionRegistry;
     private TransactionServiceHandler.Stepper stepper;
     TransactionServiceHandler.Stepper mockStepper;
 
@@ -106,8 +116,8 @@ public class MarketPlaceHandlerTest {
         this.orderDao = mock(OrderDao.class);
         this.orgServiceHandler = mock(OrgServiceHandler.class);
         this.transactionServiceHandler = mock(TransactionServiceHandler.class);
-        this.marketPlaceServiceHandler = new MarketPlaceServiceHandler(itemDao, orderDao, orgServiceHandler,
-                transactionServiceHandler);
+        this.paymentCompletionRegistry = new PaymentCompletionRegistry();
+        this.marketPlaceServiceHandler = handlerBuilder().build();
         this.stepper = mock(TransactionServiceHandler.Stepper.class);
 
         mockStepper = mock(TransactionServiceHandler.Stepper.class);
@@ -127,7 +137,7 @@ public class MarketPlaceHandlerTest {
 
     @Test
     public void testConvertItemToCheckOutItem() {
-        Map<Integer, MarketPlaceProto.CheckOutItem> result = MarketPlaceServiceHandler.convertItemListToCheckOutItemMap(ImmutableList.of(
+        CheckOutItemTable result = CheckOutItemTable.of(ImmutableList.of(
                 Item.builder().itemID(1).build(),
                 Item.builder().itemID(2).build()
         ), ImmutableMap.of(1, 1, 2, 2));
@@ -139,13 +149,28 @@ public class MarketPlaceHandlerTest {
         List<Integer> failedItemIds = Arrays.asList(1, 2);
         List<MarketPlaceProto.FailedItem> failedItems = new ArrayList<>();
         List<Item> items = new ArrayList<>(Arrays.asList(ORG_A_ITEM_IN_STOCK, ORG_A_ITEM_IN_STOCK_2));
-        MarketPlaceServiceHandler.moveAllInvalidItems(failedItemIds, failedItems, items, new HashMap<>(),
+        MarketPlaceServiceHandler.moveAllInvalidItems(failedItemIds, failedItems, items, CheckOutItemTable.empty(),
                 MarketPlaceProto.FailedCheckOutCause.OUT_OF_STOCK);
         assertTrue(items.isEmpty());
         assertEquals(2, failedItems.size());
         failedItems.forEach(a -> assertEquals(MarketPlaceProto.FailedCheckOutCause.OUT_OF_STOCK, a.getCause()));
     }
 
+    @Test
+    public void testMoveAllInvalidItems_Removes_From_Index() {
+        List<MarketPlaceProto.FailedItem> failedItems = new ArrayList<>();
+        List<Item> items = new ArrayList<>(Arrays.asList(ORG_A_ITEM_IN_STOCK, ORG_A_ITEM_IN_STOCK_2));
+        CheckOutItemTable itemIndex = CheckOutItemTable.of(items, ImmutableMap.of(ORG_A_ITEM_IN_STOCK.getItemID(), 1,
+                ORG_A_ITEM_IN_STOCK_2.getItemID(), 2));
+        MarketPlaceServiceHandler.moveAllInvalidItems(ImmutableList.of(ORG_A_ITEM_IN_STOCK.getItemID()), failedItems,
+                items, itemIndex, MarketPlaceProto.FailedCheckOutCause.OUT_OF_STOCK);
+        assertEquals(ImmutableList.of(ORG_A_ITEM_IN_STOCK_2), items);
+        assertEquals(1, failedItems.size());
+        assertEquals(ORG_A_ITEM_IN_STOCK.getItemName(), failedItems.get(0).getItem().getItemName());
+        assertEquals(1, itemIndex.size());
+        assertFalse(itemIndex.contains(ORG_A_ITEM_IN_STOCK.getItemID()));
+    }
+
     @Test
     public void testMapOrgToItems() {
         List<Item> items = ImmutableList.of(ORG_A_ITEM_IN_STOCK, ORG_B_ITEM_IN_STOCK);
@@ -158,7 +183,7 @@ public class MarketPlaceHandlerTest {
         List<Item> items = ImmutableList.of(ORG_A_ITEM_IN_STOCK, ORG_A_ITEM_IN_STOCK_2);
         Map<Integer, Integer> itemIdToQuantity = ImmutableMap.of(ORG_A_ITEM_IN_STOCK.getItemID(), 1, ORG_A_ITEM_IN_STOCK_2.getItemID(), 1);
         assertEquals(ORG_A_ITEM_IN_STOCK.getItemPrice() + ORG_A_ITEM_IN_STOCK_2.getItemPrice(),
-                MarketPlaceServiceHandler.calculateTotalCost(items, itemIdToQuantity));
+                MarketPlaceServiceHandler.calculateTotalCost(ORG_A_CURRENCY, items, itemIdToQuantity));
     }
 
     @Test
@@ -252,7 +277,7 @@ public class MarketPlaceHandlerTest {
                         .build());
         assertEquals(MarketPlaceProto.Error.NONE, result.getError());
         assertResultCountMatches(0, 1, 0, result);
-        verify(orderDao, times(0)).save(any());
+        verify(stepper, times(0)).commitWith(any());
         verify(transactionServiceHandler, times(0)).createPayment(anyString(), any());
         assertEquals(MarketPlaceProto.FailedCheckOutCause.OUT_OF_STOCK,
                 result.getFailedItems(0).getCause());
@@ -295,7 +320,7 @@ public class MarketPlaceHandlerTest {
 
         assertEquals(MarketPlaceProto.Error.NONE, result.getError());
         assertResultCountMatches(0, 1, 0, result);
-        verify(orderDao, times(0)).save(any());
+        verify(stepper, times(0)).commitWith(any());
         verify(transactionServiceHandler, times(0)).createPayment(anyString(), any());
         assertEquals(MarketPlaceProto.FailedCheckOutCause.ITEM_DOES_NOT_EXIST, result.getFailedItemsList().get(0).getCause());
     }
@@ -318,7 +343,7 @@ public class MarketPlaceHandlerTest {
 
         assertEquals(MarketPlaceProto.Error.NONE, result.getError());
         assertResultCountMatches(0, 1, 0, result);
-        verify(orderDao, times(0)).save(any());
+        verify(stepper, times(0)).commitWith(any());
         verify(transactionServiceHandler, times(0)).createPayment(anyString(), any());
         verify(itemDao, times(0)).updateItemStock(anyMap());
         assertEquals(MarketPlaceProto.FailedCheckOutCause.ITEM_DOES_NOT_EXIST,
@@ -359,7 +384,7 @@ public class MarketPlaceHandlerTest {
         when(itemDao.batchLoad(anyCollection(), any())).thenAnswer(a -> {
             return new ArrayList<>(ImmutableList.of(ORG_A_ITEM_IN_STOCK, ORG_B_ITEM_IN_STOCK));
         });
-        when(transactionServiceHandler.createPaymentStepper(any(), any())).thenReturn(stepper);
+        when(transactionServiceHandler.preparePaymentStepper(any(), any())).thenReturn(stepper);
         when(orgServiceHandler.getOrgByName(ORGANIZATION_A.getOrgName())).thenReturn(Optional.of(ORGANIZATION_A));
         when(orgServiceHandler.getOrgByName(ORGANIZATION_B.getOrgName())).thenReturn(Optional.of(ORGANIZATION_B));
         when(itemDao.updateItemStock(anyMap())).thenReturn(new ArrayList<>());
@@ -372,6 +397,157 @@ public class MarketPlaceHandlerTest {
         assertResultCountMatches(2, 0, 0, result);
     }
 
+    @Test
+    public void test_CheckOut_Failing_After_A_Payment_Returns_Paid_Orders() {
+        Map<Integer, Integer> cart = ImmutableMap.of(ORG_A_ITEM_IN_STOCK.getItemID(), 1,
+                ORG_B_ITEM_IN_STOCK.getItemID(), 1);
+        mockSuccessTransaction();
+        when(itemDao.batchLoad(anyCollection(), any())).thenAnswer(a -> {
+            return new ArrayList<>(ImmutableList.of(ORG_A_ITEM_IN_STOCK, ORG_B_ITEM_IN_STOCK));
+        });
+        when(orgServiceHandler.getOrgByName(ORGANIZATION_A.getOrgName())).thenReturn(Optional.of(ORGANIZATION_A));
+        when(orgServiceHandler.getOrgByName(ORGANIZATION_B.getOrgName())).thenReturn(Optional.of(ORGANIZATION_B));
+        when(itemDao.updateItemStock(anyMap())).thenReturn(new ArrayList<>());
+        doNothing().doThrow(new IllegalStateException("Throttled")).when(stepper).commitWith(any());
+
+        MarketPlaceProto.CheckOutResult result = marketPlaceServiceHandler
+                .checkout(BUYER_ID, MarketPlaceProto.CheckOutRequest.newBuilder()
+                        .putAllItems(cart)
+                        .build());
+
+        // A bare error would release the idempotency key, and a retry would pay for the first order again.
+        assertEquals(MarketPlaceProto.Error.NONE, result.getError());
+        assertResultCountMatches(1, 0, 0, result);
+    }
+
+    @Test
+    public void test_CheckOut_Unreadable_Payment_Status_Is_Action_Required() {
+        Map<Integer, Integer> cart = ImmutableMap.of(ORG_A_ITEM_IN_STOCK.getItemID(), 1);
+        mockSuccessTransaction();
+        when(transactionServiceHandler.getTransactionStatus(anyString()))
+                .thenThrow(new IllegalStateException("Throttled"));
+        when(itemDao.batchLoad(anyCollection(), any())).thenAnswer(a -> {
+            return new ArrayList<>(ImmutableList.of(ORG_A_ITEM_IN_STOCK));
+        });
+        when(orgServiceHandler.getOrgByName(ORGANIZATION_A.getOrgName())).thenReturn(Optional.of(ORGANIZATION_A));
+        when(itemDao.updateItemStock(anyMap())).thenReturn(new ArrayList<>());
+
+        MarketPlaceProto.CheckOutResult result = marketPlaceServiceHandler
+                .checkout(BUYER_ID, MarketPlaceProto.CheckOutRequest.newBuilder()
+                        .putAllItems(cart)
+                        .build());
+
+        assertEquals(MarketPlaceProto.Error.NONE, result.getError());
+        assertResultCountMatches(0, 0, 1, result);
+    }
+
+    @Test
+    public void test_Parallel_CheckOut_Multiple_Organization_In_Stock_Items() {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        MarketPlaceServiceHandler parallelHandler = handlerBuilder().checkoutExecutor(executor).build();
+        Map<Integer, Integer> cart = ImmutableMap.of(ORG_A_ITEM_IN_STOCK.getItemID(), 1,
+                ORG_B_ITEM_IN_STOCK.getItemID(), 1);
+        mockSuccessTransaction();
+        when(itemDao.batchLoad(anyCollection(), any())).thenAnswer(a -> {
+            return new ArrayList<>(ImmutableList.of(ORG_A_ITEM_IN_STOCK, ORG_B_ITEM_IN_STOCK));
+        });
+        when(orgServiceHandler.getOrgByName(ORGANIZATION_A.getOrgName())).thenReturn(Optional.of(ORGANIZATION_A));
+        when(orgServiceHandler.getOrgByName(ORGANIZATION_B.getOrgName())).thenReturn(Optional.of(ORGANIZATION_B));
+        when(itemDao.updateItemStock(anyMap())).thenReturn(new ArrayList<>());
+        MarketPlaceProto.CheckOutResult result = parallelHandler
+                .checkout(BUYER_ID, MarketPlaceProto.CheckOutRequest.newBuilder()
+                        .putAllItems(cart)
+                        .build());
+        executor.shutdown();
+
+        assertEquals(MarketPlaceProto.Error.NONE, result.getError());
+        assertResultCountMatches(2, 0, 0, result);
+        verify(stepper, times(2)).commitWith(any());
+    }
+
+    @Test
+    public void test_CheckOut_With_Stock_Reservation_Engine() {
+        StockReservationEngine engine = new StockReservationEngine(itemDao, 1000);
+        MarketPlaceServiceHandler reservingHandler = handlerBuilder().stockReservationEngine(engine).build();
+        Map<Integer, Integer> cart = ImmutableMap.of(ORG_A_ITEM_IN_STOCK.getItemID(), 1,
+                ORG_A_ITEM_OUT_OF_STOCK.getItemID(), 1);
+        mockSuccessTransaction();
+        when(itemDao.batchLoad(anyCollection(), any())).thenAnswer(a -> {
+            return new ArrayList<>(ImmutableList.of(ORG_A_ITEM_IN_STOCK, ORG_A_ITEM_OUT_OF_STOCK));
+        });
+        when(orgServiceHandler.getOrgByName(ORGANIZATION_A.getOrgName())).thenReturn(Optional.of(ORGANIZATION_A));
+        MarketPlaceProto.CheckOutResult result = reservingHandler
+                .checkout(BUYER_ID, MarketPlaceProto.CheckOutRequest.newBuilder()
+                        .putAllItems(cart)
+                        .build());
+        assertResultCountMatches(1, 1, 0, result);
+        assertEquals(MarketPlaceProto.FailedCheckOutCause.OUT_OF_STOCK,
+                result.getFailedItemsList().get(0).getCause());
+        assertEquals(ORG_A_ITEM_IN_STOCK.getStock() - 1, engine.getAvailableStock(ORG_A_ITEM_IN_STOCK.getItemID()));
+        verify(itemDao, never()).updateItemStock(anyMap());
+
+        when(itemDao.updateItemStock(anyMap())).thenReturn(new ArrayList<>());
+        engine.flush();
+        verify(itemDao, times(1)).updateItemStock(ImmutableMap.of(ORG_A_ITEM_IN_STOCK.getItemID(), 1));
+    }
+
+    @Test
+    public void test_CheckOut_Notifies_Listener_Per_Organization() {
+        Map<Integer, Integer> cart = ImmutableMap.of(ORG_A_ITEM_IN_STOCK.getItemID(), 1,
+                ORG_B_ITEM_IN_STOCK.getItemID(), 1);
+        mockSuccessTransaction();
+        when(itemDao.batchLoad(anyCollection(), any())).thenAnswer(a -> {
+            return new ArrayList<>(ImmutableList.of(ORG_A_ITEM_IN_STOCK, ORG_B_ITEM_IN_STOCK));
+        });
+        when(orgServiceHandler.getOrgByName(ORGANIZATION_A.getOrgName())).thenReturn(Optional.of(ORGANIZATION_A));
+        when(orgServiceHandler.getOrgByName(ORGANIZATION_B.getOrgName())).thenReturn(Optional.of(ORGANIZATION_B));
+        when(itemDao.updateItemStock(anyMap())).thenReturn(new ArrayList<>());
+        Map<String, MarketPlaceProto.CheckOutResult> settled = new HashMap<>();
+        MarketPlaceProto.CheckOutResult result = marketPlaceServiceHandler
+                .checkout(BUYER_ID, MarketPlaceProto.CheckOutRequest.newBuilder()
+                        .putAllItems(cart)
+                        .build(), new CheckOutListener() {
+                    @Override
+                    public void onSubOrderSettled(String orgId, MarketPlaceProto.CheckOutResult subOrderResult) {
+                        settled.put(orgId, subOrderResult);
+                    }
+
+                    @Override
+                    public void setOnCancelHandler(Runnable onCancelHandler) {}
+                });
+        assertResultCountMatches(2, 0, 0, result);
+        assertEquals(2, settled.size());
+        assertResultCountMatches(1, 0, 0, settled.get(ORGANIZATION_A.getOrgName()));
+        assertResultCountMatches(1, 0, 0, settled.get(ORGANIZATION_B.getOrgName()));
+    }
+
+    @Test
+    public void test_Cancelled_CheckOut_Skips_Organizations() {
+        Map<Integer, Integer> cart = ImmutableMap.of(ORG_A_ITEM_IN_STOCK.getItemID(), 1);
+        mockSuccessTransaction();
+        when(itemDao.batchLoad(anyCollection(), any())).thenAnswer(a -> {
+            return new ArrayList<>(ImmutableList.of(ORG_A_ITEM_IN_STOCK));
+        });
+        MarketPlaceProto.CheckOutResult result = marketPlaceServiceHandler
+                .checkout(BUYER_ID, MarketPlaceProto.CheckOutRequest.newBuilder()
+                        .putAllItems(cart)
+                        .build(), new CheckOutListener() {
+                    @Override
+                    public void onSubOrderSettled(String orgId, MarketPlaceProto.CheckOutResult subOrderResult) {
+                        fail("No sub-order should settle");
+                    }
+
+                    @Override
+                    public void setOnCancelHandler(Runnable onCancelHandler) {
+                        // The client has already gone away.
+                        onCancelHandler.run();
+                    }
+                });
+        assertResultCountMatches(0, 0, 0, result);
+        verify(stepper, never()).commitWith(any());
+        verify(itemDao, never()).updateItemStock(anyMap());
+    }
+
     @Test
     public void test_CheckOut_Multiple_Organizations_Mixed_Items() {
         Map<Integer, Integer> cart = ImmutableMap.of(ORG_A_ITEM_IN_STOCK.getItemID(), 1,
@@ -417,7 +593,7 @@ public class MarketPlaceHandlerTest {
                         .putAllItems(cart)
                         .build());
         assertEquals(MarketPlaceProto.Error.INTERNAL_SERVICE_ERROR, result.getError());
-        verify(orderDao, times(0)).save(any());
+        verify(stepper, times(0)).commitWith(any());
         verify(transactionServiceHandler, times(0)).createPayment(anyString(), any());
         verify(itemDao, times(0)).updateItemStock(any());
     }
@@ -425,7 +601,7 @@ public class MarketPlaceHandlerTest {
     @Test
     public void test_Insufficient_Balance_Before_Order() {
         Map<Integer, Integer> cart = ImmutableMap.of(ORG_A_ITEM_IN_STOCK.getItemID(), 1);
-        when(transactionServiceHandler.getBalanceForCurrency(BUYER_ID, ORG_A_CURRENCY)).thenReturn(0.0);
+        mockWalletSnapshot(0.0);
         when(itemDao.batchLoad(anyCollection(), any())).thenAnswer(a -> {
             return new ArrayList<>(ImmutableList.of(ORG_A_ITEM_IN_STOCK));
         });
@@ -435,7 +611,7 @@ public class MarketPlaceHandlerTest {
                         .putAllItems(cart)
                         .build());
         assertResultCountMatches(0, 1, 0, result);
-        verify(orderDao, times(0)).save(any());
+        verify(stepper, times(0)).commitWith(any());
         verify(transactionServiceHandler, times(0)).createPayment(anyString(), any());
         verify(itemDao, times(0)).updateItemStock(any());
         assertEquals(MarketPlaceProto.FailedCheckOutCause.INSUFFICIENT_BALANCE,
@@ -445,8 +621,8 @@ public class MarketPlaceHandlerTest {
     @Test
     public void test_Insufficient_Balance_After_Order() {
         Map<Integer, Integer> cart = ImmutableMap.of(ORG_A_ITEM_IN_STOCK.getItemID(), 1);
-        when(transactionServiceHandler.createPaymentStepper(eq(BUYER_ID), any())).thenReturn(this.stepper);
-        when(transactionServiceHandler.getBalanceForCurrency(BUYER_ID, ORG_A_CURRENCY)).thenReturn(9999.0);
+        when(transactionServiceHandler.preparePaymentStepper(eq(BUYER_ID), any())).thenReturn(this.stepper);
+        mockWalletSnapshot(9999.0);
         when(transactionServiceHandler.createPayment(eq(BUYER_ID), any())).thenReturn(TRANSACTION_ID);
         when(transactionServiceHandler.getTransactionStatus(anyString())).thenReturn(TransactionStatus.ERROR);
         when(itemDao.batchLoad(anyCollection(), any())).thenAnswer(a -> {
@@ -465,11 +641,43 @@ public class MarketPlaceHandlerTest {
                 result.getFailedItemsList().get(0).getCause());
     }
 
+    @Test
+    public void test_Insufficient_Balance_Across_Organizations() {
+        // Each org's order costs 10, but the user can only afford one of them.
+        Organization orgBWithSameCurrency = Organization.builder()
+                .orgName(ORGANIZATION_B.getOrgName())
+                .orgCurrency(ORG_A_CURRENCY)
+                .orgOwnerId(SELLER_ID)
+                .orgDescription("")
+                .orgPosterS3Key("")
+                .orgPortraitS3Key("")
+                .build();
+        Map<Integer, Integer> cart = ImmutableMap.of(ORG_A_ITEM_IN_STOCK.getItemID(), 1,
+                ORG_B_ITEM_IN_STOCK.getItemID(), 1);
+        mockSuccessTransaction();
+        mockWalletSnapshot(15.0);
+        when(itemDao.batchLoad(anyCollection(), any())).thenAnswer(a -> {
+            return new ArrayList<>(ImmutableList.of(ORG_A_ITEM_IN_STOCK, ORG_B_ITEM_IN_STOCK));
+        });
+        when(orgServiceHandler.getOrgByName(ORGANIZATION_A.getOrgName())).thenReturn(Optional.of(ORGANIZATION_A));
+        when(orgServiceHandler.getOrgByName(ORGANIZATION_B.getOrgName())).thenReturn(Optional.of(orgBWithSameCurrency));
+        when(itemDao.updateItemStock(anyMap())).thenReturn(new ArrayList<>());
+        MarketPlaceProto.CheckOutResult result = marketPlaceServiceHandler
+                .checkout(BUYER_ID, MarketPlaceProto.CheckOutRequest.newBuilder()
+                        .putAllItems(cart)
+                        .build());
+        assertResultCountMatches(1, 1, 0, result);
+        assertEquals(MarketPlaceProto.FailedCheckOutCause.INSUFFICIENT_BALANCE,
+                result.getFailedItemsList().get(0).getCause());
+        verify(transactionServiceHandler, times(1)).getWalletSnapshot(BUYER_ID);
+        verify(itemDao, times(1)).updateItemStock(anyMap());
+    }
+
     @Test
     public void test_Unknown_Payment_Status() {
         Map<Integer, Integer> cart = ImmutableMap.of(ORG_A_ITEM_IN_STOCK.getItemID(), 1);
-        when(transactionServiceHandler.getBalanceForCurrency(BUYER_ID, ORG_A_CURRENCY)).thenReturn(9999.0);
-        when(transactionServiceHandler.createPaymentStepper(any(), any())).thenReturn(stepper);
+        mockWalletSnapshot(9999.0);
+        when(transactionServiceHandler.preparePaymentStepper(any(), any())).thenReturn(stepper);
 //        when(transactionServiceHandler.createPayment(eq(BUYER_ID), any())).thenReturn(TRANSACTION_ID);
         when(transactionServiceHandler.getTransactionStatus(anyString())).thenReturn(TransactionStatus.PENDING);
         when(itemDao.batchLoad(anyCollection(), any())).thenAnswer(a -> {
@@ -482,7 +690,31 @@ public class MarketPlaceHandlerTest {
                         .putAllItems(cart)
                         .build());
         assertResultCountMatches(0, 0, 1, result);
-        verify(orderDao, times(1)).save(argThat(a -> a.getStatus().equals(OrderStatus.PENDING_PAYMENT)));
+        verify(stepper, times(1)).commitWith(argThat(a -> ((Order) a).getStatus().equals(OrderStatus.PENDING_PAYMENT)
+                && ((Order) a).getTransactionId().equals(TRANSACTION_ID)));
+    }
+
+    @Test
+    public void test_Payment_Completion_Signal_Skips_Status_Read() {
+        Map<Integer, Integer> cart = ImmutableMap.of(ORG_A_ITEM_IN_STOCK.getItemID(), 1);
+        mockWalletSnapshot(9999.0);
+        when(transactionServiceHandler.preparePaymentStepper(any(), any())).thenReturn(stepper);
+        doAnswer(a -> {
+            paymentCompletionRegistry.onTransactionCompleted(TRANSACTION_ID, TransactionStatus.COMPLETED);
+            return null;
+        }).when(stepper).commitWith(any());
+        when(itemDao.batchLoad(anyCollection(), any())).thenAnswer(a -> {
+            return new ArrayList<>(ImmutableList.of(ORG_A_ITEM_IN_STOCK));
+        });
+        when(itemDao.updateItemStock(any())).thenReturn(new ArrayList<>());
+        when(orgServiceHandler.getOrgByName(ORGANIZATION_A.getOrgName())).thenReturn(Optional.of(ORGANIZATION_A));
+        MarketPlaceProto.CheckOutResult result = marketPlaceServiceHandler
+                .checkout(BUYER_ID, MarketPlaceProto.CheckOutRequest.newBuilder()
+                        .putAllItems(cart)
+                        .build());
+        assertResultCountMatches(1, 0, 0, result);
+        verify(transactionServiceHandler, times(0)).getTransactionStatus(anyString());
+        assertTrue(paymentCompletionRegistry.getPendingTransactionIds().isEmpty());
     }
 
     @Test
@@ -506,11 +738,137 @@ public class MarketPlaceHandlerTest {
         return true;
     }
 
+    @Test
+    public void testGetListingByOrgId_Is_Cached() throws Exception {
+        mockListing(ImmutableList.of(listedItem(2), listedItem(1)));
+        GetOrgItemsRequest request = GetOrgItemsRequest.newBuilder().setOrgId(ORGANIZATION_A.getOrgName()).build();
+
+        MarketPlaceProto.GetOrgItemsResult result = marketPlaceServiceHandler.getListingByOrgId(request);
+        marketPlaceServiceHandler.getListingByOrgId(request);
+
+        assertEquals(2, result.getItemsCount());
+        assertEquals(1, result.getItems(0).getItemId());
+        assertEquals(2, result.getItems(1).getItemId());
+        verify(itemDao, times(1)).getItemIdsByOrg(ORGANIZATION_A.getOrgName());
+        assertEquals(1, marketPlaceServiceHandler.getListingCacheStats().hitCount());
+    }
+
+    @Test
+    public void testGetListingPage() throws Exception {
+        mockListing(ImmutableList.of(listedItem(1), listedItem(2), listedItem(3)));
+        GetOrgItemsRequest request = GetOrgItemsRequest.newBuilder().setOrgId(ORGANIZATION_A.getOrgName()).build();
+
+        ListingPage first = marketPlaceServiceHandler.getListingPage(request, null, 2);
+        assertEquals(2, first.getResult().getItemsCount());
+        assertTrue(first.hasNextPage());
+
+        ListingPage second = marketPlaceServiceHandler.getListingPage(request, first.getNextPageToken(), 2);
+        assertEquals(1, second.getResult().getItemsCount());
+        assertEquals(3, second.getResult().getItems(0).getItemId());
+        assertFalse(second.hasNextPage());
+    }
+
+    @Test
+    public void testGetListingPage_Invalid_Request() throws Exception {
+        mockListing(ImmutableList.of(listedItem(1)));
+        GetOrgItemsRequest request = GetOrgItemsRequest.newBuilder().setOrgId(ORGANIZATION_A.getOrgName()).build();
+        assertThrows(IllegalArgumentException.class, () -> marketPlaceServiceHandler.getListingPage(request, null, 0));
+        assertThrows(IllegalArgumentException.class, () -> marketPlaceServiceHandler.getListingPage(request, null,
+                MarketPlaceServiceHandler.MAX_LISTING_PAGE_SIZE + 1));
+        assertThrows(IllegalArgumentException.class, () -> marketPlaceServiceHandler.getListingPage(request, "abc", 1));
+    }
+
+    @Test
+    public void test_CheckOut_Invalidates_Cached_Listing() throws Exception {
+        mockListing(ImmutableList.of(listedItem(ORG_A_ITEM_IN_STOCK.getItemID())));
+        GetOrgItemsRequest request = GetOrgItemsRequest.newBuilder().setOrgId(ORGANIZATION_A.getOrgName()).build();
+        marketPlaceServiceHandler.getListingByOrgId(request);
+
+        mockSuccessTransaction();
+        when(itemDao.batchLoad(eq(ImmutableSet.of(ORG_A_ITEM_IN_STOCK.getItemID())), any()))
+                .thenAnswer(a -> new ArrayList<>(ImmutableList.of(ORG_A_ITEM_IN_STOCK)));
+        when(orgServiceHandler.getOrgByName(ORGANIZATION_A.getOrgName())).thenReturn(Optional.of(ORGANIZATION_A));
+        when(itemDao.updateItemStock(anyMap())).thenReturn(new ArrayList<>());
+        marketPlaceServiceHandler.checkout(BUYER_ID, MarketPlaceProto.CheckOutRequest.newBuilder()
+                .putItems(ORG_A_ITEM_IN_STOCK.getItemID(), 1)
+                .build());
+
+        marketPlaceServiceHandler.getListingByOrgId(request);
+        verify(itemDao, times(2)).getItemIdsByOrg(ORGANIZATION_A.getOrgName());
+    }
+
+    @Test
+    public void test_Stock_Write_Behind_Invalidates_Cached_Listing() throws Exception {
+        StockReservationEngine engine = new StockReservationEngine(itemDao, 1000);
+        MarketPlaceServiceHandler reservingHandler = handlerBuilder().stockReservationEngine(engine).build();
+        mockListing(ImmutableList.of(listedItem(ORG_A_ITEM_IN_STOCK.getItemID())));
+        GetOrgItemsRequest request = GetOrgItemsRequest.newBuilder().setOrgId(ORGANIZATION_A.getOrgName()).build();
+        reservingHandler.getListingByOrgId(request);
+
+        mockSuccessTransaction();
+        when(itemDao.batchLoad(eq(ImmutableSet.of(ORG_A_ITEM_IN_STOCK.getItemID())), any()))
+                .thenAnswer(a -> new ArrayList<>(ImmutableList.of(ORG_A_ITEM_IN_STOCK)));
+        when(orgServiceHandler.getOrgByName(ORGANIZATION_A.getOrgName())).thenReturn(Optional.of(ORGANIZATION_A));
+        reservingHandler.checkout(BUYER_ID, MarketPlaceProto.CheckOutRequest.newBuilder()
+                .putItems(ORG_A_ITEM_IN_STOCK.getItemID(), 1)
+                .build());
+        // The stock is only in memory until it is written back.
+        reservingHandler.getListingByOrgId(request);
+        verify(itemDao, times(1)).getItemIdsByOrg(ORGANIZATION_A.getOrgName());
+
+        when(itemDao.updateItemStock(anyMap())).thenReturn(new ArrayList<>());
+        engine.flush();
+        reservingHandler.getListingByOrgId(request);
+        verify(itemDao, times(2)).getItemIdsByOrg(ORGANIZATION_A.getOrgName());
+    }
+
+    @Test
+    public void test_Invalidated_Listing_Is_Reloaded() throws Exception {
+        mockListing(ImmutableList.of(listedItem(1)));
+        GetOrgItemsRequest request = GetOrgItemsRequest.newBuilder().setOrgId(ORGANIZATION_A.getOrgName()).build();
+        marketPlaceServiceHandler.getListingByOrgId(request);
+
+        marketPlaceServiceHandler.invalidateListing(ORGANIZATION_A.getOrgName());
+        marketPlaceServiceHandler.getListingByOrgId(request);
+        verify(itemDao, times(2)).getItemIdsByOrg(ORGANIZATION_A.getOrgName());
+    }
+
+    private void mockListing(List<Item> items) throws Exception {
+        when(itemDao.getItemIdsByOrg(ORGANIZATION_A.getOrgName()))
+                .thenReturn(items.stream().map(Item::getItemID).collect(Collectors.toList()));
+        when(itemDao.batchLoad(anyList(), any())).thenAnswer(a -> new ArrayList<>(items));
+    }
+
+    private static Item listedItem(int itemId) {
+        return Item.builder().itemID(itemId).itemName("Item" + itemId)
+                .belongTo(ORGANIZATION_A.getOrgName()).itemPrice(10.0).stock(10)
+                .itemDescription("").itemCategory("").itemImageLink("").build();
+    }
+
+    private MarketPlaceServiceHandler.MarketPlaceServiceHandlerBuilder handlerBuilder() {
+        return MarketPlaceServiceHandler.builder()
+                .itemDao(itemDao)
+                .orderDao(orderDao)
+                .orgServiceHandler(orgServiceHandler)
+                .transactionServiceHandler(transactionServiceHandler)
+                .paymentCompletionRegistry(paymentCompletionRegistry)
+                .paymentTimeoutMillis(PAYMENT_TIMEOUT_MILLIS);
+    }
+
     private void mockSuccessTransaction() {
         when(transactionServiceHandler.createPayment(eq(BUYER_ID), any())).thenReturn(TRANSACTION_ID);
         when(transactionServiceHandler.getTransactionStatus(anyString())).thenReturn(TransactionStatus.COMPLETED);
-        when(transactionServiceHandler.getBalanceForCurrency(eq(BUYER_ID), anyString())).thenReturn(Double.MAX_VALUE);
-        when(transactionServiceHandler.createPaymentStepper(any(), any())).thenReturn(stepper);
+        mockWalletSnapshot(Long.MAX_VALUE, Long.MAX_VALUE);
+        when(transactionServiceHandler.preparePaymentStepper(any(), any())).thenReturn(stepper);
+    }
+
+    private void mockWalletSnapshot(double balance) {
+        mockWalletSnapshot(Money.toMinorUnits(ORG_A_CURRENCY, balance), Money.toMinorUnits(ORG_B_CURRENCY, balance));
+    }
+
+    private void mockWalletSnapshot(long orgACurrencyBalance, long orgBCurrencyBalance) {
+        when(transactionServiceHandler.getWalletSnapshot(BUYER_ID)).thenReturn(new WalletSnapshot(BUYER_ID,
+                ImmutableMap.of(ORG_A_CURRENCY, orgACurrencyBalance, ORG_B_CURRENCY, orgBCurrencyBalance)));
     }
 
     private static void assertResultCountMatches(int numSuccess, int numFailed, int numUnknown, MarketPlaceProto.CheckOutResult result) {
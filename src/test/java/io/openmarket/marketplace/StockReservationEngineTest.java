@@ -0,0 +1,179 @@
+package io.openmarket.marketplace;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import io.openmarket.marketplace.dao.ItemDao;
+import io.openmarket.marketplace.model.Item;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+public class StockReservationEngineTest {
+    private static final Item ITEM = Item.builder().itemID(1).itemName("Cup")
+            .belongTo("A+").itemPrice(10.0).stock(3).build();
+    private static final long WRITE_BEHIND_MILLIS = 1000;
+
+    private ItemDao itemDao;
+    private StockReservationEngine engine;
+
+    @BeforeEach
+    public void setup() {
+        this.itemDao = mock(ItemDao.class);
+        this.engine = new StockReservationEngine(itemDao, WRITE_BEHIND_MILLIS);
+    }
+
+    @Test
+    public void test_Reserve_Decrements_In_Memory() {
+        StockReservationEngine.Reservation reservation = engine.reserve(ImmutableList.of(ITEM),
+                ImmutableMap.of(ITEM.getItemID(), 2));
+        assertTrue(reservation.getOutOfStockItemIds().isEmpty());
+        assertEquals(1, engine.getAvailableStock(ITEM.getItemID()));
+        verify(itemDao, never()).updateItemStock(anyMap());
+    }
+
+    @Test
+    public void test_Reserve_Out_Of_Stock() {
+        engine.reserve(ImmutableList.of(ITEM), ImmutableMap.of(ITEM.getItemID(), 2));
+        StockReservationEngine.Reservation reservation = engine.reserve(ImmutableList.of(ITEM),
+                ImmutableMap.of(ITEM.getItemID(), 2));
+        assertEquals(ImmutableList.of(ITEM.getItemID()), reservation.getOutOfStockItemIds());
+        assertTrue(reservation.getQuantities().isEmpty());
+        assertEquals(1, engine.getAvailableStock(ITEM.getItemID()));
+    }
+
+    @Test
+    public void test_Release_Returns_Stock() {
+        StockReservationEngine.Reservation reservation = engine.reserve(ImmutableList.of(ITEM),
+                ImmutableMap.of(ITEM.getItemID(), 2));
+        engine.release(reservation);
+        engine.release(reservation);
+        assertEquals(3, engine.getAvailableStock(ITEM.getItemID()));
+        engine.flush();
+        verify(itemDao, never()).updateItemStock(anyMap());
+    }
+
+    @Test
+    public void test_Flush_Writes_Net_Decrements() {
+        when(itemDao.updateItemStock(anyMap())).thenReturn(new ArrayList<>());
+        engine.confirm(engine.reserve(ImmutableList.of(ITEM), ImmutableMap.of(ITEM.getItemID(), 1)));
+        engine.confirm(engine.reserve(ImmutableList.of(ITEM), ImmutableMap.of(ITEM.getItemID(), 2)));
+        engine.flush();
+        engine.flush();
+        verify(itemDao, times(1)).updateItemStock(ImmutableMap.of(ITEM.getItemID(), 3));
+        assertEquals(0, engine.getAvailableStock(ITEM.getItemID()));
+    }
+
+    @Test
+    public void test_Flush_Retries_On_Failure() {
+        when(itemDao.updateItemStock(anyMap())).thenThrow(new IllegalStateException()).thenReturn(new ArrayList<>());
+        engine.confirm(engine.reserve(ImmutableList.of(ITEM), ImmutableMap.of(ITEM.getItemID(), 1)));
+        engine.flush();
+        engine.flush();
+        verify(itemDao, times(2)).updateItemStock(ImmutableMap.of(ITEM.getItemID(), 1));
+    }
+
+    @Test
+    public void test_Expired_Reservation_Returns_Stock() {
+        StockReservationEngine expiringEngine = new StockReservationEngine(itemDao, WRITE_BEHIND_MILLIS, 0);
+        StockReservationEngine.Reservation reservation = expiringEngine.reserve(ImmutableList.of(ITEM),
+                ImmutableMap.of(ITEM.getItemID(), 3));
+        expiringEngine.expireReservations();
+        assertEquals(3, expiringEngine.getAvailableStock(ITEM.getItemID()));
+        assertFalse(expiringEngine.confirm(reservation));
+    }
+
+    @Test
+    public void test_Confirming_Expired_Reservation_Records_Sale() {
+        when(itemDao.updateItemStock(anyMap())).thenReturn(new ArrayList<>());
+        StockReservationEngine expiringEngine = new StockReservationEngine(itemDao, WRITE_BEHIND_MILLIS, 0);
+        StockReservationEngine.Reservation reservation = expiringEngine.reserve(ImmutableList.of(ITEM),
+                ImmutableMap.of(ITEM.getItemID(), 2));
+        expiringEngine.expireReservations();
+
+        assertFalse(expiringEngine.confirm(reservation));
+        assertEquals(1, expiringEngine.getAvailableStock(ITEM.getItemID()));
+        expiringEngine.flush();
+        verify(itemDao).updateItemStock(ImmutableMap.of(ITEM.getItemID(), 2));
+    }
+
+    @Test
+    public void test_Rejected_Decrement_Writes_Available_Stock_And_Keeps_Rest() {
+        when(itemDao.updateItemStock(ImmutableMap.of(ITEM.getItemID(), 3)))
+                .thenReturn(new ArrayList<>(ImmutableList.of(ITEM.getItemID())));
+        when(itemDao.updateItemStock(ImmutableMap.of(ITEM.getItemID(), 1))).thenReturn(new ArrayList<>());
+        when(itemDao.updateItemStock(ImmutableMap.of(ITEM.getItemID(), 2))).thenReturn(new ArrayList<>());
+        when(itemDao.batchLoad(anyCollection(), any()))
+                .thenReturn(ImmutableList.of(itemWithStock(1)));
+        engine.confirm(engine.reserve(ImmutableList.of(ITEM), ImmutableMap.of(ITEM.getItemID(), 3)));
+
+        engine.flush();
+        engine.flush();
+        verify(itemDao).updateItemStock(ImmutableMap.of(ITEM.getItemID(), 1));
+        verify(itemDao).updateItemStock(ImmutableMap.of(ITEM.getItemID(), 2));
+    }
+
+    @Test
+    public void test_Refresh_Reloads_Reserved_Items_And_Drops_Idle_Ones() {
+        StockReservationEngine.Reservation reservation = engine.reserve(ImmutableList.of(ITEM),
+                ImmutableMap.of(ITEM.getItemID(), 1));
+        when(itemDao.batchLoad(anyCollection(), any())).thenReturn(ImmutableList.of(itemWithStock(10)));
+
+        engine.refreshStock();
+        // The held reservation isn't in the database yet.
+        assertEquals(9, engine.getAvailableStock(ITEM.getItemID()));
+        engine.refreshStock();
+        assertEquals(9, engine.getAvailableStock(ITEM.getItemID()));
+        verify(itemDao, times(1)).batchLoad(anyCollection(), any());
+
+        engine.release(reservation);
+        engine.refreshStock();
+        assertEquals(-1, engine.getAvailableStock(ITEM.getItemID()));
+    }
+
+    @Test
+    public void test_Listener_Told_Orgs_Of_Written_And_Reloaded_Stock() {
+        List<String> changedOrgIds = new ArrayList<>();
+        engine.setStockChangeListener(changedOrgIds::add);
+        when(itemDao.updateItemStock(anyMap())).thenReturn(new ArrayList<>());
+        engine.confirm(engine.reserve(ImmutableList.of(ITEM), ImmutableMap.of(ITEM.getItemID(), 1)));
+
+        engine.flush();
+        assertEquals(ImmutableList.of(ITEM.getBelongTo()), changedOrgIds);
+
+        // Reloading the stock the engine already has isn't a change.
+        when(itemDao.batchLoad(anyCollection(), any())).thenReturn(ImmutableList.of(itemWithStock(2)));
+        engine.refreshStock();
+        assertEquals(1, changedOrgIds.size());
+
+        engine.reserve(ImmutableList.of(ITEM), ImmutableMap.of(ITEM.getItemID(), 1));
+        when(itemDao.batchLoad(anyCollection(), any())).thenReturn(ImmutableList.of(itemWithStock(10)));
+        engine.refreshStock();
+        assertEquals(ImmutableList.of(ITEM.getBelongTo(), ITEM.getBelongTo()), changedOrgIds);
+    }
+
+    @Test
+    public void test_Tracked_Items_Are_Bounded() {
+        StockReservationEngine smallEngine = new StockReservationEngine(itemDao, WRITE_BEHIND_MILLIS, 60000, 1);
+        Item other = Item.builder().itemID(2).itemName("Plate").belongTo("A+").itemPrice(10.0).stock(3).build();
+        StockReservationEngine.Reservation held = smallEngine.reserve(ImmutableList.of(ITEM),
+                ImmutableMap.of(ITEM.getItemID(), 1));
+
+        assertEquals(ImmutableList.of(other.getItemID()), smallEngine.reserve(ImmutableList.of(other),
+                ImmutableMap.of(other.getItemID(), 1)).getOutOfStockItemIds());
+
+        smallEngine.release(held);
+        assertTrue(smallEngine.reserve(ImmutableList.of(other), ImmutableMap.of(other.getItemID(), 1))
+                .getOutOfStockItemIds().isEmpty());
+        assertEquals(-1, smallEngine.getAvailableStock(ITEM.getItemID()));
+    }
+
+    private static Item itemWithStock(final int stock) {
+        return Item.builder().itemID(ITEM.getItemID()).itemName(ITEM.getItemName())
+                .belongTo(ITEM.getBelongTo()).itemPrice(ITEM.getItemPrice()).stock(stock).build();
+    }
+}
@@ -0,0 +1,203 @@
+package io.openmarket.organization.airdrop;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import io.openmarket.organization.OrgServiceHandler;
+import io.openmarket.organization.grpc.OrganizationOuterClass.GetFollowerRequest;
+import io.openmarket.organization.grpc.OrganizationOuterClass.GetFollowerResult;
+import io.openmarket.organization.model.Organization;
+import io.openmarket.transaction.exception.BulkPaymentException;
+import io.openmarket.transaction.grpc.TransactionProto;
+import io.openmarket.transaction.model.TransactionStatus;
+import io.openmarket.transaction.service.TransactionServiceHandler;
+import io.openmarket.transaction.service.WalletSnapshot;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+public class FollowerAirdropTest {
+    private static final String AIRDROP_ID = "drop1";
+    private static final String ORG_NAME = "testOrg";
+    private static final String CURRENCY = "DashCoin";
+
+    private OrgServiceHandler orgHandler;
+    private TransactionServiceHandler transactionHandler;
+    private AirdropReceiptDao receiptDao;
+    private FollowerAirdrop airdrop;
+
+    @BeforeEach
+    public void setup() {
+        this.orgHandler = mock(OrgServiceHandler.class);
+        this.transactionHandler = mock(TransactionServiceHandler.class);
+        this.receiptDao = mock(AirdropReceiptDao.class);
+        this.airdrop = new FollowerAirdrop(orgHandler, transactionHandler, receiptDao, 2, 1);
+        when(orgHandler.getOrgByName(ORG_NAME)).thenReturn(Optional.of(Organization.builder()
+                .orgName(ORG_NAME).orgCurrency(CURRENCY).build()));
+        when(orgHandler.getFollowerIds(any(GetFollowerRequest.class))).thenReturn(GetFollowerResult.newBuilder()
+                .addAllUserIds(ImmutableList.of("e", "d", ORG_NAME, "c", "b", "a")).build());
+        when(receiptDao.loadReceipts(eq(AIRDROP_ID), anyCollection())).thenReturn(ImmutableMap.of());
+        when(transactionHandler.getWalletSnapshot(ORG_NAME)).thenReturn(new WalletSnapshot(ORG_NAME,
+                ImmutableMap.of(CURRENCY, 750L)));
+        when(transactionHandler.createBulkPayment(eq(ORG_NAME), anyList(), anyList()))
+                .thenAnswer(invocation -> ((List<?>) invocation.getArgument(1)).stream()
+                        .map(request -> "tx").collect(Collectors.toList()));
+    }
+
+    @Test
+    public void test_Pays_Followers_In_Sorted_Pages() {
+        FollowerAirdrop.Report report = airdrop.run(AIRDROP_ID, ORG_NAME, 1.5);
+
+        assertEquals(5, report.getFollowerCount());
+        assertEquals(5, report.getPaidCount());
+        assertTrue(report.isComplete());
+        assertEquals(ImmutableList.of(ImmutableList.of("a", "b"), ImmutableList.of("c", "d"), ImmutableList.of("e")),
+                capturePaidPages(3));
+    }
+
+    @Test
+    public void test_Resumed_Airdrop_Skips_Paid_Followers() {
+        when(receiptDao.loadReceipts(AIRDROP_ID, ImmutableList.of("a", "b"))).thenReturn(ImmutableMap.of(
+                "a", receipt("a", "txA"), "b", receipt("b", "txB")));
+        when(receiptDao.loadReceipts(AIRDROP_ID, ImmutableList.of("c", "d"))).thenReturn(ImmutableMap.of(
+                "c", receipt("c", "txC")));
+        when(receiptDao.loadPaymentStatuses(ImmutableList.of("txA", "txB"))).thenReturn(ImmutableMap.of(
+                "txA", TransactionStatus.COMPLETED, "txB", TransactionStatus.PENDING));
+        when(receiptDao.loadPaymentStatuses(ImmutableList.of("txC"))).thenReturn(ImmutableMap.of(
+                "txC", TransactionStatus.COMPLETED));
+
+        FollowerAirdrop.Report report = airdrop.run(AIRDROP_ID, ORG_NAME, 1.5);
+
+        assertEquals(2, report.getPaidCount());
+        assertEquals(3, report.getSkippedCount());
+        assertTrue(report.isComplete());
+        assertEquals(ImmutableList.of(ImmutableList.of("d"), ImmutableList.of("e")), capturePaidPages(2));
+        verify(transactionHandler, never()).getTransactionStatus(anyString());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void test_Completed_Payments_Are_Recorded_And_Not_Read_Again() {
+        final AirdropReceipt recorded = receipt("a", "txA");
+        recorded.setPaymentStatus(TransactionStatus.COMPLETED);
+        when(receiptDao.loadReceipts(AIRDROP_ID, ImmutableList.of("a", "b"))).thenReturn(ImmutableMap.of(
+                "a", recorded, "b", receipt("b", "txB")));
+        when(receiptDao.loadPaymentStatuses(ImmutableList.of("txB"))).thenReturn(ImmutableMap.of(
+                "txB", TransactionStatus.COMPLETED));
+
+        FollowerAirdrop.Report report = airdrop.run(AIRDROP_ID, ORG_NAME, 1.5);
+
+        assertEquals(2, report.getSkippedCount());
+        verify(receiptDao, times(1)).loadPaymentStatuses(anyCollection());
+        ArgumentCaptor<List<AirdropReceipt>> completed = ArgumentCaptor.forClass(List.class);
+        verify(receiptDao, times(1)).saveCompleted(completed.capture());
+        assertEquals(1, completed.getValue().size());
+        assertEquals(AirdropReceipt.idOf(AIRDROP_ID, "b"), completed.getValue().get(0).getReceiptId());
+        assertEquals(TransactionStatus.COMPLETED, completed.getValue().get(0).getPaymentStatus());
+    }
+
+    @Test
+    public void test_Failing_To_Record_Completed_Payments_Does_Not_Fail_The_Page() {
+        when(receiptDao.loadReceipts(AIRDROP_ID, ImmutableList.of("a", "b"))).thenReturn(ImmutableMap.of(
+                "a", receipt("a", "txA")));
+        when(receiptDao.loadPaymentStatuses(ImmutableList.of("txA"))).thenReturn(ImmutableMap.of(
+                "txA", TransactionStatus.COMPLETED));
+        doThrow(new IllegalStateException("Throttled")).when(receiptDao).saveCompleted(anyCollection());
+
+        FollowerAirdrop.Report report = airdrop.run(AIRDROP_ID, ORG_NAME, 1.5);
+
+        assertEquals(4, report.getPaidCount());
+        assertEquals(1, report.getSkippedCount());
+        assertTrue(report.isComplete());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void test_Resumed_Airdrop_Pays_Failed_Payments_Again() {
+        when(receiptDao.loadReceipts(AIRDROP_ID, ImmutableList.of("a", "b"))).thenReturn(ImmutableMap.of(
+                "a", receipt("a", "txA"), "b", receipt("b", "txB")));
+        when(receiptDao.loadPaymentStatuses(ImmutableList.of("txA", "txB"))).thenReturn(ImmutableMap.of(
+                "txA", TransactionStatus.ERROR, "txB", TransactionStatus.COMPLETED));
+
+        FollowerAirdrop.Report report = airdrop.run(AIRDROP_ID, ORG_NAME, 1.5);
+
+        assertEquals(4, report.getPaidCount());
+        assertEquals(1, report.getSkippedCount());
+        assertTrue(report.isComplete());
+        assertEquals(ImmutableList.of(ImmutableList.of("a"), ImmutableList.of("c", "d"), ImmutableList.of("e")),
+                capturePaidPages(3));
+        ArgumentCaptor<List<AirdropReceipt>> receipts = ArgumentCaptor.forClass(List.class);
+        verify(transactionHandler, times(3)).createBulkPayment(eq(ORG_NAME), anyList(), receipts.capture());
+        AirdropReceipt replacement = receipts.getAllValues().get(0).get(0);
+        assertEquals(AirdropReceipt.idOf(AIRDROP_ID, "a"), replacement.getReceiptId());
+        assertEquals("txA", replacement.getReplacedTransactionId());
+        assertEquals("txA", replacement.writeCondition().getExpressionAttributeValues().get(":replaced").getS());
+    }
+
+    @Test
+    public void test_Airdrop_Exceeding_Balance_Pays_No_One() {
+        when(transactionHandler.getWalletSnapshot(ORG_NAME)).thenReturn(new WalletSnapshot(ORG_NAME,
+                ImmutableMap.of(CURRENCY, 749L)));
+
+        assertThrows(IllegalArgumentException.class, () -> airdrop.run(AIRDROP_ID, ORG_NAME, 1.5));
+        verify(transactionHandler, never()).createBulkPayment(anyString(), anyList(), anyList());
+    }
+
+    @Test
+    public void test_Failed_Page_Is_Reported_And_Rest_Are_Paid() {
+        when(receiptDao.loadReceipts(AIRDROP_ID, ImmutableList.of("c", "d")))
+                .thenThrow(new IllegalStateException("Throttled"));
+
+        FollowerAirdrop.Report report = airdrop.run(AIRDROP_ID, ORG_NAME, 1.5);
+
+        assertEquals(3, report.getPaidCount());
+        assertEquals(2, report.getFailedCount());
+        assertFalse(report.isComplete());
+    }
+
+    @Test
+    public void test_Partly_Failed_Page_Counts_Committed_Payments() {
+        when(transactionHandler.createBulkPayment(eq(ORG_NAME), argThat(requests -> requests.size() == 2
+                && requests.get(0).getRecipientId().equals("a")), anyList()))
+                .thenThrow(new BulkPaymentException("Throttled", null, ImmutableList.of("tx"), 1));
+
+        FollowerAirdrop.Report report = airdrop.run(AIRDROP_ID, ORG_NAME, 1.5);
+
+        assertEquals(4, report.getPaidCount());
+        assertEquals(1, report.getFailedCount());
+        assertFalse(report.isComplete());
+    }
+
+    @Test
+    public void test_Invalid_Airdrop_Throws() {
+        when(orgHandler.getOrgByName("missing")).thenReturn(Optional.empty());
+
+        assertThrows(IllegalArgumentException.class, () -> airdrop.run(AIRDROP_ID, "missing", 1.0));
+        assertThrows(IllegalArgumentException.class, () -> airdrop.run(AIRDROP_ID, ORG_NAME, 0));
+        assertThrows(IllegalArgumentException.class, () -> airdrop.run(AIRDROP_ID, ORG_NAME, 0.001));
+        assertThrows(IllegalArgumentException.class, () -> airdrop.run(" ", ORG_NAME, 1.0));
+        verify(transactionHandler, never()).createBulkPayment(anyString(), anyList(), anyList());
+    }
+
+    private static AirdropReceipt receipt(final String followerId, final String transactionId) {
+        return AirdropReceipt.builder().receiptId(AirdropReceipt.idOf(AIRDROP_ID, followerId))
+                .transactionId(transactionId).build();
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<List<String>> capturePaidPages(final int pageCount) {
+        ArgumentCaptor<List<TransactionProto.PaymentRequest>> requests = ArgumentCaptor.forClass(List.class);
+        verify(transactionHandler, times(pageCount)).createBulkPayment(eq(ORG_NAME), requests.capture(),
+                anyList());
+        return requests.getAllValues().stream().map(page -> page.stream()
+                .map(TransactionProto.PaymentRequest::getRecipientId).collect(Collectors.toList()))
+                .collect(Collectors.toList());
+    }
+}
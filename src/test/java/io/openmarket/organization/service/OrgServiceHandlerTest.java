@@ -302,6 +302,35 @@ public class OrgServiceHandlerTest {
         assertThrows(IllegalArgumentException.class, ()->this.serviceHandler.partialUpdateRequest(request));
     }
 
+    @Test
+    public void getOrg_twice_then_served_from_cache() {
+        serviceHandler.addOrg(TEST_ORG);
+        assertTrue(serviceHandler.getOrgByName(TEST_ORG.getOrgName()).isPresent());
+        assertTrue(serviceHandler.getOrgByName(TEST_ORG.getOrgName()).isPresent());
+
+        assertEquals(1, serviceHandler.getOrgCacheStats().missCount());
+        assertEquals(1, serviceHandler.getOrgCacheStats().hitCount());
+    }
+
+    @Test
+    public void getOrg_after_partial_update_then_not_stale() {
+        serviceHandler.addOrg(TEST_ORG);
+        serviceHandler.getOrgByName(TEST_ORG.getOrgName());
+        serviceHandler.partialUpdateRequest(OrganizationOuterClass.OrgMetadata.newBuilder()
+                .setOrgName(TEST_ORG.getOrgName())
+                .setOrgDescription("Updated")
+                .build());
+
+        assertEquals("Updated", serviceHandler.getOrgByName(TEST_ORG.getOrgName()).get().getOrgDescription());
+    }
+
+    @Test
+    public void getOrg_after_add_then_negative_lookup_is_invalidated() {
+        assertFalse(serviceHandler.getOrgByName(TEST_ORG.getOrgName()).isPresent());
+        serviceHandler.addOrg(TEST_ORG);
+        assertTrue(serviceHandler.getOrgByName(TEST_ORG.getOrgName()).isPresent());
+    }
+
     @AfterAll
     public static void teardown() {
         localDBClient.shutdown();
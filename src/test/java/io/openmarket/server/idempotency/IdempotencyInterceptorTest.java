@@ -0,0 +1,191 @@
+package io.openmarket.server.idempotency;
+
+import com.google.common.collect.ImmutableSet;
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientInterceptors;
+import io.grpc.ManagedChannel;
+import io.grpc.Metadata;
+import io.grpc.Server;
+import io.grpc.ServerInterceptors;
+import io.grpc.ServerServiceDefinition;
+import io.grpc.StatusRuntimeException;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.ClientCalls;
+import io.grpc.stub.MetadataUtils;
+import io.grpc.stub.ServerCalls;
+import io.openmarket.marketplace.grpc.MarketPlaceGrpc;
+import io.openmarket.marketplace.grpc.MarketPlaceProto;
+import io.openmarket.server.config.InterceptorConfig;
+import io.openmarket.server.services.MarketPlaceStreamRPCService;
+import io.openmarket.transaction.grpc.TransactionGrpc;
+import io.openmarket.transaction.grpc.TransactionProto;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class IdempotencyInterceptorTest {
+    private static final String SERVER_NAME = "idempotency-test";
+    private static final TransactionProto.PaymentRequest REQUEST = TransactionProto.PaymentRequest.newBuilder()
+            .setRecipientId("bob")
+            .setNote("coffee")
+            .build();
+
+    private static final MarketPlaceProto.CheckOutRequest CHECKOUT_REQUEST = MarketPlaceProto.CheckOutRequest
+            .newBuilder().putItems(1, 2).build();
+
+    private AtomicInteger invocations;
+    private MarketPlaceProto.Error checkoutError;
+    private Server server;
+    private ManagedChannel channel;
+
+    @BeforeEach
+    public void setup() throws IOException {
+        this.invocations = new AtomicInteger();
+        this.checkoutError = MarketPlaceProto.Error.NONE;
+        final ServerServiceDefinition service = ServerServiceDefinition
+                .builder(TransactionGrpc.SERVICE_NAME)
+                .addMethod(TransactionGrpc.getProcessPaymentMethod(), ServerCalls.asyncUnaryCall((request, observer) -> {
+                    observer.onNext(TransactionProto.PaymentResult.newBuilder()
+                            .setTransactionId(String.valueOf(invocations.incrementAndGet()))
+                            .build());
+                    observer.onCompleted();
+                }))
+                .build();
+        final ServerServiceDefinition checkoutService = ServerServiceDefinition
+                .builder(MarketPlaceGrpc.SERVICE_NAME)
+                .addMethod(MarketPlaceGrpc.getCheckoutMethod(), ServerCalls.asyncUnaryCall((request, observer) -> {
+                    invocations.incrementAndGet();
+                    observer.onNext(MarketPlaceProto.CheckOutResult.newBuilder().setError(checkoutError).build());
+                    observer.onCompleted();
+                }))
+                .build();
+        final ServerServiceDefinition streamService = ServerServiceDefinition
+                .builder(MarketPlaceStreamRPCService.SERVICE_NAME)
+                .addMethod(MarketPlaceStreamRPCService.CHECKOUT_METHOD, ServerCalls.asyncServerStreamingCall(
+                        (request, observer) -> {
+                            invocations.incrementAndGet();
+                            // A result per sub-order, then the summary.
+                            for (int i = 0; i < 3; i++) {
+                                observer.onNext(MarketPlaceProto.CheckOutResult.newBuilder()
+                                        .setError(i == 2 ? checkoutError : MarketPlaceProto.Error.NONE)
+                                        .build());
+                            }
+                            observer.onCompleted();
+                        }))
+                .build();
+        final IdempotencyInterceptor interceptor = new IdempotencyInterceptor(new LocalIdempotencyStore(10, 60000),
+                ImmutableSet.of(TransactionGrpc.getProcessPaymentMethod().getFullMethodName(),
+                        MarketPlaceGrpc.getCheckoutMethod().getFullMethodName(),
+                        MarketPlaceStreamRPCService.CHECKOUT_METHOD.getFullMethodName()));
+        this.server = InProcessServerBuilder.forName(SERVER_NAME).directExecutor()
+                .addService(ServerInterceptors.intercept(service, interceptor))
+                .addService(ServerInterceptors.intercept(checkoutService, interceptor))
+                .addService(ServerInterceptors.intercept(streamService, interceptor))
+                .build()
+                .start();
+        this.channel = InProcessChannelBuilder.forName(SERVER_NAME).directExecutor().build();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        channel.shutdownNow();
+        server.shutdownNow();
+    }
+
+    @Test
+    public void test_Retry_Replays_Stored_Response() {
+        final TransactionProto.PaymentResult first = pay("key-1", REQUEST);
+        final TransactionProto.PaymentResult retry = pay("key-1", REQUEST);
+        assertEquals(first, retry);
+        assertEquals(1, invocations.get());
+    }
+
+    @Test
+    public void test_Different_Keys_Are_Processed() {
+        pay("key-1", REQUEST);
+        pay("key-2", REQUEST);
+        assertEquals(2, invocations.get());
+    }
+
+    @Test
+    public void test_Requests_Without_Key_Are_Processed() {
+        pay(null, REQUEST);
+        pay(null, REQUEST);
+        assertEquals(2, invocations.get());
+    }
+
+    @Test
+    public void test_Key_Reused_For_Different_Request() {
+        pay("key-1", REQUEST);
+        assertThrows(StatusRuntimeException.class,
+                () -> pay("key-1", REQUEST.toBuilder().setNote("tea").build()));
+        assertEquals(1, invocations.get());
+    }
+
+    @Test
+    public void test_Error_Response_Is_Not_Stored() {
+        checkoutError = MarketPlaceProto.Error.INTERNAL_SERVICE_ERROR;
+        assertEquals(checkoutError, checkout("key-1").getError());
+
+        checkoutError = MarketPlaceProto.Error.NONE;
+        assertEquals(MarketPlaceProto.Error.NONE, checkout("key-1").getError());
+        assertEquals(MarketPlaceProto.Error.NONE, checkout("key-1").getError());
+        assertEquals(2, invocations.get());
+    }
+
+    @Test
+    public void test_Streaming_Retry_Replays_Every_Message() {
+        final List<MarketPlaceProto.CheckOutResult> first = streamCheckout("key-1");
+        final List<MarketPlaceProto.CheckOutResult> retry = streamCheckout("key-1");
+        assertEquals(3, first.size());
+        assertEquals(first, retry);
+        assertEquals(1, invocations.get());
+    }
+
+    @Test
+    public void test_Streaming_Error_Response_Is_Not_Stored() {
+        checkoutError = MarketPlaceProto.Error.INTERNAL_SERVICE_ERROR;
+        streamCheckout("key-1");
+        checkoutError = MarketPlaceProto.Error.NONE;
+        assertEquals(MarketPlaceProto.Error.NONE, streamCheckout("key-1").get(2).getError());
+        assertEquals(2, invocations.get());
+    }
+
+    private MarketPlaceProto.CheckOutResult checkout(final String idempotencyKey) {
+        return ClientCalls.blockingUnaryCall(withKey(idempotencyKey), MarketPlaceGrpc.getCheckoutMethod(),
+                CallOptions.DEFAULT, CHECKOUT_REQUEST);
+    }
+
+    private List<MarketPlaceProto.CheckOutResult> streamCheckout(final String idempotencyKey) {
+        final List<MarketPlaceProto.CheckOutResult> results = new ArrayList<>();
+        ClientCalls.blockingServerStreamingCall(withKey(idempotencyKey), MarketPlaceStreamRPCService.CHECKOUT_METHOD,
+                CallOptions.DEFAULT, CHECKOUT_REQUEST).forEachRemaining(results::add);
+        return results;
+    }
+
+    private Channel withKey(final String idempotencyKey) {
+        final Metadata headers = new Metadata();
+        headers.put(InterceptorConfig.IDEMPOTENCY_KEY_METADATA_KEY, idempotencyKey);
+        return ClientInterceptors.intercept(channel, MetadataUtils.newAttachHeadersInterceptor(headers));
+    }
+
+    private TransactionProto.PaymentResult pay(final String idempotencyKey,
+                                               final TransactionProto.PaymentRequest request) {
+        final Metadata headers = new Metadata();
+        if (idempotencyKey != null) {
+            headers.put(InterceptorConfig.IDEMPOTENCY_KEY_METADATA_KEY, idempotencyKey);
+        }
+        return ClientCalls.blockingUnaryCall(ClientInterceptors.intercept(channel,
+                MetadataUtils.newAttachHeadersInterceptor(headers)),
+                TransactionGrpc.getProcessPaymentMethod(), CallOptions.DEFAULT, request);
+    }
+}
@@ -0,0 +1,167 @@
+package io.openmarket.server.services;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import io.grpc.CallOptions;
+import io.grpc.ClientCall;
+import io.grpc.ManagedChannel;
+import io.grpc.Metadata;
+import io.grpc.Server;
+import io.grpc.ServerInterceptors;
+import io.grpc.Status;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.openmarket.server.config.InterceptorConfig;
+import io.openmarket.server.idempotency.IdempotencyInterceptor;
+import io.openmarket.server.idempotency.LocalIdempotencyStore;
+import io.openmarket.transaction.exception.BulkPaymentException;
+import io.openmarket.transaction.grpc.TransactionProto;
+import io.openmarket.transaction.service.TransactionServiceHandler;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.*;
+
+public class TransactionRPCServiceTest {
+    private static final String SERVER_NAME = "transaction-rpc-test";
+    private static final List<TransactionProto.PaymentRequest> REQUESTS = Collections.nCopies(3,
+            TransactionProto.PaymentRequest.newBuilder()
+                    .setRecipientId("bob")
+                    .setType(TransactionProto.PaymentRequest.Type.TRANSFER)
+                    .build());
+
+    private TransactionServiceHandler handler;
+    private Server server;
+    private ManagedChannel channel;
+
+    @BeforeEach
+    public void setup() throws IOException {
+        this.handler = mock(TransactionServiceHandler.class);
+        final IdempotencyInterceptor interceptor = new IdempotencyInterceptor(new LocalIdempotencyStore(10, 60000),
+                InterceptorConfig.IDEMPOTENT_RPCS);
+        this.server = InProcessServerBuilder.forName(SERVER_NAME).directExecutor()
+                .addService(ServerInterceptors.intercept(new TransactionRPCService(handler), interceptor))
+                .build()
+                .start();
+        this.channel = InProcessChannelBuilder.forName(SERVER_NAME).directExecutor().build();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        channel.shutdownNow();
+        server.shutdownNow();
+    }
+
+    @Test
+    public void test_Bulk_Payment_Streams_Each_Committed_Chunk() {
+        answerWithChunks(null, ImmutableList.of("t1", "t2"), ImmutableList.of("t3"));
+
+        final BulkPaymentCall call = bulkPay("key-1");
+        assertEquals(Status.Code.OK, call.status.getCode());
+        assertEquals(ImmutableList.of(ImmutableList.of("t1", "t2"), ImmutableList.of("t3")), call.transactionIds());
+        assertNull(call.trailers.get(TransactionRPCService.BULK_PAYMENT_FAILED_INDEX_KEY));
+    }
+
+    @Test
+    public void test_Partly_Failed_Bulk_Payment_Reports_Failed_Index_And_Is_Replayed() {
+        answerWithChunks(new BulkPaymentException("Bulk payment failed at payment 2 of 3", null,
+                ImmutableList.of("t1", "t2"), 2), ImmutableList.of("t1", "t2"));
+
+        final BulkPaymentCall call = bulkPay("key-1");
+        assertEquals(Status.Code.OK, call.status.getCode());
+        assertEquals(ImmutableList.of(ImmutableList.of("t1", "t2")), call.transactionIds());
+        assertEquals("2", call.trailers.get(TransactionRPCService.BULK_PAYMENT_FAILED_INDEX_KEY));
+
+        final BulkPaymentCall retry = bulkPay("key-1");
+        assertEquals(call.transactionIds(), retry.transactionIds());
+        verify(handler, times(1)).createBulkPayment(any(), anyList(), isNull(), any());
+    }
+
+    @Test
+    public void test_Unwritten_Bulk_Payment_Fails_And_Is_Retried() {
+        answerWithChunks(new BulkPaymentException("Bulk payment failed at payment 0 of 3", null,
+                ImmutableList.of(), 0));
+
+        final BulkPaymentCall call = bulkPay("key-1");
+        assertEquals(Status.Code.UNAVAILABLE, call.status.getCode());
+        assertEquals("0", call.trailers.get(TransactionRPCService.BULK_PAYMENT_FAILED_INDEX_KEY));
+
+        bulkPay("key-1");
+        verify(handler, times(2)).createBulkPayment(any(), anyList(), isNull(), any());
+    }
+
+    @Test
+    public void test_Invalid_Bulk_Payment_Is_Rejected() {
+        when(handler.createBulkPayment(any(), anyList(), isNull(), any()))
+                .thenThrow(new IllegalArgumentException("Insufficient DashCoin"));
+
+        assertEquals(Status.Code.INVALID_ARGUMENT, bulkPay("key-1").status.getCode());
+    }
+
+    @SafeVarargs
+    private final void answerWithChunks(final BulkPaymentException failure, final List<String>... chunks) {
+        when(handler.createBulkPayment(any(), anyList(), isNull(), any())).thenAnswer(invocation -> {
+            final Consumer<List<String>> listener = invocation.getArgument(3);
+            final List<String> transactionIds = new ArrayList<>();
+            for (List<String> chunk : chunks) {
+                listener.accept(chunk);
+                transactionIds.addAll(chunk);
+            }
+            if (failure != null) {
+                throw failure;
+            }
+            return transactionIds;
+        });
+    }
+
+    private BulkPaymentCall bulkPay(final String idempotencyKey) {
+        final Metadata headers = new Metadata();
+        headers.put(InterceptorConfig.IDEMPOTENCY_KEY_METADATA_KEY, idempotencyKey);
+        final BulkPaymentCall result = new BulkPaymentCall();
+        final ClientCall<List<TransactionProto.PaymentRequest>, List<TransactionProto.PaymentResult>> call =
+                channel.newCall(TransactionRPCService.BULK_PAYMENT_METHOD, CallOptions.DEFAULT);
+        call.start(result, headers);
+        call.request(Integer.MAX_VALUE);
+        call.sendMessage(REQUESTS);
+        call.halfClose();
+        assertNotNull(result.status);
+        return result;
+    }
+
+    // Collects a call run on the direct executor, so it has closed once the request is sent.
+    private static class BulkPaymentCall extends ClientCall.Listener<List<TransactionProto.PaymentResult>> {
+        private final List<List<TransactionProto.PaymentResult>> messages = new ArrayList<>();
+        private Status status;
+        private Metadata trailers;
+
+        @Override
+        public void onMessage(final List<TransactionProto.PaymentResult> message) {
+            messages.add(message);
+        }
+
+        @Override
+        public void onClose(final Status status, final Metadata trailers) {
+            this.status = status;
+            this.trailers = trailers;
+        }
+
+        List<List<String>> transactionIds() {
+            return messages.stream()
+                    .map(results -> results.stream().map(TransactionProto.PaymentResult::getTransactionId)
+                            .collect(Collectors.toList()))
+                    .collect(Collectors.toList());
+        }
+    }
+}
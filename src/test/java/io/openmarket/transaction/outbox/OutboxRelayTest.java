@@ -0,0 +1,95 @@
+package io.openmarket.transaction.outbox;
+
+import com.amazonaws.services.sqs.model.Message;
+import com.amazonaws.services.sqs.model.ReceiveMessageRequest;
+import com.google.common.collect.ImmutableList;
+import io.openmarket.transaction.queue.InMemoryAmazonSQS;
+import io.openmarket.transaction.queue.TransactionTaskMessages;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+public class OutboxRelayTest {
+    private static final String QUEUE_URL = "inmemory://transactions";
+
+    private InMemoryAmazonSQS sqs;
+    private OutboxDao outboxDao;
+    private OutboxRelay relay;
+
+    @BeforeEach
+    public void setup() {
+        this.sqs = new InMemoryAmazonSQS();
+        this.outboxDao = mock(OutboxDao.class);
+        when(outboxDao.batchDelete(anyCollection())).thenReturn(new ArrayList<>());
+        // Sweep on every run, without waiting for records to age.
+        this.relay = new OutboxRelay(sqs, QUEUE_URL, outboxDao, 0, 0);
+    }
+
+    @Test
+    public void test_Relay_Sends_In_Batches_And_Deletes() throws InterruptedException {
+        for (int i = 0; i < 15; i++) {
+            relay.enqueue(OutboxRecord.forTransaction("t" + i));
+        }
+        assertEquals(10, relay.runOnce());
+        assertEquals(5, relay.runOnce());
+
+        assertEquals(2, sqs.getSendCallCount());
+        assertEquals(15, sqs.getMessageCount(QUEUE_URL));
+        verify(outboxDao, times(1)).batchDelete(argThat((Collection<OutboxRecord> a) -> a.size() == 15));
+        assertEquals(0, relay.getInFlightCount());
+    }
+
+    @Test
+    public void test_Relay_Message_Is_A_TransactionTask() throws InterruptedException {
+        relay.enqueue(OutboxRecord.forTransaction("t"));
+        relay.runOnce();
+
+        List<Message> messages = sqs.receiveMessage(new ReceiveMessageRequest(QUEUE_URL)).getMessages();
+        assertEquals(1, messages.size());
+        assertEquals("t", TransactionTaskMessages.decode(messages.get(0).getBody()).getTransactionId());
+    }
+
+    @Test
+    public void test_Relay_Retries_When_SQS_Unavailable() throws InterruptedException {
+        relay.enqueue(OutboxRecord.forTransaction("t"));
+        sqs.setAvailable(false);
+        assertEquals(0, relay.runOnce());
+        verify(outboxDao, never()).batchDelete(anyCollection());
+        assertEquals(1, relay.getInFlightCount());
+
+        sqs.setAvailable(true);
+        assertEquals(1, relay.runOnce());
+        assertEquals(1, sqs.getMessageCount(QUEUE_URL));
+        assertEquals(0, relay.getInFlightCount());
+    }
+
+    @Test
+    public void test_Relay_Sweeps_Left_Behind_Records_Once() throws InterruptedException {
+        OutboxRecord record = OutboxRecord.forTransaction("t");
+        when(outboxDao.loadCreatedBefore(any(), anyInt())).thenReturn(ImmutableList.of(record));
+        relay.enqueue(record);
+
+        assertEquals(1, relay.runOnce());
+        assertEquals(1, sqs.getMessageCount(QUEUE_URL));
+    }
+
+    @Test
+    public void test_Relay_Keeps_Records_That_Failed_To_Delete() throws InterruptedException {
+        OutboxRecord record = OutboxRecord.forTransaction("t");
+        when(outboxDao.batchDelete(anyCollection())).thenReturn(new ArrayList<>(ImmutableList.of(record)))
+                .thenReturn(new ArrayList<>());
+        relay.enqueue(record);
+
+        relay.runOnce();
+        assertEquals(1, relay.getInFlightCount());
+        relay.runOnce();
+        assertEquals(0, relay.getInFlightCount());
+        assertEquals(1, sqs.getMessageCount(QUEUE_URL));
+    }
+}
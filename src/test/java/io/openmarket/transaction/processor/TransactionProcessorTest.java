@@ -0,0 +1,176 @@
+package io.openmarket.transaction.processor;
+
+import com.amazonaws.services.sqs.model.SendMessageRequest;
+import com.google.common.collect.ImmutableList;
+import io.openmarket.transaction.dao.dynamodb.TransactionDao;
+import io.openmarket.transaction.model.Transaction;
+import io.openmarket.transaction.model.TransactionStatus;
+import io.openmarket.transaction.model.TransactionTask;
+import io.openmarket.transaction.model.TransactionType;
+import io.openmarket.transaction.queue.InMemoryAmazonSQS;
+import io.openmarket.transaction.queue.TransactionTaskMessages;
+import io.openmarket.transaction.service.TransactionCompletionListener;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+public class TransactionProcessorTest {
+    private static final String QUEUE_URL = "inmemory://transactions";
+    private static final String CURRENCY_ID = "DashCoin";
+
+    private InMemoryAmazonSQS sqs;
+    private TransactionDao transactionDao;
+    private TransactionSettler settler;
+    private List<String> completed;
+    private TransactionProcessor processor;
+
+    @BeforeEach
+    public void setup() {
+        this.sqs = new InMemoryAmazonSQS();
+        this.transactionDao = mock(TransactionDao.class);
+        this.settler = mock(TransactionSettler.class);
+        this.completed = Collections.synchronizedList(new ArrayList<>());
+        final TransactionCompletionListener listener = (transactionId, status) -> completed.add(transactionId);
+        this.processor = new TransactionProcessor(sqs, QUEUE_URL, transactionDao, settler, listener, 4, 0);
+    }
+
+    @AfterEach
+    public void teardown() {
+        processor.stop();
+    }
+
+    @Test
+    public void test_Settles_And_Deletes_Messages() throws InterruptedException {
+        for (int i = 0; i < 15; i++) {
+            send(transaction("t" + i, "payer" + i));
+        }
+        when(settler.settle(any())).thenReturn(TransactionStatus.COMPLETED);
+
+        assertEquals(10, processor.runOnce());
+        assertEquals(5, processor.runOnce());
+        assertEquals(0, sqs.getMessageCount(QUEUE_URL));
+        assertEquals(15, completed.size());
+        assertEquals(15, processor.getSettledCount());
+    }
+
+    @Test
+    public void test_Payer_Transactions_Settle_In_Order() throws InterruptedException {
+        List<String> settled = Collections.synchronizedList(new ArrayList<>());
+        when(settler.settle(any())).thenAnswer(invocation -> {
+            settled.add(invocation.<Transaction>getArgument(0).getTransactionId());
+            return TransactionStatus.COMPLETED;
+        });
+        for (int i = 0; i < 10; i++) {
+            send(transaction("t" + i, "payer"));
+        }
+
+        assertEquals(10, processor.runOnce());
+        for (int i = 0; i < 10; i++) {
+            assertEquals("t" + i, settled.get(i));
+        }
+    }
+
+    @Test
+    public void test_Failed_Settlement_Is_Left_On_Queue() throws InterruptedException {
+        send(transaction("t0", "payer0"));
+        send(transaction("t1", "payer1"));
+        when(settler.settle(argThat(t -> t != null && t.getTransactionId().equals("t0"))))
+                .thenThrow(new IllegalStateException());
+        when(settler.settle(argThat(t -> t != null && t.getTransactionId().equals("t1"))))
+                .thenReturn(TransactionStatus.COMPLETED);
+
+        assertEquals(1, processor.runOnce());
+        assertEquals(1, sqs.getMessageCount(QUEUE_URL));
+        assertEquals(1, processor.getFailedCount());
+        assertEquals(Collections.singletonList("t1"), completed);
+    }
+
+    @Test
+    public void test_Unknown_Transaction_Is_Dropped() throws InterruptedException {
+        sqs.sendMessage(new SendMessageRequest(QUEUE_URL,
+                TransactionTaskMessages.encode(new TransactionTask("missing"))));
+        when(transactionDao.load("missing")).thenReturn(Optional.empty());
+
+        assertEquals(1, processor.runOnce());
+        assertEquals(0, sqs.getMessageCount(QUEUE_URL));
+        verify(settler, never()).settle(any());
+    }
+
+    @Test
+    public void test_Netting_Settles_Same_Recipient_Together() throws InterruptedException {
+        TransactionProcessor nettingProcessor = new TransactionProcessor(sqs, QUEUE_URL, transactionDao, settler,
+                (transactionId, status) -> completed.add(transactionId), 4, 0, 1);
+        for (int i = 0; i < 3; i++) {
+            send(transaction("t" + i, "payer" + i));
+        }
+        send(transaction("t3", "payer1"));
+        send(Transaction.builder()
+                .transactionId("other")
+                .payerId("payer0")
+                .recipientId("otherRecipient")
+                .currencyId(CURRENCY_ID)
+                .amount(1.0)
+                .type(TransactionType.TRANSFER)
+                .status(TransactionStatus.PENDING)
+                .build());
+        when(settler.settleNetted(anyList())).thenAnswer(invocation -> {
+            Map<String, TransactionStatus> statuses = new HashMap<>();
+            for (Transaction transaction : invocation.<List<Transaction>>getArgument(0)) {
+                statuses.put(transaction.getTransactionId(), TransactionStatus.COMPLETED);
+            }
+            return statuses;
+        });
+        List<String> settled = Collections.synchronizedList(new ArrayList<>());
+        when(settler.settle(any())).thenAnswer(invocation -> {
+            settled.add(invocation.<Transaction>getArgument(0).getTransactionId());
+            return TransactionStatus.COMPLETED;
+        });
+
+        try {
+            assertEquals(5, nettingProcessor.runOnce());
+        } finally {
+            nettingProcessor.stop();
+        }
+        // payer0 also pays another recipient, so its payments are settled one by one and in order.
+        verify(settler, times(1)).settleNetted(argThat(transactions -> transactions.size() == 3
+                && transactions.stream().allMatch(t -> t.getPayerId().equals("payer1")
+                || t.getPayerId().equals("payer2"))));
+        assertEquals(ImmutableList.of("t0", "other"), settled);
+        assertEquals(5, completed.size());
+        assertEquals(0, sqs.getMessageCount(QUEUE_URL));
+    }
+
+    @Test
+    public void test_Invalid_Concurrency_Throws() {
+        assertThrows(IllegalArgumentException.class, () -> new TransactionProcessor(sqs, QUEUE_URL, transactionDao,
+                settler, (transactionId, status) -> {}, 0));
+    }
+
+    private void send(final Transaction transaction) {
+        when(transactionDao.load(transaction.getTransactionId())).thenReturn(Optional.of(transaction));
+        sqs.sendMessage(new SendMessageRequest(QUEUE_URL,
+                TransactionTaskMessages.encode(new TransactionTask(transaction.getTransactionId()))));
+    }
+
+    private static Transaction transaction(final String transactionId, final String payerId) {
+        return Transaction.builder()
+                .transactionId(transactionId)
+                .payerId(payerId)
+                .recipientId("recipient")
+                .currencyId(CURRENCY_ID)
+                .amount(1.0)
+                .type(TransactionType.TRANSFER)
+                .status(TransactionStatus.PENDING)
+                .build();
+    }
+}
@@ -0,0 +1,178 @@
+package io.openmarket.transaction.processor;
+
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
+import com.amazonaws.services.dynamodbv2.datamodeling.TransactionWriteRequest;
+import com.amazonaws.services.dynamodbv2.model.TransactionCanceledException;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import io.openmarket.transaction.dao.dynamodb.TransactionDao;
+import io.openmarket.transaction.model.Transaction;
+import io.openmarket.transaction.model.TransactionStatus;
+import io.openmarket.transaction.model.TransactionType;
+import io.openmarket.transaction.service.WalletSharding;
+import io.openmarket.wallet.dao.dynamodb.WalletDao;
+import io.openmarket.wallet.model.Wallet;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.util.Map;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+public class TransactionSettlerTest {
+    private static final String PAYER_ID = "payer";
+    private static final String RECIPIENT_ID = "recipient";
+    private static final String CURRENCY_ID = "DashCoin";
+
+    private TransactionDao transactionDao;
+    private WalletDao walletDao;
+    private TransactionSettler settler;
+
+    @BeforeEach
+    public void setup() {
+        this.transactionDao = mock(TransactionDao.class);
+        this.walletDao = mock(WalletDao.class);
+        this.settler = new TransactionSettler(transactionDao, walletDao, new DynamoDBMapper(mock(AmazonDynamoDB.class)));
+        when(walletDao.load(PAYER_ID)).thenReturn(Optional.of(Wallet.builder().ownerId(PAYER_ID)
+                .coins(ImmutableMap.of(CURRENCY_ID, 10.0)).build()));
+        when(walletDao.load(RECIPIENT_ID)).thenReturn(Optional.empty());
+    }
+
+    @Test
+    public void test_Settle_Moves_Money_In_One_Write() {
+        assertEquals(TransactionStatus.COMPLETED, settler.settle(transaction(4.0)));
+
+        ArgumentCaptor<TransactionWriteRequest> captor = ArgumentCaptor.forClass(TransactionWriteRequest.class);
+        verify(transactionDao, times(1)).transactionWrite(captor.capture());
+        assertEquals(3, captor.getValue().getTransactionWriteOperations().size());
+    }
+
+    @Test
+    public void test_Settle_Unaffordable_Transaction_As_Error() {
+        assertEquals(TransactionStatus.ERROR, settler.settle(transaction(40.0)));
+
+        ArgumentCaptor<TransactionWriteRequest> captor = ArgumentCaptor.forClass(TransactionWriteRequest.class);
+        verify(transactionDao, times(1)).transactionWrite(captor.capture());
+        assertEquals(1, captor.getValue().getTransactionWriteOperations().size());
+    }
+
+    @Test
+    public void test_Settled_Transaction_Is_Not_Written_Again() {
+        Transaction transaction = transaction(4.0);
+        transaction.setStatus(TransactionStatus.COMPLETED);
+
+        assertEquals(TransactionStatus.COMPLETED, settler.settle(transaction));
+        verify(transactionDao, never()).transactionWrite(any());
+    }
+
+    @Test
+    public void test_Conflict_Is_Retried_With_Reloaded_Transaction() {
+        Transaction settledElsewhere = transaction(4.0);
+        settledElsewhere.setStatus(TransactionStatus.COMPLETED);
+        when(transactionDao.load("t")).thenReturn(Optional.of(settledElsewhere));
+        doThrow(new TransactionCanceledException("conflict")).when(transactionDao).transactionWrite(any());
+
+        assertEquals(TransactionStatus.COMPLETED, settler.settle(transaction(4.0)));
+        verify(transactionDao, times(1)).transactionWrite(any());
+    }
+
+    @Test
+    public void test_Sharded_Payer_Consolidates_Shards_When_Short() {
+        WalletSharding sharding = new WalletSharding(ImmutableMap.of(PAYER_ID, 2));
+        TransactionSettler shardedSettler = new TransactionSettler(transactionDao, walletDao,
+                new DynamoDBMapper(mock(AmazonDynamoDB.class)), sharding);
+        for (String walletId : sharding.getWalletIds(PAYER_ID)) {
+            when(walletDao.load(walletId)).thenReturn(Optional.of(Wallet.builder().ownerId(walletId)
+                    .coins(ImmutableMap.of(CURRENCY_ID, 10.0)).build()));
+        }
+
+        assertEquals(TransactionStatus.COMPLETED, shardedSettler.settle(transaction(15.0)));
+        ArgumentCaptor<TransactionWriteRequest> captor = ArgumentCaptor.forClass(TransactionWriteRequest.class);
+        verify(transactionDao, times(1)).transactionWrite(captor.capture());
+        // Both shards, the recipient and the transaction.
+        assertEquals(4, captor.getValue().getTransactionWriteOperations().size());
+    }
+
+    @Test
+    public void test_Sharded_Payer_Cannot_Overdraw() {
+        WalletSharding sharding = new WalletSharding(ImmutableMap.of(PAYER_ID, 2));
+        TransactionSettler shardedSettler = new TransactionSettler(transactionDao, walletDao,
+                new DynamoDBMapper(mock(AmazonDynamoDB.class)), sharding);
+        for (String walletId : sharding.getWalletIds(PAYER_ID)) {
+            when(walletDao.load(walletId)).thenReturn(Optional.of(Wallet.builder().ownerId(walletId)
+                    .coins(ImmutableMap.of(CURRENCY_ID, 10.0)).build()));
+        }
+
+        assertEquals(TransactionStatus.ERROR, shardedSettler.settle(transaction(25.0)));
+    }
+
+    @Test
+    public void test_SettleNetted_Credits_Recipient_Once() {
+        when(walletDao.load("payer2")).thenReturn(Optional.of(Wallet.builder().ownerId("payer2")
+                .coins(ImmutableMap.of(CURRENCY_ID, 10.0)).build()));
+
+        Map<String, TransactionStatus> statuses = settler.settleNetted(ImmutableList.of(
+                transaction("t1", PAYER_ID, 4.0), transaction("t2", PAYER_ID, 4.0),
+                transaction("t3", PAYER_ID, 4.0), transaction("t4", "payer2", 5.0)));
+
+        assertEquals(ImmutableMap.of("t1", TransactionStatus.COMPLETED, "t2", TransactionStatus.COMPLETED,
+                "t3", TransactionStatus.ERROR, "t4", TransactionStatus.COMPLETED), statuses);
+        ArgumentCaptor<TransactionWriteRequest> captor = ArgumentCaptor.forClass(TransactionWriteRequest.class);
+        verify(transactionDao, times(1)).transactionWrite(captor.capture());
+        // Four transactions, two payers and the recipient.
+        assertEquals(7, captor.getValue().getTransactionWriteOperations().size());
+        verify(walletDao, times(1)).load(RECIPIENT_ID);
+    }
+
+    @Test
+    public void test_SettleNetted_Falls_Back_On_Conflict() {
+        Transaction settledElsewhere = transaction("t1", PAYER_ID, 4.0);
+        settledElsewhere.setStatus(TransactionStatus.COMPLETED);
+        when(transactionDao.load("t1")).thenReturn(Optional.of(settledElsewhere));
+        when(transactionDao.load("t2")).thenReturn(Optional.of(transaction("t2", PAYER_ID, 4.0)));
+        doThrow(new TransactionCanceledException("conflict")).doNothing().when(transactionDao).transactionWrite(any());
+
+        Map<String, TransactionStatus> statuses = settler.settleNetted(ImmutableList.of(
+                transaction("t1", PAYER_ID, 4.0), transaction("t2", PAYER_ID, 4.0)));
+
+        assertEquals(ImmutableMap.of("t1", TransactionStatus.COMPLETED, "t2", TransactionStatus.COMPLETED),
+                statuses);
+        verify(transactionDao, times(2)).transactionWrite(any());
+    }
+
+    @Test
+    public void test_SettleNetted_Different_Recipients_Throws() {
+        Transaction other = Transaction.builder()
+                .transactionId("t2")
+                .payerId(PAYER_ID)
+                .recipientId("other")
+                .currencyId(CURRENCY_ID)
+                .amount(1.0)
+                .type(TransactionType.TRANSFER)
+                .status(TransactionStatus.PENDING)
+                .build();
+
+        assertThrows(IllegalArgumentException.class, () -> settler.settleNetted(ImmutableList.of(
+                transaction("t1", PAYER_ID, 1.0), other)));
+    }
+
+    private static Transaction transaction(final double amount) {
+        return transaction("t", PAYER_ID, amount);
+    }
+
+    private static Transaction transaction(final String transactionId, final String payerId, final double amount) {
+        return Transaction.builder()
+                .transactionId(transactionId)
+                .payerId(payerId)
+                .recipientId(RECIPIENT_ID)
+                .currencyId(CURRENCY_ID)
+                .amount(amount)
+                .type(TransactionType.TRANSFER)
+                .status(TransactionStatus.PENDING)
+                .build();
+    }
+}
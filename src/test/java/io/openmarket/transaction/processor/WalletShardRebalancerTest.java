@@ -0,0 +1,66 @@
+package io.openmarket.transaction.processor;
+
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
+import com.amazonaws.services.dynamodbv2.datamodeling.TransactionWriteRequest;
+import com.google.common.collect.ImmutableMap;
+import io.openmarket.transaction.dao.dynamodb.TransactionDao;
+import io.openmarket.transaction.service.WalletSharding;
+import io.openmarket.wallet.dao.dynamodb.WalletDao;
+import io.openmarket.wallet.model.Wallet;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+public class WalletShardRebalancerTest {
+    private static final String OWNER_ID = "org";
+    private static final String CURRENCY_ID = "DashCoin";
+
+    private TransactionDao transactionDao;
+    private WalletDao walletDao;
+    private WalletSharding sharding;
+    private WalletShardRebalancer rebalancer;
+
+    @BeforeEach
+    public void setup() {
+        this.transactionDao = mock(TransactionDao.class);
+        this.walletDao = mock(WalletDao.class);
+        this.sharding = new WalletSharding(ImmutableMap.of(OWNER_ID, 4));
+        this.rebalancer = new WalletShardRebalancer(transactionDao, walletDao,
+                new DynamoDBMapper(mock(AmazonDynamoDB.class)), sharding);
+    }
+
+    @Test
+    public void test_Uneven_Shards_Are_Rebalanced() {
+        List<String> walletIds = sharding.getWalletIds(OWNER_ID);
+        when(walletDao.load(walletIds.get(0))).thenReturn(Optional.of(wallet(walletIds.get(0), 1.0)));
+        when(walletDao.load(walletIds.get(1))).thenReturn(Optional.of(wallet(walletIds.get(1), 40.0)));
+        when(walletDao.load(walletIds.get(2))).thenReturn(Optional.empty());
+        when(walletDao.load(walletIds.get(3))).thenReturn(Optional.of(wallet(walletIds.get(3), 0.0)));
+
+        assertEquals(1, rebalancer.runOnce());
+        ArgumentCaptor<TransactionWriteRequest> captor = ArgumentCaptor.forClass(TransactionWriteRequest.class);
+        verify(transactionDao, times(1)).transactionWrite(captor.capture());
+        assertEquals(4, captor.getValue().getTransactionWriteOperations().size());
+    }
+
+    @Test
+    public void test_Even_Shards_Are_Left_Alone() {
+        for (String walletId : sharding.getWalletIds(OWNER_ID)) {
+            when(walletDao.load(walletId)).thenReturn(Optional.of(wallet(walletId, 10.0)));
+        }
+
+        assertEquals(0, rebalancer.runOnce());
+        verify(transactionDao, never()).transactionWrite(any());
+    }
+
+    private static Wallet wallet(final String walletId, final double balance) {
+        return Wallet.builder().ownerId(walletId).coins(ImmutableMap.of(CURRENCY_ID, balance)).build();
+    }
+}
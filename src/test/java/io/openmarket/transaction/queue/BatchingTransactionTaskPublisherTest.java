@@ -0,0 +1,84 @@
+package io.openmarket.transaction.queue;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.sqs.model.Message;
+import com.amazonaws.services.sqs.model.ReceiveMessageRequest;
+import io.openmarket.transaction.model.TransactionTask;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BatchingTransactionTaskPublisherTest {
+    private static final String QUEUE_URL = "inmemory://transactions";
+
+    private InMemoryAmazonSQS sqs;
+    private BatchingTransactionTaskPublisher publisher;
+
+    @BeforeEach
+    public void setup() {
+        this.sqs = new InMemoryAmazonSQS();
+        this.publisher = new BatchingTransactionTaskPublisher(sqs, 50, 2, 5000);
+        publisher.start();
+    }
+
+    @AfterEach
+    public void teardown() {
+        publisher.stop();
+    }
+
+    @Test
+    public void test_Publish_Sends_Task() {
+        publisher.publish(QUEUE_URL, new TransactionTask("t"));
+
+        List<Message> messages = sqs.receiveMessage(new ReceiveMessageRequest(QUEUE_URL)).getMessages();
+        assertEquals(1, messages.size());
+        assertEquals("t", TransactionTaskMessages.decode(messages.get(0).getBody()).getTransactionId());
+    }
+
+    @Test
+    public void test_Burst_Is_Sent_In_Full_Batches() throws Exception {
+        List<CompletableFuture<String>> futures = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            futures.add(publisher.publishAsync(QUEUE_URL, new TransactionTask("t" + i)));
+        }
+        Set<String> messageIds = new HashSet<>();
+        for (CompletableFuture<String> future : futures) {
+            messageIds.add(future.get(5, TimeUnit.SECONDS));
+        }
+
+        assertEquals(30, messageIds.size());
+        assertEquals(30, sqs.getMessageCount(QUEUE_URL));
+        assertTrue(sqs.getSendCallCount() < 30);
+        assertEquals(30, publisher.getStats().getTaskCount());
+    }
+
+    @Test
+    public void test_Publish_Fails_When_SQS_Unavailable() {
+        sqs.setAvailable(false);
+        assertThrows(AmazonServiceException.class, () -> publisher.publish(QUEUE_URL, new TransactionTask("t")));
+        assertEquals(1, publisher.getStats().getFailedTaskCount());
+    }
+
+    @Test
+    public void test_Publish_Fails_After_Stop() {
+        publisher.stop();
+        CompletableFuture<String> future = publisher.publishAsync(QUEUE_URL, new TransactionTask("t"));
+        ExecutionException e = assertThrows(ExecutionException.class, future::get);
+        assertTrue(e.getCause() instanceof IllegalStateException);
+    }
+
+    @Test
+    public void test_Invalid_Config_Throws() {
+        assertThrows(IllegalArgumentException.class, () -> new BatchingTransactionTaskPublisher(sqs, -1));
+    }
+}
@@ -0,0 +1,57 @@
+package io.openmarket.transaction.queue;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchRequest;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchRequestEntry;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchResult;
+import com.amazonaws.services.sqs.model.Message;
+import com.amazonaws.services.sqs.model.ReceiveMessageRequest;
+import com.amazonaws.services.sqs.model.SendMessageRequest;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class InMemoryAmazonSQSTest {
+    private static final String QUEUE_URL = "inmemory://transactions";
+
+    @Test
+    public void test_Receive_And_Delete() {
+        InMemoryAmazonSQS sqs = new InMemoryAmazonSQS();
+        sqs.sendMessage(new SendMessageRequest(QUEUE_URL, "a"));
+        sqs.sendMessage(new SendMessageRequest(QUEUE_URL, "b"));
+
+        List<Message> messages = sqs.receiveMessage(new ReceiveMessageRequest(QUEUE_URL)
+                .withMaxNumberOfMessages(10)).getMessages();
+        assertEquals(2, messages.size());
+        assertEquals("a", messages.get(0).getBody());
+
+        DeleteMessageBatchResult result = sqs.deleteMessageBatch(new DeleteMessageBatchRequest(QUEUE_URL)
+                .withEntries(new DeleteMessageBatchRequestEntry("0", messages.get(0).getReceiptHandle()),
+                        new DeleteMessageBatchRequestEntry("1", "invalid")));
+        assertEquals(1, result.getSuccessful().size());
+        assertEquals(1, result.getFailed().size());
+        assertEquals(1, sqs.getMessageCount(QUEUE_URL));
+    }
+
+    @Test
+    public void test_Undeleted_Message_Becomes_Visible_Again() {
+        InMemoryAmazonSQS sqs = new InMemoryAmazonSQS();
+        sqs.sendMessage(new SendMessageRequest(QUEUE_URL, "a"));
+
+        assertEquals(1, sqs.receiveMessage(new ReceiveMessageRequest(QUEUE_URL).withVisibilityTimeout(0))
+                .getMessages().size());
+        assertEquals(1, sqs.receiveMessage(new ReceiveMessageRequest(QUEUE_URL).withVisibilityTimeout(30))
+                .getMessages().size());
+        assertTrue(sqs.receiveMessage(new ReceiveMessageRequest(QUEUE_URL)).getMessages().isEmpty());
+    }
+
+    @Test
+    public void test_Unavailable_Queue_Rejects_Sends() {
+        InMemoryAmazonSQS sqs = new InMemoryAmazonSQS();
+        sqs.setAvailable(false);
+        assertThrows(AmazonServiceException.class, () -> sqs.sendMessage(new SendMessageRequest(QUEUE_URL, "a")));
+        assertEquals(0, sqs.getMessageCount(QUEUE_URL));
+    }
+}
@@ -0,0 +1,134 @@
+package io.openmarket.transaction.queue;
+
+import io.openmarket.transaction.model.TransactionTask;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SpillingTransactionTaskPublisherTest {
+    private static final String QUEUE_URL = "inmemory://transactions";
+
+    private Path directory;
+    private TaskJournal journal;
+    private List<String> published;
+    private volatile boolean isAvailable;
+    private SpillingTransactionTaskPublisher publisher;
+
+    @BeforeEach
+    public void setup() throws IOException {
+        this.directory = Files.createTempDirectory("task-journal");
+        this.journal = new TaskJournal(directory, TaskJournal.FsyncPolicy.NEVER);
+        this.published = new ArrayList<>();
+        this.isAvailable = true;
+        this.publisher = new SpillingTransactionTaskPublisher((queueUrl, task) -> {
+            if (!isAvailable) {
+                throw new IllegalStateException("Queue is unavailable");
+            }
+            synchronized (published) {
+                published.add(task.getTransactionId());
+            }
+        }, journal, 100);
+    }
+
+    @AfterEach
+    public void teardown() throws IOException {
+        journal.close();
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    @Test
+    public void test_Publish_Directly_When_Healthy() throws InterruptedException {
+        publisher.publish(QUEUE_URL, new TransactionTask("t"));
+
+        assertEquals(1, published.size());
+        assertFalse(publisher.isSpilling());
+        assertEquals(0, publisher.runOnce());
+    }
+
+    @Test
+    public void test_Spilled_Tasks_Are_Replayed_In_Order() throws InterruptedException {
+        isAvailable = false;
+        publisher.publish(QUEUE_URL, new TransactionTask("t0"));
+        assertTrue(publisher.isSpilling());
+
+        // Later tasks are journaled behind it even once the queue is back.
+        isAvailable = true;
+        publisher.publish(QUEUE_URL, new TransactionTask("t1"));
+        assertTrue(published.isEmpty());
+        assertEquals(2, publisher.getSpilledCount());
+
+        assertEquals(2, publisher.runOnce());
+        assertEquals(0, publisher.runOnce());
+        assertFalse(publisher.isSpilling());
+        assertEquals(2, publisher.getReplayedCount());
+        assertEquals("t0", published.get(0));
+        assertEquals("t1", published.get(1));
+
+        publisher.publish(QUEUE_URL, new TransactionTask("t2"));
+        assertEquals(3, published.size());
+    }
+
+    @Test
+    public void test_Slow_Publish_Is_Spilled_And_Cancelled() throws InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch interrupted = new CountDownLatch(1);
+        SpillingTransactionTaskPublisher slowPublisher = new SpillingTransactionTaskPublisher((queueUrl, task) -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+            }
+        }, journal, 50);
+
+        slowPublisher.publish(QUEUE_URL, new TransactionTask("t"));
+        assertTrue(slowPublisher.isSpilling());
+        assertEquals("t", TransactionTaskMessages.decode(journal.peek(1).get(0).getMessageBody())
+                .getTransactionId());
+        assertTrue(interrupted.await(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void test_Invalid_Config_Throws() {
+        assertThrows(IllegalArgumentException.class, () -> new SpillingTransactionTaskPublisher(
+                (queueUrl, task) -> {}, journal, 100, 0));
+    }
+
+    @Test
+    public void test_Failed_Replay_Keeps_Entries() throws InterruptedException {
+        isAvailable = false;
+        publisher.publish(QUEUE_URL, new TransactionTask("t"));
+
+        assertEquals(0, publisher.runOnce());
+        assertTrue(publisher.isSpilling());
+        assertFalse(journal.isEmpty());
+
+        isAvailable = true;
+        assertEquals(1, publisher.runOnce());
+        assertEquals(1, published.size());
+    }
+
+    @Test
+    public void test_Recovered_Journal_Is_Replayed_First() throws IOException {
+        journal.append(QUEUE_URL, TransactionTaskMessages.encode(new TransactionTask("left-behind")));
+        SpillingTransactionTaskPublisher restarted = new SpillingTransactionTaskPublisher(
+                (queueUrl, task) -> published.add(task.getTransactionId()), journal);
+        assertTrue(restarted.isSpilling());
+    }
+}
@@ -0,0 +1,130 @@
+package io.openmarket.transaction.queue;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TaskJournalTest {
+    private static final String QUEUE_URL = "inmemory://transactions";
+    private static final int SEGMENT_SIZE = 256;
+
+    private Path directory;
+
+    @BeforeEach
+    public void setup() throws IOException {
+        this.directory = Files.createTempDirectory("task-journal");
+    }
+
+    @AfterEach
+    public void teardown() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    @Test
+    public void test_Entries_Are_Read_In_Order_Across_Segments() throws IOException {
+        TaskJournal journal = new TaskJournal(directory, TaskJournal.FsyncPolicy.ALWAYS, SEGMENT_SIZE);
+        for (int i = 0; i < 20; i++) {
+            journal.append(QUEUE_URL, "message-" + i);
+        }
+        assertTrue(segmentCount() > 1);
+
+        List<TaskJournal.Entry> entries = journal.peek(100);
+        assertEquals(20, entries.size());
+        for (int i = 0; i < 20; i++) {
+            assertEquals(QUEUE_URL, entries.get(i).getQueueUrl());
+            assertEquals("message-" + i, entries.get(i).getMessageBody());
+        }
+        journal.close();
+    }
+
+    @Test
+    public void test_Commit_Consumes_Entries_And_Deletes_Segments() throws IOException {
+        TaskJournal journal = new TaskJournal(directory, TaskJournal.FsyncPolicy.NEVER, SEGMENT_SIZE);
+        for (int i = 0; i < 20; i++) {
+            journal.append(QUEUE_URL, "message-" + i);
+        }
+        List<TaskJournal.Entry> entries = journal.peek(15);
+        journal.commit(entries.get(14));
+
+        assertEquals("message-15", journal.peek(1).get(0).getMessageBody());
+        assertEquals(1, segmentCount());
+
+        journal.commit(journal.peek(5).get(4));
+        assertTrue(journal.isEmpty());
+        journal.close();
+    }
+
+    @Test
+    public void test_Reopen_Resumes_From_Checkpoint() throws IOException {
+        TaskJournal journal = new TaskJournal(directory, TaskJournal.FsyncPolicy.INTERVAL, SEGMENT_SIZE);
+        for (int i = 0; i < 5; i++) {
+            journal.append(QUEUE_URL, "message-" + i);
+        }
+        journal.commit(journal.peek(2).get(1));
+        journal.close();
+
+        TaskJournal reopened = new TaskJournal(directory, TaskJournal.FsyncPolicy.INTERVAL, SEGMENT_SIZE);
+        reopened.append(QUEUE_URL, "message-5");
+        List<TaskJournal.Entry> entries = reopened.peek(100);
+        assertEquals(4, entries.size());
+        assertEquals("message-2", entries.get(0).getMessageBody());
+        assertEquals("message-5", entries.get(3).getMessageBody());
+        reopened.close();
+    }
+
+    @Test
+    public void test_Torn_Entry_Is_Dropped_On_Reopen() throws IOException {
+        TaskJournal journal = new TaskJournal(directory, TaskJournal.FsyncPolicy.ALWAYS, SEGMENT_SIZE);
+        journal.append(QUEUE_URL, "complete");
+        journal.append(QUEUE_URL, "torn");
+        journal.close();
+
+        // Corrupt the last byte of the second entry's payload.
+        try (Stream<Path> files = Files.list(directory);
+             RandomAccessFile file = new RandomAccessFile(files.filter(path -> path.toString().endsWith(".log"))
+                     .findFirst().get().toFile(), "rw")) {
+            int offset = 0;
+            file.seek(offset);
+            offset += 8 + file.readInt();
+            file.seek(offset);
+            int length = file.readInt();
+            file.seek(offset + 8 + length - 1);
+            file.writeByte(0);
+        }
+
+        TaskJournal reopened = new TaskJournal(directory, TaskJournal.FsyncPolicy.ALWAYS, SEGMENT_SIZE);
+        List<TaskJournal.Entry> entries = reopened.peek(100);
+        assertEquals(1, entries.size());
+        assertEquals("complete", entries.get(0).getMessageBody());
+        reopened.close();
+    }
+
+    @Test
+    public void test_Oversized_Entry_Throws() throws IOException {
+        TaskJournal journal = new TaskJournal(directory, TaskJournal.FsyncPolicy.NEVER, SEGMENT_SIZE);
+        assertThrows(IllegalArgumentException.class, () -> journal.append(QUEUE_URL,
+                new String(new char[SEGMENT_SIZE]).replace('\0', 'a')));
+        journal.close();
+    }
+
+    private long segmentCount() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(path -> path.toString().endsWith(".log")).count();
+        }
+    }
+}
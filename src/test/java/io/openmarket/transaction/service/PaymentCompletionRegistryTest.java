@@ -0,0 +1,51 @@
+package io.openmarket.transaction.service;
+
+import io.openmarket.transaction.model.TransactionStatus;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PaymentCompletionRegistryTest {
+    private static final String TRANSACTION_ID = "123";
+
+    private PaymentCompletionRegistry registry;
+
+    @BeforeEach
+    public void setup() {
+        this.registry = new PaymentCompletionRegistry();
+    }
+
+    @Test
+    public void when_Completed_Then_Await_Returns_Status() {
+        registry.register(TRANSACTION_ID);
+        CompletableFuture.runAsync(() -> registry.onTransactionCompleted(TRANSACTION_ID, TransactionStatus.COMPLETED));
+        assertEquals(TransactionStatus.COMPLETED, registry.await(TRANSACTION_ID, 5, TimeUnit.SECONDS));
+        assertTrue(registry.getPendingTransactionIds().isEmpty());
+    }
+
+    @Test
+    public void when_Not_Completed_Then_Await_Returns_Pending() {
+        registry.register(TRANSACTION_ID);
+        assertEquals(TransactionStatus.PENDING, registry.await(TRANSACTION_ID, 10, TimeUnit.MILLISECONDS));
+        assertTrue(registry.getPendingTransactionIds().isEmpty());
+    }
+
+    @Test
+    public void when_Pending_Signal_Then_Keep_Waiting() {
+        CompletableFuture<TransactionStatus> future = registry.register(TRANSACTION_ID);
+        registry.onTransactionCompleted(TRANSACTION_ID, TransactionStatus.PENDING);
+        assertFalse(future.isDone());
+        registry.onTransactionCompleted(TRANSACTION_ID, TransactionStatus.ERROR);
+        assertEquals(TransactionStatus.ERROR, future.join());
+    }
+
+    @Test
+    public void when_Not_Registered_Then_Signal_Is_Ignored() {
+        registry.onTransactionCompleted(TRANSACTION_ID, TransactionStatus.COMPLETED);
+        assertEquals(TransactionStatus.PENDING, registry.await(TRANSACTION_ID, 10, TimeUnit.MILLISECONDS));
+    }
+}
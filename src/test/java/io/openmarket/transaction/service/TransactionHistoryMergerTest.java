@@ -0,0 +1,129 @@
+package io.openmarket.transaction.service;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import io.openmarket.transaction.dao.dynamodb.TransactionDao;
+import io.openmarket.transaction.model.Transaction;
+import io.openmarket.transaction.model.TransactionStatus;
+import io.openmarket.transaction.model.TransactionType;
+import io.openmarket.utils.PaginationTokenCodec;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.stubbing.Answer;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+public class TransactionHistoryMergerTest {
+    private static final String USER_ID = "user";
+    private static final int INDEX_PAGE_SIZE = 2;
+
+    private TransactionDao transactionDao;
+    private TransactionHistoryMerger merger;
+
+    @BeforeEach
+    public void setup() {
+        this.transactionDao = mock(TransactionDao.class);
+        List<Transaction> paid = ImmutableList.of(transaction("p1", 1, USER_ID, "other"),
+                transaction("p3", 3, USER_ID, "other"), transaction("p5", 5, USER_ID, "other"),
+                transaction("self7", 7, USER_ID, USER_ID));
+        List<Transaction> received = ImmutableList.of(transaction("r2", 2, "other", USER_ID),
+                transaction("r4", 4, "other", USER_ID), transaction("r6", 6, "other", USER_ID),
+                transaction("self7", 7, USER_ID, USER_ID));
+        when(transactionDao.getTransactionForPayer(eq(USER_ID), any(), any())).thenAnswer(pages(paid));
+        when(transactionDao.getTransactionForRecipient(eq(USER_ID), any(), any())).thenAnswer(pages(received));
+        this.merger = new TransactionHistoryMerger(transactionDao, new PaginationTokenCodec());
+    }
+
+    @Test
+    public void test_Query_Merges_Both_Indexes_By_CreatedAt() {
+        TransactionHistoryMerger.Page page = merger.query(USER_ID, "");
+
+        assertEquals(ImmutableList.of("p1", "r2", "p3", "r4", "p5", "r6", "self7"), idsOf(page));
+        assertEquals("", page.getContinuationToken());
+    }
+
+    @Test
+    public void test_Query_Resumes_From_Continuation_Token() {
+        TransactionHistoryMerger smallPages = new TransactionHistoryMerger(transactionDao,
+                new PaginationTokenCodec(), 3);
+        List<String> ids = new ArrayList<>();
+        String token = "";
+        int pages = 0;
+        do {
+            TransactionHistoryMerger.Page page = smallPages.query(USER_ID, token);
+            ids.addAll(idsOf(page));
+            token = page.getContinuationToken();
+            pages++;
+        } while (!token.isEmpty());
+
+        assertEquals(ImmutableList.of("p1", "r2", "p3", "r4", "p5", "r6", "self7"), ids);
+        assertEquals(3, pages);
+    }
+
+    @Test
+    public void test_Query_With_Invalid_Token_Throws() {
+        assertThrows(IllegalArgumentException.class, () -> merger.query(USER_ID, "{not json"));
+        String keyToken = new PaginationTokenCodec().encode(ImmutableMap.of("i", new AttributeValue().withN("2")));
+        assertThrows(IllegalArgumentException.class, () -> merger.query(USER_ID, keyToken));
+    }
+
+    @Test
+    public void test_Query_Rejects_Tampered_Signed_Token() {
+        TransactionHistoryMerger signedMerger = new TransactionHistoryMerger(transactionDao,
+                new PaginationTokenCodec(ImmutableList.of(), "secret".getBytes(StandardCharsets.UTF_8)), 3);
+        String token = signedMerger.query(USER_ID, "").getContinuationToken();
+
+        assertEquals(ImmutableList.of("r4", "p5", "r6"), idsOf(signedMerger.query(USER_ID, token)));
+        assertThrows(IllegalArgumentException.class, () -> signedMerger.query(USER_ID,
+                (token.charAt(0) == 'A' ? "B" : "A") + token.substring(1)));
+    }
+
+    @Test
+    public void test_Query_Fails_On_Index_Not_Sorted_By_CreatedAt() {
+        when(transactionDao.getTransactionForPayer(eq(USER_ID), any(), any())).thenAnswer(pages(ImmutableList.of(
+                transaction("p3", 3, USER_ID, "other"), transaction("p1", 1, USER_ID, "other"))));
+        assertThrows(IllegalStateException.class, () -> merger.query(USER_ID, ""));
+    }
+
+    // Serves the transactions INDEX_PAGE_SIZE at a time, keyed by the index of the next page.
+    private static Answer<Map<String, AttributeValue>> pages(final List<Transaction> transactions) {
+        return invocation -> {
+            Collection<Transaction> result = invocation.getArgument(1);
+            Map<String, AttributeValue> startKey = invocation.getArgument(2);
+            int start = startKey == null ? 0 : Integer.parseInt(startKey.get("i").getN());
+            int end = Math.min(transactions.size(), start + INDEX_PAGE_SIZE);
+            result.addAll(transactions.subList(start, end));
+            return end == transactions.size() ? null
+                    : ImmutableMap.of("i", new AttributeValue().withN(String.valueOf(end)));
+        };
+    }
+
+    private static List<String> idsOf(final TransactionHistoryMerger.Page page) {
+        return page.getTransactions().stream().map(Transaction::getTransactionId).collect(Collectors.toList());
+    }
+
+    private static Transaction transaction(final String transactionId, final long createdAt, final String payerId,
+                                           final String recipientId) {
+        return Transaction.builder()
+                .transactionId(transactionId)
+                .createdAt(new Date(createdAt))
+                .payerId(payerId)
+                .recipientId(recipientId)
+                .currencyId("DashCoin")
+                .amount(1.0)
+                .type(TransactionType.TRANSFER)
+                .status(TransactionStatus.COMPLETED)
+                .build();
+    }
+}
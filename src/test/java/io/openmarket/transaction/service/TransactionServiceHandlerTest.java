@@ -1,14 +1,16 @@
 package io.openmarket.transaction.service;
 
+import com.amazonaws.services.dynamodbv2.datamodeling.TransactionWriteRequest;
 import com.amazonaws.services.dynamodbv2.model.AttributeValue;
 import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
+import com.amazonaws.services.dynamodbv2.model.TransactionCanceledException;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
-import com.google.gson.Gson;
 import io.grpc.Context;
 import io.openmarket.server.config.InterceptorConfig;
 import io.openmarket.transaction.dao.dynamodb.TransactionDao;
 import io.openmarket.transaction.dao.sqs.SQSTransactionTaskPublisher;
+import io.openmarket.transaction.exception.BulkPaymentException;
 import io.openmarket.transaction.exception.InvalidTransactionException;
 import io.openmarket.transaction.grpc.TransactionProto;
 import io.openmarket.transaction.model.Transaction;
@@ -16,7 +18,11 @@ import io.openmarket.transaction.model.TransactionErrorType;
 import io.openmarket.transaction.model.TransactionStatus;
 import io.openmarket.transaction.model.TransactionTask;
 import io.openmarket.transaction.model.TransactionType;
+import io.openmarket.transaction.outbox.OutboxRecord;
+import io.openmarket.transaction.outbox.OutboxRelay;
+import io.openmarket.transaction.queue.TransactionTaskPublisher;
 import io.openmarket.transaction.utils.TransactionUtils;
+import io.openmarket.utils.PaginationTokenCodec;
 import io.openmarket.wallet.dao.dynamodb.WalletDao;
 import io.openmarket.wallet.model.Wallet;
 import org.junit.jupiter.api.BeforeEach;
@@ -25,15 +31,18 @@ import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.Arguments;
 import org.junit.jupiter.params.provider.MethodSource;
 import org.mockito.AdditionalMatchers;
+import org.mockito.ArgumentCaptor;
 import org.mockito.stubbing.Answer;
 
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import static io.openmarket.config.TransactionConfig.TRANSACTION_INITIAL_ERROR_TYPE;
@@ -57,6 +66,7 @@ public class TransactionServiceHandlerTest {
     private TransactionDao transactionDao;
     private WalletDao walletDao;
     private SQSTransactionTaskPublisher sqsPublisher;
+    private OutboxRelay outboxRelay;
     private TransactionServiceHandler handler;
 
     @BeforeEach
@@ -64,7 +74,8 @@ public class TransactionServiceHandlerTest {
         this.transactionDao = mock(TransactionDao.class);
         this.walletDao = mock(WalletDao.class);
         this.sqsPublisher = mock(SQSTransactionTaskPublisher.class);
-        this.handler = new TransactionServiceHandler(transactionDao, walletDao, sqsPublisher, QUEUE_URL);
+        this.outboxRelay = mock(OutboxRelay.class);
+        this.handler = handlerBuilder().build();
     }
 
     @Test
@@ -81,6 +92,38 @@ public class TransactionServiceHandlerTest {
         assertEquals(0.0, handler.getBalanceForCurrency(MY_ID, CURRENCY_ID));
     }
 
+    @Test
+    public void testGetWalletSnapshot() {
+        when(walletDao.load(MY_ID))
+                .thenReturn(Optional.of(Wallet.builder().ownerId(MY_ID).coins(ImmutableMap.of(CURRENCY_ID, 100.0)).build()));
+        WalletSnapshot snapshot = handler.getWalletSnapshot(MY_ID);
+        assertEquals(10000L, snapshot.getBalance(CURRENCY_ID));
+        assertEquals(0L, snapshot.getBalance("NoSuchCurrency"));
+        verify(walletDao, times(1)).load(MY_ID);
+    }
+
+    @Test
+    public void testGetWalletSnapshot_Sums_Shards() {
+        WalletSharding sharding = new WalletSharding(ImmutableMap.of(MY_ID, 3));
+        TransactionServiceHandler shardedHandler = handlerBuilder()
+                .walletCache(WalletCache.disabled(walletDao, sharding)).build();
+        List<String> walletIds = sharding.getWalletIds(MY_ID);
+        when(walletDao.load(walletIds.get(0)))
+                .thenReturn(Optional.of(Wallet.builder().ownerId(MY_ID).coins(ImmutableMap.of(CURRENCY_ID, 100.0)).build()));
+        when(walletDao.load(walletIds.get(1))).thenReturn(Optional.of(Wallet.builder().ownerId(walletIds.get(1))
+                .coins(ImmutableMap.of(CURRENCY_ID, 20.0)).build()));
+        when(walletDao.load(walletIds.get(2))).thenReturn(Optional.empty());
+
+        assertEquals(12000L, shardedHandler.getWalletSnapshot(MY_ID).getBalance(CURRENCY_ID));
+        assertEquals(120.0, shardedHandler.getBalanceForCurrency(MY_ID, CURRENCY_ID));
+    }
+
+    @Test
+    public void testGetWalletSnapshot_No_Wallet() {
+        when(walletDao.load(MY_ID)).thenReturn(Optional.empty());
+        assertEquals(0L, handler.getWalletSnapshot(MY_ID).getBalance(CURRENCY_ID));
+    }
+
     @Test
     public void test_TransactionStepper_Commit() {
         TransactionServiceHandler.Stepper stepper = handler.createPaymentStepper(MY_ID,
@@ -118,6 +161,63 @@ public class TransactionServiceHandlerTest {
         verify(transactionDao, times(1)).delete(stepper.getTransaction());
     }
 
+    @Test
+    public void test_PreparedStepper_CommitWith_Writes_Once() {
+        TransactionServiceHandler.Stepper stepper = handler.preparePaymentStepper(MY_ID,
+                TransactionProto.PaymentRequest.newBuilder()
+                        .setRecipientId(RECIPIENT_ID)
+                        .setMoneyAmount(TransactionProto.MoneyAmount.newBuilder()
+                                .setCurrencyId("1")
+                                .setAmount(1.0)
+                                .build())
+                        .setType(TransactionProto.PaymentRequest.Type.PAY)
+                        .build());
+        verify(transactionDao, times(0)).save(any());
+
+        stepper.commitWith(new Object());
+        // One write for the transaction, the record and the outbox record, which is then handed to the relay.
+        verify(transactionDao, times(1)).transactionWrite(any());
+        verify(transactionDao, times(0)).save(any());
+        verify(outboxRelay, times(1)).enqueue(argThat(a -> a.getTransactionId()
+                .equals(stepper.getTransaction().getTransactionId())));
+        verify(sqsPublisher, times(0)).publish(anyString(), any());
+        assertThrows(IllegalStateException.class, () -> stepper.commitWith());
+    }
+
+    @Test
+    public void test_PreparedStepper_Abort_After_Commit_Keeps_Payment() {
+        TransactionServiceHandler.Stepper stepper = handler.preparePaymentStepper(MY_ID,
+                TransactionProto.PaymentRequest.newBuilder()
+                        .setRecipientId(RECIPIENT_ID)
+                        .setMoneyAmount(TransactionProto.MoneyAmount.newBuilder()
+                                .setCurrencyId("1")
+                                .setAmount(1.0)
+                                .build())
+                        .setType(TransactionProto.PaymentRequest.Type.PAY)
+                        .build());
+
+        stepper.commitWith();
+        verify(transactionDao, times(1)).transactionWrite(any());
+        stepper.abort();
+        verify(transactionDao, times(0)).delete(any());
+    }
+
+    @Test
+    public void test_PreparedStepper_Abort_Before_Commit() {
+        TransactionServiceHandler.Stepper stepper = handler.preparePaymentStepper(MY_ID,
+                TransactionProto.PaymentRequest.newBuilder()
+                        .setRecipientId(RECIPIENT_ID)
+                        .setMoneyAmount(TransactionProto.MoneyAmount.newBuilder()
+                                .setCurrencyId("1")
+                                .setAmount(1.0)
+                                .build())
+                        .setType(TransactionProto.PaymentRequest.Type.PAY)
+                        .build());
+        stepper.abort();
+        verify(transactionDao, times(0)).delete(any());
+        verify(transactionDao, times(0)).transactionWrite(any());
+    }
+
     @Test
     public void test_Get_Wallet_When_User_Exists() {
         Map<String, Double> coins = ImmutableMap.of(CURRENCY_ID, AMOUNT);
@@ -202,7 +302,8 @@ public class TransactionServiceHandlerTest {
                 handler.handleQuery(MY_ID, TransactionProto.QueryRequest.newBuilder().setType(type).setParam(param).build());
         assertEquals(count, result.getItemsList().size());
         if (exists && type.equals(PAYER_ID)) {
-            assertEquals(new Gson().toJson(lastEvaluatedKey), result.getLastEvaluatedKey());
+            assertEquals(Optional.of(lastEvaluatedKey),
+                    new PaginationTokenCodec().decode(result.getLastEvaluatedKey()));
         }
     }
 
@@ -216,7 +317,7 @@ public class TransactionServiceHandlerTest {
     }
 
     @Test
-    public void check_Payment_DB_Entry_And_SQS_Msg() {
+    public void check_Payment_DB_Entry_And_Outbox_Record() {
         TransactionProto.PaymentRequest request = TransactionProto.PaymentRequest.newBuilder()
                 .setRecipientId(RECIPIENT_ID)
                 .setMoneyAmount(TransactionProto.MoneyAmount.newBuilder().setAmount(3.13).setCurrencyId(CURRENCY_ID))
@@ -225,7 +326,15 @@ public class TransactionServiceHandlerTest {
                 .build();
         TransactionProto.PaymentResult result = handler.handlePayment(getContext(), request);
 
-        verify(transactionDao, times(1)).save(argThat(
+        // The transaction and its outbox record are written together.
+        ArgumentCaptor<TransactionWriteRequest> writeCaptor = ArgumentCaptor.forClass(TransactionWriteRequest.class);
+        verify(transactionDao, times(1)).transactionWrite(writeCaptor.capture());
+        List<Object> written = writeCaptor.getValue().getTransactionWriteOperations().stream()
+                .map(TransactionWriteRequest.TransactionWriteOperation::getObject)
+                .collect(Collectors.toList());
+        assertTrue(written.stream().anyMatch(a -> a instanceof OutboxRecord
+                && ((OutboxRecord) a).getTransactionId().equals(result.getTransactionId())));
+        assertTrue(written.stream().filter(a -> a instanceof Transaction).map(a -> (Transaction) a).anyMatch(
                 a -> a.getTransactionId().equals(result.getTransactionId())
                         && a.getPayerId().equals(MY_ID)
                         && a.getRecipientId().equals(request.getRecipientId())
@@ -236,9 +345,100 @@ public class TransactionServiceHandlerTest {
                         && a.getNote().equals(request.getNote())
                 )
         );
+        verify(transactionDao, times(0)).save(any());
 
-        verify(sqsPublisher, times(1)).publish(eq(QUEUE_URL),
-                argThat(a -> a.getTransactionId().equals(result.getTransactionId())));
+        verify(outboxRelay, times(1)).enqueue(argThat(a -> a.getTransactionId().equals(result.getTransactionId())));
+        verify(sqsPublisher, times(0)).publish(anyString(), any());
+    }
+
+    @Test
+    public void test_Bulk_Payment_Writes_In_Chunks() {
+        when(walletDao.load(MY_ID)).thenReturn(Optional.of(Wallet.builder().ownerId(MY_ID)
+                .coins(ImmutableMap.of(CURRENCY_ID, 30 * 0.1)).build()));
+        List<TransactionProto.PaymentRequest> requests = Collections.nCopies(30, bulkPaymentRequest(0.1));
+
+        List<String> transactionIds = handler.createBulkPayment(MY_ID, requests);
+
+        assertEquals(30, transactionIds.size());
+        assertEquals(30, new HashSet<>(transactionIds).size());
+        // Three chunks of payments with their outbox records.
+        ArgumentCaptor<TransactionWriteRequest> writeCaptor = ArgumentCaptor.forClass(TransactionWriteRequest.class);
+        verify(transactionDao, times(3)).transactionWrite(writeCaptor.capture());
+        assertEquals(ImmutableList.of(24, 24, 12), writeCaptor.getAllValues().stream()
+                .map(a -> a.getTransactionWriteOperations().size()).collect(Collectors.toList()));
+        verify(outboxRelay, times(30)).enqueue(any());
+    }
+
+    @Test
+    public void test_Bulk_Payment_Failed_Chunk_Reports_Committed_Payments() {
+        when(walletDao.load(MY_ID)).thenReturn(Optional.of(Wallet.builder().ownerId(MY_ID)
+                .coins(ImmutableMap.of(CURRENCY_ID, 30 * 0.1)).build()));
+        doAnswer(invocation -> null).doThrow(new IllegalStateException("Throttled"))
+                .when(transactionDao).transactionWrite(any());
+        List<TransactionProto.PaymentRequest> requests = Collections.nCopies(30, bulkPaymentRequest(0.1));
+
+        BulkPaymentException exception = assertThrows(BulkPaymentException.class,
+                () -> handler.createBulkPayment(MY_ID, requests));
+
+        assertEquals(12, exception.getCommittedTransactionIds().size());
+        assertEquals(12, exception.getFailedIndex());
+        verify(transactionDao, times(2)).transactionWrite(any());
+        verify(outboxRelay, times(12)).enqueue(any());
+    }
+
+    @Test
+    public void test_Bulk_Payment_Cancelled_Without_Reasons_Is_Not_Skipped() {
+        when(walletDao.load(MY_ID)).thenReturn(Optional.of(Wallet.builder().ownerId(MY_ID)
+                .coins(ImmutableMap.of(CURRENCY_ID, 1.0)).build()));
+        doThrow(new TransactionCanceledException("Cancelled")).when(transactionDao).transactionWrite(any());
+        List<PaymentReceipt> receipts = ImmutableList.of(mock(PaymentReceipt.class), mock(PaymentReceipt.class));
+
+        BulkPaymentException exception = assertThrows(BulkPaymentException.class,
+                () -> handler.createBulkPayment(MY_ID, Collections.nCopies(2, bulkPaymentRequest(0.5)), receipts));
+
+        assertEquals(0, exception.getFailedIndex());
+        assertTrue(exception.getCommittedTransactionIds().isEmpty());
+        verify(receipts.get(0), atLeastOnce()).setTransactionId(anyString());
+        verify(outboxRelay, times(0)).enqueue(any());
+    }
+
+    @Test
+    public void test_Bulk_Payment_Exceeding_Balance_Throws() {
+        when(walletDao.load(MY_ID)).thenReturn(Optional.of(Wallet.builder().ownerId(MY_ID)
+                .coins(ImmutableMap.of(CURRENCY_ID, 2.99)).build()));
+        List<TransactionProto.PaymentRequest> requests = Collections.nCopies(3, bulkPaymentRequest(1.0));
+
+        assertThrows(IllegalArgumentException.class, () -> handler.createBulkPayment(MY_ID, requests));
+        assertThrows(IllegalArgumentException.class, () -> handler.createBulkPayment(MY_ID, ImmutableList.of()));
+        verify(transactionDao, times(0)).transactionWrite(any());
+    }
+
+    @Test
+    public void test_Bulk_Payment_With_Invalid_Payment_Throws() {
+        when(walletDao.load(MY_ID)).thenReturn(Optional.of(Wallet.builder().ownerId(MY_ID)
+                .coins(ImmutableMap.of(CURRENCY_ID, 100.0)).build()));
+        List<TransactionProto.PaymentRequest> requests = ImmutableList.of(bulkPaymentRequest(1.0),
+                bulkPaymentRequest(1.0).toBuilder().setRecipientId(MY_ID).build());
+
+        assertThrows(IllegalArgumentException.class, () -> handler.createBulkPayment(MY_ID, requests));
+        verify(transactionDao, times(0)).transactionWrite(any());
+    }
+
+    private TransactionServiceHandler.TransactionServiceHandlerBuilder handlerBuilder() {
+        return TransactionServiceHandler.builder()
+                .transactionDao(transactionDao)
+                .walletDao(walletDao)
+                .taskPublisher(TransactionTaskPublisher.of(sqsPublisher))
+                .queueURL(QUEUE_URL)
+                .outboxRelay(outboxRelay);
+    }
+
+    private static TransactionProto.PaymentRequest bulkPaymentRequest(final double amount) {
+        return TransactionProto.PaymentRequest.newBuilder()
+                .setRecipientId(RECIPIENT_ID)
+                .setMoneyAmount(TransactionProto.MoneyAmount.newBuilder().setAmount(amount).setCurrencyId(CURRENCY_ID))
+                .setType(TransactionProto.PaymentRequest.Type.PAY)
+                .build();
     }
 
     @ParameterizedTest
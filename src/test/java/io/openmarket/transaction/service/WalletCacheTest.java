@@ -0,0 +1,127 @@
+package io.openmarket.transaction.service;
+
+import com.google.common.collect.ImmutableMap;
+import io.openmarket.ledger.Ledger;
+import io.openmarket.transaction.model.Transaction;
+import io.openmarket.transaction.model.TransactionStatus;
+import io.openmarket.transaction.model.TransactionType;
+import io.openmarket.wallet.dao.dynamodb.WalletDao;
+import io.openmarket.wallet.model.Wallet;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+public class WalletCacheTest {
+    private static final String OWNER_ID = "owner";
+    private static final String CURRENCY_ID = "DashCoin";
+
+    private WalletDao walletDao;
+    private WalletCache cache;
+
+    @BeforeEach
+    public void setup() {
+        this.walletDao = mock(WalletDao.class);
+        this.cache = new WalletCache(walletDao, WalletSharding.none(), 100, 60000);
+        when(walletDao.load(OWNER_ID)).thenReturn(Optional.of(Wallet.builder().ownerId(OWNER_ID)
+                .coins(ImmutableMap.of(CURRENCY_ID, 10.0, "Empty", 0.0)).build()));
+    }
+
+    @Test
+    public void test_Get_Is_Cached_Until_Invalidated() {
+        assertEquals(1000L, cache.get(OWNER_ID).get().getBalance(CURRENCY_ID));
+        assertEquals(ImmutableMap.of(CURRENCY_ID, 10.0), cache.get(OWNER_ID).get().getPositiveAmounts());
+        verify(walletDao, times(1)).load(OWNER_ID);
+
+        cache.invalidate(OWNER_ID);
+        cache.get(OWNER_ID);
+        verify(walletDao, times(2)).load(OWNER_ID);
+    }
+
+    @Test
+    public void test_Settled_Transaction_Invalidates_Both_Owners() {
+        when(walletDao.load("recipient")).thenReturn(Optional.empty());
+        cache.get(OWNER_ID);
+        assertFalse(cache.get("recipient").isPresent());
+
+        cache.onTransactionSettled(Transaction.builder()
+                .transactionId("t")
+                .payerId(OWNER_ID)
+                .recipientId("recipient")
+                .currencyId(CURRENCY_ID)
+                .amount(1.0)
+                .type(TransactionType.TRANSFER)
+                .status(TransactionStatus.COMPLETED)
+                .build(), TransactionStatus.COMPLETED);
+        cache.get(OWNER_ID);
+        cache.get("recipient");
+        verify(walletDao, times(2)).load(OWNER_ID);
+        verify(walletDao, times(2)).load("recipient");
+    }
+
+    @Test
+    public void test_Reads_Are_Served_By_Ledger() throws IOException {
+        final Path directory = Files.createTempDirectory("ledger");
+        try (Ledger ledger = new Ledger(directory, ownerId -> cache.load(ownerId)
+                .map(WalletCache.CachedWallet::getBalances).orElse(null), 60000, false)) {
+            final WalletCache ledgerCache = new WalletCache(walletDao, WalletSharding.none(), 0, 0, ledger);
+            when(walletDao.load("recipient")).thenReturn(Optional.of(Wallet.builder().ownerId("recipient")
+                    .coins(ImmutableMap.of()).build()));
+            assertEquals(1000L, ledgerCache.get(OWNER_ID).get().getBalance(CURRENCY_ID));
+            assertEquals(0L, ledgerCache.get("recipient").get().getBalance(CURRENCY_ID));
+
+            ledgerCache.onTransactionSettled(Transaction.builder()
+                    .transactionId("t")
+                    .payerId(OWNER_ID)
+                    .recipientId("recipient")
+                    .currencyId(CURRENCY_ID)
+                    .amount(2.5)
+                    .type(TransactionType.TRANSFER)
+                    .status(TransactionStatus.COMPLETED)
+                    .build(), TransactionStatus.COMPLETED);
+            assertEquals(750L, ledgerCache.get(OWNER_ID).get().getBalance(CURRENCY_ID));
+            assertEquals(ImmutableMap.of(CURRENCY_ID, 2.5), ledgerCache.get("recipient").get().getPositiveAmounts());
+            verify(walletDao, times(1)).load(OWNER_ID);
+            verify(walletDao, times(1)).load("recipient");
+        } finally {
+            try (Stream<Path> files = Files.walk(directory)) {
+                files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+            }
+        }
+    }
+
+    @Test
+    public void test_Invalidation_During_Load_Is_Not_Lost() {
+        when(walletDao.load(OWNER_ID)).thenAnswer(invocation -> {
+            cache.invalidate(OWNER_ID);
+            return Optional.of(Wallet.builder().ownerId(OWNER_ID).coins(ImmutableMap.of(CURRENCY_ID, 10.0)).build());
+        });
+
+        cache.get(OWNER_ID);
+        cache.get(OWNER_ID);
+        verify(walletDao, times(2)).load(OWNER_ID);
+    }
+
+    @Test
+    public void test_Load_Bypasses_Cache() {
+        cache.get(OWNER_ID);
+        cache.load(OWNER_ID);
+        verify(walletDao, times(2)).load(OWNER_ID);
+    }
+
+    @Test
+    public void test_Disabled_Cache_Always_Loads() {
+        WalletCache disabled = WalletCache.disabled(walletDao, WalletSharding.none());
+        disabled.get(OWNER_ID);
+        disabled.get(OWNER_ID);
+        verify(walletDao, times(2)).load(OWNER_ID);
+    }
+}
@@ -0,0 +1,42 @@
+package io.openmarket.transaction.service;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class WalletShardingTest {
+    @Test
+    public void test_Parse() {
+        WalletSharding sharding = WalletSharding.parse("orgA:4, orgB:2");
+        assertTrue(sharding.isSharded("orgA"));
+        assertFalse(sharding.isSharded("orgC"));
+        assertEquals(4, sharding.getWalletIds("orgA").size());
+        assertEquals(ImmutableList.of("orgC"), sharding.getWalletIds("orgC"));
+        assertTrue(WalletSharding.parse("").getShardedOwnerIds().isEmpty());
+    }
+
+    @Test
+    public void test_Parse_Invalid_Spec_Throws() {
+        assertThrows(IllegalArgumentException.class, () -> WalletSharding.parse("orgA"));
+        assertThrows(IllegalArgumentException.class, () -> WalletSharding.parse("orgA:x"));
+        assertThrows(IllegalArgumentException.class, () -> WalletSharding.parse("orgA:17"));
+    }
+
+    @Test
+    public void test_Payments_Spread_Over_Shards() {
+        WalletSharding sharding = new WalletSharding(ImmutableMap.of("org", 4));
+        Set<String> walletIds = new HashSet<>();
+        for (int i = 0; i < 100; i++) {
+            String walletId = sharding.getWalletId("org", "transaction-" + i);
+            assertTrue(sharding.getWalletIds("org").contains(walletId));
+            walletIds.add(walletId);
+        }
+        assertEquals(4, walletIds.size());
+        assertEquals("user", sharding.getWalletId("user", "transaction-0"));
+    }
+}
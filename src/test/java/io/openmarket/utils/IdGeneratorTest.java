@@ -0,0 +1,104 @@
+package io.openmarket.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class IdGeneratorTest {
+    private static final long NOW = 1603000000000L;
+
+    @Test
+    public void test_Ids_Are_Ordered_By_Time() {
+        AtomicLong clock = new AtomicLong(NOW);
+        IdGenerator generator = new IdGenerator(7, clock::get);
+
+        String first = generator.next();
+        String second = generator.next();
+        clock.addAndGet(1);
+        String third = generator.next();
+
+        assertEquals(IdGenerator.ID_LENGTH, first.length());
+        assertTrue(first.compareTo(second) < 0);
+        assertTrue(second.compareTo(third) < 0);
+        assertEquals(NOW, IdGenerator.timestampOf(first));
+        assertEquals(NOW + 1, IdGenerator.timestampOf(third));
+        assertTrue(third.startsWith(IdGenerator.prefixOf(NOW + 1)));
+        assertTrue(third.compareTo(IdGenerator.prefixOf(NOW + 1)) > 0);
+        assertTrue(second.compareTo(IdGenerator.prefixOf(NOW + 1)) < 0);
+    }
+
+    @Test
+    public void test_Ids_Keep_Increasing_When_Clock_Goes_Back() {
+        AtomicLong clock = new AtomicLong(NOW);
+        IdGenerator generator = new IdGenerator(7, clock::get);
+
+        String before = generator.next();
+        clock.set(NOW - 1000);
+        String after = generator.next();
+
+        assertTrue(before.compareTo(after) < 0);
+        assertEquals(NOW, IdGenerator.timestampOf(after));
+    }
+
+    @Test
+    public void test_Nodes_Generate_Different_Ids() {
+        IdGenerator first = new IdGenerator(1, () -> NOW);
+        IdGenerator second = new IdGenerator(2, () -> NOW);
+
+        assertNotEquals(first.next(), second.next());
+    }
+
+    @Test
+    public void test_Invalid_Arguments_Throw() {
+        assertThrows(IllegalArgumentException.class, () -> new IdGenerator(IdGenerator.MAX_NODE_ID + 1));
+        assertThrows(IllegalArgumentException.class, () -> IdGenerator.timestampOf("f3b0c442-98fc-1c14-9afb"));
+        assertThrows(IllegalArgumentException.class, () -> IdGenerator.timestampOf("ZZZZZZZZZZZZZZZZZZZZZZZZZZ"));
+        assertThrows(IllegalArgumentException.class, () -> IdGenerator.prefixOf(-1));
+    }
+
+    @Test
+    public void test_Ids_Are_Unique_Across_Threads() throws Exception {
+        final int threads = 8;
+        final int idsPerThread = 50000;
+        // A frozen clock makes every thread generate in the same millisecond.
+        IdGenerator generator = new IdGenerator(7, () -> NOW);
+        Set<String> ids = ConcurrentHashMap.newKeySet();
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    String previous = "";
+                    for (int i = 0; i < idsPerThread; i++) {
+                        String id = generator.next();
+                        assertTrue(previous.compareTo(id) < 0);
+                        ids.add(id);
+                        previous = id;
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        }
+        assertEquals(threads * idsPerThread, ids.size());
+    }
+}
@@ -0,0 +1,41 @@
+package io.openmarket.utils;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MoneyTest {
+    private static final String CURRENCY = "DashCoin";
+
+    @Test
+    public void test_Converts_To_Nearest_Minor_Unit() {
+        assertEquals(2, Money.scaleOf(CURRENCY));
+        assertEquals(1234, Money.toMinorUnits(CURRENCY, 12.34));
+        assertEquals(30, Money.toMinorUnits(CURRENCY, 0.1 + 0.2));
+        assertEquals(-5, Money.toMinorUnits(CURRENCY, -0.049));
+        assertEquals(12.34, Money.toAmount(CURRENCY, 1234));
+        assertEquals(0.3, Money.round(CURRENCY, 0.1 + 0.2));
+    }
+
+    @Test
+    public void test_Arithmetic_Does_Not_Drift() {
+        double sum = 0;
+        for (int i = 0; i < 10; i++) {
+            sum = Money.add(CURRENCY, sum, 0.1);
+        }
+        assertEquals(1.0, sum);
+        assertEquals(0, Money.compare(CURRENCY, 0.1 + 0.2, 0.3));
+        assertTrue(Money.compare(CURRENCY, 0.3, 0.31) < 0);
+    }
+
+    @Test
+    public void test_Out_Of_Range_Amounts_Throw() {
+        assertFalse(Money.isValid(CURRENCY, Double.NaN));
+        assertFalse(Money.isValid(CURRENCY, Double.POSITIVE_INFINITY));
+        assertFalse(Money.isValid(CURRENCY, 1e17));
+        assertTrue(Money.isValid(CURRENCY, 1e15));
+        assertThrows(ArithmeticException.class, () -> Money.toMinorUnits(CURRENCY, Double.NaN));
+        assertThrows(ArithmeticException.class, () -> Money.toMinorUnits(CURRENCY, 1e17));
+        assertThrows(ArithmeticException.class, () -> Money.add(CURRENCY, 9e16, 9e16));
+    }
+}
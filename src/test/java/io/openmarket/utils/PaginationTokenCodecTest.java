@@ -0,0 +1,108 @@
+package io.openmarket.utils;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.gson.Gson;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PaginationTokenCodecTest {
+    private static final Map<String, AttributeValue> KEY = ImmutableMap.of(
+            "TransactionId", new AttributeValue("f3b0c442-98fc-1c14-9afb-f4c8996fb924"),
+            "PayerId", new AttributeValue("alice"),
+            "CreatedAt", new AttributeValue().withN("1602979200000"));
+    private static final byte[] SECRET = "secret".getBytes(StandardCharsets.UTF_8);
+
+    @Test
+    public void test_Round_Trip_Without_Schema() {
+        PaginationTokenCodec codec = new PaginationTokenCodec();
+        assertEquals(Optional.of(KEY), codec.decode(codec.encode(KEY)));
+    }
+
+    @Test
+    public void test_Schema_Token_Is_Smaller_Than_Gson() {
+        PaginationTokenCodec codec = new PaginationTokenCodec(ImmutableList.of(
+                ImmutableList.of("CreatedAt", "PayerId", "RecipientId", "TransactionId")), null);
+        String token = codec.encode(KEY);
+
+        assertEquals(Optional.of(KEY), codec.decode(token));
+        assertTrue(token.length() < new PaginationTokenCodec().encode(KEY).length());
+        assertTrue(token.length() < new Gson().toJson(KEY).length());
+    }
+
+    @Test
+    public void test_Binary_Values_Round_Trip() {
+        PaginationTokenCodec codec = new PaginationTokenCodec();
+        Map<String, AttributeValue> key = ImmutableMap.of("Id",
+                new AttributeValue().withB(ByteBuffer.wrap(new byte[] {1, 2, 3})));
+        assertEquals(Optional.of(key), codec.decode(codec.encode(key)));
+    }
+
+    @Test
+    public void test_Empty_Key_Is_Empty_Token() {
+        PaginationTokenCodec codec = new PaginationTokenCodec();
+        assertEquals("", codec.encode(null));
+        assertEquals("", codec.encode(ImmutableMap.of()));
+        assertEquals(Optional.empty(), codec.decode(""));
+    }
+
+    @Test
+    public void test_Signed_Token_Round_Trip() {
+        PaginationTokenCodec codec = new PaginationTokenCodec(ImmutableList.of(), SECRET);
+        assertEquals(Optional.of(KEY), codec.decode(codec.encode(KEY)));
+    }
+
+    @Test
+    public void test_Tampered_Signed_Token_Throws() {
+        PaginationTokenCodec codec = new PaginationTokenCodec(ImmutableList.of(), SECRET);
+        String unsigned = new PaginationTokenCodec().encode(ImmutableMap.of("PayerId", new AttributeValue("bob")));
+        String signed = codec.encode(KEY);
+
+        assertThrows(IllegalArgumentException.class, () -> codec.decode(unsigned));
+        assertThrows(IllegalArgumentException.class, () -> codec.decode(new Gson().toJson(KEY)));
+        assertThrows(IllegalArgumentException.class, () -> codec.decode(
+                (signed.charAt(0) == 'A' ? "B" : "A") + signed.substring(1)));
+    }
+
+    @Test
+    public void test_Decodes_Legacy_Gson_Token() {
+        assertEquals(Optional.of(KEY), new PaginationTokenCodec().decode(new Gson().toJson(KEY)));
+        assertEquals(Optional.empty(), new PaginationTokenCodec().decode("null"));
+    }
+
+    @Test
+    public void test_Cursors_Round_Trip() {
+        PaginationTokenCodec codec = new PaginationTokenCodec(ImmutableList.of(), SECRET);
+        List<PaginationTokenCodec.Cursor> cursors = Arrays.asList(new PaginationTokenCodec.Cursor(KEY, 3), null,
+                new PaginationTokenCodec.Cursor(null, 1));
+        assertEquals(cursors, codec.decodeCursors(codec.encodeCursors(cursors)));
+    }
+
+    @Test
+    public void test_Tampered_Cursor_Token_Throws() {
+        PaginationTokenCodec codec = new PaginationTokenCodec(ImmutableList.of(), SECRET);
+        String signed = codec.encodeCursors(ImmutableList.of(new PaginationTokenCodec.Cursor(KEY, 3)));
+
+        assertThrows(IllegalArgumentException.class, () -> codec.decodeCursors(
+                (signed.charAt(0) == 'A' ? "B" : "A") + signed.substring(1)));
+        assertThrows(IllegalArgumentException.class, () -> codec.decodeCursors(codec.encode(KEY)));
+        assertThrows(IllegalArgumentException.class, () -> codec.decode(signed));
+    }
+
+    @Test
+    public void test_Malformed_Token_Throws() {
+        PaginationTokenCodec codec = new PaginationTokenCodec();
+        assertThrows(IllegalArgumentException.class, () -> codec.decode("not a token!"));
+        assertThrows(IllegalArgumentException.class, () -> codec.decode("AQ"));
+        assertThrows(IllegalArgumentException.class, () -> codec.decode("{broken"));
+    }
+}